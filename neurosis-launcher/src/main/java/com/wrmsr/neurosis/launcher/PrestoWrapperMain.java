@@ -20,9 +20,13 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
 import com.wrmsr.neurosis.launcher.util.JvmConfiguration;
 import com.wrmsr.neurosis.util.Repositories;
+import com.wrmsr.neurosis.launcher.util.ClassLoadingProfile;
 import com.wrmsr.neurosis.launcher.util.DaemonProcess;
+import com.wrmsr.neurosis.launcher.util.InstrumentedURLClassLoader;
 import com.wrmsr.neurosis.launcher.util.POSIXUtils;
 import com.wrmsr.neurosis.launcher.util.ParentLastURLClassLoader;
+import com.wrmsr.neurosis.launcher.util.RecordingURLClassLoader;
+import com.wrmsr.neurosis.launcher.util.SharedClassArchive;
 import io.airlift.airline.*;
 import io.airlift.resolver.ArtifactResolver;
 import jnr.posix.POSIX;
@@ -35,8 +39,8 @@ import java.lang.management.RuntimeMXBean;
 import java.lang.reflect.Method;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.net.URLClassLoader;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
@@ -92,6 +96,8 @@ hdfs
 
 public class PrestoWrapperMain
 {
+    public static final String SERVER_CLASS_NAME = "com.wrmsr.neurosis.server.NeurosisServer";
+
     private PrestoWrapperMain()
     {
     }
@@ -118,6 +124,7 @@ public class PrestoWrapperMain
                         Restart.class,
                         Status.class,
                         Kill.class,
+                        Cds.class,
                         CliCommand.class,
                         Hive.class,
                         Hdfs.class
@@ -140,10 +147,12 @@ public class PrestoWrapperMain
             }
             return classloaderUrls;
         }
+
         @Override
         public void run()
         {
-            runStaticMethod(getClassloaderUrls(), "com.facebook.neurosis.server.PrestoServer", "main", new Class<?>[]{String[].class}, new Object[]{new String[]{}});
+            ClassLoadingProfile profile = ClassLoadingProfile.isEnabled() ? ClassLoadingProfile.forModule("neurosis-main") : null;
+            runStaticMethod(getClassloaderUrls(), SERVER_CLASS_NAME, "main", new Class<?>[]{String[].class}, new Object[]{new String[]{}}, profile);
         }
     }
 
@@ -249,30 +258,78 @@ public class PrestoWrapperMain
         @Option(name = {"-D"}, description = "Sets system property")
         public List<String> systemProperties = newArrayList();
 
-        public String[] getExecArgs()
+        public static final List<String> DEFAULT_PROPERTY_KEYS = ImmutableList.of(
+                "plugin.preloaded",
+                "node.environment",
+                "node.id",
+                "neurosis.version",
+                "node.coordinator");
+
+        public static String getJavaPath()
         {
             String java = System.getProperties().getProperty("java.home") + File.separator + "bin" + File.separator + "java";
             checkState(new File(java).exists());
-            String jar;
+            return java;
+        }
+
+        public static File getLauncherJar()
+        {
+            File jar;
             try {
-                jar = new File(PrestoWrapperMain.class.getProtectionDomain().getCodeSource().getLocation().toURI().getPath()).getAbsolutePath();
+                jar = new File(PrestoWrapperMain.class.getProtectionDomain().getCodeSource().getLocation().toURI().getPath()).getAbsoluteFile();
             }
             catch (Exception e) {
                 throw Throwables.propagate(e);
             }
-            checkState(new File(jar).exists());
+            checkState(jar.exists());
+            return jar;
+        }
+
+        public String[] getExecArgs()
+        {
+            if (SharedClassArchive.isEnabled()) {
+                SharedClassArchive archive = SharedClassArchive.forModule("neurosis-main");
+                if (archive.isValid(getLauncherJar())) {
+                    return getExecArgs(archive.getRuntimeArgs(), archive.getClasspath());
+                }
+            }
+            return getExecArgs(ImmutableList.of(), null);
+        }
+
+        /**
+         * With a null classpath the launcher jar is run directly and launches the module in its own class loader.
+         * Otherwise the server is run straight off the given module classpath, which the shared class archive only
+         * applies to as the system classpath. The launcher is left off it so that, as with a launch from the jar, none
+         * of the launcher's dependencies are visible to the server.
+         */
+        public String[] getExecArgs(List<String> jvmArgs, String classpath)
+        {
             List<String> argv = newArrayList();
             // FIXME repo path + deleteOnExit
-            argv.add(java);
+            argv.add(getJavaPath());
+            argv.addAll(jvmArgs);
+            for (String key : DEFAULT_PROPERTY_KEYS) {
+                String value = System.getProperty(key);
+                if (value != null) {
+                    argv.add("-D" + key + "=" + value);
+                }
+            }
             for (String s : systemProperties) {
                 argv.add("-D" + s);
             }
             if (Strings.isNullOrEmpty(Repositories.getRepositoryPath())) {
                 argv.add("-D" + Repositories.REPOSITORY_PATH_PROPERTY_KEY + "=" + Repositories.getRepositoryPath());
             }
-            argv.add("-jar");
-            argv.add(jar);
-            argv.add("launch");
+            if (classpath != null) {
+                argv.add("-cp");
+                argv.add(classpath);
+                argv.add(SERVER_CLASS_NAME);
+            }
+            else {
+                argv.add("-jar");
+                argv.add(getLauncherJar().getAbsolutePath());
+                argv.add("launch");
+            }
             return argv.toArray(new String[argv.size()]);
         }
 
@@ -283,9 +340,8 @@ public class PrestoWrapperMain
             posix.libc().execv(args[0], args);
         }
 
-        public void launch()
+        public void setDefaultSystemProperties()
         {
-            Launch launch = reexec ? null : new Launch();
             if (Strings.isNullOrEmpty(System.getProperty("plugin.preloaded"))) {
                 System.setProperty("plugin.preloaded",  "|neurosis-main");
             }
@@ -301,6 +357,12 @@ public class PrestoWrapperMain
             if (Strings.isNullOrEmpty(System.getProperty("node.coordinator"))) {
                 System.setProperty("node.coordinator", "true");
             }
+        }
+
+        public void launch()
+        {
+            Launch launch = reexec ? null : new Launch();
+            setDefaultSystemProperties();
             if (Strings.isNullOrEmpty(Repositories.getRepositoryPath())) {
                 if (launch != null) {
                     launch.getClassloaderUrls();
@@ -394,6 +456,44 @@ public class PrestoWrapperMain
         }
     }
 
+    @Command(name = "cds", description = "Builds a shared class data archive for neurosis server, used when wrmsr.launcher.cds.enabled is set")
+    public static class Cds extends ServerCommand
+    {
+        @Option(name = {"--training-seconds"}, description = "How long to run the server while collecting the classes it loads")
+        public long trainingSeconds = 60;
+
+        @Override
+        public void innerRun() throws Throwable
+        {
+            checkState(SharedClassArchive.isSupported(), "jvm does not support application class data sharing");
+            checkState(!Strings.isNullOrEmpty(Repositories.getRepositoryPath()), "shared class archives can only be built from a launcher jar");
+            File jar = getLauncherJar();
+            SharedClassArchive archive = SharedClassArchive.forModule("neurosis-main");
+            setDefaultSystemProperties();
+            deleteRepositoryOnExit();
+
+            String classpath = archive.extractClasspath();
+
+            Process training = new ProcessBuilder(getExecArgs(archive.getTrainingArgs(), classpath)).inheritIO().start();
+            if (training.waitFor(trainingSeconds, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Training run exited early with status " + training.exitValue());
+            }
+            training.destroy();
+            training.waitFor();
+            checkState(archive.getClassListFile().isFile(), "training run wrote no class list");
+
+            List<String> dumpArgs = newArrayList(getJavaPath());
+            dumpArgs.addAll(archive.getDumpArgs());
+            dumpArgs.add("-cp");
+            dumpArgs.add(classpath);
+            int status = new ProcessBuilder(dumpArgs).inheritIO().start().waitFor();
+            checkState(status == 0, "shared class archive dump failed with status %s", status);
+
+            archive.writeDigest(jar);
+            System.out.println(archive.getArchiveFile());
+        }
+    }
+
     @Command(name = "kill", description = "Kills neurosis server")
     public static class Kill extends DaemonCommand
     {
@@ -454,17 +554,41 @@ public class PrestoWrapperMain
 
     public static ClassLoader constructModuleClassloader(String name)
     {
-        return new ParentLastURLClassLoader(resolveModuleClassloaderUrls(name));
+        ParentLastURLClassLoader cl = new ParentLastURLClassLoader(resolveModuleClassloaderUrls(name));
+        cl.enableMetrics();
+        return cl;
     }
 
     public static void runStaticMethod(List<URL> urls, String className, String methodName, Class<?>[] parameterTypes, Object[] args)
+    {
+        runStaticMethod(urls, className, methodName, parameterTypes, args, null);
+    }
+
+    public static void runStaticMethod(List<URL> urls, String className, String methodName, Class<?>[] parameterTypes, Object[] args, ClassLoadingProfile profile)
+    {
+        ClassLoader parent = Thread.currentThread().getContextClassLoader().getParent();
+        InstrumentedURLClassLoader cl;
+        if (profile != null) {
+            RecordingURLClassLoader rcl = new RecordingURLClassLoader(urls, parent);
+            rcl.enableMetrics();
+            profile.preload(rcl);
+            profile.record(rcl);
+            cl = rcl;
+        }
+        else {
+            cl = new InstrumentedURLClassLoader(urls, parent);
+            cl.enableMetrics();
+        }
+        runStaticMethod(cl, className, methodName, parameterTypes, args);
+    }
+
+    public static void runStaticMethod(ClassLoader cl, String className, String methodName, Class<?>[] parameterTypes, Object[] args)
     {
         Thread t = new Thread() {
             @Override
             public void run()
             {
                 try {
-                    ClassLoader cl = new URLClassLoader(urls.toArray(new URL[urls.size()]), getContextClassLoader().getParent());
                     Thread.currentThread().setContextClassLoader(cl);
                     Class cls = cl.loadClass(className);
                     Method main = cls.getMethod(methodName, parameterTypes);
@@ -0,0 +1,362 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.launcher.util;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.wrmsr.neurosis.util.Serialization;
+import io.airlift.log.Logger;
+import org.xeustechnologies.jcl.ClassLoadListener;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Per-classloader loading counters, kept only for the loaders that ask for them. Every instance is registered as an
+ * MXBean on the platform MBean server, so the numbers are visible from whatever gets launched in this JVM, and optionally
+ * dumped as JSON at shutdown. Loaders are only referenced weakly, and their metrics are unregistered when they are closed
+ * or collected, so short-lived loaders do not accumulate.
+ * <p>
+ * Find times cover reading a class from the loader's own classpath as well as defining it, as URLClassLoader does both
+ * in one step.
+ */
+public class ClassLoaderMetrics
+        implements ClassLoaderMetricsMXBean, ClassLoadListener
+{
+    private static final Logger log = Logger.get(ClassLoaderMetrics.class);
+
+    public static final String OBJECT_NAME_DOMAIN = "com.wrmsr.neurosis.launcher";
+    public static final String OBJECT_NAME_TYPE = "ClassLoaderMetrics";
+
+    public static final String REPORT_PATH_PROPERTY_KEY = "wrmsr.launcher.class-loading-report";
+
+    private static final List<ClassLoaderMetrics> instances = new CopyOnWriteArrayList<>();
+    private static final AtomicBoolean reportHookInstalled = new AtomicBoolean();
+
+    private static final Set<LoaderReference> loaders = ConcurrentHashMap.newKeySet();
+    private static final ReferenceQueue<ClassLoader> collectedLoaders = new ReferenceQueue<>();
+    private static final AtomicBoolean cleanerStarted = new AtomicBoolean();
+
+    private static final class LoaderReference
+            extends WeakReference<ClassLoader>
+    {
+        private final ClassLoaderMetrics metrics;
+
+        private LoaderReference(ClassLoader classLoader, ClassLoaderMetrics metrics)
+        {
+            super(classLoader, collectedLoaders);
+            this.metrics = metrics;
+        }
+    }
+
+    private final String name;
+    private final AtomicBoolean registered = new AtomicBoolean(true);
+    private volatile LoaderReference loaderReference;
+
+    private final LongAdder classesLoaded = new LongAdder();
+    private final LongAdder bytesDefined = new LongAdder();
+    private final LongAdder findNanos = new LongAdder();
+    private final LongAdder delegationMisses = new LongAdder();
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder lookupFailures = new LongAdder();
+    private final LongAdder lookupNanos = new LongAdder();
+
+    private final ConcurrentMap<String, Counter> packages = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Counter> sources = new ConcurrentHashMap<>();
+
+    private ClassLoaderMetrics(String name)
+    {
+        this.name = requireNonNull(name);
+    }
+
+    /**
+     * Registers metrics for the given loader. The loader is not retained.
+     */
+    public static ClassLoaderMetrics register(ClassLoader classLoader)
+    {
+        String name = classLoader.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(classLoader));
+        ClassLoaderMetrics metrics = new ClassLoaderMetrics(name);
+        metrics.loaderReference = new LoaderReference(classLoader, metrics);
+        loaders.add(metrics.loaderReference);
+        instances.add(metrics);
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, metrics.getObjectName());
+        }
+        catch (JMException e) {
+            log.warn(e, "Failed to register class loader metrics for %s", name);
+        }
+        startCleaner();
+        installReportHook();
+        return metrics;
+    }
+
+    /**
+     * Removes the metrics from the MBean server and the shutdown report. Called when the loader is closed, and for
+     * loaders that are never closed, once they have been collected.
+     */
+    public void unregister()
+    {
+        if (!registered.compareAndSet(true, false)) {
+            return;
+        }
+        instances.remove(this);
+        LoaderReference reference = loaderReference;
+        if (reference != null) {
+            loaders.remove(reference);
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(getObjectName());
+        }
+        catch (JMException e) {
+            log.debug(e, "Failed to unregister class loader metrics for %s", name);
+        }
+    }
+
+    private static void startCleaner()
+    {
+        if (!cleanerStarted.compareAndSet(false, true)) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            while (true) {
+                try {
+                    ((LoaderReference) collectedLoaders.remove()).metrics.unregister();
+                }
+                catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "class-loader-metrics-cleaner");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Metrics of the loaders that are still registered.
+     */
+    public static List<ClassLoaderMetrics> getInstances()
+    {
+        return instances;
+    }
+
+    public ObjectName getObjectName()
+            throws JMException
+    {
+        return new ObjectName(OBJECT_NAME_DOMAIN + ":type=" + OBJECT_NAME_TYPE + ",name=" + ObjectName.quote(name));
+    }
+
+    @Override
+    public void recordFind(String className, String source, long bytes, long nanos)
+    {
+        classesLoaded.increment();
+        findNanos.add(nanos);
+        if (bytes > 0) {
+            bytesDefined.add(bytes);
+        }
+
+        int lastDot = className.lastIndexOf('.');
+        String packageName = lastDot >= 0 ? className.substring(0, lastDot) : "";
+        packages.computeIfAbsent(packageName, Counter.FACTORY).record(bytes, nanos);
+        sources.computeIfAbsent(source != null ? source : "", Counter.FACTORY).record(bytes, nanos);
+    }
+
+    @Override
+    public void recordDelegationMiss()
+    {
+        delegationMisses.increment();
+    }
+
+    @Override
+    public void recordLookup(long nanos, boolean found)
+    {
+        lookups.increment();
+        lookupNanos.add(nanos);
+        if (!found) {
+            lookupFailures.increment();
+        }
+    }
+
+    @JsonProperty
+    @Override
+    public String getName()
+    {
+        return name;
+    }
+
+    @JsonProperty
+    @Override
+    public long getClassesLoaded()
+    {
+        return classesLoaded.sum();
+    }
+
+    @JsonProperty
+    @Override
+    public long getBytesDefined()
+    {
+        return bytesDefined.sum();
+    }
+
+    @JsonProperty
+    @Override
+    public long getFindMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(findNanos.sum());
+    }
+
+    @JsonProperty
+    @Override
+    public long getDelegationMisses()
+    {
+        return delegationMisses.sum();
+    }
+
+    @JsonProperty
+    @Override
+    public long getLookups()
+    {
+        return lookups.sum();
+    }
+
+    @JsonProperty
+    @Override
+    public long getLookupFailures()
+    {
+        return lookupFailures.sum();
+    }
+
+    @JsonProperty
+    @Override
+    public long getLookupMillis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(lookupNanos.sum());
+    }
+
+    @Override
+    public Map<String, Long> getFindMillisByPackage()
+    {
+        return findMillis(packages);
+    }
+
+    @Override
+    public Map<String, Long> getFindMillisBySource()
+    {
+        return findMillis(sources);
+    }
+
+    @JsonProperty
+    public Map<String, Counter> getPackages()
+    {
+        return ImmutableSortedMap.copyOf(packages);
+    }
+
+    @JsonProperty
+    public Map<String, Counter> getSources()
+    {
+        return ImmutableSortedMap.copyOf(sources);
+    }
+
+    private static Map<String, Long> findMillis(Map<String, Counter> counters)
+    {
+        // MXBeans can only expose SortedMaps without a comparator, so order the keys up front instead
+        Map<String, Long> millis = new TreeMap<>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            millis.put(entry.getKey(), entry.getValue().getFindMillis());
+        }
+        return ImmutableMap.copyOf(millis);
+    }
+
+    public static void writeReport(File file)
+            throws IOException
+    {
+        Serialization.JSON_OBJECT_MAPPER.get().writerWithDefaultPrettyPrinter().writeValue(file, ImmutableMap.of("loaders", instances));
+    }
+
+    private static void installReportHook()
+    {
+        String path = System.getProperty(REPORT_PATH_PROPERTY_KEY);
+        if (path == null || path.isEmpty() || !reportHookInstalled.compareAndSet(false, true)) {
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    writeReport(new File(path));
+                }
+                catch (IOException e) {
+                    log.error(e, "Failed to write class loading report to %s", path);
+                }
+            }
+        });
+    }
+
+    public static final class Counter
+    {
+        private static final Function<String, Counter> FACTORY = key -> new Counter();
+
+        private final LongAdder classes = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        private void record(long bytes, long nanos)
+        {
+            classes.increment();
+            if (bytes > 0) {
+                this.bytes.add(bytes);
+            }
+            this.nanos.add(nanos);
+        }
+
+        @JsonProperty
+        public long getClasses()
+        {
+            return classes.sum();
+        }
+
+        @JsonProperty
+        public long getBytes()
+        {
+            return bytes.sum();
+        }
+
+        @JsonProperty
+        public long getFindMillis()
+        {
+            return TimeUnit.NANOSECONDS.toMillis(nanos.sum());
+        }
+    }
+}
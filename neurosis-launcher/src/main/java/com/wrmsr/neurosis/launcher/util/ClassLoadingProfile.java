@@ -0,0 +1,208 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.launcher.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.airlift.log.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Ordered list of the classes a module loads during startup and its first seconds of serving. A launch replays the
+ * previous run's profile into the module's class loader on a background pool, so that most classes are already loaded
+ * and linked by the time the main thread asks for them, and records a fresh profile for the next run. Off unless
+ * wrmsr.launcher.class-profile.enabled is set.
+ */
+public class ClassLoadingProfile
+{
+    private static final Logger log = Logger.get(ClassLoadingProfile.class);
+
+    public static final String ENABLED_PROPERTY_KEY = "wrmsr.launcher.class-profile.enabled";
+    public static final String PATH_PROPERTY_KEY = "wrmsr.launcher.class-profile.path";
+    public static final String RECORD_SECONDS_PROPERTY_KEY = "wrmsr.launcher.class-profile.record-seconds";
+    public static final String PRELOAD_THREADS_PROPERTY_KEY = "wrmsr.launcher.class-profile.preload-threads";
+    public static final String DATA_DIR_PROPERTY_KEY = "node.data-dir";
+
+    public static final long DEFAULT_RECORD_SECONDS = 60;
+
+    private final File file;
+
+    // classes replayed into the loader, which it will not be asked for again and so cannot record
+    private final Set<String> preloaded = ConcurrentHashMap.newKeySet();
+    private volatile List<String> replayed = ImmutableList.of();
+
+    public ClassLoadingProfile(File file)
+    {
+        this.file = requireNonNull(file);
+    }
+
+    public static boolean isEnabled()
+    {
+        return Boolean.getBoolean(ENABLED_PROPERTY_KEY);
+    }
+
+    /**
+     * The profile is kept at the configured path, or otherwise in the node's data directory.
+     *
+     * @return null if neither is configured
+     */
+    public static ClassLoadingProfile forModule(String moduleName)
+    {
+        String path = System.getProperty(PATH_PROPERTY_KEY);
+        if (!isNullOrEmpty(path)) {
+            return new ClassLoadingProfile(new File(path));
+        }
+        String dataDir = System.getProperty(DATA_DIR_PROPERTY_KEY);
+        if (!isNullOrEmpty(dataDir)) {
+            return new ClassLoadingProfile(new File(dataDir, moduleName + ".class-profile"));
+        }
+        log.warn("Neither %s nor %s is set, not profiling class loading", PATH_PROPERTY_KEY, DATA_DIR_PROPERTY_KEY);
+        return null;
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    public List<String> read()
+    {
+        if (!file.isFile()) {
+            return ImmutableList.of();
+        }
+        try {
+            return ImmutableList.copyOf(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8));
+        }
+        catch (IOException e) {
+            log.warn(e, "Failed to read class profile %s", file);
+            return ImmutableList.of();
+        }
+    }
+
+    public void write(List<String> classNames)
+            throws IOException
+    {
+        File tmp = new File(file.getPath() + ".tmp");
+        Files.write(tmp.toPath(), classNames, StandardCharsets.UTF_8);
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads and links the profiled classes on a daemon pool. Threads stride through the list so that classes needed
+     * earliest are preloaded first.
+     */
+    public void preload(RecordingURLClassLoader classLoader)
+    {
+        List<String> classNames = read();
+        if (classNames.isEmpty()) {
+            return;
+        }
+        replayed = classNames;
+
+        int threads = Integer.getInteger(PRELOAD_THREADS_PROPERTY_KEY, Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)));
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("class-preloader-%s")
+                .build());
+
+        long start = System.nanoTime();
+        AtomicInteger remaining = new AtomicInteger(threads);
+        AtomicInteger failures = new AtomicInteger();
+        for (int i = 0; i < threads; i++) {
+            int offset = i;
+            executor.execute(() -> {
+                for (int j = offset; j < classNames.size(); j += threads) {
+                    if (classLoader.preload(classNames.get(j))) {
+                        preloaded.add(classNames.get(j));
+                    }
+                    else {
+                        failures.incrementAndGet();
+                    }
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    log.info("Preloaded %s classes from %s in %sms (%s failed)",
+                            classNames.size(), file, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), failures.get());
+                }
+            });
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Writes the classes requested from the loader during the given window once it has passed. The JVM resolves classes
+     * the loader has already loaded without asking it again, so the replayed classes that loaded are carried over in
+     * their previous order, followed by the classes first requested in this run. Replayed classes that no longer load
+     * are dropped.
+     */
+    public void record(RecordingURLClassLoader classLoader, long seconds)
+    {
+        Thread thread = new Thread("class-profile-recorder")
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                List<String> classNames = merge(classLoader.stopRecording());
+                try {
+                    write(classNames);
+                    log.info("Recorded %s classes to %s", classNames.size(), file);
+                }
+                catch (IOException e) {
+                    log.warn(e, "Failed to write class profile %s", file);
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private List<String> merge(List<String> recorded)
+    {
+        Set<String> classNames = new LinkedHashSet<>();
+        for (String className : replayed) {
+            if (preloaded.contains(className)) {
+                classNames.add(className);
+            }
+        }
+        classNames.addAll(recorded);
+        return ImmutableList.copyOf(classNames);
+    }
+
+    public void record(RecordingURLClassLoader classLoader)
+    {
+        record(classLoader, Long.getLong(RECORD_SECONDS_PROPERTY_KEY, DEFAULT_RECORD_SECONDS));
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.launcher.util;
+
+import org.xeustechnologies.jcl.ClassLoadListener;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.util.List;
+
+/**
+ * Standard parent-first URLClassLoader that reports into {@link ClassLoaderMetrics} once they are enabled.
+ */
+public class InstrumentedURLClassLoader
+        extends URLClassLoader
+{
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    private volatile ClassLoadListener listener = ClassLoadListener.NONE;
+    // guarded by this
+    private ClassLoaderMetrics metrics;
+
+    public InstrumentedURLClassLoader(List<URL> classpath, ClassLoader parent)
+    {
+        super(classpath.toArray(new URL[classpath.size()]), parent);
+    }
+
+    /**
+     * Registers metrics for this loader if that has not been done yet, and returns them.
+     */
+    public synchronized ClassLoaderMetrics enableMetrics()
+    {
+        if (metrics == null) {
+            metrics = ClassLoaderMetrics.register(this);
+            listener = metrics;
+        }
+        return metrics;
+    }
+
+    /**
+     * @return this loader's metrics, or null if they have not been enabled
+     */
+    public synchronized ClassLoaderMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        try {
+            super.close();
+        }
+        finally {
+            synchronized (this) {
+                if (metrics != null) {
+                    metrics.unregister();
+                }
+            }
+        }
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve)
+            throws ClassNotFoundException
+    {
+        long start = System.nanoTime();
+        boolean found = false;
+        try {
+            Class<?> cls = super.loadClass(name, resolve);
+            found = true;
+            return cls;
+        }
+        finally {
+            listener.recordLookup(System.nanoTime() - start, found);
+        }
+    }
+
+    @Override
+    protected Class<?> findClass(String name)
+            throws ClassNotFoundException
+    {
+        // only reached after the parent failed to load the class
+        ClassLoadListener listener = this.listener;
+        listener.recordDelegationMiss();
+        long start = System.nanoTime();
+        Class<?> cls = super.findClass(name);
+        // URLClassLoader reads the class bytes internally, so only the time is known
+        listener.recordFind(name, getSource(cls), -1, System.nanoTime() - start);
+        return cls;
+    }
+
+    static String getSource(Class<?> cls)
+    {
+        CodeSource codeSource = cls.getProtectionDomain().getCodeSource();
+        return codeSource != null && codeSource.getLocation() != null ? codeSource.getLocation().toString() : null;
+    }
+}
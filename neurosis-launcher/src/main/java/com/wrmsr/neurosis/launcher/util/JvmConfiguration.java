@@ -511,6 +511,12 @@ public class JvmConfiguration
     public static final ToggleItem USE_COMPRESSED_OOPS = new ToggleItem(Prefix.UNSTABLE, "UseCompressedOops");
     public static final StringItem OBJECT_ALIGNMENT_IN_BYTES = new StringItem(Prefix.UNSTABLE, "ObjectAlignmentInBytes", Separator.EQUALS);
     public static final ToggleItem ALWAYS_PRE_TOUCH = new ToggleItem(Prefix.UNSTABLE, "AlwaysPreTouch");
+    public static final StringItem SHARE = new StringItem(Prefix.NONSTANDARD, "share", Separator.COLON);
+    public static final ToggleItem UNLOCK_COMMERCIAL_FEATURES = new ToggleItem(Prefix.UNSTABLE, "UnlockCommercialFeatures");
+    public static final ToggleItem USE_APP_CDS = new ToggleItem(Prefix.UNSTABLE, "UseAppCDS");
+    public static final StringItem SHARED_ARCHIVE_FILE = new StringItem(Prefix.UNSTABLE, "SharedArchiveFile", Separator.EQUALS);
+    public static final StringItem SHARED_CLASS_LIST_FILE = new StringItem(Prefix.UNSTABLE, "SharedClassListFile", Separator.EQUALS);
+    public static final StringItem DUMP_LOADED_CLASS_LIST = new StringItem(Prefix.UNSTABLE, "DumpLoadedClassList", Separator.EQUALS);
 
     public static final class RemoteDebugItem extends StringItem
     {
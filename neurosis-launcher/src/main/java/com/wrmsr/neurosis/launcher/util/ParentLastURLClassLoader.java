@@ -13,6 +13,10 @@
  */
 package com.wrmsr.neurosis.launcher.util;
 
+import org.xeustechnologies.jcl.ClassLoadListener;
+
+import java.io.Closeable;
+import java.io.IOException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.List;
@@ -21,14 +25,39 @@ import java.util.List;
  * Created by wtimoney on 5/22/15.
  */
 public class ParentLastURLClassLoader extends ClassLoader
+        implements Closeable
 {
     private ChildURLClassLoader childClassLoader;
+    private volatile ClassLoadListener listener = ClassLoadListener.NONE;
+    // guarded by this
+    private ClassLoaderMetrics metrics;
 
     public ChildURLClassLoader getChildClassLoader()
     {
         return childClassLoader;
     }
 
+    /**
+     * Registers metrics for this loader if that has not been done yet, and returns them.
+     */
+    public synchronized ClassLoaderMetrics enableMetrics()
+    {
+        if (metrics == null) {
+            metrics = ClassLoaderMetrics.register(this);
+            listener = metrics;
+            childClassLoader.listener = metrics;
+        }
+        return metrics;
+    }
+
+    /**
+     * @return this loader's metrics, or null if they have not been enabled
+     */
+    public synchronized ClassLoaderMetrics getMetrics()
+    {
+        return metrics;
+    }
+
     /**
      * This class allows me to call findClass on a classloader
      */
@@ -53,6 +82,7 @@ public class ParentLastURLClassLoader extends ClassLoader
     public static class ChildURLClassLoader extends URLClassLoader
     {
         private FindClassClassLoader realParent;
+        private volatile ClassLoadListener listener = ClassLoadListener.NONE;
 
         public ChildURLClassLoader(URL[] urls, FindClassClassLoader realParent)
         {
@@ -71,10 +101,15 @@ public class ParentLastURLClassLoader extends ClassLoader
         {
             try {
                 // first try to use the URLClassLoader findClass
-                return super.findClass(name);
+                long start = System.nanoTime();
+                Class<?> cls = super.findClass(name);
+                // URLClassLoader reads the class bytes internally, so only the time is known
+                listener.recordFind(name, InstrumentedURLClassLoader.getSource(cls), -1, System.nanoTime() - start);
+                return cls;
             }
             catch (ClassNotFoundException e) {
                 // if that fails, we ask our real parent classloader to load the class (we give up)
+                listener.recordDelegationMiss();
                 return realParent.loadClass(name);
             }
         }
@@ -89,16 +124,41 @@ public class ParentLastURLClassLoader extends ClassLoader
         childClassLoader = new ChildURLClassLoader(urls, new FindClassClassLoader(this.getParent()));
     }
 
+    @Override
+    public void close()
+            throws IOException
+    {
+        try {
+            childClassLoader.close();
+        }
+        finally {
+            synchronized (this) {
+                if (metrics != null) {
+                    metrics.unregister();
+                }
+            }
+        }
+    }
+
     @Override
     protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException
     {
+        long start = System.nanoTime();
+        boolean found = false;
         try {
             // first we try to find a class inside the child classloader
-            return childClassLoader.findClass(name);
+            Class<?> cls = childClassLoader.findClass(name);
+            found = true;
+            return cls;
         }
         catch (ClassNotFoundException e) {
             // didn't find it, try the parent
-            return super.loadClass(name, resolve);
+            Class<?> cls = super.loadClass(name, resolve);
+            found = true;
+            return cls;
+        }
+        finally {
+            listener.recordLookup(System.nanoTime() - start, found);
         }
     }
 }
@@ -0,0 +1,102 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.launcher.util;
+
+import com.google.common.collect.ImmutableList;
+
+import java.net.URL;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Records the order in which classes are first requested from this loader, and can load and link classes ahead of
+ * time on behalf of other threads. Requests made by preloading threads are not recorded, so a profile replayed into
+ * this loader does not reorder the next recording.
+ */
+public class RecordingURLClassLoader
+        extends InstrumentedURLClassLoader
+{
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
+
+    private static final ThreadLocal<Boolean> preloading = new ThreadLocal<>();
+
+    private final Set<String> seen = ConcurrentHashMap.newKeySet();
+    private final Queue<String> order = new ConcurrentLinkedQueue<>();
+    private volatile boolean recording = true;
+
+    public RecordingURLClassLoader(List<URL> classpath, ClassLoader parent)
+    {
+        super(classpath, parent);
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve)
+            throws ClassNotFoundException
+    {
+        Class<?> cls = super.loadClass(name, resolve);
+        if (recording && cls.getClassLoader() == this && preloading.get() == null && seen.add(name)) {
+            order.add(name);
+        }
+        return cls;
+    }
+
+    /**
+     * Loads and links the named class without initializing it. Linking is not done by resolveClass, which is a no-op
+     * in HotSpot, but by reflecting on the class's constructors, which also loads their parameter types.
+     *
+     * @return false if the class could not be loaded
+     */
+    public boolean preload(String name)
+    {
+        preloading.set(Boolean.TRUE);
+        try {
+            Class<?> cls;
+            try {
+                cls = Class.forName(name, false, this);
+            }
+            catch (ClassNotFoundException | LinkageError e) {
+                return false;
+            }
+            try {
+                cls.getDeclaredConstructors();
+            }
+            catch (LinkageError | TypeNotPresentException ignored) {
+                // left to fail, or not, when the class is actually used
+            }
+            return true;
+        }
+        finally {
+            preloading.remove();
+        }
+    }
+
+    public boolean isRecording()
+    {
+        return recording;
+    }
+
+    /**
+     * Stops recording and returns the recorded class names in first-request order.
+     */
+    public List<String> stopRecording()
+    {
+        recording = false;
+        return ImmutableList.copyOf(order);
+    }
+}
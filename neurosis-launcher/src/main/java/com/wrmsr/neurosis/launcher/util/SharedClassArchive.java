@@ -0,0 +1,316 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.launcher.util;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.wrmsr.neurosis.util.Repositories;
+import io.airlift.log.Logger;
+import io.airlift.resolver.ArtifactResolver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static com.google.common.base.Strings.isNullOrEmpty;
+import static com.wrmsr.neurosis.util.ImmutableCollectors.toImmutableList;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Shared class data (AppCDS) archive for a module. The module classpath is extracted to a stable directory so the
+ * archive can be mapped at startup, and the archive is keyed by a digest of the extracted jars' contents and the jvm.
+ * The extracted jars must also match the ones the launcher jar carries, so a rebuilt launcher, a modified classpath or
+ * a different jvm falls back to a plain launch until the archive is rebuilt.
+ */
+public class SharedClassArchive
+{
+    private static final Logger log = Logger.get(SharedClassArchive.class);
+
+    public static final String ENABLED_PROPERTY_KEY = "wrmsr.launcher.cds.enabled";
+    public static final String PATH_PROPERTY_KEY = "wrmsr.launcher.cds.path";
+
+    private final String moduleName;
+    private final File directory;
+
+    public SharedClassArchive(String moduleName, File directory)
+    {
+        this.moduleName = requireNonNull(moduleName);
+        this.directory = requireNonNull(directory);
+    }
+
+    public static boolean isEnabled()
+    {
+        return Boolean.getBoolean(ENABLED_PROPERTY_KEY);
+    }
+
+    /**
+     * Application class archives are open from 10, and before that only exist as a commercial feature of Oracle's
+     * builds.
+     */
+    public static boolean isSupported()
+    {
+        if (isLegacyJvm()) {
+            return System.getProperty("java.vm.name", "").startsWith("Java HotSpot");
+        }
+        return true;
+    }
+
+    private static boolean isLegacyJvm()
+    {
+        String version = System.getProperty("java.specification.version");
+        return "1.8".equals(version) || "9".equals(version);
+    }
+
+    /**
+     * Kept next to the repository cache.
+     */
+    public static SharedClassArchive forModule(String moduleName)
+    {
+        String path = System.getProperty(PATH_PROPERTY_KEY);
+        if (!isNullOrEmpty(path)) {
+            return new SharedClassArchive(moduleName, new File(path));
+        }
+        File repository = !isNullOrEmpty(Repositories.getRepositoryPath()) ?
+                new File(Repositories.getRepositoryPath()) : new File(ArtifactResolver.USER_LOCAL_REPO);
+        return new SharedClassArchive(moduleName, new File(repository.getAbsoluteFile().getParentFile(), moduleName + ".cds"));
+    }
+
+    public String getModuleName()
+    {
+        return moduleName;
+    }
+
+    public File getDirectory()
+    {
+        return directory;
+    }
+
+    public File getClasspathDirectory()
+    {
+        return new File(directory, "classpath");
+    }
+
+    public File getClassListFile()
+    {
+        return new File(directory, "classes.lst");
+    }
+
+    public File getArchiveFile()
+    {
+        return new File(directory, "classes.jsa");
+    }
+
+    public File getDigestFile()
+    {
+        return new File(directory, "digest");
+    }
+
+    /**
+     * Returns null if the launcher jar carries no classpath listing for the module, or if the extracted classpath is
+     * missing any jar or differs from the launcher's copy of it.
+     */
+    public String computeDigest(File launcherJar)
+    {
+        List<String> deps;
+        try {
+            deps = readModuleClasspath();
+        }
+        catch (IOException e) {
+            return null;
+        }
+        Hasher hasher = Hashing.sha1().newHasher()
+                .putString(System.getProperty("java.home"), StandardCharsets.UTF_8)
+                .putString(System.getProperty("java.vm.version"), StandardCharsets.UTF_8);
+        try (ZipFile jar = new ZipFile(launcherJar)) {
+            for (String dep : deps) {
+                File file = new File(getClasspathDirectory(), dep);
+                ZipEntry entry = jar.getEntry(dep);
+                if (entry == null || !file.isFile()) {
+                    return null;
+                }
+                long crc = crc32(file);
+                if (crc != entry.getCrc()) {
+                    log.info("Extracted %s differs from the launcher's copy", file);
+                    return null;
+                }
+                hasher.putString(dep, StandardCharsets.UTF_8)
+                        .putLong(file.length())
+                        .putLong(crc);
+            }
+        }
+        catch (IOException e) {
+            log.warn(e, "Failed to compute shared class archive digest for %s", launcherJar);
+            return null;
+        }
+        return hasher.hash().toString();
+    }
+
+    private static long crc32(File file)
+            throws IOException
+    {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[65536];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                crc.update(buffer, 0, n);
+            }
+        }
+        return crc.getValue();
+    }
+
+    public boolean isValid(File launcherJar)
+    {
+        if (!isSupported() || !getArchiveFile().isFile() || !getDigestFile().isFile()) {
+            return false;
+        }
+        String digest = computeDigest(launcherJar);
+        if (digest == null) {
+            return false;
+        }
+        try {
+            String stored = new String(Files.readAllBytes(getDigestFile().toPath()), StandardCharsets.UTF_8).trim();
+            if (!digest.equals(stored)) {
+                log.info("Shared class archive %s is stale, ignoring", getArchiveFile());
+                return false;
+            }
+            return true;
+        }
+        catch (IOException e) {
+            log.warn(e, "Failed to read shared class archive digest %s", getDigestFile());
+            return false;
+        }
+    }
+
+    public void writeDigest(File launcherJar)
+            throws IOException
+    {
+        String digest = computeDigest(launcherJar);
+        if (digest == null) {
+            throw new IOException("Extracted classpath for module " + moduleName + " does not match " + launcherJar);
+        }
+        File tmp = new File(getDigestFile().getPath() + ".tmp");
+        Files.write(tmp.toPath(), digest.getBytes(StandardCharsets.UTF_8));
+        Files.move(tmp.toPath(), getDigestFile().toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Replaces the extracted module classpath and any previous archive, returning the classpath the archive is to be
+     * dumped and used with.
+     */
+    public String extractClasspath()
+            throws IOException
+    {
+        if (directory.exists()) {
+            Repositories.removeRecursive(directory.toPath());
+        }
+        if (!getClasspathDirectory().mkdirs()) {
+            throw new IOException("Could not create shared class archive directory " + getClasspathDirectory());
+        }
+        for (String dep : readModuleClasspath()) {
+            File file = new File(getClasspathDirectory(), dep);
+            file.getParentFile().mkdirs();
+            try (InputStream in = SharedClassArchive.class.getClassLoader().getResourceAsStream(dep)) {
+                if (in == null) {
+                    throw new IOException("Launcher jar is missing " + dep);
+                }
+                Files.copy(in, file.toPath());
+            }
+        }
+        return getClasspath();
+    }
+
+    /**
+     * The module's jars, as listed in the launcher jar.
+     */
+    private List<String> readModuleClasspath()
+            throws IOException
+    {
+        InputStream listing = SharedClassArchive.class.getClassLoader().getResourceAsStream("classpaths/" + moduleName);
+        if (listing == null) {
+            throw new IOException("No classpath listing for module: " + moduleName);
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(listing, StandardCharsets.UTF_8))) {
+            return reader.lines().collect(toImmutableList());
+        }
+    }
+
+    /**
+     * Must be identical between the dump and every run using the archive.
+     */
+    public String getClasspath()
+    {
+        ImmutableList.Builder<String> entries = ImmutableList.builder();
+        try {
+            for (String dep : readModuleClasspath()) {
+                entries.add(new File(getClasspathDirectory(), dep).getAbsolutePath());
+            }
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return Joiner.on(File.pathSeparator).join(entries.build());
+    }
+
+    public List<String> getTrainingArgs()
+    {
+        return ImmutableList.<String>builder()
+                .addAll(getUnlockArgs())
+                .add(JvmConfiguration.DUMP_LOADED_CLASS_LIST.valueOf(getClassListFile().getAbsolutePath()).toString())
+                .build();
+    }
+
+    public List<String> getDumpArgs()
+    {
+        return ImmutableList.<String>builder()
+                .addAll(getUnlockArgs())
+                .add(JvmConfiguration.SHARE.valueOf("dump").toString())
+                .add(JvmConfiguration.SHARED_CLASS_LIST_FILE.valueOf(getClassListFile().getAbsolutePath()).toString())
+                .add(JvmConfiguration.SHARED_ARCHIVE_FILE.valueOf(getArchiveFile().getAbsolutePath()).toString())
+                .build();
+    }
+
+    public List<String> getRuntimeArgs()
+    {
+        return ImmutableList.<String>builder()
+                .addAll(getUnlockArgs())
+                .add(JvmConfiguration.SHARE.valueOf("auto").toString())
+                .add(JvmConfiguration.SHARED_ARCHIVE_FILE.valueOf(getArchiveFile().getAbsolutePath()).toString())
+                .build();
+    }
+
+    private static List<String> getUnlockArgs()
+    {
+        // application classes need UseAppCDS before 11, which is a commercial feature before 10
+        if (isLegacyJvm()) {
+            return ImmutableList.of(
+                    JvmConfiguration.UNLOCK_COMMERCIAL_FEATURES.valueOf(true).toString(),
+                    JvmConfiguration.USE_APP_CDS.valueOf(true).toString());
+        }
+        else if ("10".equals(System.getProperty("java.specification.version"))) {
+            return ImmutableList.of(JvmConfiguration.USE_APP_CDS.valueOf(true).toString());
+        }
+        return ImmutableList.of();
+    }
+}
@@ -48,6 +48,8 @@ public abstract class AbstractClassLoader extends ClassLoader {
 	private final ProxyClassLoader threadLoader = new ThreadContextLoader();
 	private final ProxyClassLoader osgiBootLoader = new OsgiBootLoader();
 
+	private volatile ClassLoadListener listener = ClassLoadListener.NONE;
+
 	/**
 	 * Build a new instance of AbstractClassLoader.java.
 	 * @param parent parent class loader
@@ -98,6 +100,9 @@ public abstract class AbstractClassLoader extends ClassLoader {
 		if (className == null || className.trim().equals(""))
 			return null;
 
+		ClassLoadListener listener = this.listener;
+		long start = System.nanoTime();
+
 		Collections.sort(loaders);
 
 		Class clazz = null;
@@ -108,15 +113,21 @@ public abstract class AbstractClassLoader extends ClassLoader {
 		}
 
 		if (clazz == null) {
+			boolean first = true;
 			for (ProxyClassLoader l : loaders) {
 				if (l.isEnabled()) {
 					clazz = l.loadClass(className, resolveIt);
 					if (clazz != null)
 						break;
+					if (first)
+						listener.recordDelegationMiss();
+					first = false;
 				}
 			}
 		}
 
+		listener.recordLookup(System.nanoTime() - start, clazz != null);
+
 		if (clazz == null)
 			throw new ClassNotFoundException(className);
 
@@ -556,4 +567,20 @@ public abstract class AbstractClassLoader extends ClassLoader {
 	public ProxyClassLoader getOsgiBootLoader() {
 		return osgiBootLoader;
 	}
+
+	public ClassLoadListener getClassLoadListener() {
+		return listener;
+	}
+
+	/**
+	 * Sets the listener to receive this loader's class loading events, none by
+	 * default
+	 * 
+	 * @param listener
+	 */
+	public void setClassLoadListener(ClassLoadListener listener) {
+		if (listener == null)
+			throw new NullPointerException("listener is null");
+		this.listener = listener;
+	}
 }
@@ -0,0 +1,59 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl;
+
+/**
+ * Receives the class loading events of an {@link AbstractClassLoader}, for
+ * example to keep metrics. Called on the loading thread, so implementations
+ * must be cheap and thread safe.
+ *
+ */
+public interface ClassLoadListener {
+
+    ClassLoadListener NONE = new ClassLoadListener() {
+        @Override
+        public void recordFind(String className, String source, long bytes, long nanos) {
+        }
+
+        @Override
+        public void recordDelegationMiss() {
+        }
+
+        @Override
+        public void recordLookup(long nanos, boolean found) {
+        }
+    };
+
+    /**
+     * A class was found and defined by the loader itself
+     *
+     * @param source
+     *            where the class was read from, or null if not known
+     * @param bytes
+     *            size of the class, or -1 where the loader does not see the
+     *            class bytes
+     * @param nanos
+     *            time taken to read and define the class
+     */
+    void recordFind(String className, String source, long bytes, long nanos);
+
+    /**
+     * A lookup the loader's first delegate could not satisfy, at most once
+     * per lookup
+     */
+    void recordDelegationMiss();
+
+    void recordLookup(long nanos, boolean found);
+}
@@ -16,11 +16,8 @@
  */
 package org.xeustechnologies.jcl;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.logging.Level;
@@ -28,6 +25,7 @@ import java.util.logging.Logger;
 
 import org.xeustechnologies.jcl.exception.JclException;
 import org.xeustechnologies.jcl.exception.ResourceNotFoundException;
+import org.xeustechnologies.jcl.utils.Utils;
 
 /**
  * Class that builds a local classpath by loading resources from different
@@ -54,46 +52,35 @@ public class ClasspathResources extends JarResources {
     private void loadResourceContent(String resource, String pack) {
         File resourceFile = new File( resource );
         String entryName = "";
-        FileInputStream fis = null;
         byte[] content = null;
         try {
-            fis = new FileInputStream( resourceFile );
-            content = new byte[(int) resourceFile.length()];
+            content = Utils.readFully( resourceFile );
 
-            if (fis.read( content ) != -1) {
-
-                if (pack.length() > 0) {
-                    entryName = pack + "/";
-                }
+            if (pack.length() > 0) {
+                entryName = pack + "/";
+            }
 
-                entryName += resourceFile.getName();
+            entryName += resourceFile.getName();
 
-                if (jarEntryContents.containsKey( entryName )) {
-                    if (!collisionAllowed)
-                        throw new JclException( "Resource " + entryName + " already loaded" );
-                    else {
-                        if (logger.isLoggable( Level.FINEST ))
-                            logger.finest( "Resource " + entryName + " already loaded; ignoring entry..." );
-                        return;
-                    }
+            if (jarEntryContents.containsKey( entryName )) {
+                if (!collisionAllowed)
+                    throw new JclException( "Resource " + entryName + " already loaded" );
+                else {
+                    if (logger.isLoggable( Level.FINEST ))
+                        logger.finest( "Resource " + entryName + " already loaded; ignoring entry..." );
+                    return;
                 }
-
-                if (logger.isLoggable( Level.FINEST ))
-                    logger.finest( "Loading resource: " + entryName );
-                
-                JclJarEntry entry = new JclJarEntry();
-                entry.setBaseUrl(resource);
-                entry.setResourceBytes(content);
-                jarEntryContents.put( entryName, entry );
             }
+
+            if (logger.isLoggable( Level.FINEST ))
+                logger.finest( "Loading resource: " + entryName );
+
+            JclJarEntry entry = new JclJarEntry();
+            entry.setBaseUrl(resource);
+            entry.setResourceBytes(content);
+            jarEntryContents.put( entryName, entry );
         } catch (IOException e) {
             throw new JclException( e );
-        } finally {
-            try {
-                fis.close();
-            } catch (IOException e) {
-                throw new JclException( e );
-            }
         }
     }
 
@@ -111,51 +98,24 @@ public class ClasspathResources extends JarResources {
             return;
         }
 
-        InputStream stream = null;
-        ByteArrayOutputStream out = null;
-        try {
-            stream = url.openStream();
-            out = new ByteArrayOutputStream();
-
-            int byt;
-            while (( ( byt = stream.read() ) != -1 )) {
-                out.write( byt );
+        if (jarEntryContents.containsKey( url.toString() )) {
+            if (!collisionAllowed)
+                throw new JclException( "Resource " + url.toString() + " already loaded" );
+            else {
+                if (logger.isLoggable( Level.FINEST ))
+                    logger.finest( "Resource " + url.toString() + " already loaded; ignoring entry..." );
+                return;
             }
+        }
 
-            byte[] content = out.toByteArray();
+        byte[] content = remoteResources.fetch( url );
 
-            if (jarEntryContents.containsKey( url.toString() )) {
-                if (!collisionAllowed)
-                    throw new JclException( "Resource " + url.toString() + " already loaded" );
-                else {
-                    if (logger.isLoggable( Level.FINEST ))
-                        logger.finest( "Resource " + url.toString() + " already loaded; ignoring entry..." );
-                    return;
-                }
-            }
+        if (logger.isLoggable( Level.FINEST ))
+            logger.finest( "Loading remote resource." );
 
-            if (logger.isLoggable( Level.FINEST ))
-                logger.finest( "Loading remote resource." );
-            
-            JclJarEntry entry = new JclJarEntry();
-            entry.setResourceBytes(content);
-            jarEntryContents.put( url.toString(), entry );            
-        } catch (IOException e) {
-            throw new JclException( e );
-        } finally {
-            if (out != null)
-                try {
-                    out.close();
-                } catch (IOException e) {
-                    throw new JclException( e );
-                }
-            if (stream != null)
-                try {
-                    stream.close();
-                } catch (IOException e) {
-                    throw new JclException( e );
-                }
-        }
+        JclJarEntry entry = new JclJarEntry();
+        entry.setResourceBytes(content);
+        jarEntryContents.put( url.toString(), entry );
     }
 
     /**
@@ -166,45 +126,32 @@ public class ClasspathResources extends JarResources {
      */
     private void loadClassContent(String clazz, String pack) {
         File cf = new File( clazz );
-        FileInputStream fis = null;
         String entryName = "";
         byte[] content = null;
 
         try {
-            fis = new FileInputStream( cf );
-            content = new byte[(int) cf.length()];
-
-            if (fis.read( content ) != -1) {
-                entryName = pack + "/" + cf.getName();
-
-                if (jarEntryContents.containsKey( entryName )) {
-                    if (!collisionAllowed)
-                        throw new JclException( "Class " + entryName + " already loaded" );
-                    else {
-                        if (logger.isLoggable( Level.FINEST ))
-                            logger.finest( "Class " + entryName + " already loaded; ignoring entry..." );
-                        return;
-                    }
-                }
+            content = Utils.readFully( cf );
+            entryName = pack + "/" + cf.getName();
 
-                if (logger.isLoggable( Level.FINEST ))
-                    logger.finest( "Loading class: " + entryName );
-                
-                JclJarEntry entry = new JclJarEntry();
-                entry.setResourceBytes(content);
-                jarEntryContents.put( entryName, entry );                
+            if (jarEntryContents.containsKey( entryName )) {
+                if (!collisionAllowed)
+                    throw new JclException( "Class " + entryName + " already loaded" );
+                else {
+                    if (logger.isLoggable( Level.FINEST ))
+                        logger.finest( "Class " + entryName + " already loaded; ignoring entry..." );
+                    return;
+                }
             }
+
+            if (logger.isLoggable( Level.FINEST ))
+                logger.finest( "Loading class: " + entryName );
+
+            JclJarEntry entry = new JclJarEntry();
+            entry.setResourceBytes(content);
+            jarEntryContents.put( entryName, entry );
         } catch (IOException e) {
             throw new JclException( e );
-        } finally {
-            if (fis != null)
-                try {
-                    fis.close();
-                } catch (IOException e) {
-                    throw new JclException( e );
-                }
         }
-
     }
 
     /**
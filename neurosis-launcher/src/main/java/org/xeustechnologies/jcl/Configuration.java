@@ -17,6 +17,8 @@
 
 package org.xeustechnologies.jcl;
 
+import java.io.File;
+
 /**
  * General configuration using System properties
  * 
@@ -28,6 +30,10 @@ public class Configuration {
     private static final String JCL_SUPPRESS_COLLISION_EXCEPTION = "jcl.suppressCollisionException";
     private static final String JCL_SUPPRESS_MISSING_RESOURCE_EXCEPTION = "jcl.suppressMissingResourceException";
     private static final String AUTO_PROXY = "jcl.autoProxy";
+    private static final String REMOTE_RESOURCE_CACHE = "jcl.remoteResourceCache";
+    private static final String JAR_ENTRY_CACHE_MAX_BYTES = "jcl.jarEntryCache.maxBytes";
+
+    private static final long DEFAULT_JAR_ENTRY_CACHE_MAX_BYTES = 64L * 1024 * 1024;
 
     /**
      * OSGi boot delegation
@@ -58,6 +64,28 @@ public class Configuration {
         return Boolean.parseBoolean( System.getProperty( AUTO_PROXY ) );
     }
 
+    /**
+     * Directory in which remote http(s) resources are cached, or null if
+     * remote resources are always fetched in full
+     */
+    public static File getRemoteResourceCache() {
+        if (System.getProperty( REMOTE_RESOURCE_CACHE ) == null)
+            return null;
+
+        return new File( System.getProperty( REMOTE_RESOURCE_CACHE ) );
+    }
+
+    /**
+     * Bytes of recently loaded jar contents to softly retain across class
+     * loaders; negative disables sharing jar contents altogether
+     */
+    public static long getJarEntryCacheMaxBytes() {
+        if (System.getProperty( JAR_ENTRY_CACHE_MAX_BYTES ) == null)
+            return DEFAULT_JAR_ENTRY_CACHE_MAX_BYTES;
+
+        return Long.parseLong( System.getProperty( JAR_ENTRY_CACHE_MAX_BYTES ) );
+    }
+
     @SuppressWarnings("unchecked")
     public static boolean isLoaderEnabled(Class cls) {
         if (System.getProperty( cls.getName() ) == null)
@@ -161,7 +161,8 @@ public class JarClassLoader extends AbstractClassLoader {
     protected byte[] loadClassBytes(String className) {
         className = formatClassName( className );
 
-        return classpathResources.getResource( className );
+        // only ever passed to defineClass, so the shared bytes need no copy
+        return classpathResources.getResourceBytes( className );
     }
 
     /**
@@ -238,12 +239,15 @@ public class JarClassLoader extends AbstractClassLoader {
                 return result;
             }
 
+            long start = System.nanoTime();
             classBytes = loadClassBytes( className );
             if (classBytes == null) {
                 return null;
             }
 
             result = defineClass( className, classBytes, 0, classBytes.length );
+            getClassLoadListener().recordFind( className, classpathResources.getBaseUrl( formatClassName( className ) ),
+                    classBytes.length, System.nanoTime() - start );
 
             if (result == null) {
                 return null;
@@ -269,7 +273,7 @@ public class JarClassLoader extends AbstractClassLoader {
 
         @Override
         public InputStream loadResource(String name) {
-            byte[] arr = classpathResources.getResource( name );
+            byte[] arr = classpathResources.getResourceBytes( name );
             if (arr != null) {
                 if (logger.isLoggable( Level.FINEST ))
                     logger.finest( "Returning newly loaded resource " + name );
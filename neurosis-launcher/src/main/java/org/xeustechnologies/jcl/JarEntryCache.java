@@ -0,0 +1,235 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide cache of inflated jar contents, shared by all JarResources
+ * instances so that loading the same jar into several class loaders reads and
+ * inflates it only once. Jars are keyed by their canonical path, length and
+ * modification time, so a hit costs no I/O beyond a stat, and a jar replaced
+ * in place is read again.
+ *
+ * Jars in use by a live JarResources stay reachable through weak references
+ * regardless of size; on top of that, the most recently loaded jars are softly
+ * retained up to a configurable number of bytes so that a jar can be reloaded
+ * cheaply after its last loader is gone, unless memory runs short.
+ *
+ */
+public class JarEntryCache {
+
+    private static Logger logger = Logger.getLogger( JarEntryCache.class.getName() );
+
+    private static final JarEntryCache instance = new JarEntryCache( Configuration.getJarEntryCacheMaxBytes() );
+
+    /**
+     * Inflated file entries of a single jar, in jar order and including any
+     * duplicate names. The contents are shared between all loaders of the jar
+     * and must not be modified; JarResources only hands out copies publicly.
+     */
+    public static class CachedJar {
+        private final String[] names;
+        private final byte[][] contents;
+        private final long weight;
+
+        public CachedJar(List<String> names, List<byte[]> contents) {
+            if (names.size() != contents.size())
+                throw new IllegalArgumentException( "names and contents differ in size" );
+            long weight = 0;
+            for (byte[] content : contents)
+                weight += content.length;
+            this.names = names.toArray( new String[names.size()] );
+            this.contents = contents.toArray( new byte[contents.size()][] );
+            this.weight = weight;
+        }
+
+        public int size() {
+            return names.length;
+        }
+
+        public String getName(int index) {
+            return names[index];
+        }
+
+        public byte[] getContent(int index) {
+            return contents[index];
+        }
+
+        public long getWeight() {
+            return weight;
+        }
+    }
+
+    private static class SoftJar extends SoftReference<CachedJar> {
+        private final long weight;
+
+        SoftJar(CachedJar jar) {
+            super( jar );
+            this.weight = jar.getWeight();
+        }
+    }
+
+    private static class WeakJar extends WeakReference<CachedJar> {
+        private final String key;
+
+        WeakJar(String key, CachedJar jar, ReferenceQueue<CachedJar> queue) {
+            super( jar, queue );
+            this.key = key;
+        }
+    }
+
+    private final long maxBytes;
+
+    private final Map<String, WeakJar> live = new HashMap<String, WeakJar>();
+    private final ReferenceQueue<CachedJar> queue = new ReferenceQueue<CachedJar>();
+    private final LinkedHashMap<String, SoftJar> retained = new LinkedHashMap<String, SoftJar>( 16, 0.75f, true );
+    private long retainedBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Jars modified this recently may still change without their modification
+     * time moving, on file systems with coarse timestamps
+     */
+    private static final long MIN_AGE_MILLIS = 2000;
+
+    /**
+     * @param maxBytes
+     *            bytes of recently loaded jars to retain softly, 0 to only
+     *            share jars still in use, or negative to disable caching
+     */
+    public JarEntryCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public static JarEntryCache getInstance() {
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return maxBytes >= 0;
+    }
+
+    /**
+     * Key identifying a jar file by its canonical path, length and
+     * modification time
+     *
+     * @param file
+     * @return the key, or null if the file was modified too recently for its
+     *         modification time to be trusted
+     * @throws IOException
+     */
+    public static String key(File file) throws IOException {
+        long lastModified = file.lastModified();
+        if (lastModified == 0 || System.currentTimeMillis() - lastModified < MIN_AGE_MILLIS)
+            return null;
+
+        return file.getCanonicalPath() + ":" + file.length() + ":" + lastModified;
+    }
+
+    /**
+     * @param key
+     * @return the cached jar, or null
+     */
+    public synchronized CachedJar get(String key) {
+        if (!isEnabled())
+            return null;
+
+        expunge();
+
+        SoftJar soft = retained.get( key );
+        CachedJar jar = soft != null ? soft.get() : null;
+        if (jar == null) {
+            WeakJar ref = live.get( key );
+            jar = ref != null ? ref.get() : null;
+            if (jar != null)
+                retain( key, jar );
+        }
+
+        if (jar != null) {
+            hits.incrementAndGet();
+            if (logger.isLoggable( Level.FINEST ))
+                logger.finest( "Jar cache hit: " + key );
+        } else {
+            misses.incrementAndGet();
+        }
+        return jar;
+    }
+
+    public synchronized void put(String key, CachedJar jar) {
+        if (!isEnabled())
+            return;
+
+        expunge();
+        live.put( key, new WeakJar( key, jar, queue ) );
+        retain( key, jar );
+    }
+
+    private void retain(String key, CachedJar jar) {
+        if (jar.getWeight() > maxBytes)
+            return;
+
+        SoftJar previous = retained.put( key, new SoftJar( jar ) );
+        if (previous != null)
+            retainedBytes -= previous.weight;
+        retainedBytes += jar.getWeight();
+
+        Iterator<SoftJar> it = retained.values().iterator();
+        while (retainedBytes > maxBytes && it.hasNext()) {
+            retainedBytes -= it.next().weight;
+            it.remove();
+        }
+    }
+
+    private void expunge() {
+        WeakJar ref;
+        while (( ref = (WeakJar) queue.poll() ) != null) {
+            if (live.get( ref.key ) == ref)
+                live.remove( ref.key );
+        }
+    }
+
+    public synchronized void clear() {
+        live.clear();
+        retained.clear();
+        retainedBytes = 0;
+    }
+
+    public synchronized long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
@@ -18,15 +18,17 @@
 package org.xeustechnologies.jcl;
 
 import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
@@ -35,6 +37,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.xeustechnologies.jcl.exception.JclException;
+import org.xeustechnologies.jcl.utils.Utils;
 
 /**
  * JarResources reads jar files and loads the class content/bytes in a HashMap
@@ -46,6 +49,8 @@ public class JarResources {
 
     protected Map<String, JclJarEntry> jarEntryContents;
     protected boolean collisionAllowed;
+    protected final RemoteResourceFetcher remoteResources;
+    protected final List<JarEntryCache.CachedJar> cachedJars;
 
     private static Logger logger = Logger.getLogger( JarResources.class.getName() );
 
@@ -55,6 +60,8 @@ public class JarResources {
     public JarResources() {
         jarEntryContents = new HashMap<String, JclJarEntry>();
         collisionAllowed = Configuration.suppressCollisionException();
+        remoteResources = new RemoteResourceFetcher();
+        cachedJars = new ArrayList<JarEntryCache.CachedJar>();
     }
 
     /**
@@ -78,18 +85,35 @@ public class JarResources {
         return null;
     }
 
+    /**
+     * @param name
+     * @return base URL of the jar or file the resource was read from
+     */
+    public String getBaseUrl(String name) {
+        JclJarEntry entry = jarEntryContents.get( name );
+        return entry != null ? entry.getBaseUrl() : null;
+    }
+
     /**
      * @param name
      * @return byte[]
      */
     public byte[] getResource(String name) {
+      byte[] bytes = getResourceBytes(name);
+      // jar contents are shared with other loaders through the jar entry cache
+      return bytes != null ? bytes.clone() : null;
+    }
+
+    /**
+     * Returns the resource bytes without copying them, for class loading
+     * paths that only read them
+     * 
+     * @param name
+     * @return byte[], shared and not to be modified
+     */
+    protected byte[] getResourceBytes(String name) {
       JclJarEntry entry = jarEntryContents.get(name);
-      if (entry != null) {
-        return entry.getResourceBytes();
-      }
-      else {
-        return null;
-      }
+      return entry != null ? entry.getResourceBytes() : null;
     }
 
     /**
@@ -102,7 +126,7 @@ public class JarResources {
       Map<String, byte[]> resourcesAsBytes = new HashMap<String, byte[]>(jarEntryContents.size());
       
       for (Map.Entry<String, JclJarEntry> entry : jarEntryContents.entrySet()) {
-        resourcesAsBytes.put(entry.getKey(), entry.getValue().getResourceBytes());
+        resourcesAsBytes.put(entry.getKey(), entry.getValue().getResourceBytes().clone());
       }
 
       return resourcesAsBytes;
@@ -117,22 +141,9 @@ public class JarResources {
         if (logger.isLoggable( Level.FINEST ))
             logger.finest( "Loading jar: " + jarFile );
 
-        FileInputStream fis = null;
-        try {
-            File file = new File( jarFile );
-            String baseUrl = "jar:" + file.toURI().toString() + "!/";
-            fis = new FileInputStream( file );
-            loadJar(baseUrl, fis);
-        } catch (IOException e) {
-            throw new JclException( e );
-        } finally {
-            if (fis != null)
-                try {
-                    fis.close();
-                } catch (IOException e) {
-                    throw new JclException( e );
-                }
-        }
+        File file = new File( jarFile );
+        String baseUrl = "jar:" + file.toURI().toString() + "!/";
+        loadJar( baseUrl, file );
     }
 
     /**
@@ -144,10 +155,27 @@ public class JarResources {
         if (logger.isLoggable( Level.FINEST ))
             logger.finest( "Loading jar: " + url.toString() );
 
+        String baseUrl = "jar:" + url.toString() + "!/";
         InputStream in = null;
         try {
-            String baseUrl = "jar:" + url.toString() + "!/";
-            in = url.openStream();
+            // local and disk-cached remote jars can be shared through the
+            // jar entry cache
+            File file = null;
+            if ("file".equalsIgnoreCase( url.getProtocol() )) {
+                try {
+                    file = new File( url.toURI() );
+                } catch (URISyntaxException e) {
+                    file = null;
+                }
+            } else {
+                file = remoteResources.fetchToCache( url );
+            }
+            if (file != null) {
+                loadJar( baseUrl, file );
+                return;
+            }
+
+            in = remoteResources.openStream( url );
             loadJar( baseUrl, in );
         } catch (IOException e) {
             throw new JclException( e );
@@ -161,18 +189,94 @@ public class JarResources {
         }
     }
 
+    /**
+     * Loads the jar contents from a file, through the process-wide jar entry
+     * cache
+     * 
+     * @param argBaseUrl
+     * @param file
+     */
+    protected void loadJar(String argBaseUrl, File file) {
+        JarEntryCache cache = JarEntryCache.getInstance();
+        JarEntryCache.CachedJar jar = null;
+        try {
+            String key = cache.isEnabled() ? JarEntryCache.key( file ) : null;
+            if (key != null)
+                jar = cache.get( key );
+            if (jar == null) {
+                InputStream fis = new FileInputStream( file );
+                try {
+                    jar = readJar( fis );
+                } finally {
+                    fis.close();
+                }
+                if (key != null)
+                    cache.put( key, jar );
+            }
+        } catch (IOException e) {
+            throw new JclException( e );
+        }
+
+        // the cache only holds jars weakly beyond its size bound, so keep the
+        // ones in use reachable for as long as this instance is
+        cachedJars.add( jar );
+        addEntries( argBaseUrl, jar );
+    }
+
     /**
      * Load the jar contents from InputStream
      * @param argBaseUrl 
      * 
      */
     public void loadJar(String argBaseUrl, InputStream jarStream) {
+        addEntries( argBaseUrl, readJar( jarStream ) );
+    }
+
+    /**
+     * Adds jar entries, subject to the collision policy, which applies to
+     * names repeated within the jar as well as to names already loaded from
+     * other jars
+     * 
+     * @param argBaseUrl
+     * @param jar
+     */
+    protected void addEntries(String argBaseUrl, JarEntryCache.CachedJar jar) {
+        for (int i = 0; i < jar.size(); i++) {
+            String name = jar.getName( i );
+            if (jarEntryContents.containsKey( name )) {
+                if (!collisionAllowed)
+                    throw new JclException( "Class/Resource " + name + " already loaded" );
+                else {
+                    if (logger.isLoggable( Level.FINEST ))
+                        logger.finest( "Class/Resource " + name + " already loaded; ignoring entry..." );
+                    continue;
+                }
+            }
+
+            // add to internal resource HashMap
+            JclJarEntry entry = new JclJarEntry();
+            entry.setBaseUrl( argBaseUrl );
+            entry.setResourceBytes( jar.getContent( i ) );
+            jarEntryContents.put( name, entry );
+        }
+    }
+
+    /**
+     * Reads and inflates all file entries of a jar, in jar order
+     * 
+     * @param jarStream
+     * @return JarEntryCache.CachedJar
+     */
+    protected JarEntryCache.CachedJar readJar(InputStream jarStream) {
+        List<String> names = new ArrayList<String>();
+        List<byte[]> contents = new ArrayList<byte[]>();
 
         BufferedInputStream bis = null;
         JarInputStream jis = null;
 
         try {
-            bis = new BufferedInputStream( jarStream );
+            bis = jarStream instanceof BufferedInputStream ? (BufferedInputStream) jarStream
+                    : new BufferedInputStream( jarStream, Utils.BUFFER_SIZE );
             jis = new JarInputStream( bis );
 
             JarEntry jarEntry = null;
@@ -184,39 +288,17 @@ public class JarResources {
                     continue;
                 }
 
-                if (jarEntryContents.containsKey( jarEntry.getName() )) {
-                    if (!collisionAllowed)
-                        throw new JclException( "Class/Resource " + jarEntry.getName() + " already loaded" );
-                    else {
-                        if (logger.isLoggable( Level.FINEST ))
-                            logger.finest( "Class/Resource " + jarEntry.getName()
-                                    + " already loaded; ignoring entry..." );
-                        continue;
-                    }
-                }
-
                 if (logger.isLoggable( Level.FINEST ))
                     logger.finest( "Entry Name: " + jarEntry.getName() + ", " + "Entry Size: " + jarEntry.getSize() );
 
-                byte[] b = new byte[2048];
-                ByteArrayOutputStream out = new ByteArrayOutputStream();
-
-                int len = 0;
-                while (( len = jis.read( b ) ) > 0) {
-                    out.write( b, 0, len );
-                }
-
-                // add to internal resource HashMap
-                JclJarEntry entry = new JclJarEntry();
-                entry.setBaseUrl(argBaseUrl);
-                entry.setResourceBytes(out.toByteArray());
-                jarEntryContents.put( jarEntry.getName(), entry );
+                // entry sizes are only known up front when the local header carries them
+                byte[] content = Utils.readFully( jis, jarEntry.getSize() );
+                names.add( jarEntry.getName() );
+                contents.add( content );
 
                 if (logger.isLoggable( Level.FINEST ))
-                    logger.finest( jarEntry.getName() + ": size=" + out.size() + " ,csize="
+                    logger.finest( jarEntry.getName() + ": size=" + content.length + " ,csize="
                             + jarEntry.getCompressedSize() );
-
-                out.close();
             }
         } catch (IOException e) {
             throw new JclException( e );
@@ -238,6 +320,8 @@ public class JarResources {
                     throw new JclException( e );
                 }
         }
+
+        return new JarEntryCache.CachedJar( names, contents );
     }
 
     /**
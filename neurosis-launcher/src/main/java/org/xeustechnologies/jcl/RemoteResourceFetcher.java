@@ -0,0 +1,317 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.xeustechnologies.jcl.exception.JclException;
+import org.xeustechnologies.jcl.utils.Utils;
+
+/**
+ * Fetches remote resources using buffered, size-hinted reads. If a cache
+ * directory is configured, http(s) resources are kept on local disk and
+ * revalidated with conditional requests, and interrupted downloads are
+ * resumed with range requests.
+ *
+ */
+public class RemoteResourceFetcher {
+
+    private static final String PART_SUFFIX = ".part";
+    private static final String META_SUFFIX = ".meta";
+
+    private static final String META_URL = "url";
+    private static final String META_ETAG = "etag";
+    private static final String META_LAST_MODIFIED = "lastModified";
+
+    private static Logger logger = Logger.getLogger( RemoteResourceFetcher.class.getName() );
+
+    private static final Object[] LOCKS = new Object[64];
+
+    static {
+        for (int i = 0; i < LOCKS.length; i++) {
+            LOCKS[i] = new Object();
+        }
+    }
+
+    private final File cacheDir;
+
+    public RemoteResourceFetcher() {
+        this( Configuration.getRemoteResourceCache() );
+    }
+
+    /**
+     * @param cacheDir
+     *            directory for cached http(s) resources, or null to disable
+     *            caching
+     */
+    public RemoteResourceFetcher(File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    /**
+     * Reads the full content of a remote resource
+     *
+     * @param url
+     * @return byte[]
+     */
+    public byte[] fetch(URL url) {
+        try {
+            File cached = fetchToCache( url );
+            if (cached != null) {
+                return Utils.readFully( cached );
+            }
+
+            URLConnection connection = url.openConnection();
+            InputStream in = connection.getInputStream();
+            try {
+                return Utils.readFully( in, connection.getContentLengthLong() );
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new JclException( e );
+        }
+    }
+
+    /**
+     * Opens a buffered stream over a remote resource, served from the disk
+     * cache when one is configured
+     *
+     * @param url
+     * @return InputStream
+     * @throws IOException
+     */
+    public InputStream openStream(URL url) throws IOException {
+        File cached = fetchToCache( url );
+        if (cached != null) {
+            return new BufferedInputStream( new FileInputStream( cached ), Utils.BUFFER_SIZE );
+        }
+
+        return new BufferedInputStream( url.openStream(), Utils.BUFFER_SIZE );
+    }
+
+    /**
+     * Brings the cached copy of the resource up to date and returns it, or
+     * returns null if the resource is not cacheable. If the resource cannot be
+     * revalidated or downloaded and a cached copy exists, the cached copy is
+     * returned as is.
+     *
+     * @param url
+     * @return File
+     * @throws IOException
+     */
+    protected File fetchToCache(URL url) throws IOException {
+        if (cacheDir == null || !isHttp( url ))
+            return null;
+
+        if (!cacheDir.isDirectory() && !cacheDir.mkdirs())
+            throw new IOException( "Could not create resource cache directory " + cacheDir );
+
+        String key = digest( url.toString() );
+        File file = new File( cacheDir, key );
+
+        // Fetches of different resources mostly proceed in parallel, fetches
+        // of the same resource wait for each other
+        Object lock = LOCKS[( key.hashCode() & Integer.MAX_VALUE ) % LOCKS.length];
+        synchronized (lock) {
+            try {
+                File downloaded = download( url, key, file, true );
+                if (downloaded == null) {
+                    // The partial download could not be resumed, so it is
+                    // dropped and the resource fetched from scratch
+                    downloaded = download( url, key, file, false );
+                }
+                return downloaded;
+            } catch (IOException e) {
+                if (!file.isFile())
+                    throw e;
+                logger.log( Level.WARNING, "Could not refresh remote resource " + url + ", using cached copy", e );
+                return file;
+            }
+        }
+    }
+
+    /**
+     * Downloads the resource unless the cached copy is current. Returns null
+     * if a partial download was there to resume but the server would not
+     * resume it, having deleted the partial download.
+     */
+    private File download(URL url, String key, File file, boolean resume) throws IOException {
+        File metaFile = new File( cacheDir, key + META_SUFFIX );
+        File part = new File( cacheDir, key + PART_SUFFIX );
+        File partMetaFile = new File( cacheDir, key + PART_SUFFIX + META_SUFFIX );
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+
+        if (file.isFile()) {
+            Properties meta = readMeta( metaFile );
+            if (meta.getProperty( META_ETAG ) != null)
+                connection.setRequestProperty( "If-None-Match", meta.getProperty( META_ETAG ) );
+            if (meta.getProperty( META_LAST_MODIFIED ) != null)
+                connection.setRequestProperty( "If-Modified-Since", meta.getProperty( META_LAST_MODIFIED ) );
+        }
+
+        boolean resuming = false;
+        if (resume && part.isFile() && part.length() > 0) {
+            // If-Range only accepts strong validators
+            Properties partMeta = readMeta( partMetaFile );
+            String etag = partMeta.getProperty( META_ETAG );
+            String validator = etag != null && !etag.startsWith( "W/" ) ? etag : partMeta.getProperty( META_LAST_MODIFIED );
+            if (validator != null) {
+                connection.setRequestProperty( "Range", "bytes=" + part.length() + "-" );
+                connection.setRequestProperty( "If-Range", validator );
+                resuming = true;
+            }
+        }
+
+        int status = connection.getResponseCode();
+
+        if (status == HttpURLConnection.HTTP_NOT_MODIFIED && file.isFile()) {
+            if (logger.isLoggable( Level.FINEST ))
+                logger.finest( "Remote resource not modified, using cached copy: " + url );
+            connection.getInputStream().close();
+            return file;
+        }
+
+        boolean append;
+        if (status == HttpURLConnection.HTTP_PARTIAL && resuming) {
+            append = true;
+        } else if (status == HttpURLConnection.HTTP_OK) {
+            append = false;
+        } else if (resuming) {
+            // Most likely a 416 as the partial download is already complete,
+            // or longer than the resource
+            if (logger.isLoggable( Level.FINEST ))
+                logger.finest( "Could not resume remote resource " + url + ", got " + status );
+            connection.disconnect();
+            deletePart( part, partMetaFile );
+            return null;
+        } else {
+            connection.disconnect();
+            throw new IOException( "Unexpected response " + status + " fetching " + url );
+        }
+
+        // Record the validators before streaming so an interrupted download
+        // can be resumed. The cached copy and its validators are only replaced
+        // once the download is complete.
+        if (!append) {
+            Properties partMeta = new Properties();
+            partMeta.setProperty( META_URL, url.toString() );
+            if (connection.getHeaderField( "ETag" ) != null)
+                partMeta.setProperty( META_ETAG, connection.getHeaderField( "ETag" ) );
+            if (connection.getHeaderField( "Last-Modified" ) != null)
+                partMeta.setProperty( META_LAST_MODIFIED, connection.getHeaderField( "Last-Modified" ) );
+            writeMeta( partMetaFile, partMeta );
+        }
+
+        if (logger.isLoggable( Level.FINEST ))
+            logger.finest( ( append ? "Resuming" : "Downloading" ) + " remote resource " + url + " at offset "
+                    + ( append ? part.length() : 0 ) );
+
+        long expected = ( append ? part.length() : 0 ) + connection.getContentLengthLong();
+        InputStream in = connection.getInputStream();
+        OutputStream out = new BufferedOutputStream( new FileOutputStream( part, append ), Utils.BUFFER_SIZE );
+        try {
+            Utils.copy( in, out );
+        } finally {
+            try {
+                out.close();
+            } finally {
+                in.close();
+            }
+        }
+
+        long length = part.length();
+        if (connection.getContentLengthLong() >= 0 && length != expected) {
+            deletePart( part, partMetaFile );
+            throw new IOException( "Incomplete download of " + url + ", got " + length + " of " + expected + " bytes" );
+        }
+
+        // A crash between the two moves leaves the new copy with the old
+        // validators, which only costs a full download on the next fetch
+        Files.move( part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        Files.move( partMetaFile.toPath(), metaFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+
+        return file;
+    }
+
+    private static void deletePart(File part, File partMetaFile) throws IOException {
+        Files.deleteIfExists( part.toPath() );
+        Files.deleteIfExists( partMetaFile.toPath() );
+    }
+
+    private static boolean isHttp(URL url) {
+        String protocol = url.getProtocol();
+        return "http".equalsIgnoreCase( protocol ) || "https".equalsIgnoreCase( protocol );
+    }
+
+    private static Properties readMeta(File metaFile) throws IOException {
+        Properties meta = new Properties();
+        if (metaFile.isFile()) {
+            InputStream in = new FileInputStream( metaFile );
+            try {
+                meta.load( in );
+            } finally {
+                in.close();
+            }
+        }
+        return meta;
+    }
+
+    private static void writeMeta(File metaFile, Properties meta) throws IOException {
+        OutputStream out = new FileOutputStream( metaFile );
+        try {
+            meta.store( out, null );
+        } finally {
+            out.close();
+        }
+    }
+
+    static String digest(String value) {
+        try {
+            byte[] hash = MessageDigest.getInstance( "SHA-1" ).digest( value.getBytes( StandardCharsets.UTF_8 ) );
+            StringBuilder sb = new StringBuilder( hash.length * 2 );
+            for (byte b : hash) {
+                sb.append( Character.forDigit( ( b >> 4 ) & 0xf, 16 ) );
+                sb.append( Character.forDigit( b & 0xf, 16 ) );
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new JclException( e );
+        }
+    }
+}
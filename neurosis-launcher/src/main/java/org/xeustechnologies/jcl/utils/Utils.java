@@ -17,6 +17,14 @@
 
 package org.xeustechnologies.jcl.utils;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
 /**
  * Class that contains utility methods
  * 
@@ -64,4 +72,83 @@ public class Utils {
         s.append( '$' );
         return ( s.toString() );
     }
+
+    /**
+     * Default buffer size for stream copies
+     */
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    /**
+     * Reads the stream to its end. When the expected size is known (sizeHint
+     * &gt;= 0) the content is read straight into an array of that size, and
+     * only falls back to a growable buffer if the hint turns out to be short.
+     * 
+     * @param in
+     * @param sizeHint expected number of bytes, or -1 if unknown
+     * @return byte[]
+     * @throws IOException
+     */
+    public static byte[] readFully(InputStream in, long sizeHint) throws IOException {
+        if (sizeHint >= 0 && sizeHint <= MAX_ARRAY_SIZE) {
+            byte[] content = new byte[(int) sizeHint];
+            int off = 0;
+            while (off < content.length) {
+                int len = in.read( content, off, content.length - off );
+                if (len < 0)
+                    return Arrays.copyOf( content, off );
+                off += len;
+            }
+
+            int next = in.read();
+            if (next < 0)
+                return content;
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream( Math.max( content.length * 2, BUFFER_SIZE ) );
+            out.write( content );
+            out.write( next );
+            copy( in, out );
+            return out.toByteArray();
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream( BUFFER_SIZE );
+        copy( in, out );
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads the whole file, sized by its length
+     * 
+     * @param file
+     * @return byte[]
+     * @throws IOException
+     */
+    public static byte[] readFully(File file) throws IOException {
+        InputStream in = new FileInputStream( file );
+        try {
+            return readFully( in, file.length() );
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Copies the stream in BUFFER_SIZE chunks
+     * 
+     * @param in
+     * @param out
+     * @return number of bytes copied
+     * @throws IOException
+     */
+    public static long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buf = new byte[BUFFER_SIZE];
+        long total = 0;
+        int len;
+        while (( len = in.read( buf ) ) != -1) {
+            out.write( buf, 0, len );
+            total += len;
+        }
+        return total;
+    }
 }
@@ -0,0 +1,175 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.xeustechnologies.jcl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class TestRemoteResourceFetcher {
+
+    private static final String ETAG = "\"v1\"";
+
+    private final byte[] content = new byte[100000];
+    private final List<String> ranges = new CopyOnWriteArrayList<String>();
+
+    private HttpServer server;
+    private URL url;
+    private File cacheDir;
+    private RemoteResourceFetcher fetcher;
+
+    @BeforeMethod
+    public void setUp() throws IOException {
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) ( i * 31 );
+        }
+        ranges.clear();
+
+        server = HttpServer.create( new InetSocketAddress( "127.0.0.1", 0 ), 0 );
+        server.createContext( "/resource", this::serve );
+        server.start();
+        url = new URL( "http://127.0.0.1:" + server.getAddress().getPort() + "/resource" );
+
+        cacheDir = Files.createTempDirectory( "remote-resource-cache" ).toFile();
+        fetcher = new RemoteResourceFetcher( cacheDir );
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown() {
+        server.stop( 0 );
+        for (File file : cacheDir.listFiles()) {
+            file.delete();
+        }
+        cacheDir.delete();
+    }
+
+    /**
+     * Serves the content with a strong ETag, honoring open-ended ranges like
+     * a typical static file server
+     */
+    private void serve(HttpExchange exchange) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst( "Range" );
+        exchange.getResponseHeaders().set( "ETag", ETAG );
+        if (ETAG.equals( exchange.getRequestHeaders().getFirst( "If-None-Match" ) )) {
+            exchange.sendResponseHeaders( 304, -1 );
+            exchange.close();
+            return;
+        }
+
+        int start = 0;
+        int status = 200;
+        if (range != null && ETAG.equals( exchange.getRequestHeaders().getFirst( "If-Range" ) )) {
+            ranges.add( range );
+            start = Integer.parseInt( range.substring( "bytes=".length(), range.length() - 1 ) );
+            if (start >= content.length) {
+                exchange.getResponseHeaders().set( "Content-Range", "bytes */" + content.length );
+                exchange.sendResponseHeaders( 416, -1 );
+                exchange.close();
+                return;
+            }
+            status = 206;
+            exchange.getResponseHeaders().set( "Content-Range",
+                    "bytes " + start + "-" + ( content.length - 1 ) + "/" + content.length );
+        }
+
+        exchange.sendResponseHeaders( status, content.length - start );
+        OutputStream out = exchange.getResponseBody();
+        out.write( content, start, content.length - start );
+        out.close();
+    }
+
+    @Test
+    public void testFetch() {
+        assertEquals( fetcher.fetch( url ), content );
+        assertEquals( fetcher.fetch( url ), content );
+        assertEquals( ranges.size(), 0 );
+        assertFalse( getPart().exists() );
+    }
+
+    @Test
+    public void testResumeTruncatedPart() throws IOException {
+        writePart( Arrays.copyOf( content, 1000 ) );
+
+        assertEquals( fetcher.fetch( url ), content );
+        assertEquals( ranges, Arrays.asList( "bytes=1000-" ) );
+        assertFalse( getPart().exists() );
+    }
+
+    @Test
+    public void testCompletePart() throws IOException {
+        writePart( content );
+
+        assertEquals( fetcher.fetch( url ), content );
+        assertEquals( ranges, Arrays.asList( "bytes=" + content.length + "-" ) );
+        assertFalse( getPart().exists() );
+
+        // Later fetches revalidate the cached copy without a range
+        assertEquals( fetcher.fetch( url ), content );
+        assertEquals( ranges.size(), 1 );
+    }
+
+    @Test
+    public void testOversizedPart() throws IOException {
+        byte[] garbled = Arrays.copyOf( content, content.length + 10 );
+        writePart( garbled );
+
+        assertEquals( fetcher.fetch( url ), content );
+        assertFalse( getPart().exists() );
+    }
+
+    @Test
+    public void testNoCacheDir() {
+        RemoteResourceFetcher uncached = new RemoteResourceFetcher( null );
+        assertNull( uncached.getCacheDir() );
+        assertEquals( uncached.fetch( url ), content );
+        assertEquals( cacheDir.listFiles().length, 0 );
+    }
+
+    private File getPart() {
+        return new File( cacheDir, RemoteResourceFetcher.digest( url.toString() ) + ".part" );
+    }
+
+    private void writePart(byte[] bytes) throws IOException {
+        Files.write( getPart().toPath(), bytes );
+        Properties meta = new Properties();
+        meta.setProperty( "url", url.toString() );
+        meta.setProperty( "etag", ETAG );
+        OutputStream out = new FileOutputStream( getPart().getPath() + ".meta" );
+        try {
+            meta.store( out, null );
+        } finally {
+            out.close();
+        }
+    }
+}
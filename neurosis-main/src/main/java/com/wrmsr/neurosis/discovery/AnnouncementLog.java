@@ -0,0 +1,363 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.discovery;
+
+import com.google.common.collect.ImmutableList;
+import io.airlift.discovery.server.ForDynamicStore;
+import io.airlift.discovery.store.ConflictResolver;
+import io.airlift.discovery.store.Entry;
+import io.airlift.discovery.store.StoreConfig;
+import io.airlift.log.Logger;
+import org.weakref.jmx.Managed;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+
+/**
+ * Append-only log of the entries accepted by the local dynamic store, kept in memory-mapped segment files so a restarted
+ * discovery server can serve the cluster as it was instead of starting empty until every node re-announces. Entries are
+ * replayed with their original timestamps, so those that expired while the server was down are dropped. Compaction rolls
+ * the log to a new segment and rewrites the sealed ones as a single segment holding only the latest live entry per key.
+ * <p>
+ * Each record is its length, a CRC32 of its contents, and the entry; a zero length marks the end of a segment, and
+ * replay of a segment stops at the first torn record.
+ */
+@ThreadSafe
+public class AnnouncementLog
+{
+    private static final Logger log = Logger.get(AnnouncementLog.class);
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("announcements-(\\d{16})\\.log");
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long compactionIntervalMillis;
+    private final long tombstoneMaxAgeMillis;
+    private final ConflictResolver resolver;
+
+    private final ScheduledExecutorService executor = newSingleThreadScheduledExecutor(daemonThreadsNamed("announcement-log-compaction"));
+
+    @GuardedBy("this")
+    private long activeSegment;
+    @GuardedBy("this")
+    private MappedByteBuffer active;
+
+    private final AtomicLong appends = new AtomicLong();
+    private final AtomicLong appendFailures = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+    private final AtomicLong replayedEntries = new AtomicLong();
+
+    @Inject
+    public AnnouncementLog(EmbeddedDiscoveryConfig config, @ForDynamicStore StoreConfig storeConfig, ConflictResolver resolver)
+    {
+        requireNonNull(config, "config is null");
+        this.directory = config.getAnnouncementLogDirectory() == null ? null : new File(config.getAnnouncementLogDirectory()).toPath();
+        this.segmentSize = (int) config.getAnnouncementLogSegmentSize().toBytes();
+        this.compactionIntervalMillis = config.getAnnouncementLogCompactionInterval().toMillis();
+        this.tombstoneMaxAgeMillis = requireNonNull(storeConfig, "storeConfig is null").getTombstoneMaxAge().toMillis();
+        this.resolver = requireNonNull(resolver, "resolver is null");
+    }
+
+    public boolean isEnabled()
+    {
+        return directory != null;
+    }
+
+    /**
+     * Replays the log, returning the latest live entry for each key, and starts a new segment for appends.
+     */
+    public synchronized List<Entry> open()
+    {
+        if (!isEnabled()) {
+            return ImmutableList.of();
+        }
+        try {
+            Files.createDirectories(directory);
+            List<Long> segments = listSegments();
+            Collection<Entry> entries = replay(segments);
+            replayedEntries.set(entries.size());
+            activeSegment = segments.isEmpty() ? 0 : segments.get(segments.size() - 1);
+            roll();
+            log.info("Replayed %s entries from %s announcement log segments", entries.size(), segments.size());
+            return ImmutableList.copyOf(entries);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @PostConstruct
+    public void start()
+    {
+        if (!isEnabled()) {
+            return;
+        }
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                compact();
+            }
+            catch (Throwable e) {
+                // ignore to avoid getting unscheduled
+                log.warn(e, "Error compacting announcement log");
+            }
+        }, compactionIntervalMillis, compactionIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public synchronized void stop()
+    {
+        executor.shutdownNow();
+        if (active != null) {
+            active.force();
+        }
+    }
+
+    /**
+     * Failures are logged rather than thrown, as the log only speeds up restarts and must not fail announcements.
+     */
+    public synchronized void append(Entry entry)
+    {
+        if (active == null) {
+            return;
+        }
+        try {
+            byte[] record = encode(entry);
+            if (active.remaining() < record.length + RECORD_HEADER_SIZE) {
+                roll();
+            }
+            if (active.remaining() < record.length + RECORD_HEADER_SIZE) {
+                throw new IOException(String.format("Entry of %s bytes does not fit in a segment", record.length));
+            }
+            writeRecord(active, record);
+            appends.incrementAndGet();
+        }
+        catch (IOException e) {
+            appendFailures.incrementAndGet();
+            log.warn(e, "Error appending to announcement log");
+        }
+    }
+
+    /**
+     * Rewrites all segments but the active one as a single segment, dropping superseded and expired entries.
+     */
+    public void compact()
+            throws IOException
+    {
+        List<Long> sealed = new ArrayList<>();
+        synchronized (this) {
+            if (active == null) {
+                return;
+            }
+            roll();
+            for (long segment : listSegments()) {
+                if (segment < activeSegment) {
+                    sealed.add(segment);
+                }
+            }
+        }
+        if (sealed.isEmpty()) {
+            return;
+        }
+
+        List<byte[]> records = new ArrayList<>();
+        int size = RECORD_HEADER_SIZE;
+        for (Entry entry : replay(sealed)) {
+            byte[] record = encode(entry);
+            records.add(record);
+            size += record.length + RECORD_HEADER_SIZE;
+        }
+
+        // the compacted segment takes the place of the newest sealed one, so it still sorts before the active segment
+        Path compacted = segmentPath(sealed.get(sealed.size() - 1));
+        Path temporary = directory.resolve(compacted.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, CREATE, READ, WRITE)) {
+            MappedByteBuffer buffer = channel.map(READ_WRITE, 0, size);
+            for (byte[] record : records) {
+                writeRecord(buffer, record);
+            }
+            buffer.force();
+        }
+        Files.move(temporary, compacted, ATOMIC_MOVE, REPLACE_EXISTING);
+        for (long segment : sealed.subList(0, sealed.size() - 1)) {
+            Files.deleteIfExists(segmentPath(segment));
+        }
+        compactions.incrementAndGet();
+    }
+
+    @GuardedBy("this")
+    private void roll()
+            throws IOException
+    {
+        if (active != null) {
+            active.force();
+        }
+        activeSegment++;
+        try (FileChannel channel = FileChannel.open(segmentPath(activeSegment), CREATE, READ, WRITE)) {
+            active = channel.map(READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    private Collection<Entry> replay(List<Long> segments)
+            throws IOException
+    {
+        long now = System.currentTimeMillis();
+        Map<ByteBuffer, Entry> entries = new HashMap<>();
+        for (long segment : segments) {
+            try (FileChannel channel = FileChannel.open(segmentPath(segment), READ)) {
+                MappedByteBuffer buffer = channel.map(READ_ONLY, 0, channel.size());
+                byte[] record;
+                while ((record = readRecord(buffer)) != null) {
+                    Entry entry = StoreDelta.readEntry(new DataInputStream(new ByteArrayInputStream(record)));
+                    entries.merge(ByteBuffer.wrap(entry.getKey()), entry, resolver::resolve);
+                }
+            }
+        }
+        entries.values().removeIf(entry -> isExpired(entry, now));
+        return entries.values();
+    }
+
+    private boolean isExpired(Entry entry, long now)
+    {
+        if (entry.getValue() == null) {
+            return entry.getTimestamp() + tombstoneMaxAgeMillis < now;
+        }
+        return entry.getMaxAgeInMs() != null && entry.getTimestamp() + entry.getMaxAgeInMs() < now;
+    }
+
+    private List<Long> listSegments()
+            throws IOException
+    {
+        List<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory)) {
+            for (Path path : paths) {
+                Matcher matcher = SEGMENT_NAME.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    segments.add(Long.parseLong(matcher.group(1)));
+                }
+                else if (path.getFileName().toString().endsWith(".tmp")) {
+                    // left over from a compaction that did not finish, whose segments are all still there
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+        segments.sort(null);
+        return segments;
+    }
+
+    private Path segmentPath(long segment)
+    {
+        return directory.resolve(String.format("announcements-%016d.log", segment));
+    }
+
+    private static byte[] encode(Entry entry)
+            throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        StoreDelta.writeEntry(new DataOutputStream(bytes), entry);
+        return bytes.toByteArray();
+    }
+
+    private static void writeRecord(ByteBuffer buffer, byte[] record)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        buffer.putInt(record.length);
+        buffer.putInt((int) crc.getValue());
+        buffer.put(record);
+    }
+
+    private static byte[] readRecord(ByteBuffer buffer)
+    {
+        if (buffer.remaining() < RECORD_HEADER_SIZE) {
+            return null;
+        }
+        int length = buffer.getInt();
+        int checksum = buffer.getInt();
+        if (length <= 0 || length > buffer.remaining()) {
+            return null;
+        }
+        byte[] record = new byte[length];
+        buffer.get(record);
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+        return record;
+    }
+
+    @Managed
+    public long getAppends()
+    {
+        return appends.get();
+    }
+
+    @Managed
+    public long getAppendFailures()
+    {
+        return appendFailures.get();
+    }
+
+    @Managed
+    public long getCompactions()
+    {
+        return compactions.get();
+    }
+
+    @Managed
+    public long getReplayedEntries()
+    {
+        return replayedEntries.get();
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.discovery;
+
+import com.google.common.base.Supplier;
+import com.google.inject.Binder;
+import com.google.inject.Key;
+import com.google.inject.Module;
+import com.google.inject.Scopes;
+import com.google.inject.TypeLiteral;
+import com.google.inject.multibindings.MapBinder;
+import io.airlift.discovery.client.ServiceSelector;
+import io.airlift.discovery.server.ForDynamicStore;
+import io.airlift.discovery.store.ConflictResolver;
+import io.airlift.discovery.store.DistributedStore;
+import io.airlift.discovery.store.HttpRemoteStore;
+import io.airlift.discovery.store.LocalStore;
+import io.airlift.discovery.store.RealTimeSupplier;
+import io.airlift.discovery.store.RemoteStore;
+import io.airlift.discovery.store.StoreConfig;
+import io.airlift.discovery.store.StoreResource;
+import io.airlift.http.client.HttpClient;
+import io.airlift.node.NodeInfo;
+import org.joda.time.DateTime;
+import org.weakref.jmx.MBeanExporter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Provider;
+
+import static io.airlift.configuration.ConfigBinder.configBinder;
+import static io.airlift.http.client.HttpClientBinder.httpClientBinder;
+import static io.airlift.jaxrs.JaxrsBinder.jaxrsBinder;
+import static org.weakref.jmx.guice.ExportBinder.newExporter;
+
+/**
+ * Binds the dynamic store as airlift's {@link io.airlift.discovery.store.ReplicatedStoreModule} does, keeping its
+ * configuration, update pushes and full listing, but with a {@link SequencedLocalStore} and the {@link DeltaReplicator}
+ * in place of its full-store replicator.
+ */
+public class DeltaReplicatedStoreModule
+        implements Module
+{
+    private static final String NAME = "dynamic";
+
+    @Override
+    public void configure(Binder binder)
+    {
+        binder.bind(new TypeLiteral<Supplier<DateTime>>() {}).to(RealTimeSupplier.class).in(Scopes.SINGLETON);
+        binder.bind(ConflictResolver.class).in(Scopes.SINGLETON);
+
+        configBinder(binder).bindConfig(StoreConfig.class, ForDynamicStore.class, NAME);
+        httpClientBinder(binder).bindHttpClient(NAME, ForDynamicStore.class);
+
+        binder.bind(AnnouncementLog.class).in(Scopes.SINGLETON);
+        newExporter(binder).export(AnnouncementLog.class).withGeneratedName();
+        binder.bind(SequencedLocalStore.class).in(Scopes.SINGLETON);
+        binder.bind(LocalStore.class).annotatedWith(ForDynamicStore.class).to(SequencedLocalStore.class);
+        binder.bind(RemoteStore.class).annotatedWith(ForDynamicStore.class).toProvider(RemoteStoreProvider.class).in(Scopes.SINGLETON);
+        binder.bind(DistributedStore.class).annotatedWith(ForDynamicStore.class).toProvider(DistributedStoreProvider.class).in(Scopes.SINGLETON);
+
+        binder.bind(DeltaReplicator.class).in(Scopes.SINGLETON);
+        newExporter(binder).export(DeltaReplicator.class).withGeneratedName();
+
+        jaxrsBinder(binder).bind(StoreResource.class);
+        MapBinder.newMapBinder(binder, String.class, LocalStore.class).addBinding(NAME).to(Key.get(LocalStore.class, ForDynamicStore.class));
+        MapBinder.newMapBinder(binder, String.class, StoreConfig.class).addBinding(NAME).to(Key.get(StoreConfig.class, ForDynamicStore.class));
+        jaxrsBinder(binder).bind(StoreDeltaResource.class);
+    }
+
+    private static class RemoteStoreProvider
+            implements Provider<RemoteStore>
+    {
+        private final HttpRemoteStore store;
+
+        @Inject
+        public RemoteStoreProvider(
+                NodeInfo nodeInfo,
+                ServiceSelector selector,
+                @ForDynamicStore StoreConfig config,
+                @ForDynamicStore HttpClient httpClient,
+                MBeanExporter exporter)
+        {
+            this.store = new HttpRemoteStore(NAME, nodeInfo, selector, config, httpClient, exporter);
+        }
+
+        @PostConstruct
+        public void start()
+        {
+            store.start();
+        }
+
+        @PreDestroy
+        public void stop()
+        {
+            store.shutdown();
+        }
+
+        @Override
+        public RemoteStore get()
+        {
+            return store;
+        }
+    }
+
+    private static class DistributedStoreProvider
+            implements Provider<DistributedStore>
+    {
+        private final DistributedStore store;
+
+        @Inject
+        public DistributedStoreProvider(
+                @ForDynamicStore LocalStore localStore,
+                @ForDynamicStore RemoteStore remoteStore,
+                @ForDynamicStore StoreConfig config,
+                Supplier<DateTime> timeSupplier)
+        {
+            this.store = new DistributedStore(NAME, localStore, remoteStore, config, timeSupplier);
+        }
+
+        @PostConstruct
+        public void start()
+        {
+            store.start();
+        }
+
+        @PreDestroy
+        public void stop()
+        {
+            store.shutdown();
+        }
+
+        @Override
+        public DistributedStore get()
+        {
+            return store;
+        }
+    }
+}
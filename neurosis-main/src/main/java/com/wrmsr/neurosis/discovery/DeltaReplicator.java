@@ -0,0 +1,296 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.discovery;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.io.CountingInputStream;
+import io.airlift.discovery.client.ServiceDescriptor;
+import io.airlift.discovery.client.ServiceSelector;
+import io.airlift.discovery.server.ForDynamicStore;
+import io.airlift.discovery.store.Entry;
+import io.airlift.discovery.store.StoreConfig;
+import io.airlift.http.client.HttpClient;
+import io.airlift.http.client.Request;
+import io.airlift.http.client.Response;
+import io.airlift.http.client.ResponseHandler;
+import io.airlift.log.Logger;
+import io.airlift.node.NodeInfo;
+import org.weakref.jmx.Managed;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static io.airlift.http.client.HttpUriBuilder.uriBuilderFrom;
+import static io.airlift.http.client.Request.Builder.prepareGet;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+
+/**
+ * Anti-entropy for the dynamic store which pulls only the entries each other discovery server changed since the last
+ * sync. Positions are kept per server as the epoch and sequence of its {@link SequencedLocalStore}, together forming a
+ * version vector over the replicas. Servers without the delta endpoint are synced from their full listing as airlift's
+ * replicator would.
+ */
+public class DeltaReplicator
+{
+    private static final Logger log = Logger.get(DeltaReplicator.class);
+
+    private static final class Position
+    {
+        private final long epoch;
+        private final long sequence;
+
+        private Position(long epoch, long sequence)
+        {
+            this.epoch = epoch;
+            this.sequence = sequence;
+        }
+    }
+
+    private final NodeInfo node;
+    private final ServiceSelector selector;
+    private final HttpClient httpClient;
+    private final SequencedLocalStore localStore;
+    private final long replicationIntervalMillis;
+
+    private final ScheduledExecutorService executor = newSingleThreadScheduledExecutor(daemonThreadsNamed("delta-replicator-dynamic"));
+    // a plain mapper as in airlift's replicator, since ObjectMapperProvider's cannot set the final fields of store entries
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    // only touched from the replication thread
+    private final Map<String, Position> positions = new HashMap<>();
+
+    private final AtomicLong lastReplicationTimestamp = new AtomicLong();
+    private final AtomicLong deltaSyncs = new AtomicLong();
+    private final AtomicLong fullSyncs = new AtomicLong();
+    private final AtomicLong entriesReceived = new AtomicLong();
+    private final AtomicLong refreshesReceived = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    @Inject
+    public DeltaReplicator(
+            NodeInfo node,
+            ServiceSelector selector,
+            @ForDynamicStore HttpClient httpClient,
+            SequencedLocalStore localStore,
+            @ForDynamicStore StoreConfig config)
+    {
+        this.node = requireNonNull(node, "node is null");
+        this.selector = requireNonNull(selector, "selector is null");
+        this.httpClient = requireNonNull(httpClient, "httpClient is null");
+        this.localStore = requireNonNull(localStore, "localStore is null");
+        this.replicationIntervalMillis = requireNonNull(config, "config is null").getReplicationInterval().toMillis();
+    }
+
+    @PostConstruct
+    public void start()
+    {
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                synchronize();
+            }
+            catch (Throwable e) {
+                // ignore to avoid getting unscheduled
+                log.warn(e, "Error replicating dynamic store");
+            }
+        }, 0, replicationIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        executor.shutdownNow();
+    }
+
+    @VisibleForTesting
+    void synchronize()
+    {
+        Set<String> present = new HashSet<>();
+        for (ServiceDescriptor descriptor : selector.selectAllServices()) {
+            if (descriptor.getNodeId().equals(node.getNodeId())) {
+                continue;
+            }
+            String uri = descriptor.getProperties().get("http");
+            if (uri == null) {
+                log.error("service descriptor for node %s is missing http uri", descriptor.getNodeId());
+                continue;
+            }
+            present.add(descriptor.getNodeId());
+            try {
+                synchronize(descriptor.getNodeId(), URI.create(uri));
+            }
+            catch (RuntimeException e) {
+                log.debug(e, "Error replicating dynamic store from %s", uri);
+            }
+        }
+        positions.keySet().retainAll(present);
+        lastReplicationTimestamp.set(System.currentTimeMillis());
+    }
+
+    private void synchronize(String nodeId, URI uri)
+    {
+        Position position = positions.getOrDefault(nodeId, new Position(0, 0));
+        Request request = prepareGet()
+                .setUri(uriBuilderFrom(uri)
+                        .replacePath("/v1/store-delta/dynamic")
+                        .addParameter("epoch", Long.toString(position.epoch))
+                        .addParameter("since", Long.toString(position.sequence))
+                        .build())
+                .build();
+        StoreDelta delta = httpClient.execute(request, new StreamResponseHandler<>(StoreDelta::readFrom));
+        if (delta == null) {
+            synchronizeFully(uri);
+            return;
+        }
+        deltaSyncs.incrementAndGet();
+        apply(delta.getEntries());
+        if (!applyRefreshes(delta.getRefreshes())) {
+            // this store no longer has a value the server assumed it did, so start over with everything
+            positions.remove(nodeId);
+            return;
+        }
+        positions.put(nodeId, new Position(delta.getEpoch(), delta.getSequence()));
+    }
+
+    private void synchronizeFully(URI uri)
+    {
+        Request request = prepareGet().setUri(uriBuilderFrom(uri).replacePath("/v1/store/dynamic").build()).build();
+        List<Entry> entries = httpClient.execute(request, new StreamResponseHandler<>(input -> mapper.readValue(input, new TypeReference<List<Entry>>() {})));
+        if (entries != null) {
+            fullSyncs.incrementAndGet();
+            apply(entries);
+        }
+    }
+
+    private void apply(List<Entry> entries)
+    {
+        entriesReceived.addAndGet(entries.size());
+        for (Entry entry : entries) {
+            localStore.put(entry);
+        }
+    }
+
+    private boolean applyRefreshes(List<StoreDelta.Refresh> refreshes)
+    {
+        refreshesReceived.addAndGet(refreshes.size());
+        boolean complete = true;
+        for (StoreDelta.Refresh refresh : refreshes) {
+            Entry entry = refresh.apply(localStore.get(refresh.getKey()));
+            if (entry == null) {
+                complete = false;
+                continue;
+            }
+            localStore.put(entry);
+        }
+        return complete;
+    }
+
+    private interface StreamReader<T>
+    {
+        T read(InputStream input)
+                throws IOException;
+    }
+
+    /**
+     * Reads a successful response with the given reader, returning null when the server does not have the resource.
+     */
+    private class StreamResponseHandler<T>
+            implements ResponseHandler<T, RuntimeException>
+    {
+        private final StreamReader<T> reader;
+
+        private StreamResponseHandler(StreamReader<T> reader)
+        {
+            this.reader = reader;
+        }
+
+        @Override
+        public T handleException(Request request, Exception exception)
+        {
+            throw Throwables.propagate(exception);
+        }
+
+        @Override
+        public T handle(Request request, Response response)
+        {
+            if (response.getStatusCode() == 404) {
+                return null;
+            }
+            if (response.getStatusCode() != 200) {
+                throw new RuntimeException(String.format("Request to %s failed with status %s", request.getUri(), response.getStatusCode()));
+            }
+            try (CountingInputStream input = new CountingInputStream(response.getInputStream())) {
+                T value = reader.read(input);
+                bytesReceived.addAndGet(input.getCount());
+                return value;
+            }
+            catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+    }
+
+    @Managed
+    public long getLastReplicationTimestamp()
+    {
+        return lastReplicationTimestamp.get();
+    }
+
+    @Managed
+    public long getDeltaSyncs()
+    {
+        return deltaSyncs.get();
+    }
+
+    @Managed
+    public long getFullSyncs()
+    {
+        return fullSyncs.get();
+    }
+
+    @Managed
+    public long getEntriesReceived()
+    {
+        return entriesReceived.get();
+    }
+
+    @Managed
+    public long getRefreshesReceived()
+    {
+        return refreshesReceived.get();
+    }
+
+    @Managed
+    public long getBytesReceived()
+    {
+        return bytesReceived.get();
+    }
+}
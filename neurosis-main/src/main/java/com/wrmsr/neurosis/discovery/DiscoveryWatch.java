@@ -0,0 +1,227 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.discovery;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import io.airlift.discovery.server.Service;
+import io.airlift.log.Logger;
+import org.weakref.jmx.Managed;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+
+/**
+ * Versioned view of the dynamic store's services. The version changes whenever the set of services does, and watchers
+ * can wait for the version to move past the one they last saw instead of polling the full list. Local announcements
+ * request a refresh right away; replication from other discovery servers and expiry are picked up by a periodic sweep.
+ */
+@ThreadSafe
+public class DiscoveryWatch
+{
+    private static final Logger log = Logger.get(DiscoveryWatch.class);
+
+    public static final class Snapshot
+    {
+        private final long version;
+        private final Set<Service> services;
+
+        private Snapshot(long version, Set<Service> services)
+        {
+            this.version = version;
+            this.services = services;
+        }
+
+        public long getVersion()
+        {
+            return version;
+        }
+
+        public Set<Service> getServices()
+        {
+            return services;
+        }
+    }
+
+    private final IndexedDynamicStore store;
+    private final long refreshIntervalMillis;
+
+    private final ScheduledExecutorService executor = newSingleThreadScheduledExecutor(daemonThreadsNamed("discovery-watch"));
+    private final AtomicBoolean refreshPending = new AtomicBoolean();
+    private final List<Consumer<Snapshot>> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong refreshes = new AtomicLong();
+
+    // versions start from the clock so a watcher carrying a version from before a restart is answered right away
+    @GuardedBy("this")
+    private Snapshot current = new Snapshot(System.currentTimeMillis(), ImmutableSet.of());
+    // one future per wait, so that a wait given up on can be dropped without touching the others
+    @GuardedBy("this")
+    private final Set<CompletableFuture<Snapshot>> waiters = new HashSet<>();
+
+    @Inject
+    public DiscoveryWatch(IndexedDynamicStore store, EmbeddedDiscoveryConfig config)
+    {
+        this.store = requireNonNull(store, "store is null");
+        this.refreshIntervalMillis = requireNonNull(config, "config is null").getWatchRefreshInterval().toMillis();
+    }
+
+    @PostConstruct
+    public void start()
+    {
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                store.reindex();
+                refresh();
+            }
+            catch (Throwable e) {
+                // ignore to avoid getting unscheduled
+                log.warn(e, "Error refreshing discovery watch");
+            }
+        }, 0, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Refreshes soon on the watch thread, coalescing with any refresh already requested.
+     */
+    public void requestRefresh()
+    {
+        if (refreshPending.compareAndSet(false, true)) {
+            executor.execute(() -> {
+                refreshPending.set(false);
+                try {
+                    refresh();
+                }
+                catch (Throwable e) {
+                    log.warn(e, "Error refreshing discovery watch");
+                }
+            });
+        }
+    }
+
+    public void refresh()
+    {
+        refreshes.incrementAndGet();
+        Set<Service> services = ImmutableSet.copyOf(store.getAll());
+
+        Snapshot snapshot;
+        List<CompletableFuture<Snapshot>> changed;
+        synchronized (this) {
+            if (services.equals(current.services)) {
+                return;
+            }
+            snapshot = new Snapshot(current.version + 1, services);
+            current = snapshot;
+            changed = ImmutableList.copyOf(waiters);
+            waiters.clear();
+        }
+
+        for (CompletableFuture<Snapshot> waiter : changed) {
+            waiter.complete(snapshot);
+        }
+        for (Consumer<Snapshot> listener : listeners) {
+            try {
+                listener.accept(snapshot);
+            }
+            catch (Throwable e) {
+                log.warn(e, "Error notifying discovery watch listener");
+            }
+        }
+    }
+
+    public synchronized Snapshot getCurrent()
+    {
+        return current;
+    }
+
+    /**
+     * Completes with the current snapshot once its version differs from the given one, which is immediately if it already
+     * does. Each call gets a future of its own; cancel it to give up on the wait, which drops it from the watch right away.
+     */
+    public CompletableFuture<Snapshot> waitForChange(long version)
+    {
+        CompletableFuture<Snapshot> future = new CompletableFuture<>();
+        synchronized (this) {
+            if (current.version != version) {
+                return completedFuture(current);
+            }
+            waiters.add(future);
+        }
+        future.whenComplete((snapshot, e) -> removeWaiter(future));
+        return future;
+    }
+
+    private synchronized void removeWaiter(CompletableFuture<Snapshot> future)
+    {
+        waiters.remove(future);
+    }
+
+    public void addListener(Consumer<Snapshot> listener)
+    {
+        listeners.add(requireNonNull(listener, "listener is null"));
+    }
+
+    public void removeListener(Consumer<Snapshot> listener)
+    {
+        listeners.remove(listener);
+    }
+
+    @Managed
+    public synchronized long getVersion()
+    {
+        return current.version;
+    }
+
+    @Managed
+    public synchronized int getServiceCount()
+    {
+        return current.services.size();
+    }
+
+    @Managed
+    public long getRefreshes()
+    {
+        return refreshes.get();
+    }
+
+    @Managed(description = "Number of waits for a change still pending")
+    public synchronized int getWaiterCount()
+    {
+        return waiters.size();
+    }
+}
@@ -14,10 +14,24 @@
 package com.wrmsr.neurosis.discovery;
 
 import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+import io.airlift.units.MaxDataSize;
+import io.airlift.units.MinDataSize;
+import io.airlift.units.MinDuration;
+
+import javax.validation.constraints.NotNull;
+
+import java.util.concurrent.TimeUnit;
 
 public class EmbeddedDiscoveryConfig
 {
     private boolean enabled;
+    private Duration watchRefreshInterval = new Duration(1, TimeUnit.SECONDS);
+    private String announcementLogDirectory;
+    private DataSize announcementLogSegmentSize = new DataSize(64, DataSize.Unit.MEGABYTE);
+    private Duration announcementLogCompactionInterval = new Duration(5, TimeUnit.MINUTES);
 
     public boolean isEnabled()
     {
@@ -30,4 +44,62 @@ public class EmbeddedDiscoveryConfig
         this.enabled = enabled;
         return this;
     }
+
+    @MinDuration("1ms")
+    @NotNull
+    public Duration getWatchRefreshInterval()
+    {
+        return watchRefreshInterval;
+    }
+
+    @Config("discovery-server.watch-refresh-interval")
+    @ConfigDescription("How often to check for services replicated from other discovery servers or expired, for watchers")
+    public EmbeddedDiscoveryConfig setWatchRefreshInterval(Duration watchRefreshInterval)
+    {
+        this.watchRefreshInterval = watchRefreshInterval;
+        return this;
+    }
+
+    public String getAnnouncementLogDirectory()
+    {
+        return announcementLogDirectory;
+    }
+
+    @Config("discovery-server.announcement-log.directory")
+    @ConfigDescription("Directory to log announcements to, so they can be replayed after a restart; disabled if unset")
+    public EmbeddedDiscoveryConfig setAnnouncementLogDirectory(String announcementLogDirectory)
+    {
+        this.announcementLogDirectory = announcementLogDirectory;
+        return this;
+    }
+
+    @MinDataSize("1kB")
+    @MaxDataSize("1GB")
+    @NotNull
+    public DataSize getAnnouncementLogSegmentSize()
+    {
+        return announcementLogSegmentSize;
+    }
+
+    @Config("discovery-server.announcement-log.segment-size")
+    public EmbeddedDiscoveryConfig setAnnouncementLogSegmentSize(DataSize announcementLogSegmentSize)
+    {
+        this.announcementLogSegmentSize = announcementLogSegmentSize;
+        return this;
+    }
+
+    @MinDuration("1s")
+    @NotNull
+    public Duration getAnnouncementLogCompactionInterval()
+    {
+        return announcementLogCompactionInterval;
+    }
+
+    @Config("discovery-server.announcement-log.compaction-interval")
+    @ConfigDescription("How often to rewrite the announcement log without expired and superseded entries")
+    public EmbeddedDiscoveryConfig setAnnouncementLogCompactionInterval(Duration announcementLogCompactionInterval)
+    {
+        this.announcementLogCompactionInterval = announcementLogCompactionInterval;
+        return this;
+    }
 }
@@ -16,6 +16,7 @@ package com.wrmsr.neurosis.discovery;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
 import com.google.inject.Binder;
 import com.google.inject.Scopes;
 import io.airlift.configuration.AbstractConfigurationAwareModule;
@@ -25,27 +26,29 @@ import io.airlift.discovery.client.ServiceSelector;
 import io.airlift.discovery.server.DiscoveryConfig;
 import io.airlift.discovery.server.DynamicAnnouncementResource;
 import io.airlift.discovery.server.DynamicStore;
-import io.airlift.discovery.server.ForDynamicStore;
 import io.airlift.discovery.server.Id;
-import io.airlift.discovery.server.ReplicatedDynamicStore;
 import io.airlift.discovery.server.Service;
 import io.airlift.discovery.server.ServiceResource;
 import io.airlift.discovery.server.StaticStore;
-import io.airlift.discovery.store.InMemoryStore;
-import io.airlift.discovery.store.ReplicatedStoreModule;
 import io.airlift.node.NodeInfo;
 
+import javax.annotation.PreDestroy;
+import javax.annotation.concurrent.GuardedBy;
 import javax.inject.Inject;
 
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
-import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static com.google.common.collect.Iterables.filter;
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
 import static io.airlift.configuration.ConfigBinder.configBinder;
 import static io.airlift.discovery.client.DiscoveryBinder.discoveryBinder;
 import static io.airlift.jaxrs.JaxrsBinder.jaxrsBinder;
 import static io.airlift.json.JsonCodecBinder.jsonCodecBinder;
 import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static org.weakref.jmx.guice.ExportBinder.newExporter;
 
 public class EmbeddedDiscoveryModule
         extends AbstractConfigurationAwareModule
@@ -65,12 +68,19 @@ public class EmbeddedDiscoveryModule
         jsonCodecBinder(binder).bindJsonCodec(Service.class);
         jsonCodecBinder(binder).bindListJsonCodec(Service.class);
 
-        binder.bind(ServiceSelector.class).to(DiscoveryServiceSelector.class);
+        binder.bind(ServiceSelector.class).to(DiscoveryServiceSelector.class).in(Scopes.SINGLETON);
         binder.bind(StaticStore.class).to(EmptyStaticStore.class);
 
         jaxrsBinder(binder).bind(DynamicAnnouncementResource.class);
-        binder.bind(DynamicStore.class).to(ReplicatedDynamicStore.class).in(Scopes.SINGLETON);
-        binder.install(new ReplicatedStoreModule("dynamic", ForDynamicStore.class, InMemoryStore.class));
+        binder.bind(IndexedDynamicStore.class).in(Scopes.SINGLETON);
+        newExporter(binder).export(IndexedDynamicStore.class).withGeneratedName();
+        binder.bind(DynamicStore.class).to(WatchedDynamicStore.class).in(Scopes.SINGLETON);
+        binder.install(new DeltaReplicatedStoreModule());
+
+        binder.bind(DiscoveryWatch.class).in(Scopes.SINGLETON);
+        binder.bind(SelectorRefresher.class).asEagerSingleton();
+        newExporter(binder).export(DiscoveryWatch.class).withGeneratedName();
+        jaxrsBinder(binder).bind(ServiceWatchResource.class);
     }
 
     private static class DiscoveryServiceSelector
@@ -79,6 +89,14 @@ public class EmbeddedDiscoveryModule
         private final NodeInfo nodeInfo;
         private final ServiceInventory inventory;
 
+        private final ExecutorService executor = newSingleThreadExecutor(daemonThreadsNamed("discovery-selector-refresh"));
+
+        @GuardedBy("this")
+        private ListenableFuture<List<ServiceDescriptor>> refreshing;
+
+        // the inventory swaps in a new list on each update, so the filtered copy is only rebuilt when that happens
+        private volatile Selection selection = new Selection(ImmutableList.of(), ImmutableList.of());
+
         @Inject
         public DiscoveryServiceSelector(NodeInfo nodeInfo, ServiceInventory inventory)
         {
@@ -86,6 +104,12 @@ public class EmbeddedDiscoveryModule
             this.inventory = requireNonNull(inventory, "inventory is null");
         }
 
+        @PreDestroy
+        public void stop()
+        {
+            executor.shutdownNow();
+        }
+
         @Override
         public String getType()
         {
@@ -101,15 +125,56 @@ public class EmbeddedDiscoveryModule
         @Override
         public List<ServiceDescriptor> selectAllServices()
         {
-            return ImmutableList.copyOf(inventory.getServiceDescriptors(getType()));
+            Iterable<ServiceDescriptor> source = inventory.getServiceDescriptors();
+            Selection selection = this.selection;
+            if (selection.source != source) {
+                List<ServiceDescriptor> services = ImmutableList.copyOf(filter(source, descriptor -> descriptor.getType().equals(getType())));
+                selection = new Selection(source, services);
+                this.selection = selection;
+            }
+            return selection.services;
         }
 
         @Override
-        public ListenableFuture<List<ServiceDescriptor>> refresh()
+        public synchronized ListenableFuture<List<ServiceDescriptor>> refresh()
+        {
+            // callers arriving while an update is running share it
+            if (refreshing != null && !refreshing.isDone()) {
+                return refreshing;
+            }
+            ListenableFutureTask<List<ServiceDescriptor>> task = ListenableFutureTask.create(() -> {
+                inventory.updateServiceInventory();
+                return selectAllServices();
+            });
+            executor.execute(task);
+            refreshing = task;
+            return task;
+        }
+    }
+
+    private static final class Selection
+    {
+        private final Iterable<ServiceDescriptor> source;
+        private final List<ServiceDescriptor> services;
+
+        private Selection(Iterable<ServiceDescriptor> source, List<ServiceDescriptor> services)
+        {
+            this.source = source;
+            this.services = services;
+        }
+    }
+
+    /**
+     * Refreshes the selector whenever the watch sees a change, so discovery servers announcing themselves here are picked
+     * up without waiting for the inventory's own poll. Wired up separately as the replicated store the watch reads from
+     * depends on the selector.
+     */
+    private static class SelectorRefresher
+    {
+        @Inject
+        public SelectorRefresher(DiscoveryWatch watch, ServiceSelector selector)
         {
-            // todo modify Service inventory to be async
-            inventory.updateServiceInventory();
-            return immediateFuture(selectAllServices());
+            watch.addListener(snapshot -> selector.refresh());
         }
     }
 
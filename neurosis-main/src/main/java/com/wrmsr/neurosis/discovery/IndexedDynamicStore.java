@@ -0,0 +1,240 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.discovery;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Iterables;
+import io.airlift.discovery.server.DiscoveryConfig;
+import io.airlift.discovery.server.DynamicAnnouncement;
+import io.airlift.discovery.server.DynamicServiceAnnouncement;
+import io.airlift.discovery.server.DynamicStore;
+import io.airlift.discovery.server.ForDynamicStore;
+import io.airlift.discovery.server.Id;
+import io.airlift.discovery.server.Node;
+import io.airlift.discovery.server.Service;
+import io.airlift.discovery.store.DistributedStore;
+import io.airlift.discovery.store.Entry;
+import io.airlift.discovery.store.Version;
+import io.airlift.json.JsonCodec;
+import io.airlift.units.Duration;
+import org.weakref.jmx.Managed;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Dynamic store kept in the same replicated store and format as airlift's {@link io.airlift.discovery.server.ReplicatedDynamicStore},
+ * but read from an immutable index by type, pool and node which is swapped in whole whenever the services change. Reads
+ * are lookups in the current index and return shared sets. Local announcements update the index as they are made, and
+ * {@link #reindex()} picks up replicated and expired entries, decoding only those whose contents changed.
+ */
+@ThreadSafe
+public class IndexedDynamicStore
+        implements DynamicStore
+{
+    private static final class Index
+    {
+        private final ImmutableSet<Service> all;
+        private final ImmutableSetMultimap<String, Service> byType;
+        private final ImmutableMap<String, ImmutableSetMultimap<String, Service>> byTypeAndPool;
+        private final ImmutableSetMultimap<Id<Node>, Service> byNode;
+
+        private Index(Iterable<NodeServices> nodes)
+        {
+            ImmutableSet.Builder<Service> all = ImmutableSet.builder();
+            ImmutableSetMultimap.Builder<String, Service> byType = ImmutableSetMultimap.builder();
+            Map<String, ImmutableSetMultimap.Builder<String, Service>> byTypeAndPool = new HashMap<>();
+            ImmutableSetMultimap.Builder<Id<Node>, Service> byNode = ImmutableSetMultimap.builder();
+            for (NodeServices node : nodes) {
+                for (Service service : node.services) {
+                    all.add(service);
+                    byType.put(service.getType(), service);
+                    byTypeAndPool.computeIfAbsent(service.getType(), type -> ImmutableSetMultimap.builder()).put(service.getPool(), service);
+                    byNode.put(service.getNodeId(), service);
+                }
+            }
+            this.all = all.build();
+            this.byType = byType.build();
+            ImmutableMap.Builder<String, ImmutableSetMultimap<String, Service>> pools = ImmutableMap.builder();
+            byTypeAndPool.forEach((type, builder) -> pools.put(type, builder.build()));
+            this.byTypeAndPool = pools.build();
+            this.byNode = byNode.build();
+        }
+    }
+
+    private static final class NodeServices
+    {
+        // null for local announcements, whose version is assigned by the store
+        private final Version version;
+        private final byte[] value;
+        private final Set<Service> services;
+
+        private NodeServices(Version version, byte[] value, Set<Service> services)
+        {
+            this.version = version;
+            this.value = value;
+            this.services = services;
+        }
+    }
+
+    private final DistributedStore store;
+    private final Duration maxAge;
+    private final JsonCodec<List<Service>> codec;
+
+    @GuardedBy("this")
+    private Map<String, NodeServices> nodes = new HashMap<>();
+    private volatile Index index = new Index(ImmutableSet.of());
+
+    private final AtomicLong decodes = new AtomicLong();
+    private final AtomicLong rebuilds = new AtomicLong();
+
+    @Inject
+    public IndexedDynamicStore(@ForDynamicStore DistributedStore store, DiscoveryConfig config, JsonCodec<List<Service>> codec)
+    {
+        this.store = requireNonNull(store, "store is null");
+        this.maxAge = requireNonNull(config, "config is null").getMaxAge();
+        this.codec = requireNonNull(codec, "codec is null");
+    }
+
+    @Override
+    public void put(Id<Node> nodeId, DynamicAnnouncement announcement)
+    {
+        Set<Service> services = ImmutableSet.copyOf(Iterables.transform(
+                announcement.getServiceAnnouncements(),
+                DynamicServiceAnnouncement.toServiceWith(nodeId, announcement.getLocation(), announcement.getPool())));
+        byte[] key = nodeId.getBytes();
+        byte[] value = codec.toJsonBytes(ImmutableList.copyOf(services));
+        store.put(key, value, maxAge);
+
+        synchronized (this) {
+            NodeServices previous = nodes.put(new String(key, UTF_8), new NodeServices(null, value, services));
+            // nodes re-announce the same services every few seconds, which leaves the index as it is
+            if (previous == null || !previous.services.equals(services)) {
+                rebuild();
+            }
+        }
+    }
+
+    @Override
+    public void delete(Id<Node> nodeId)
+    {
+        byte[] key = nodeId.getBytes();
+        store.delete(key);
+
+        synchronized (this) {
+            if (nodes.remove(new String(key, UTF_8)) != null) {
+                rebuild();
+            }
+        }
+    }
+
+    /**
+     * Brings the index up to date with entries replicated from other discovery servers and drops expired ones.
+     */
+    public synchronized void reindex()
+    {
+        Map<String, NodeServices> current = new HashMap<>();
+        boolean changed = false;
+        for (Entry entry : store.getAll()) {
+            String key = new String(entry.getKey(), UTF_8);
+            NodeServices previous = nodes.get(key);
+            if (previous != null && (entry.getVersion().equals(previous.version) || Arrays.equals(entry.getValue(), previous.value))) {
+                current.put(key, new NodeServices(entry.getVersion(), previous.value, previous.services));
+                continue;
+            }
+            decodes.incrementAndGet();
+            Set<Service> services = ImmutableSet.copyOf(codec.fromJson(entry.getValue()));
+            current.put(key, new NodeServices(entry.getVersion(), entry.getValue(), services));
+            changed |= previous == null || !previous.services.equals(services);
+        }
+        changed |= !current.keySet().equals(nodes.keySet());
+
+        nodes = current;
+        if (changed) {
+            rebuild();
+        }
+    }
+
+    @GuardedBy("this")
+    private void rebuild()
+    {
+        rebuilds.incrementAndGet();
+        index = new Index(nodes.values());
+    }
+
+    @Override
+    public Set<Service> getAll()
+    {
+        return index.all;
+    }
+
+    @Override
+    public Set<Service> get(String type)
+    {
+        return index.byType.get(type);
+    }
+
+    @Override
+    public Set<Service> get(String type, String pool)
+    {
+        ImmutableSetMultimap<String, Service> pools = index.byTypeAndPool.get(type);
+        if (pools == null) {
+            return ImmutableSet.of();
+        }
+        return pools.get(pool);
+    }
+
+    public Set<Service> get(Id<Node> nodeId)
+    {
+        return index.byNode.get(nodeId);
+    }
+
+    @Managed
+    public int getNodeCount()
+    {
+        return index.byNode.keySet().size();
+    }
+
+    @Managed
+    public int getServiceCount()
+    {
+        return index.all.size();
+    }
+
+    @Managed
+    public long getDecodes()
+    {
+        return decodes.get();
+    }
+
+    @Managed
+    public long getRebuilds()
+    {
+        return rebuilds.get();
+    }
+}
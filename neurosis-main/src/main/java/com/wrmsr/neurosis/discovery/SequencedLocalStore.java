@@ -0,0 +1,178 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.discovery;
+
+import com.google.common.collect.ImmutableList;
+import io.airlift.discovery.store.ConflictResolver;
+import io.airlift.discovery.store.Entry;
+import io.airlift.discovery.store.LocalStore;
+import io.airlift.discovery.store.Version;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.wrmsr.neurosis.util.ImmutableCollectors.toImmutableList;
+import static io.airlift.discovery.store.Version.Occurs.BEFORE;
+import static io.airlift.discovery.store.Version.Occurs.SAME;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * In-memory local store which numbers every change it accepts, so replicas can ask for just the entries changed since
+ * the last sequence they saw rather than the whole store. Sequences are only meaningful within one epoch, which is
+ * chosen at random on startup; a replica asking about another epoch is sent everything. Accepted entries are also
+ * appended to the {@link AnnouncementLog}, if enabled, and replayed from it on startup.
+ */
+@ThreadSafe
+public class SequencedLocalStore
+        implements LocalStore
+{
+    private static final class Sequenced
+    {
+        private final Entry entry;
+        private final long sequence;
+        // sequence at which the value last changed, as nodes re-announce the same value with a new version
+        private final long valueSequence;
+        private final long valueHash;
+
+        private Sequenced(Entry entry, long sequence, long valueSequence, long valueHash)
+        {
+            this.entry = entry;
+            this.sequence = sequence;
+            this.valueSequence = valueSequence;
+            this.valueHash = valueHash;
+        }
+    }
+
+    private final ConflictResolver resolver;
+    private final AnnouncementLog announcementLog;
+    private final long epoch = ThreadLocalRandom.current().nextLong();
+
+    private final ConcurrentMap<ByteBuffer, Sequenced> entries = new ConcurrentHashMap<>();
+    @GuardedBy("this")
+    private final NavigableMap<Long, ByteBuffer> keysBySequence = new TreeMap<>();
+    @GuardedBy("this")
+    private long sequence;
+
+    @Inject
+    public SequencedLocalStore(ConflictResolver resolver, AnnouncementLog announcementLog)
+    {
+        this.resolver = requireNonNull(resolver, "resolver is null");
+        this.announcementLog = requireNonNull(announcementLog, "announcementLog is null");
+        synchronized (this) {
+            for (Entry entry : announcementLog.open()) {
+                accept(entry);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void put(Entry entry)
+    {
+        if (accept(entry)) {
+            announcementLog.append(entry);
+        }
+    }
+
+    @GuardedBy("this")
+    private boolean accept(Entry entry)
+    {
+        ByteBuffer key = ByteBuffer.wrap(entry.getKey());
+        Sequenced existing = entries.get(key);
+        if (existing != null) {
+            if (resolver.resolve(existing.entry, entry) == existing.entry) {
+                return false;
+            }
+            keysBySequence.remove(existing.sequence);
+        }
+        sequence++;
+        long valueSequence = sequence;
+        long valueHash = StoreDelta.hashValue(entry.getValue());
+        if (existing != null && existing.valueHash == valueHash && Arrays.equals(existing.entry.getValue(), entry.getValue())) {
+            valueSequence = existing.valueSequence;
+        }
+        entries.put(key, new Sequenced(entry, sequence, valueSequence, valueHash));
+        keysBySequence.put(sequence, key);
+        return true;
+    }
+
+    @Override
+    public Entry get(byte[] key)
+    {
+        checkNotNull(key, "key is null");
+        Sequenced sequenced = entries.get(ByteBuffer.wrap(key));
+        return sequenced == null ? null : sequenced.entry;
+    }
+
+    @Override
+    public synchronized void delete(byte[] key, Version version)
+    {
+        checkNotNull(key, "key is null");
+        ByteBuffer wrapped = ByteBuffer.wrap(key);
+        Sequenced existing = entries.get(wrapped);
+        if (existing != null && EnumSet.of(BEFORE, SAME).contains(existing.entry.getVersion().compare(version))) {
+            entries.remove(wrapped);
+            keysBySequence.remove(existing.sequence);
+        }
+    }
+
+    @Override
+    public Iterable<Entry> getAll()
+    {
+        return entries.values().stream()
+                .map(sequenced -> sequenced.entry)
+                .collect(toImmutableList());
+    }
+
+    /**
+     * Entries changed after the given sequence of the given epoch, or all entries if the epoch is not the current one.
+     * Entries whose value has not changed since then are sent as refreshes, without the value.
+     */
+    public synchronized StoreDelta getChanges(long epoch, long since)
+    {
+        long after = epoch == this.epoch ? since : 0;
+        ImmutableList.Builder<Entry> changes = ImmutableList.builder();
+        ImmutableList.Builder<StoreDelta.Refresh> refreshes = ImmutableList.builder();
+        for (ByteBuffer key : keysBySequence.tailMap(after, false).values()) {
+            Sequenced sequenced = entries.get(key);
+            if (sequenced.valueSequence > after) {
+                changes.add(sequenced.entry);
+            }
+            else {
+                refreshes.add(new StoreDelta.Refresh(sequenced.entry, sequenced.valueHash));
+            }
+        }
+        return new StoreDelta(this.epoch, sequence, changes.build(), refreshes.build());
+    }
+
+    public long getEpoch()
+    {
+        return epoch;
+    }
+
+    public synchronized long getSequence()
+    {
+        return sequence;
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.discovery;
+
+import io.airlift.discovery.server.Service;
+import io.airlift.node.NodeInfo;
+import io.airlift.units.Duration;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.wrmsr.neurosis.util.ImmutableCollectors.toImmutableSet;
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static io.airlift.http.server.AsyncResponseHandler.bindAsyncResponse;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+
+/**
+ * Long-poll counterpart of airlift's /v1/service. Without a version, or with one that is no longer current, the services
+ * are returned right away; with the current version the request is held until the services change or the wait runs out,
+ * and then answered with whatever is current. The version covers all services, so a watch on one type can be woken by a
+ * change to another and answered with the same services it already has.
+ */
+@Path("/v1/service-watch")
+public class ServiceWatchResource
+{
+    private static final Duration DEFAULT_WAIT = new Duration(30, TimeUnit.SECONDS);
+    private static final Duration MAX_WAIT = new Duration(5, TimeUnit.MINUTES);
+
+    private final DiscoveryWatch watch;
+    private final NodeInfo nodeInfo;
+    private final ExecutorService responseExecutor = newCachedThreadPool(daemonThreadsNamed("discovery-watch-response-%s"));
+
+    @Inject
+    public ServiceWatchResource(DiscoveryWatch watch, NodeInfo nodeInfo)
+    {
+        this.watch = requireNonNull(watch, "watch is null");
+        this.nodeInfo = requireNonNull(nodeInfo, "nodeInfo is null");
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        responseExecutor.shutdownNow();
+    }
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public void watchServices(
+            @QueryParam("version") Long version,
+            @QueryParam("wait") Duration wait,
+            @Suspended AsyncResponse asyncResponse)
+    {
+        watch(null, null, version, wait, asyncResponse);
+    }
+
+    @GET
+    @Path("{type}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void watchServices(
+            @PathParam("type") String type,
+            @QueryParam("version") Long version,
+            @QueryParam("wait") Duration wait,
+            @Suspended AsyncResponse asyncResponse)
+    {
+        watch(type, null, version, wait, asyncResponse);
+    }
+
+    @GET
+    @Path("{type}/{pool}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void watchServices(
+            @PathParam("type") String type,
+            @PathParam("pool") String pool,
+            @QueryParam("version") Long version,
+            @QueryParam("wait") Duration wait,
+            @Suspended AsyncResponse asyncResponse)
+    {
+        watch(type, pool, version, wait, asyncResponse);
+    }
+
+    private void watch(String type, String pool, Long version, Duration wait, AsyncResponse asyncResponse)
+    {
+        if (version == null) {
+            asyncResponse.resume(toResponse(watch.getCurrent(), type, pool));
+            return;
+        }
+
+        if (wait == null) {
+            wait = DEFAULT_WAIT;
+        }
+        else if (wait.compareTo(MAX_WAIT) > 0) {
+            wait = MAX_WAIT;
+        }
+
+        CompletableFuture<DiscoveryWatch.Snapshot> change = watch.waitForChange(version);
+        CompletableFuture<Response> response = change.thenApply(snapshot -> toResponse(snapshot, type, pool));
+        // a timeout or cancellation only cancels the response, so pass it on to give up the wait
+        response.whenComplete((value, e) -> change.cancel(false));
+        bindAsyncResponse(asyncResponse, response, responseExecutor)
+                .withTimeout(wait, () -> toResponse(watch.getCurrent(), type, pool));
+    }
+
+    private Response toResponse(DiscoveryWatch.Snapshot snapshot, String type, String pool)
+    {
+        Set<Service> services = snapshot.getServices();
+        if (type != null) {
+            services = services.stream()
+                    .filter(service -> type.equals(service.getType()))
+                    .filter(service -> pool == null || pool.equals(service.getPool()))
+                    .collect(toImmutableSet());
+        }
+        return Response.ok(new WatchedServices(nodeInfo.getEnvironment(), snapshot.getVersion(), services)).build();
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.discovery;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+import io.airlift.discovery.store.Entry;
+import io.airlift.discovery.store.Version;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Store entries changed since a replica's last sync, along with the epoch and sequence to ask from next time. Entries
+ * whose value the replica already has are sent as refreshes of their version and timestamp with a hash of the value in
+ * place of it. Encoded as length-prefixed binary rather than the JSON of the full store listing, whose keys and values
+ * are base64 strings.
+ */
+public final class StoreDelta
+{
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * New version of an entry whose value is unchanged.
+     */
+    public static final class Refresh
+    {
+        private final byte[] key;
+        private final long valueHash;
+        private final Version version;
+        private final long timestamp;
+        private final Long maxAgeInMs;
+
+        public Refresh(Entry entry, long valueHash)
+        {
+            this(entry.getKey(), valueHash, entry.getVersion(), entry.getTimestamp(), entry.getMaxAgeInMs());
+        }
+
+        public Refresh(byte[] key, long valueHash, Version version, long timestamp, Long maxAgeInMs)
+        {
+            this.key = requireNonNull(key, "key is null");
+            this.valueHash = valueHash;
+            this.version = requireNonNull(version, "version is null");
+            this.timestamp = timestamp;
+            this.maxAgeInMs = maxAgeInMs;
+        }
+
+        public byte[] getKey()
+        {
+            return key;
+        }
+
+        public long getValueHash()
+        {
+            return valueHash;
+        }
+
+        public long getTimestamp()
+        {
+            return timestamp;
+        }
+
+        public Long getMaxAgeInMs()
+        {
+            return maxAgeInMs;
+        }
+
+        /**
+         * The refreshed entry, if the given one has the value this refresh was sent for.
+         */
+        public Entry apply(Entry entry)
+        {
+            if (entry == null || hashValue(entry.getValue()) != valueHash) {
+                return null;
+            }
+            return new Entry(key, entry.getValue(), version, timestamp, maxAgeInMs);
+        }
+    }
+
+    private final long epoch;
+    private final long sequence;
+    private final List<Entry> entries;
+    private final List<Refresh> refreshes;
+
+    public StoreDelta(long epoch, long sequence, List<Entry> entries, List<Refresh> refreshes)
+    {
+        this.epoch = epoch;
+        this.sequence = sequence;
+        this.entries = ImmutableList.copyOf(requireNonNull(entries, "entries is null"));
+        this.refreshes = ImmutableList.copyOf(requireNonNull(refreshes, "refreshes is null"));
+    }
+
+    public long getEpoch()
+    {
+        return epoch;
+    }
+
+    public long getSequence()
+    {
+        return sequence;
+    }
+
+    public List<Entry> getEntries()
+    {
+        return entries;
+    }
+
+    public List<Refresh> getRefreshes()
+    {
+        return refreshes;
+    }
+
+    public static long hashValue(byte[] value)
+    {
+        // tombstones have no value
+        if (value == null) {
+            return 0;
+        }
+        return Hashing.murmur3_128().hashBytes(value).asLong();
+    }
+
+    public void writeTo(OutputStream outputStream)
+            throws IOException
+    {
+        DataOutputStream output = new DataOutputStream(outputStream);
+        output.writeByte(FORMAT_VERSION);
+        output.writeLong(epoch);
+        output.writeLong(sequence);
+        output.writeInt(entries.size());
+        for (Entry entry : entries) {
+            writeEntry(output, entry);
+        }
+        output.writeInt(refreshes.size());
+        for (Refresh refresh : refreshes) {
+            writeBytes(output, refresh.key);
+            output.writeLong(refresh.valueHash);
+            writeVersion(output, refresh.version, refresh.timestamp, refresh.maxAgeInMs);
+        }
+        output.flush();
+    }
+
+    public static StoreDelta readFrom(InputStream inputStream)
+            throws IOException
+    {
+        DataInputStream input = new DataInputStream(inputStream);
+        int formatVersion = input.readUnsignedByte();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException("Unsupported store delta format version: " + formatVersion);
+        }
+        long epoch = input.readLong();
+        long sequence = input.readLong();
+
+        int entryCount = input.readInt();
+        ImmutableList.Builder<Entry> entries = ImmutableList.builder();
+        for (int i = 0; i < entryCount; i++) {
+            entries.add(readEntry(input));
+        }
+
+        int refreshCount = input.readInt();
+        ImmutableList.Builder<Refresh> refreshes = ImmutableList.builder();
+        for (int i = 0; i < refreshCount; i++) {
+            byte[] key = readBytes(input);
+            long valueHash = input.readLong();
+            Version version = new Version(input.readLong());
+            long timestamp = input.readLong();
+            refreshes.add(new Refresh(key, valueHash, version, timestamp, readMaxAge(input)));
+        }
+
+        return new StoreDelta(epoch, sequence, entries.build(), refreshes.build());
+    }
+
+    static void writeEntry(DataOutput output, Entry entry)
+            throws IOException
+    {
+        writeBytes(output, entry.getKey());
+        writeBytes(output, entry.getValue());
+        writeVersion(output, entry.getVersion(), entry.getTimestamp(), entry.getMaxAgeInMs());
+    }
+
+    static Entry readEntry(DataInput input)
+            throws IOException
+    {
+        byte[] key = readBytes(input);
+        byte[] value = readBytes(input);
+        Version version = new Version(input.readLong());
+        long timestamp = input.readLong();
+        return new Entry(key, value, version, timestamp, readMaxAge(input));
+    }
+
+    private static void writeVersion(DataOutput output, Version version, long timestamp, Long maxAgeInMs)
+            throws IOException
+    {
+        output.writeLong(version.getSequence());
+        output.writeLong(timestamp);
+        output.writeLong(maxAgeInMs == null ? -1 : maxAgeInMs);
+    }
+
+    private static Long readMaxAge(DataInput input)
+            throws IOException
+    {
+        long maxAgeInMs = input.readLong();
+        return maxAgeInMs < 0 ? null : maxAgeInMs;
+    }
+
+    private static void writeBytes(DataOutput output, byte[] bytes)
+            throws IOException
+    {
+        if (bytes == null) {
+            output.writeInt(-1);
+            return;
+        }
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInput input)
+            throws IOException
+    {
+        int length = input.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return bytes;
+    }
+}
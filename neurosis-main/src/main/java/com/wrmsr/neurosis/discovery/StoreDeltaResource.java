@@ -0,0 +1,70 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.discovery;
+
+import io.airlift.discovery.server.ForDynamicStore;
+import io.airlift.discovery.store.StoreConfig;
+
+import javax.inject.Inject;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+
+import static com.wrmsr.neurosis.util.ImmutableCollectors.toImmutableList;
+import static java.util.Objects.requireNonNull;
+
+@Path("/v1/store-delta/dynamic")
+public class StoreDeltaResource
+{
+    private final SequencedLocalStore store;
+    private final long tombstoneMaxAgeMillis;
+
+    @Inject
+    public StoreDeltaResource(SequencedLocalStore store, @ForDynamicStore StoreConfig config)
+    {
+        this.store = requireNonNull(store, "store is null");
+        this.tombstoneMaxAgeMillis = requireNonNull(config, "config is null").getTombstoneMaxAge().toMillis();
+    }
+
+    @GET
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    public StreamingOutput getChanges(@QueryParam("epoch") @DefaultValue("0") long epoch, @QueryParam("since") @DefaultValue("0") long since)
+    {
+        StoreDelta changes = store.getChanges(epoch, since);
+        long now = System.currentTimeMillis();
+        // expired entries are left out the same way the full listing leaves them out
+        StoreDelta delta = new StoreDelta(
+                changes.getEpoch(),
+                changes.getSequence(),
+                changes.getEntries().stream()
+                        .filter(entry -> !isExpired(entry.getValue() == null, entry.getTimestamp(), entry.getMaxAgeInMs(), now))
+                        .collect(toImmutableList()),
+                changes.getRefreshes().stream()
+                        .filter(refresh -> !isExpired(refresh.getValueHash() == 0, refresh.getTimestamp(), refresh.getMaxAgeInMs(), now))
+                        .collect(toImmutableList()));
+        return delta::writeTo;
+    }
+
+    private boolean isExpired(boolean tombstone, long timestamp, Long maxAgeInMs, long now)
+    {
+        if (tombstone) {
+            return timestamp + tombstoneMaxAgeMillis < now;
+        }
+        return maxAgeInMs != null && timestamp + maxAgeInMs < now;
+    }
+}
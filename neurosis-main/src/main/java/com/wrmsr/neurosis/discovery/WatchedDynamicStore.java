@@ -0,0 +1,80 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.discovery;
+
+import io.airlift.discovery.server.DynamicAnnouncement;
+import io.airlift.discovery.server.DynamicStore;
+import io.airlift.discovery.server.Id;
+import io.airlift.discovery.server.Node;
+import io.airlift.discovery.server.Service;
+
+import javax.inject.Inject;
+
+import java.util.Set;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Tells the {@link DiscoveryWatch} about local announcements as they happen.
+ */
+public class WatchedDynamicStore
+        implements DynamicStore
+{
+    private final DynamicStore delegate;
+    private final DiscoveryWatch watch;
+
+    @Inject
+    public WatchedDynamicStore(IndexedDynamicStore delegate, DiscoveryWatch watch)
+    {
+        this((DynamicStore) delegate, watch);
+    }
+
+    public WatchedDynamicStore(DynamicStore delegate, DiscoveryWatch watch)
+    {
+        this.delegate = requireNonNull(delegate, "delegate is null");
+        this.watch = requireNonNull(watch, "watch is null");
+    }
+
+    @Override
+    public void put(Id<Node> nodeId, DynamicAnnouncement announcement)
+    {
+        delegate.put(nodeId, announcement);
+        watch.requestRefresh();
+    }
+
+    @Override
+    public void delete(Id<Node> nodeId)
+    {
+        delegate.delete(nodeId);
+        watch.requestRefresh();
+    }
+
+    @Override
+    public Set<Service> getAll()
+    {
+        return delegate.getAll();
+    }
+
+    @Override
+    public Set<Service> get(String type)
+    {
+        return delegate.get(type);
+    }
+
+    @Override
+    public Set<Service> get(String type, String pool)
+    {
+        return delegate.get(type, pool);
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.discovery;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableSet;
+import io.airlift.discovery.server.Service;
+
+import java.util.Set;
+
+import static java.util.Objects.requireNonNull;
+
+public class WatchedServices
+{
+    private final String environment;
+    private final long version;
+    private final Set<Service> services;
+
+    @JsonCreator
+    public WatchedServices(
+            @JsonProperty("environment") String environment,
+            @JsonProperty("version") long version,
+            @JsonProperty("services") Set<Service> services)
+    {
+        this.environment = requireNonNull(environment, "environment is null");
+        this.version = version;
+        this.services = ImmutableSet.copyOf(requireNonNull(services, "services is null"));
+    }
+
+    @JsonProperty
+    public String getEnvironment()
+    {
+        return environment;
+    }
+
+    /**
+     * Pass back to the watch to wait for the next change.
+     */
+    @JsonProperty
+    public long getVersion()
+    {
+        return version;
+    }
+
+    @JsonProperty
+    public Set<Service> getServices()
+    {
+        return services;
+    }
+}
@@ -19,5 +19,24 @@ import java.util.Set;
 
 public interface FailureDetector
 {
+    /**
+     * Services currently considered failed, as an immutable snapshot.
+     */
     Set<ServiceDescriptor> getFailed();
+
+    /**
+     * Listeners are told about transitions between failed and healthy, in order, on a single notification thread.
+     * Newly discovered services start out failed until they have been healthy for the warmup interval, without a
+     * failure event.
+     */
+    void addListener(Listener listener);
+
+    void removeListener(Listener listener);
+
+    interface Listener
+    {
+        void onFailed(ServiceDescriptor service);
+
+        void onRecovered(ServiceDescriptor service);
+    }
 }
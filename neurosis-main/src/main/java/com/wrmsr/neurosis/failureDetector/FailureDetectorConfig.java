@@ -18,19 +18,54 @@ import io.airlift.configuration.ConfigDescription;
 import io.airlift.units.Duration;
 import io.airlift.units.MinDuration;
 
+import javax.validation.constraints.AssertTrue;
 import javax.validation.constraints.DecimalMax;
 import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 import java.util.concurrent.TimeUnit;
 
 public class FailureDetectorConfig
 {
+    public enum Mode
+    {
+        RATIO,
+        PHI_ACCRUAL
+    }
+
+    public enum Transport
+    {
+        HTTP,
+        UDP
+    }
+
     private boolean enabled = true;
+    private Mode mode = Mode.RATIO;
     private double failureRatioThreshold = 0.01; // 1% failure rate
     private Duration heartbeatInterval = new Duration(500, TimeUnit.MILLISECONDS);
     private Duration warmupInterval = new Duration(5, TimeUnit.SECONDS);
     private Duration expirationGraceInterval = new Duration(10, TimeUnit.MINUTES);
+    private Duration discoveryRefreshInterval = new Duration(5, TimeUnit.SECONDS);
+    private double phiThreshold = 8.0;
+    private int phiWindowSize = 1000;
+    private Duration phiMinStdDeviation = new Duration(100, TimeUnit.MILLISECONDS);
+    private Duration phiAcceptablePause = new Duration(500, TimeUnit.MILLISECONDS);
+    private int schedulerThreads = 2;
+    private int ticksPerHeartbeat = 10;
+    private Transport transport = Transport.HTTP;
+    private int udpPort;
+    private Duration udpFallbackInterval = new Duration(5, TimeUnit.MINUTES);
+    private boolean gossipEnabled;
+    private Duration gossipProbeInterval = new Duration(1, TimeUnit.SECONDS);
+    private Duration gossipProbeTimeout = new Duration(500, TimeUnit.MILLISECONDS);
+    private int gossipIndirectProbes = 3;
+    private Duration gossipSuspicionTimeout = new Duration(5, TimeUnit.SECONDS);
+    private boolean adaptiveEnabled;
+    private Duration adaptiveMaxInterval = new Duration(5, TimeUnit.SECONDS);
+    private Duration adaptiveStableInterval = new Duration(1, TimeUnit.MINUTES);
+    private double maxProbeRate;
 
     @NotNull
     public Duration getExpirationGraceInterval()
@@ -46,6 +81,21 @@ public class FailureDetectorConfig
         return this;
     }
 
+    @MinDuration("1ms")
+    @NotNull
+    public Duration getDiscoveryRefreshInterval()
+    {
+        return discoveryRefreshInterval;
+    }
+
+    @Config("failure-detector.discovery-refresh-interval")
+    @ConfigDescription("How often to reconcile the monitored services with discovery")
+    public FailureDetectorConfig setDiscoveryRefreshInterval(Duration discoveryRefreshInterval)
+    {
+        this.discoveryRefreshInterval = discoveryRefreshInterval;
+        return this;
+    }
+
     public boolean isEnabled()
     {
         return enabled;
@@ -99,4 +149,282 @@ public class FailureDetectorConfig
         this.failureRatioThreshold = threshold;
         return this;
     }
+
+    @NotNull
+    public Mode getMode()
+    {
+        return mode;
+    }
+
+    @Config("failure-detector.mode")
+    @ConfigDescription("RATIO fails services over a recent failure ratio, PHI_ACCRUAL over heartbeat arrival suspicion")
+    public FailureDetectorConfig setMode(Mode mode)
+    {
+        this.mode = mode;
+        return this;
+    }
+
+    @DecimalMin("0.0")
+    public double getPhiThreshold()
+    {
+        return phiThreshold;
+    }
+
+    @Config("failure-detector.phi-threshold")
+    @ConfigDescription("Suspicion level above which a service is considered failed in PHI_ACCRUAL mode")
+    public FailureDetectorConfig setPhiThreshold(double phiThreshold)
+    {
+        this.phiThreshold = phiThreshold;
+        return this;
+    }
+
+    @Min(1)
+    public int getSchedulerThreads()
+    {
+        return schedulerThreads;
+    }
+
+    @Config("failure-detector.scheduler-threads")
+    @ConfigDescription("Number of threads sending heartbeats, each owning a share of the monitored services")
+    public FailureDetectorConfig setSchedulerThreads(int schedulerThreads)
+    {
+        this.schedulerThreads = schedulerThreads;
+        return this;
+    }
+
+    @Min(1)
+    public int getTicksPerHeartbeat()
+    {
+        return ticksPerHeartbeat;
+    }
+
+    @Config("failure-detector.ticks-per-heartbeat")
+    @ConfigDescription("Number of batches each heartbeat interval is divided into")
+    public FailureDetectorConfig setTicksPerHeartbeat(int ticksPerHeartbeat)
+    {
+        this.ticksPerHeartbeat = ticksPerHeartbeat;
+        return this;
+    }
+
+    @Min(2)
+    public int getPhiWindowSize()
+    {
+        return phiWindowSize;
+    }
+
+    @Config("failure-detector.phi-window-size")
+    @ConfigDescription("Number of heartbeat inter-arrival times kept per service")
+    public FailureDetectorConfig setPhiWindowSize(int phiWindowSize)
+    {
+        this.phiWindowSize = phiWindowSize;
+        return this;
+    }
+
+    @MinDuration("1ms")
+    @NotNull
+    public Duration getPhiMinStdDeviation()
+    {
+        return phiMinStdDeviation;
+    }
+
+    @Config("failure-detector.phi-min-std-deviation")
+    @ConfigDescription("Lower bound on the inter-arrival standard deviation, to keep very regular heartbeats from making phi oversensitive")
+    public FailureDetectorConfig setPhiMinStdDeviation(Duration phiMinStdDeviation)
+    {
+        this.phiMinStdDeviation = phiMinStdDeviation;
+        return this;
+    }
+
+    @NotNull
+    public Duration getPhiAcceptablePause()
+    {
+        return phiAcceptablePause;
+    }
+
+    @Config("failure-detector.phi-acceptable-pause")
+    @ConfigDescription("Extra heartbeat delay tolerated before suspicion rises, e.g. to ride out gc pauses")
+    public FailureDetectorConfig setPhiAcceptablePause(Duration phiAcceptablePause)
+    {
+        this.phiAcceptablePause = phiAcceptablePause;
+        return this;
+    }
+
+    @NotNull
+    public Transport getTransport()
+    {
+        return transport;
+    }
+
+    @Config("failure-detector.transport")
+    @ConfigDescription("HTTP sends heartbeats as HEAD requests, UDP as datagrams to failure-detector.udp-port with HTTP as a fallback")
+    public FailureDetectorConfig setTransport(Transport transport)
+    {
+        this.transport = transport;
+        return this;
+    }
+
+    @Min(0)
+    @Max(65535)
+    public int getUdpPort()
+    {
+        return udpPort;
+    }
+
+    @Config("failure-detector.udp-port")
+    @ConfigDescription("Port UDP heartbeats are sent to and answered on; set it and the UDP transport on every node")
+    public FailureDetectorConfig setUdpPort(int udpPort)
+    {
+        this.udpPort = udpPort;
+        return this;
+    }
+
+    @MinDuration("1s")
+    @NotNull
+    public Duration getUdpFallbackInterval()
+    {
+        return udpFallbackInterval;
+    }
+
+    @Config("failure-detector.udp-fallback-interval")
+    @ConfigDescription("How long to send heartbeats to a service over HTTP after its UDP heartbeats go unanswered")
+    public FailureDetectorConfig setUdpFallbackInterval(Duration udpFallbackInterval)
+    {
+        this.udpFallbackInterval = udpFallbackInterval;
+        return this;
+    }
+
+    @AssertTrue(message = "failure-detector.udp-port must be set when failure-detector.transport is UDP")
+    public boolean isUdpPortSetForUdpTransport()
+    {
+        return transport != Transport.UDP || udpPort > 0;
+    }
+
+    public boolean isGossipEnabled()
+    {
+        return gossipEnabled;
+    }
+
+    @Config("failure-detector.gossip.enabled")
+    @ConfigDescription("Have every node probe its peers and gossip membership changes, instead of the coordinator sending all heartbeats")
+    public FailureDetectorConfig setGossipEnabled(boolean gossipEnabled)
+    {
+        this.gossipEnabled = gossipEnabled;
+        return this;
+    }
+
+    @MinDuration("1ms")
+    @NotNull
+    public Duration getGossipProbeInterval()
+    {
+        return gossipProbeInterval;
+    }
+
+    @Config("failure-detector.gossip.probe-interval")
+    @ConfigDescription("How often each node probes one of its peers")
+    public FailureDetectorConfig setGossipProbeInterval(Duration gossipProbeInterval)
+    {
+        this.gossipProbeInterval = gossipProbeInterval;
+        return this;
+    }
+
+    @MinDuration("1ms")
+    @NotNull
+    public Duration getGossipProbeTimeout()
+    {
+        return gossipProbeTimeout;
+    }
+
+    @Config("failure-detector.gossip.probe-timeout")
+    @ConfigDescription("How long to wait for a probe to be acknowledged, directly or through another peer")
+    public FailureDetectorConfig setGossipProbeTimeout(Duration gossipProbeTimeout)
+    {
+        this.gossipProbeTimeout = gossipProbeTimeout;
+        return this;
+    }
+
+    @Min(0)
+    public int getGossipIndirectProbes()
+    {
+        return gossipIndirectProbes;
+    }
+
+    @Config("failure-detector.gossip.indirect-probes")
+    @ConfigDescription("Number of peers asked to probe a node that did not answer a direct probe")
+    public FailureDetectorConfig setGossipIndirectProbes(int gossipIndirectProbes)
+    {
+        this.gossipIndirectProbes = gossipIndirectProbes;
+        return this;
+    }
+
+    @MinDuration("1ms")
+    @NotNull
+    public Duration getGossipSuspicionTimeout()
+    {
+        return gossipSuspicionTimeout;
+    }
+
+    @Config("failure-detector.gossip.suspicion-timeout")
+    @ConfigDescription("How long a suspected node has to refute the suspicion before it is considered failed")
+    public FailureDetectorConfig setGossipSuspicionTimeout(Duration gossipSuspicionTimeout)
+    {
+        this.gossipSuspicionTimeout = gossipSuspicionTimeout;
+        return this;
+    }
+
+    public boolean isAdaptiveEnabled()
+    {
+        return adaptiveEnabled;
+    }
+
+    @Config("failure-detector.adaptive.enabled")
+    @ConfigDescription("Heartbeat services that have been healthy for a while less often than the heartbeat interval")
+    public FailureDetectorConfig setAdaptiveEnabled(boolean adaptiveEnabled)
+    {
+        this.adaptiveEnabled = adaptiveEnabled;
+        return this;
+    }
+
+    @MinDuration("1ms")
+    @NotNull
+    public Duration getAdaptiveMaxInterval()
+    {
+        return adaptiveMaxInterval;
+    }
+
+    @Config("failure-detector.adaptive.max-interval")
+    @ConfigDescription("Longest interval between heartbeats to a healthy service, before any probe rate limit")
+    public FailureDetectorConfig setAdaptiveMaxInterval(Duration adaptiveMaxInterval)
+    {
+        this.adaptiveMaxInterval = adaptiveMaxInterval;
+        return this;
+    }
+
+    @MinDuration("1ms")
+    @NotNull
+    public Duration getAdaptiveStableInterval()
+    {
+        return adaptiveStableInterval;
+    }
+
+    @Config("failure-detector.adaptive.stable-interval")
+    @ConfigDescription("How long a service must stay healthy before its heartbeat interval is doubled again")
+    public FailureDetectorConfig setAdaptiveStableInterval(Duration adaptiveStableInterval)
+    {
+        this.adaptiveStableInterval = adaptiveStableInterval;
+        return this;
+    }
+
+    @DecimalMin("0.0")
+    public double getMaxProbeRate()
+    {
+        return maxProbeRate;
+    }
+
+    @Config("failure-detector.max-probe-rate")
+    @ConfigDescription("Heartbeats per second to send across all healthy services, or 0 for no limit; failing services are never held back")
+    public FailureDetectorConfig setMaxProbeRate(double maxProbeRate)
+    {
+        this.maxProbeRate = maxProbeRate;
+        return this;
+    }
 }
@@ -14,34 +14,107 @@
 package com.wrmsr.neurosis.failureDetector;
 
 import com.google.inject.Binder;
-import com.google.inject.Module;
 import com.google.inject.Scopes;
+import io.airlift.configuration.AbstractConfigurationAwareModule;
 import org.weakref.jmx.guice.ExportBinder;
 
-import static io.airlift.configuration.ConfigBinder.configBinder;
+import static io.airlift.discovery.client.DiscoveryBinder.discoveryBinder;
 import static io.airlift.http.client.HttpClientBinder.httpClientBinder;
+import static io.airlift.jaxrs.JaxrsBinder.jaxrsBinder;
+import static io.airlift.json.JsonCodecBinder.jsonCodecBinder;
 
 public class FailureDetectorModule
-        implements Module
+        extends AbstractConfigurationAwareModule
 {
+    private final boolean monitor;
+
+    public FailureDetectorModule()
+    {
+        this(true);
+    }
+
+    /**
+     * @param monitor whether this node runs the heartbeat failure detector, or only answers heartbeats from the nodes that
+     * do; in gossip mode every node runs the detector
+     */
+    public FailureDetectorModule(boolean monitor)
+    {
+        this.monitor = monitor;
+    }
+
     @Override
-    public void configure(Binder binder)
+    protected void setup(Binder binder)
     {
-        httpClientBinder(binder)
-                .bindHttpClient("failure-detector", ForFailureDetector.class)
-                .withPrivateIoThreadPool()
-                .withTracing();
+        FailureDetectorConfig config = buildConfigObject(FailureDetectorConfig.class);
+
+        // only the heartbeat detector probes over udp, gossip rounds go over http
+        if (!config.isGossipEnabled() && config.getTransport() == FailureDetectorConfig.Transport.UDP) {
+            discoveryBinder(binder).bindSelector("neurosis-coordinator");
+            binder.bind(UdpHeartbeatResponder.class).in(Scopes.SINGLETON);
+            ExportBinder.newExporter(binder)
+                    .export(UdpHeartbeatResponder.class)
+                    .withGeneratedName();
+        }
+
+        if (config.isGossipEnabled()) {
+            // every node probes its peers and holds the converged view
+            bindHttpClient(binder);
+            jsonCodecBinder(binder).bindJsonCodec(GossipMessage.class);
+            jaxrsBinder(binder).bind(GossipResource.class);
 
-        configBinder(binder).bindConfig(FailureDetectorConfig.class);
+            binder.bind(GossipFailureDetector.class).in(Scopes.SINGLETON);
+            binder.bind(FailureDetector.class)
+                    .to(GossipFailureDetector.class)
+                    .in(Scopes.SINGLETON);
+            binder.bind(MonitoringFailureDetector.class)
+                    .to(GossipFailureDetector.class)
+                    .in(Scopes.SINGLETON);
+            ExportBinder.newExporter(binder)
+                    .export(GossipFailureDetector.class)
+                    .withGeneratedName();
+            return;
+        }
+
+        if (!monitor) {
+            return;
+        }
+
+        bindHttpClient(binder);
+
+        binder.bind(HttpHeartbeatTransport.class).in(Scopes.SINGLETON);
+        if (config.getTransport() == FailureDetectorConfig.Transport.UDP) {
+            binder.bind(UdpHeartbeatTransport.class).in(Scopes.SINGLETON);
+            binder.bind(HeartbeatTransport.class).to(FallbackHeartbeatTransport.class).in(Scopes.SINGLETON);
+            ExportBinder.newExporter(binder)
+                    .export(UdpHeartbeatTransport.class)
+                    .withGeneratedName();
+            ExportBinder.newExporter(binder)
+                    .export(FallbackHeartbeatTransport.class)
+                    .withGeneratedName();
+        }
+        else {
+            binder.bind(HeartbeatTransport.class).to(HttpHeartbeatTransport.class).in(Scopes.SINGLETON);
+        }
 
         binder.bind(HeartbeatFailureDetector.class).in(Scopes.SINGLETON);
 
         binder.bind(FailureDetector.class)
                 .to(HeartbeatFailureDetector.class)
                 .in(Scopes.SINGLETON);
+        binder.bind(MonitoringFailureDetector.class)
+                .to(HeartbeatFailureDetector.class)
+                .in(Scopes.SINGLETON);
 
         ExportBinder.newExporter(binder)
                 .export(HeartbeatFailureDetector.class)
                 .withGeneratedName();
     }
+
+    private static void bindHttpClient(Binder binder)
+    {
+        httpClientBinder(binder)
+                .bindHttpClient("failure-detector", ForFailureDetector.class)
+                .withPrivateIoThreadPool()
+                .withTracing();
+    }
 }
@@ -0,0 +1,128 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.failureDetector;
+
+import io.airlift.log.Logger;
+import io.airlift.units.Duration;
+import org.weakref.jmx.Managed;
+
+import javax.inject.Inject;
+
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Probes over UDP, confirming every unanswered UDP probe over HTTP before reporting a failure, so lost datagrams never
+ * fail a service on their own. A service whose UDP probes keep going unanswered while HTTP succeeds is assumed to have
+ * UDP blocked and is probed over HTTP only for a while before UDP is tried again.
+ */
+public class FallbackHeartbeatTransport
+        implements HeartbeatTransport
+{
+    private static final Logger log = Logger.get(FallbackHeartbeatTransport.class);
+
+    private static final int MAX_UNANSWERED_UDP_PROBES = 3;
+
+    private static final class Route
+    {
+        private final AtomicInteger unanswered = new AtomicInteger();
+        private volatile long httpUntilNanos;
+    }
+
+    private final UdpHeartbeatTransport udp;
+    private final HttpHeartbeatTransport http;
+    private final long fallbackNanos;
+
+    private final ConcurrentMap<URI, Route> routes = new ConcurrentHashMap<>();
+
+    @Inject
+    public FallbackHeartbeatTransport(UdpHeartbeatTransport udp, HttpHeartbeatTransport http, FailureDetectorConfig config)
+    {
+        this(udp, http, config.getUdpFallbackInterval());
+    }
+
+    public FallbackHeartbeatTransport(UdpHeartbeatTransport udp, HttpHeartbeatTransport http, Duration fallbackInterval)
+    {
+        this.udp = requireNonNull(udp, "udp is null");
+        this.http = requireNonNull(http, "http is null");
+        this.fallbackNanos = requireNonNull(fallbackInterval, "fallbackInterval is null").roundTo(TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void ping(URI uri, Callback callback)
+    {
+        Route route = routes.get(uri);
+        if (route == null) {
+            route = routes.computeIfAbsent(uri, key -> new Route());
+        }
+        if (route.httpUntilNanos != 0 && System.nanoTime() - route.httpUntilNanos < 0) {
+            http.ping(uri, callback);
+            return;
+        }
+
+        Route udpRoute = route;
+        udp.ping(uri, new Callback()
+        {
+            @Override
+            public void success(long startNanos)
+            {
+                udpRoute.unanswered.set(0);
+                callback.success(startNanos);
+            }
+
+            @Override
+            public void failure(Exception exception)
+            {
+                http.ping(uri, new Callback()
+                {
+                    @Override
+                    public void success(long startNanos)
+                    {
+                        if (udpRoute.unanswered.incrementAndGet() >= MAX_UNANSWERED_UDP_PROBES) {
+                            log.info("UDP heartbeats to %s are going unanswered, using HTTP", uri);
+                            udpRoute.unanswered.set(0);
+                            udpRoute.httpUntilNanos = System.nanoTime() + fallbackNanos;
+                        }
+                        // the fallback reports its own start, so the latency leaves out the udp timeout
+                        callback.success(startNanos);
+                    }
+
+                    @Override
+                    public void failure(Exception exception)
+                    {
+                        callback.failure(exception);
+                    }
+                });
+            }
+        });
+    }
+
+    @Managed(description = "Number of services currently probed over HTTP because UDP appears blocked")
+    public int getHttpFallbackCount()
+    {
+        long now = System.nanoTime();
+        int count = 0;
+        for (Route route : routes.values()) {
+            if (route.httpUntilNanos != 0 && now - route.httpUntilNanos < 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
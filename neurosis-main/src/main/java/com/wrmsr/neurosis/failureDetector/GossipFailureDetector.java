@@ -0,0 +1,807 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.failureDetector;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.wrmsr.neurosis.failureDetector.GossipUpdate.State;
+import io.airlift.discovery.client.ServiceDescriptor;
+import io.airlift.discovery.client.ServiceSelector;
+import io.airlift.discovery.client.ServiceType;
+import io.airlift.http.client.FullJsonResponseHandler.JsonResponse;
+import io.airlift.http.client.HttpClient;
+import io.airlift.http.client.HttpClient.HttpResponseFuture;
+import io.airlift.http.client.Request;
+import io.airlift.json.JsonCodec;
+import io.airlift.log.Logger;
+import io.airlift.node.NodeInfo;
+import org.weakref.jmx.Managed;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.net.HttpHeaders.CONTENT_TYPE;
+import static com.google.common.net.MediaType.JSON_UTF_8;
+import static com.wrmsr.neurosis.util.ImmutableCollectors.toImmutableList;
+import static com.wrmsr.neurosis.util.ImmutableCollectors.toImmutableSet;
+import static io.airlift.concurrent.MoreFutures.toCompletableFuture;
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static io.airlift.http.client.FullJsonResponseHandler.createFullJsonResponseHandler;
+import static io.airlift.http.client.HttpUriBuilder.uriBuilderFrom;
+import static io.airlift.http.client.JsonBodyGenerator.jsonBodyGenerator;
+import static io.airlift.http.client.Request.Builder.preparePost;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+
+/**
+ * SWIM-style failure detector run on every node. Each probe interval a node probes one peer, taken in shuffled
+ * round-robin order, and asks a few other peers to probe it on its behalf if it does not answer. A peer that cannot be
+ * reached either way is suspected, and is failed if it does not refute the suspicion within the suspicion timeout.
+ * Membership changes ride along on probes and their acknowledgements, so every node converges on the same view while
+ * each sends a constant number of probes regardless of cluster size.
+ * <p>
+ * Discovery decides which nodes are members; gossip only decides whether they are alive. Like the heartbeat detector,
+ * a member counts as failed when it is first discovered or stops being failed, until it has stayed alive for the warmup
+ * interval. Probes are only answered for members, by address, as they are not authenticated.
+ */
+@ThreadSafe
+public class GossipFailureDetector
+        implements MonitoringFailureDetector
+{
+    private static final Logger log = Logger.get(GossipFailureDetector.class);
+
+    // each update is sent this many times per order of magnitude of cluster size
+    private static final int RETRANSMIT_MULTIPLIER = 4;
+    private static final int MAX_UPDATES_PER_MESSAGE = 32;
+
+    private final ServiceSelector selector;
+    private final HttpClient httpClient;
+    private final JsonCodec<GossipMessage> codec;
+    private final String nodeId;
+
+    private final boolean isEnabled;
+    private final long probeIntervalMillis;
+    private final long probeTimeoutNanos;
+    private final int indirectProbes;
+    private final long suspicionTimeoutNanos;
+    private final long gcGraceNanos;
+    private final long warmupNanos;
+    private final long discoveryRefreshIntervalMillis;
+
+    private final ScheduledExecutorService executor = newSingleThreadScheduledExecutor(daemonThreadsNamed("failure-detector-gossip"));
+    // separate from the probe thread, which may be blocked on a probe of its own
+    private final ScheduledExecutorService relayTimeoutExecutor = newSingleThreadScheduledExecutor(daemonThreadsNamed("failure-detector-gossip-relay"));
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    @GuardedBy("this")
+    private final Map<String, Member> members = new HashMap<>();
+    @GuardedBy("this")
+    private final Map<String, Broadcast> broadcasts = new HashMap<>();
+    @GuardedBy("this")
+    private final List<Member> probeOrder = new ArrayList<>();
+    @GuardedBy("this")
+    private int probeIndex;
+    @GuardedBy("this")
+    private long incarnation;
+
+    private final Object failedLock = new Object();
+    @GuardedBy("failedLock")
+    private volatile Set<ServiceDescriptor> failed = ImmutableSet.of();
+    private final AtomicLong stateVersion = new AtomicLong(System.currentTimeMillis());
+
+    // resolved off the request path, as announcements usually carry host names
+    private volatile Map<ServiceDescriptor, Set<InetAddress>> memberAddresses = ImmutableMap.of();
+    private volatile Set<InetAddress> senderAddresses = ImmutableSet.of();
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final ExecutorService listenerExecutor = newSingleThreadExecutor(daemonThreadsNamed("failure-detector-gossip-listener"));
+
+    private final AtomicLong probes = new AtomicLong();
+    private final AtomicLong indirectProbeCount = new AtomicLong();
+    private final AtomicLong failedProbes = new AtomicLong();
+    private final AtomicLong refutations = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    @Inject
+    public GossipFailureDetector(
+            @ServiceType("neurosis") ServiceSelector selector,
+            @ForFailureDetector HttpClient httpClient,
+            JsonCodec<GossipMessage> codec,
+            FailureDetectorConfig config,
+            NodeInfo nodeInfo)
+    {
+        this.selector = requireNonNull(selector, "selector is null");
+        this.httpClient = requireNonNull(httpClient, "httpClient is null");
+        this.codec = requireNonNull(codec, "codec is null");
+        requireNonNull(config, "config is null");
+        this.nodeId = requireNonNull(nodeInfo, "nodeInfo is null").getNodeId();
+
+        this.isEnabled = config.isEnabled();
+        this.probeIntervalMillis = config.getGossipProbeInterval().toMillis();
+        this.probeTimeoutNanos = config.getGossipProbeTimeout().roundTo(TimeUnit.NANOSECONDS);
+        this.indirectProbes = config.getGossipIndirectProbes();
+        this.suspicionTimeoutNanos = config.getGossipSuspicionTimeout().roundTo(TimeUnit.NANOSECONDS);
+        this.gcGraceNanos = config.getExpirationGraceInterval().roundTo(TimeUnit.NANOSECONDS);
+        this.warmupNanos = config.getWarmupInterval().roundTo(TimeUnit.NANOSECONDS);
+        this.discoveryRefreshIntervalMillis = config.getDiscoveryRefreshInterval().toMillis();
+    }
+
+    @PostConstruct
+    public void start()
+    {
+        if (isEnabled && started.compareAndSet(false, true)) {
+            executor.scheduleWithFixedDelay(() -> {
+                try {
+                    updateMembers();
+                }
+                catch (Throwable e) {
+                    // ignore to avoid getting unscheduled
+                    log.warn(e, "Error updating gossip members");
+                }
+            }, 0, discoveryRefreshIntervalMillis, TimeUnit.MILLISECONDS);
+
+            executor.scheduleWithFixedDelay(() -> {
+                try {
+                    probe();
+                    expireSuspicions();
+                    finishWarmups();
+                }
+                catch (Throwable e) {
+                    // ignore to avoid getting unscheduled
+                    log.warn(e, "Error probing gossip members");
+                }
+            }, probeIntervalMillis, probeIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown()
+    {
+        executor.shutdownNow();
+        relayTimeoutExecutor.shutdownNow();
+        listenerExecutor.shutdownNow();
+    }
+
+    @Override
+    public Set<ServiceDescriptor> getFailed()
+    {
+        return failed;
+    }
+
+    @Override
+    public void addListener(Listener listener)
+    {
+        listeners.add(requireNonNull(listener, "listener is null"));
+    }
+
+    @Override
+    public void removeListener(Listener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public long getStateVersion()
+    {
+        return stateVersion.get();
+    }
+
+    @Override
+    public synchronized Map<ServiceDescriptor, Stats> getStats()
+    {
+        ImmutableMap.Builder<ServiceDescriptor, Stats> builder = ImmutableMap.builder();
+        for (Member member : members.values()) {
+            builder.put(member.service, new Stats(member.uri, member.state, member.incarnation, member.warmingUp, member.offlineSinceNanos != 0));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Whether a probe or relay request from the given address is to be answered, which it is only when the address is
+     * one of a member's. Rejected requests are counted.
+     */
+    public boolean isMemberAddress(InetAddress address)
+    {
+        if (senderAddresses.contains(address)) {
+            return true;
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Handles a probe, returning the acknowledgement.
+     */
+    public GossipMessage receive(GossipMessage message)
+    {
+        apply(message);
+        return outgoing(message.getNodeId());
+    }
+
+    /**
+     * Probes a node on behalf of a peer that could not reach it, completing with the acknowledgement for the peer or
+     * with null if the node did not answer within the probe timeout either.
+     */
+    public CompletableFuture<GossipMessage> relay(String targetNodeId, GossipMessage message)
+    {
+        apply(message);
+
+        Member target;
+        synchronized (this) {
+            target = members.get(targetNodeId);
+        }
+        if (target == null) {
+            return completedFuture(null);
+        }
+
+        HttpResponseFuture<JsonResponse<GossipMessage>> future = send(uriBuilderFrom(target.uri).replacePath("/v1/gossip").build(), outgoing(target.nodeId));
+        // cancelling fails the future, which is then answered as unreachable
+        ScheduledFuture<?> timeout = relayTimeoutExecutor.schedule(() -> future.cancel(true), probeTimeoutNanos, TimeUnit.NANOSECONDS);
+        return toCompletableFuture(future).handle((response, e) -> {
+            timeout.cancel(false);
+            if (response == null || response.getStatusCode() != 200 || !response.hasValue()) {
+                return null;
+            }
+            apply(response.getValue());
+            return outgoing(message.getNodeId());
+        });
+    }
+
+    /**
+     * This node's current view of the cluster, including itself.
+     */
+    public synchronized List<GossipUpdate> getMembers()
+    {
+        ImmutableList.Builder<GossipUpdate> builder = ImmutableList.builder();
+        builder.add(new GossipUpdate(nodeId, State.ALIVE, incarnation));
+        members.values().stream()
+                .sorted(Comparator.comparing(member -> member.nodeId))
+                .map(Member::toUpdate)
+                .forEach(builder::add);
+        return builder.build();
+    }
+
+    @VisibleForTesting
+    void probe()
+    {
+        Member target;
+        synchronized (this) {
+            target = nextProbeTarget();
+        }
+        if (target == null) {
+            return;
+        }
+
+        probes.incrementAndGet();
+        if (ping(target, System.nanoTime() + probeTimeoutNanos)) {
+            return;
+        }
+
+        List<Member> relays;
+        synchronized (this) {
+            // dead members are still probed so they can refute, but are not worth asking others about
+            relays = target.state == State.DEAD ? ImmutableList.of() : selectRelays(target);
+        }
+        if (!relays.isEmpty()) {
+            indirectProbeCount.incrementAndGet();
+            // wait long enough for the relays' own probes to time out and still be reported
+            long deadline = System.nanoTime() + 2 * probeTimeoutNanos;
+            List<HttpResponseFuture<JsonResponse<GossipMessage>>> futures = relays.stream()
+                    .map(relay -> send(uriBuilderFrom(relay.uri).replacePath("/v1/gossip/relay").addParameter("nodeId", target.nodeId).build(), outgoing(relay.nodeId)))
+                    .collect(toImmutableList());
+            boolean acknowledged = false;
+            for (HttpResponseFuture<JsonResponse<GossipMessage>> future : futures) {
+                if (!acknowledged) {
+                    GossipMessage reply = await(future, deadline);
+                    if (reply != null) {
+                        apply(reply);
+                        acknowledged = true;
+                    }
+                }
+                else {
+                    future.cancel(true);
+                }
+            }
+            if (acknowledged) {
+                return;
+            }
+        }
+
+        failedProbes.incrementAndGet();
+        suspect(target);
+    }
+
+    private boolean ping(Member member, long deadline)
+    {
+        GossipMessage reply = await(send(uriBuilderFrom(member.uri).replacePath("/v1/gossip").build(), outgoing(member.nodeId)), deadline);
+        if (reply == null) {
+            return false;
+        }
+        apply(reply);
+        return true;
+    }
+
+    private HttpResponseFuture<JsonResponse<GossipMessage>> send(URI uri, GossipMessage message)
+    {
+        Request request = preparePost()
+                .setUri(uri)
+                .setHeader(CONTENT_TYPE, JSON_UTF_8.toString())
+                .setBodyGenerator(jsonBodyGenerator(codec, message))
+                .build();
+        return httpClient.executeAsync(request, createFullJsonResponseHandler(codec));
+    }
+
+    private static GossipMessage await(HttpResponseFuture<JsonResponse<GossipMessage>> future, long deadline)
+    {
+        try {
+            JsonResponse<GossipMessage> response = future.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+            if (response.getStatusCode() == 200 && response.hasValue()) {
+                return response.getValue();
+            }
+        }
+        catch (TimeoutException e) {
+            future.cancel(true);
+        }
+        catch (ExecutionException e) {
+            // unreachable, same as no answer
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    @GuardedBy("this")
+    private Member nextProbeTarget()
+    {
+        for (int lap = 0; lap < 2; lap++) {
+            while (probeIndex < probeOrder.size()) {
+                Member member = probeOrder.get(probeIndex++);
+                if (members.get(member.nodeId) == member && member.offlineSinceNanos == 0) {
+                    return member;
+                }
+            }
+            probeOrder.clear();
+            probeOrder.addAll(members.values());
+            Collections.shuffle(probeOrder);
+            probeIndex = 0;
+        }
+        return null;
+    }
+
+    @GuardedBy("this")
+    private List<Member> selectRelays(Member target)
+    {
+        List<Member> candidates = new ArrayList<>();
+        for (Member member : members.values()) {
+            if (member != target && member.state == State.ALIVE && member.offlineSinceNanos == 0) {
+                candidates.add(member);
+            }
+        }
+        Collections.shuffle(candidates);
+        return ImmutableList.copyOf(candidates.subList(0, Math.min(indirectProbes, candidates.size())));
+    }
+
+    private synchronized GossipMessage outgoing(String toNodeId)
+    {
+        List<Broadcast> pending = new ArrayList<>(broadcasts.values());
+        // least sent first
+        pending.sort(Comparator.comparing((Broadcast broadcast) -> broadcast.remaining).reversed());
+
+        ImmutableList.Builder<GossipUpdate> updates = ImmutableList.builder();
+        boolean includesRecipient = false;
+        for (Broadcast broadcast : pending.subList(0, Math.min(MAX_UPDATES_PER_MESSAGE, pending.size()))) {
+            updates.add(broadcast.update);
+            includesRecipient |= broadcast.update.getNodeId().equals(toNodeId);
+            if (--broadcast.remaining <= 0) {
+                broadcasts.remove(broadcast.update.getNodeId());
+            }
+        }
+
+        // always tell a suspected or failed node what is believed about it, so it can refute even after dissemination ends
+        Member recipient = members.get(toNodeId);
+        if (recipient != null && recipient.state != State.ALIVE && !includesRecipient) {
+            updates.add(recipient.toUpdate());
+        }
+        return new GossipMessage(nodeId, updates.build());
+    }
+
+    private synchronized void apply(GossipMessage message)
+    {
+        for (GossipUpdate update : message.getUpdates()) {
+            if (update.getNodeId().equals(nodeId)) {
+                if (update.getState() != State.ALIVE && update.getIncarnation() >= incarnation) {
+                    incarnation = update.getIncarnation() + 1;
+                    refutations.incrementAndGet();
+                    log.info("Refuting %s from %s with incarnation %s", update.getState(), message.getNodeId(), incarnation);
+                    broadcast(new GossipUpdate(nodeId, State.ALIVE, incarnation));
+                }
+                continue;
+            }
+
+            Member member = members.get(update.getNodeId());
+            if (member != null && update.overrides(member.state, member.incarnation)) {
+                setState(member, update.getState(), update.getIncarnation());
+                broadcast(update);
+            }
+        }
+    }
+
+    private synchronized void suspect(Member target)
+    {
+        if (members.get(target.nodeId) == target && target.state == State.ALIVE) {
+            setState(target, State.SUSPECT, target.incarnation);
+            broadcast(target.toUpdate());
+        }
+    }
+
+    @VisibleForTesting
+    synchronized void expireSuspicions()
+    {
+        long now = System.nanoTime();
+        for (Member member : members.values()) {
+            if (member.state == State.SUSPECT && now - member.suspectedAtNanos >= suspicionTimeoutNanos) {
+                setState(member, State.DEAD, member.incarnation);
+                broadcast(member.toUpdate());
+            }
+        }
+    }
+
+    @VisibleForTesting
+    synchronized void finishWarmups()
+    {
+        long now = System.nanoTime();
+        for (Member member : members.values()) {
+            if (member.warmingUp && member.state == State.ALIVE && now - member.warmupStartNanos >= warmupNanos) {
+                member.warmingUp = false;
+                setFailed(member.service, member.isFailed(), true);
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private void setState(Member member, State state, long incarnation)
+    {
+        if (state != member.state) {
+            log.debug("%s %s -> %s (incarnation %s)", member.nodeId, member.state, state, incarnation);
+            if (member.state == State.DEAD) {
+                member.warmingUp = warmupNanos > 0;
+            }
+            // the warmup only counts time spent alive
+            member.warmupStartNanos = System.nanoTime();
+        }
+        member.state = state;
+        member.incarnation = incarnation;
+        if (state == State.SUSPECT) {
+            member.suspectedAtNanos = System.nanoTime();
+        }
+        setFailed(member.service, member.isFailed(), true);
+    }
+
+    @GuardedBy("this")
+    private void broadcast(GossipUpdate update)
+    {
+        // a newer update about a node replaces any older one still being sent
+        int retransmits = RETRANSMIT_MULTIPLIER * (int) Math.ceil(Math.log10(members.size() + 2));
+        broadcasts.put(update.getNodeId(), new Broadcast(update, retransmits));
+    }
+
+    @VisibleForTesting
+    void updateMembers()
+    {
+        List<ServiceDescriptor> online = selector.selectAllServices().stream()
+                .filter(descriptor -> !nodeId.equals(descriptor.getNodeId()))
+                .collect(toImmutableList());
+        updateMemberAddresses(online);
+
+        synchronized (this) {
+            long now = System.nanoTime();
+            Set<String> onlineIds = new HashSet<>();
+            for (ServiceDescriptor service : online) {
+                URI uri = HeartbeatFailureDetector.getHttpUri(service);
+                if (uri == null || !onlineIds.add(service.getNodeId())) {
+                    continue;
+                }
+
+                Member member = members.get(service.getNodeId());
+                if (member != null && member.service.equals(service)) {
+                    member.offlineSinceNanos = 0;
+                    continue;
+                }
+                if (member != null) {
+                    // re-announced, e.g. after a restart
+                    setFailed(member.service, false, false);
+                }
+                member = new Member(service, uri, warmupNanos > 0);
+                members.put(service.getNodeId(), member);
+                stateVersion.incrementAndGet();
+                setFailed(service, member.isFailed(), false);
+            }
+
+            for (Iterator<Member> iterator = members.values().iterator(); iterator.hasNext(); ) {
+                Member member = iterator.next();
+                if (onlineIds.contains(member.nodeId)) {
+                    continue;
+                }
+                if (member.offlineSinceNanos == 0) {
+                    member.offlineSinceNanos = now;
+                }
+                else if (now - member.offlineSinceNanos >= gcGraceNanos) {
+                    iterator.remove();
+                    broadcasts.remove(member.nodeId);
+                    stateVersion.incrementAndGet();
+                    setFailed(member.service, false, false);
+                }
+            }
+        }
+    }
+
+    private void updateMemberAddresses(List<ServiceDescriptor> online)
+    {
+        Map<ServiceDescriptor, Set<InetAddress>> previous = memberAddresses;
+        ImmutableMap.Builder<ServiceDescriptor, Set<InetAddress>> addresses = ImmutableMap.builder();
+        for (ServiceDescriptor service : ImmutableSet.copyOf(online)) {
+            Set<InetAddress> serviceAddresses = previous.get(service);
+            addresses.put(service, serviceAddresses != null ? serviceAddresses : resolveAddresses(service));
+        }
+        memberAddresses = addresses.build();
+        senderAddresses = memberAddresses.values().stream()
+                .flatMap(Set::stream)
+                .collect(toImmutableSet());
+    }
+
+    private static Set<InetAddress> resolveAddresses(ServiceDescriptor service)
+    {
+        ImmutableSet.Builder<InetAddress> addresses = ImmutableSet.builder();
+        for (String property : new String[] {"http", "https"}) {
+            String uri = service.getProperties().get(property);
+            if (uri == null) {
+                continue;
+            }
+            try {
+                addresses.add(InetAddress.getAllByName(URI.create(uri).getHost()));
+            }
+            catch (IllegalArgumentException | UnknownHostException e) {
+                log.debug("Cannot resolve %s of service %s: %s", property, service.getId(), e.getMessage());
+            }
+        }
+        return addresses.build();
+    }
+
+    private void setFailed(ServiceDescriptor service, boolean isFailed, boolean notify)
+    {
+        synchronized (failedLock) {
+            Set<ServiceDescriptor> current = failed;
+            if (current.contains(service) == isFailed) {
+                return;
+            }
+            if (isFailed) {
+                failed = ImmutableSet.<ServiceDescriptor>builder().addAll(current).add(service).build();
+            }
+            else {
+                failed = current.stream()
+                        .filter(descriptor -> !descriptor.equals(service))
+                        .collect(toImmutableSet());
+            }
+            stateVersion.incrementAndGet();
+
+            // queued under the lock so listeners see transitions in order
+            if (notify) {
+                for (Listener listener : listeners) {
+                    listenerExecutor.execute(() -> {
+                        try {
+                            if (isFailed) {
+                                listener.onFailed(service);
+                            }
+                            else {
+                                listener.onRecovered(service);
+                            }
+                        }
+                        catch (Throwable e) {
+                            log.warn(e, "Error notifying failure detector listener of %s", service.getId());
+                        }
+                    });
+                }
+            }
+        }
+    }
+
+    @Managed(description = "Number of failed services")
+    public int getFailedCount()
+    {
+        return failed.size();
+    }
+
+    @Managed(description = "Number of members currently suspected")
+    public synchronized int getSuspectCount()
+    {
+        return (int) members.values().stream()
+                .filter(member -> member.state == State.SUSPECT)
+                .count();
+    }
+
+    @Managed(description = "Total number of known members, excluding this node")
+    public synchronized int getTotalCount()
+    {
+        return members.size();
+    }
+
+    @Managed(description = "Number of membership updates still being disseminated")
+    public synchronized int getPendingBroadcastCount()
+    {
+        return broadcasts.size();
+    }
+
+    @Managed
+    public synchronized long getIncarnation()
+    {
+        return incarnation;
+    }
+
+    @Managed
+    public long getProbes()
+    {
+        return probes.get();
+    }
+
+    @Managed(description = "Number of probes that went unanswered and were retried through other members")
+    public long getIndirectProbes()
+    {
+        return indirectProbeCount.get();
+    }
+
+    @Managed(description = "Number of probes that went unanswered both directly and through other members")
+    public long getFailedProbes()
+    {
+        return failedProbes.get();
+    }
+
+    @Managed(description = "Number of times this node refuted suspicion of itself")
+    public long getRefutations()
+    {
+        return refutations.get();
+    }
+
+    @Managed(description = "Probes and relay requests refused because they did not come from a member")
+    public long getRejected()
+    {
+        return rejected.get();
+    }
+
+    @Managed
+    public int getMemberAddressCount()
+    {
+        return senderAddresses.size();
+    }
+
+    private static final class Member
+    {
+        private final ServiceDescriptor service;
+        private final URI uri;
+        private final String nodeId;
+
+        private State state = State.ALIVE;
+        private long incarnation;
+        private long suspectedAtNanos;
+        private long offlineSinceNanos;
+        private boolean warmingUp;
+        private long warmupStartNanos = System.nanoTime();
+
+        private Member(ServiceDescriptor service, URI uri, boolean warmingUp)
+        {
+            this.service = service;
+            this.uri = uri;
+            this.nodeId = service.getNodeId();
+            this.warmingUp = warmingUp;
+        }
+
+        private boolean isFailed()
+        {
+            return state == State.DEAD || warmingUp;
+        }
+
+        private GossipUpdate toUpdate()
+        {
+            return new GossipUpdate(nodeId, state, incarnation);
+        }
+    }
+
+    public static class Stats
+    {
+        private final URI uri;
+        private final State state;
+        private final long incarnation;
+        private final boolean warmingUp;
+        private final boolean offline;
+
+        public Stats(URI uri, State state, long incarnation, boolean warmingUp, boolean offline)
+        {
+            this.uri = requireNonNull(uri, "uri is null");
+            this.state = requireNonNull(state, "state is null");
+            this.incarnation = incarnation;
+            this.warmingUp = warmingUp;
+            this.offline = offline;
+        }
+
+        public URI getUri()
+        {
+            return uri;
+        }
+
+        public State getState()
+        {
+            return state;
+        }
+
+        public long getIncarnation()
+        {
+            return incarnation;
+        }
+
+        public boolean isWarmingUp()
+        {
+            return warmingUp;
+        }
+
+        /**
+         * Whether discovery no longer lists the member, which is kept for the expiration grace interval.
+         */
+        public boolean isOffline()
+        {
+            return offline;
+        }
+    }
+
+    private static final class Broadcast
+    {
+        private final GossipUpdate update;
+        private int remaining;
+
+        private Broadcast(GossipUpdate update, int remaining)
+        {
+            this.update = update;
+            this.remaining = remaining;
+        }
+    }
+}
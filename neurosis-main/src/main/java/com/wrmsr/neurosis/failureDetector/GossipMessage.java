@@ -0,0 +1,65 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.failureDetector;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.concurrent.Immutable;
+
+import java.util.List;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Body of gossip probes and their acknowledgements, carrying the membership updates the sender is still disseminating.
+ */
+@Immutable
+public class GossipMessage
+{
+    private final String nodeId;
+    private final List<GossipUpdate> updates;
+
+    @JsonCreator
+    public GossipMessage(
+            @JsonProperty("nodeId") String nodeId,
+            @JsonProperty("updates") List<GossipUpdate> updates)
+    {
+        this.nodeId = requireNonNull(nodeId, "nodeId is null");
+        this.updates = ImmutableList.copyOf(requireNonNull(updates, "updates is null"));
+    }
+
+    @JsonProperty
+    public String getNodeId()
+    {
+        return nodeId;
+    }
+
+    @JsonProperty
+    public List<GossipUpdate> getUpdates()
+    {
+        return updates;
+    }
+
+    @Override
+    public String toString()
+    {
+        return toStringHelper(this)
+                .add("nodeId", nodeId)
+                .add("updates", updates)
+                .toString();
+    }
+}
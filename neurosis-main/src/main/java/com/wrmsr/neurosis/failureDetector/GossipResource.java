@@ -0,0 +1,112 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.failureDetector;
+
+import com.google.common.net.InetAddresses;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static io.airlift.http.server.AsyncResponseHandler.bindAsyncResponse;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+
+/**
+ * Probes and relay requests are only answered when they come from the address of a discovered member, as they are not
+ * authenticated and would otherwise let anyone spread membership updates or have this node probe on their behalf.
+ */
+@Path("/v1/gossip")
+public class GossipResource
+{
+    private final GossipFailureDetector failureDetector;
+    private final ExecutorService responseExecutor = newCachedThreadPool(daemonThreadsNamed("failure-detector-gossip-response-%s"));
+
+    @Inject
+    public GossipResource(GossipFailureDetector failureDetector)
+    {
+        this.failureDetector = requireNonNull(failureDetector, "failureDetector is null");
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        responseExecutor.shutdownNow();
+    }
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<GossipUpdate> getMembers()
+    {
+        return failureDetector.getMembers();
+    }
+
+    @POST
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response probe(GossipMessage message, @Context HttpServletRequest request)
+    {
+        if (!isMember(request)) {
+            return Response.status(Response.Status.FORBIDDEN).build();
+        }
+        return Response.ok(failureDetector.receive(message)).build();
+    }
+
+    @POST
+    @Path("relay")
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public void relay(@QueryParam("nodeId") String nodeId, GossipMessage message, @Context HttpServletRequest request, @Suspended AsyncResponse asyncResponse)
+    {
+        if (!isMember(request)) {
+            asyncResponse.resume(Response.status(Response.Status.FORBIDDEN).build());
+            return;
+        }
+        if (nodeId == null) {
+            asyncResponse.resume(Response.status(Response.Status.BAD_REQUEST).build());
+            return;
+        }
+        // the relayed probe can take up to the probe timeout, so it must not hold a request thread
+        CompletableFuture<Response> response = failureDetector.relay(nodeId, message)
+                .thenApply(reply -> {
+                    if (reply == null) {
+                        return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+                    }
+                    return Response.ok(reply).build();
+                });
+        bindAsyncResponse(asyncResponse, response, responseExecutor);
+    }
+
+    private boolean isMember(HttpServletRequest request)
+    {
+        // the remote address is numeric, so this does not look anything up
+        return failureDetector.isMemberAddress(InetAddresses.forString(request.getRemoteAddr()));
+    }
+}
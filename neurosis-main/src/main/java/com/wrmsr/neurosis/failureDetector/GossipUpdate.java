@@ -0,0 +1,104 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.failureDetector;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.annotation.concurrent.Immutable;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A claim about one node's membership state, as disseminated by {@link GossipFailureDetector}. Only the node itself
+ * raises its incarnation, which it does to refute suspicion, so a higher incarnation always carries newer information.
+ */
+@Immutable
+public class GossipUpdate
+{
+    public enum State
+    {
+        ALIVE,
+        SUSPECT,
+        DEAD
+    }
+
+    private final String nodeId;
+    private final State state;
+    private final long incarnation;
+
+    @JsonCreator
+    public GossipUpdate(
+            @JsonProperty("nodeId") String nodeId,
+            @JsonProperty("state") State state,
+            @JsonProperty("incarnation") long incarnation)
+    {
+        this.nodeId = requireNonNull(nodeId, "nodeId is null");
+        this.state = requireNonNull(state, "state is null");
+        this.incarnation = incarnation;
+    }
+
+    @JsonProperty
+    public String getNodeId()
+    {
+        return nodeId;
+    }
+
+    @JsonProperty
+    public State getState()
+    {
+        return state;
+    }
+
+    @JsonProperty
+    public long getIncarnation()
+    {
+        return incarnation;
+    }
+
+    /**
+     * SWIM precedence: alive overrides only older incarnations, suspect overrides alive at the same incarnation, and dead
+     * overrides both.
+     */
+    public boolean overrides(State currentState, long currentIncarnation)
+    {
+        switch (state) {
+            case ALIVE:
+                return incarnation > currentIncarnation;
+            case SUSPECT:
+                if (currentState == State.ALIVE) {
+                    return incarnation >= currentIncarnation;
+                }
+                return currentState == State.SUSPECT && incarnation > currentIncarnation;
+            case DEAD:
+                if (currentState == State.DEAD) {
+                    return incarnation > currentIncarnation;
+                }
+                return incarnation >= currentIncarnation;
+            default:
+                throw new IllegalStateException("Unknown state " + state);
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return toStringHelper(this)
+                .add("nodeId", nodeId)
+                .add("state", state)
+                .add("incarnation", incarnation)
+                .toString();
+    }
+}
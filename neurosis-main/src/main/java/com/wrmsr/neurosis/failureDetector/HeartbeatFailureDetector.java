@@ -15,21 +15,19 @@ package com.wrmsr.neurosis.failureDetector;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import io.airlift.discovery.client.ServiceDescriptor;
 import io.airlift.discovery.client.ServiceSelector;
 import io.airlift.discovery.client.ServiceType;
-import io.airlift.http.client.HttpClient;
-import io.airlift.http.client.Request;
-import io.airlift.http.client.Response;
-import io.airlift.http.client.ResponseHandler;
 import io.airlift.log.Logger;
 import io.airlift.node.NodeInfo;
-import io.airlift.stats.DecayCounter;
 import io.airlift.stats.ExponentialDecay;
 import io.airlift.units.Duration;
 import org.joda.time.DateTime;
 import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -40,77 +38,131 @@ import javax.inject.Inject;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
-import static com.wrmsr.neurosis.util.ImmutableCollectors.toImmutableList;
 import static com.wrmsr.neurosis.util.ImmutableCollectors.toImmutableSet;
 import static com.google.common.base.Preconditions.checkArgument;
 import static io.airlift.concurrent.Threads.daemonThreadsNamed;
-import static io.airlift.http.client.Request.Builder.prepareHead;
 import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newSingleThreadExecutor;
 import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
 
 public class HeartbeatFailureDetector
-        implements FailureDetector
+        implements MonitoringFailureDetector
 {
     private static final Logger log = Logger.get(HeartbeatFailureDetector.class);
 
+    private static final double MAX_BUDGET_STRETCH = 64;
+
     private final ServiceSelector selector;
-    private final HttpClient httpClient;
+    private final HeartbeatTransport transport;
     private final NodeInfo nodeInfo;
 
     private final ScheduledExecutorService executor = newSingleThreadScheduledExecutor(daemonThreadsNamed("failure-detector"));
+    private final HeartbeatWheel wheel;
 
     // monitoring tasks by service id
     private final ConcurrentMap<UUID, MonitoringTask> tasks = new ConcurrentHashMap<>();
 
+    // last discovery snapshot reconciled against tasks, compared by identity
+    @GuardedBy("tasks")
+    private List<ServiceDescriptor> lastServices = ImmutableList.of();
+    @GuardedBy("tasks")
+    private Map<UUID, ServiceDescriptor> lastOnline = ImmutableMap.of();
+    @GuardedBy("tasks")
+    private final Set<UUID> disabledIds = new HashSet<>();
+
+    // replaced wholesale on every transition so readers never lock or scan the tasks
+    private final Object failedLock = new Object();
+    @GuardedBy("failedLock")
+    private volatile Set<ServiceDescriptor> failed = ImmutableSet.of();
+
+    // starts from the clock so a version seen before a restart is not taken for a current one
+    private final AtomicLong stateVersion = new AtomicLong(System.currentTimeMillis());
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final ExecutorService listenerExecutor = newSingleThreadExecutor(daemonThreadsNamed("failure-detector-listener"));
+
+    private final FailureDetectorConfig.Mode mode;
     private final double failureRatioThreshold;
+    private final double phiThreshold;
+    private final int phiWindowSize;
+    private final Duration phiMinStdDeviation;
+    private final Duration phiAcceptablePause;
     private final Duration heartbeat;
     private final boolean isEnabled;
     private final Duration warmupInterval;
     private final Duration gcGraceInterval;
+    private final Duration discoveryRefreshInterval;
+
+    private final boolean adaptive;
+    private final int maxPeriod;
+    private final long stableIntervalNanos;
+    private final double maxProbeRate;
+
+    // factor healthy services' heartbeat periods are stretched by to stay within maxProbeRate
+    private volatile double budgetStretch = 1.0;
 
     private final AtomicBoolean started = new AtomicBoolean();
 
     @Inject
     public HeartbeatFailureDetector(
             @ServiceType("neurosis") ServiceSelector selector,
-            @ForFailureDetector HttpClient httpClient,
+            HeartbeatTransport transport,
             FailureDetectorConfig config,
             NodeInfo nodeInfo)
     {
         requireNonNull(selector, "selector is null");
-        requireNonNull(httpClient, "httpClient is null");
+        requireNonNull(transport, "transport is null");
         requireNonNull(nodeInfo, "nodeInfo is null");
         requireNonNull(config, "config is null");
         checkArgument(config.getHeartbeatInterval().toMillis() >= 1, "heartbeat interval must be >= 1ms");
 
         this.selector = selector;
-        this.httpClient = httpClient;
+        this.transport = transport;
         this.nodeInfo = nodeInfo;
 
+        this.mode = config.getMode();
         this.failureRatioThreshold = config.getFailureRatioThreshold();
+        this.phiThreshold = config.getPhiThreshold();
+        this.phiWindowSize = config.getPhiWindowSize();
+        this.phiMinStdDeviation = config.getPhiMinStdDeviation();
+        this.phiAcceptablePause = config.getPhiAcceptablePause();
         this.heartbeat = config.getHeartbeatInterval();
         this.warmupInterval = config.getWarmupInterval();
         this.gcGraceInterval = config.getExpirationGraceInterval();
+        this.discoveryRefreshInterval = config.getDiscoveryRefreshInterval();
 
         this.isEnabled = config.isEnabled();
+
+        this.adaptive = config.isAdaptiveEnabled();
+        this.maxPeriod = (int) Math.max(1, config.getAdaptiveMaxInterval().roundTo(TimeUnit.NANOSECONDS) / heartbeat.roundTo(TimeUnit.NANOSECONDS));
+        this.stableIntervalNanos = config.getAdaptiveStableInterval().roundTo(TimeUnit.NANOSECONDS);
+        this.maxProbeRate = config.getMaxProbeRate();
+
+        this.wheel = new HeartbeatWheel(heartbeat, config.getTicksPerHeartbeat(), config.getSchedulerThreads(), "failure-detector-heartbeat");
     }
 
     @PostConstruct
     public void start()
     {
         if (isEnabled && started.compareAndSet(false, true)) {
+            wheel.start();
             executor.scheduleWithFixedDelay(new Runnable()
             {
                 @Override
@@ -118,13 +170,14 @@ public class HeartbeatFailureDetector
                 {
                     try {
                         updateMonitoredServices();
+                        updateProbeBudget();
                     }
                     catch (Throwable e) {
                         // ignore to avoid getting unscheduled
                         log.warn(e, "Error updating services");
                     }
                 }
-            }, 0, 5, TimeUnit.SECONDS);
+            }, 0, discoveryRefreshInterval.toMillis(), TimeUnit.MILLISECONDS);
         }
     }
 
@@ -132,21 +185,70 @@ public class HeartbeatFailureDetector
     public void shutdown()
     {
         executor.shutdownNow();
+        wheel.stop();
+        listenerExecutor.shutdownNow();
     }
 
     @Override
     public Set<ServiceDescriptor> getFailed()
     {
-        return tasks.values().stream()
-                .filter(MonitoringTask::isFailed)
-                .map(MonitoringTask::getService)
-                .collect(toImmutableSet());
+        return failed;
+    }
+
+    @Override
+    public void addListener(Listener listener)
+    {
+        listeners.add(requireNonNull(listener, "listener is null"));
+    }
+
+    @Override
+    public void removeListener(Listener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    private void setFailed(ServiceDescriptor service, boolean isFailed, boolean notify)
+    {
+        synchronized (failedLock) {
+            Set<ServiceDescriptor> current = failed;
+            if (current.contains(service) == isFailed) {
+                return;
+            }
+            if (isFailed) {
+                failed = ImmutableSet.<ServiceDescriptor>builder().addAll(current).add(service).build();
+            }
+            else {
+                failed = current.stream()
+                        .filter(descriptor -> !descriptor.equals(service))
+                        .collect(toImmutableSet());
+            }
+            stateVersion.incrementAndGet();
+
+            // queued under the lock so listeners see transitions in order
+            if (notify) {
+                for (Listener listener : listeners) {
+                    listenerExecutor.execute(() -> {
+                        try {
+                            if (isFailed) {
+                                listener.onFailed(service);
+                            }
+                            else {
+                                listener.onRecovered(service);
+                            }
+                        }
+                        catch (Throwable e) {
+                            log.warn(e, "Error notifying failure detector listener of %s", service.getId());
+                        }
+                    });
+                }
+            }
+        }
     }
 
     @Managed(description = "Number of failed services")
     public int getFailedCount()
     {
-        return getFailed().size();
+        return failed.size();
     }
 
     @Managed(description = "Total number of known services")
@@ -158,9 +260,83 @@ public class HeartbeatFailureDetector
     @Managed
     public int getActiveCount()
     {
-        return tasks.size() - getFailed().size();
+        return tasks.size() - failed.size();
+    }
+
+    @Managed(description = "Highest recent p50 heartbeat round trip of any service, in milliseconds")
+    public double getWorstLatencyP50Millis()
+    {
+        return worstLatencyMillis(Stats::getLatencyP50);
+    }
+
+    @Managed(description = "Highest recent p99 heartbeat round trip of any service, in milliseconds")
+    public double getWorstLatencyP99Millis()
+    {
+        return worstLatencyMillis(Stats::getLatencyP99);
+    }
+
+    @Managed(description = "Highest recent heartbeat round trip of any service, in milliseconds")
+    public double getWorstLatencyMaxMillis()
+    {
+        return worstLatencyMillis(Stats::getLatencyMax);
+    }
+
+    private double worstLatencyMillis(Function<Stats, Duration> latency)
+    {
+        double worst = 0;
+        for (MonitoringTask task : tasks.values()) {
+            Duration value = latency.apply(task.getStats());
+            if (value != null) {
+                worst = Math.max(worst, value.getValue(TimeUnit.MILLISECONDS));
+            }
+        }
+        return worst;
+    }
+
+    @Managed(description = "Heartbeats per second currently scheduled across all services")
+    public double getProbeRate()
+    {
+        double perInterval = 0;
+        for (MonitoringTask task : tasks.values()) {
+            if (task.isEnabled()) {
+                perInterval += 1.0 / task.getEffectivePeriod();
+            }
+        }
+        return perInterval / heartbeat.getValue(TimeUnit.SECONDS);
+    }
+
+    @Managed(description = "Number of services heartbeated every interval")
+    public int getFullRateCount()
+    {
+        int count = 0;
+        for (MonitoringTask task : tasks.values()) {
+            if (task.isEnabled() && task.getEffectivePeriod() == 1) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Managed(description = "Factor the heartbeat periods of healthy services are stretched by to stay within the probe rate limit")
+    public double getBudgetStretch()
+    {
+        return budgetStretch;
     }
 
+    @Managed
+    @Nested
+    public HeartbeatWheel getHeartbeatWheel()
+    {
+        return wheel;
+    }
+
+    @Override
+    public long getStateVersion()
+    {
+        return stateVersion.get();
+    }
+
+    @Override
     public Map<ServiceDescriptor, Stats> getStats()
     {
         ImmutableMap.Builder<ServiceDescriptor, Stats> builder = ImmutableMap.builder();
@@ -173,51 +349,105 @@ public class HeartbeatFailureDetector
     @VisibleForTesting
     void updateMonitoredServices()
     {
-        Set<ServiceDescriptor> online = selector.selectAllServices().stream()
-                .filter(descriptor -> !nodeInfo.getNodeId().equals(descriptor.getNodeId()))
-                .collect(toImmutableSet());
-
-        Set<UUID> onlineIds = online.stream()
-                .map(ServiceDescriptor::getId)
-                .collect(toImmutableSet());
+        List<ServiceDescriptor> services = selector.selectAllServices();
 
         // make sure only one thread is updating the registrations
         synchronized (tasks) {
-            // 1. remove expired tasks
-            List<UUID> expiredIds = tasks.values().stream()
-                    .filter(MonitoringTask::isExpired)
-                    .map(MonitoringTask::getService)
-                    .map(ServiceDescriptor::getId)
-                    .collect(toImmutableList());
-
-            tasks.keySet().removeAll(expiredIds);
-
-            // 2. disable offline services
-            tasks.values().stream()
-                    .filter(task -> !onlineIds.contains(task.getService().getId()))
-                    .forEach(MonitoringTask::disable);
-
-            // 3. create tasks for new services
-            Set<ServiceDescriptor> newServices = online.stream()
-                    .filter(service -> !tasks.keySet().contains(service.getId()))
-                    .collect(toImmutableSet());
-
-            for (ServiceDescriptor service : newServices) {
-                URI uri = getHttpUri(service);
-
-                if (uri != null) {
-                    tasks.put(service.getId(), new MonitoringTask(service, uri));
+            // selectors hand back the same list until discovery reports a change, as a not modified answer from the
+            // discovery server keeps the previous list, so the list itself versions the snapshot and an unchanged poll
+            // costs nothing
+            if (services != lastServices) {
+                Map<UUID, ServiceDescriptor> online = new HashMap<>();
+                for (ServiceDescriptor service : services) {
+                    if (!nodeInfo.getNodeId().equals(service.getNodeId())) {
+                        online.put(service.getId(), service);
+                    }
+                }
+
+                // 1. disable services that went offline
+                for (UUID id : lastOnline.keySet()) {
+                    if (!online.containsKey(id)) {
+                        MonitoringTask task = tasks.get(id);
+                        if (task != null) {
+                            task.disable();
+                            disabledIds.add(id);
+                        }
+                    }
                 }
+
+                // 2. create tasks for new services and enable services that came back
+                for (ServiceDescriptor service : online.values()) {
+                    if (lastOnline.containsKey(service.getId())) {
+                        continue;
+                    }
+                    MonitoringTask task = tasks.get(service.getId());
+                    if (task == null) {
+                        URI uri = getHttpUri(service);
+                        if (uri == null) {
+                            continue;
+                        }
+                        task = new MonitoringTask(service, uri);
+                        tasks.put(service.getId(), task);
+                        stateVersion.incrementAndGet();
+                        setFailed(service, true, false);
+                    }
+                    task.enable();
+                    disabledIds.remove(service.getId());
+                }
+
+                lastServices = services;
+                lastOnline = online;
             }
 
-            // 4. enable all online tasks (existing plus newly created)
-            tasks.values().stream()
-                    .filter(task -> onlineIds.contains(task.getService().getId()))
-                    .forEach(MonitoringTask::enable);
+            // 3. remove expired tasks, which can only be disabled ones
+            for (Iterator<UUID> iterator = disabledIds.iterator(); iterator.hasNext(); ) {
+                UUID id = iterator.next();
+                MonitoringTask task = tasks.get(id);
+                if (task == null) {
+                    iterator.remove();
+                }
+                else if (task.isExpired()) {
+                    iterator.remove();
+                    tasks.remove(id);
+                    stateVersion.incrementAndGet();
+                    setFailed(task.getService(), false, false);
+                }
+            }
         }
     }
 
-    private static URI getHttpUri(ServiceDescriptor service)
+    @VisibleForTesting
+    void updateProbeBudget()
+    {
+        if (maxProbeRate <= 0) {
+            return;
+        }
+
+        // in heartbeats per heartbeat interval
+        double allowed = maxProbeRate * heartbeat.getValue(TimeUnit.SECONDS);
+        double urgent = 0;
+        double healthy = 0;
+        for (MonitoringTask task : tasks.values()) {
+            if (!task.isEnabled()) {
+                continue;
+            }
+            if (task.isUrgent()) {
+                urgent++;
+            }
+            else {
+                healthy += 1.0 / task.getDesiredPeriod();
+            }
+        }
+
+        // only healthy services are held back, so the budget can be exceeded while many services are failing
+        double stretch = 1.0;
+        if (healthy > 0 && urgent + healthy > allowed) {
+            stretch = allowed > urgent ? healthy / (allowed - urgent) : MAX_BUDGET_STRETCH;
+        }
+        budgetStretch = Math.min(stretch, MAX_BUDGET_STRETCH);
+    }
+
+    static URI getHttpUri(ServiceDescriptor service)
     {
         try {
             String uri = service.getProperties().get("http");
@@ -240,7 +470,7 @@ public class HeartbeatFailureDetector
         private final Stats stats;
 
         @GuardedBy("this")
-        private ScheduledFuture<?> future;
+        private HeartbeatWheel.Registration registration;
 
         @GuardedBy("this")
         private Long disabledTimestamp;
@@ -248,11 +478,29 @@ public class HeartbeatFailureDetector
         @GuardedBy("this")
         private Long successTransitionTimestamp;
 
+        // heartbeat every this many intervals while healthy, before any budget stretch
+        @GuardedBy("this")
+        private int desiredPeriod = 1;
+        @GuardedBy("this")
+        private long periodChangedNanos = System.nanoTime();
+        @GuardedBy("this")
+        private int roundsUntilPing;
+        // intervals since the last heartbeat was sent
+        @GuardedBy("this")
+        private int roundsSincePing;
+
+        // last computed state, mirrored in the detector's failed set
+        private volatile boolean failed = true;
+
         private MonitoringTask(ServiceDescriptor service, URI uri)
         {
             this.uri = uri;
             this.service = service;
-            this.stats = new Stats(uri);
+            this.stats = new Stats(uri, new PhiAccrualEstimator(
+                    phiWindowSize,
+                    heartbeat.toMillis(),
+                    phiMinStdDeviation.toMillis(),
+                    phiAcceptablePause.toMillis()));
         }
 
         public Stats getStats()
@@ -267,139 +515,257 @@ public class HeartbeatFailureDetector
 
         public synchronized void enable()
         {
-            if (future == null) {
-                future = executor.scheduleAtFixedRate(new Runnable()
-                {
-                    @Override
-                    public void run()
-                    {
-                        try {
-                            ping();
-                            updateState();
-                        }
-                        catch (Throwable e) {
-                            // ignore to avoid getting unscheduled
-                            log.warn(e, "Error pinging service %s (%s)", service.getId(), uri);
+            if (registration == null) {
+                registration = wheel.schedule(() -> {
+                    try {
+                        int intervals = nextRound();
+                        if (intervals > 0) {
+                            ping(intervals);
                         }
+                        // suspicion can rise between heartbeats, so it is re-evaluated every interval
+                        updateState(intervals > 0);
+                    }
+                    catch (Throwable e) {
+                        log.warn(e, "Error pinging service %s (%s)", service.getId(), uri);
                     }
-                }, heartbeat.toMillis(), heartbeat.toMillis(), TimeUnit.MILLISECONDS);
+                });
                 disabledTimestamp = null;
             }
+            refreshFailed();
         }
 
         public synchronized void disable()
         {
-            if (future != null) {
-                future.cancel(true);
-                future = null;
+            if (registration != null) {
+                registration.cancel();
+                registration = null;
                 disabledTimestamp = System.nanoTime();
             }
+            refreshFailed();
+        }
+
+        public synchronized boolean isEnabled()
+        {
+            return registration != null;
         }
 
         public synchronized boolean isExpired()
         {
-            return future == null && disabledTimestamp != null && Duration.nanosSince(disabledTimestamp).compareTo(gcGraceInterval) > 0;
+            return registration == null && disabledTimestamp != null && Duration.nanosSince(disabledTimestamp).compareTo(gcGraceInterval) > 0;
+        }
+
+        public boolean isFailed()
+        {
+            return failed;
         }
 
-        public synchronized boolean isFailed()
+        private synchronized boolean computeFailed()
         {
-            return future == null || // are we disabled?
+            return registration == null || // are we disabled?
                     successTransitionTimestamp == null || // are we in success state?
                     Duration.nanosSince(successTransitionTimestamp).compareTo(warmupInterval) < 0; // are we within the warmup period?
         }
 
-        private void ping()
+        // runs every interval while enabled, which also catches the end of the warmup period
+        private synchronized void refreshFailed()
         {
-            try {
-                stats.recordStart();
-                httpClient.executeAsync(prepareHead().setUri(uri).build(), new ResponseHandler<Object, Exception>()
-                {
-                    @Override
-                    public Exception handleException(Request request, Exception exception)
-                    {
-                        // ignore error
-                        stats.recordFailure(exception);
-
-                        // TODO: this will technically cause an NPE in httpClient, but it's not triggered because
-                        // we never call get() on the response future. This behavior needs to be fixed in airlift
-                        return null;
-                    }
+            boolean isFailed = computeFailed();
+            if (isFailed != failed) {
+                failed = isFailed;
+                setFailed(service, isFailed, true);
+            }
+        }
 
-                    @Override
-                    public Object handle(Request request, Response response)
-                            throws Exception
-                    {
-                        stats.recordSuccess();
-                        return null;
-                    }
-                });
+        /**
+         * Failing, suspected and warming up services are heartbeated every interval and exempt from the budget.
+         */
+        private boolean isUrgent()
+        {
+            return failed || stats.isLastResponseFailure();
+        }
+
+        public synchronized int getDesiredPeriod()
+        {
+            return desiredPeriod;
+        }
+
+        public synchronized int getEffectivePeriod()
+        {
+            if (isUrgent()) {
+                return 1;
             }
-            catch (RuntimeException e) {
-                log.warn(e, "Error scheduling request for %s", uri);
+            return Math.max(1, (int) Math.ceil(desiredPeriod * budgetStretch));
+        }
+
+        // called by the wheel every interval, returns the intervals since the previous heartbeat if one is due this
+        // round, or zero
+        private synchronized int nextRound()
+        {
+            roundsSincePing++;
+            // a service that just failed a heartbeat is checked again right away
+            if (--roundsUntilPing > 0 && !isUrgent()) {
+                return 0;
             }
+            int period = getEffectivePeriod();
+            roundsUntilPing = period;
+            stats.setPeriod(period);
+            int intervals = roundsSincePing;
+            roundsSincePing = 0;
+            return intervals;
         }
 
-        private synchronized void updateState()
+        @GuardedBy("this")
+        private void adaptPeriod()
+        {
+            long now = System.nanoTime();
+            if (isUrgent()) {
+                desiredPeriod = 1;
+                periodChangedNanos = now;
+            }
+            else if (desiredPeriod < maxPeriod && now - periodChangedNanos >= stableIntervalNanos) {
+                desiredPeriod = Math.min(desiredPeriod * 2, maxPeriod);
+                periodChangedNanos = now;
+            }
+        }
+
+        private boolean isSuspected()
+        {
+            switch (mode) {
+                case PHI_ACCRUAL:
+                    // no heartbeat yet is no evidence of liveness
+                    return !stats.hasHeartbeat() || stats.getPhi() > phiThreshold;
+                case RATIO:
+                    return stats.getRecentFailureRatio() > failureRatioThreshold;
+                default:
+                    throw new IllegalStateException("Unknown mode " + mode);
+            }
+        }
+
+        private void ping(int intervals)
+        {
+            stats.recordStart(intervals);
+            transport.ping(uri, new HeartbeatTransport.Callback()
+            {
+                @Override
+                public void success(long startNanos)
+                {
+                    stats.recordSuccess(startNanos);
+                }
+
+                @Override
+                public void failure(Exception exception)
+                {
+                    stats.recordFailure(exception);
+                }
+            });
+        }
+
+        private synchronized void updateState(boolean pinged)
         {
             // is this an over/under transition?
-            if (stats.getRecentFailureRatio() > failureRatioThreshold) {
+            if (isSuspected()) {
                 successTransitionTimestamp = null;
             }
             else if (successTransitionTimestamp == null) {
                 successTransitionTimestamp = System.nanoTime();
             }
+            refreshFailed();
+            if (adaptive && pinged) {
+                adaptPeriod();
+            }
         }
     }
 
     public static class Stats
     {
+        // failure types are few, so pre-size to keep the map from resizing under load
+        private static final int EXPECTED_FAILURE_TYPES = 16;
+
+        private static final Duration LATENCY_WINDOW = new Duration(1, TimeUnit.MINUTES);
+
         private final long start = System.nanoTime();
         private final URI uri;
+        private final PhiAccrualEstimator phiEstimator;
 
-        private final DecayCounter recentRequests = new DecayCounter(ExponentialDecay.oneMinute());
-        private final DecayCounter recentFailures = new DecayCounter(ExponentialDecay.oneMinute());
-        private final DecayCounter recentSuccesses = new DecayCounter(ExponentialDecay.oneMinute());
-        private final AtomicReference<DateTime> lastRequestTime = new AtomicReference<>();
-        private final AtomicReference<DateTime> lastResponseTime = new AtomicReference<>();
+        private final StripedDecayCounter recentRequests = new StripedDecayCounter(ExponentialDecay.oneMinute());
+        private final StripedDecayCounter recentFailures = new StripedDecayCounter(ExponentialDecay.oneMinute());
+        private final StripedDecayCounter recentSuccesses = new StripedDecayCounter(ExponentialDecay.oneMinute());
+        private final LatencyHistogram latency = new LatencyHistogram(LATENCY_WINDOW);
 
-        @GuardedBy("this")
-        private final Map<Class<? extends Throwable>, DecayCounter> failureCountByType = new HashMap<>();
+        // System.nanoTime() of the last event, zero if none
+        private volatile long lastRequestNanos;
+        private volatile long lastResponseNanos;
+        private volatile boolean lastResponseFailure;
+
+        // heartbeat intervals until the next heartbeat is due
+        private volatile int period = 1;
+        // heartbeat intervals the heartbeats sent since the last success were spread over
+        private final AtomicInteger pendingIntervals = new AtomicInteger();
 
-        public Stats(URI uri)
+        private final ConcurrentMap<Class<? extends Throwable>, StripedDecayCounter> failureCountByType = new ConcurrentHashMap<>(EXPECTED_FAILURE_TYPES);
+
+        public Stats(URI uri, PhiAccrualEstimator phiEstimator)
         {
             this.uri = uri;
+            this.phiEstimator = requireNonNull(phiEstimator, "phiEstimator is null");
         }
 
-        public void recordStart()
+        /**
+         * @param intervals heartbeat intervals since the previous heartbeat was sent
+         */
+        public void recordStart(int intervals)
         {
+            pendingIntervals.addAndGet(intervals);
             recentRequests.add(1);
-            lastRequestTime.set(new DateTime());
+            lastRequestNanos = System.nanoTime();
         }
 
-        public void recordSuccess()
+        public void recordSuccess(long startNanos)
         {
             recentSuccesses.add(1);
-            lastResponseTime.set(new DateTime());
+            long now = System.nanoTime();
+            lastResponseNanos = now;
+            latency.add(now - startNanos);
+            // the period may have changed since this interval started, so use the intervals actually waited
+            phiEstimator.heartbeat(now, Math.max(1, pendingIntervals.getAndSet(0)));
+            lastResponseFailure = false;
         }
 
         public void recordFailure(Exception exception)
         {
             recentFailures.add(1);
-            lastResponseTime.set(new DateTime());
+            lastResponseNanos = System.nanoTime();
+            lastResponseFailure = true;
 
             Throwable cause = exception;
             while (cause.getClass() == RuntimeException.class && cause.getCause() != null) {
                 cause = cause.getCause();
             }
 
-            synchronized (this) {
-                DecayCounter counter = failureCountByType.get(cause.getClass());
-                if (counter == null) {
-                    counter = new DecayCounter(ExponentialDecay.oneMinute());
-                    failureCountByType.put(cause.getClass(), counter);
-                }
-                counter.add(1);
+            // plain get first, as computeIfAbsent locks the bin even when the key is present
+            StripedDecayCounter counter = failureCountByType.get(cause.getClass());
+            if (counter == null) {
+                counter = failureCountByType.computeIfAbsent(cause.getClass(), type -> new StripedDecayCounter(ExponentialDecay.oneMinute()));
             }
+            counter.add(1);
+        }
+
+        void setPeriod(int period)
+        {
+            this.period = period;
+        }
+
+        public boolean isLastResponseFailure()
+        {
+            return lastResponseFailure;
+        }
+
+        private static DateTime toDateTime(long nanos)
+        {
+            if (nanos == 0) {
+                return null;
+            }
+            return new DateTime(System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - nanos));
         }
 
         @JsonProperty
@@ -438,23 +804,64 @@ public class HeartbeatFailureDetector
             return recentFailures.getCount() / recentRequests.getCount();
         }
 
+        public boolean hasHeartbeat()
+        {
+            return phiEstimator.hasHeartbeat();
+        }
+
+        @JsonProperty
+        public Duration getLatencyP50()
+        {
+            return latency.getPercentile(0.50);
+        }
+
+        @JsonProperty
+        public Duration getLatencyP99()
+        {
+            return latency.getPercentile(0.99);
+        }
+
+        @JsonProperty
+        public Duration getLatencyMax()
+        {
+            return latency.getMax();
+        }
+
+        @JsonProperty
+        public double getPhi()
+        {
+            return phiEstimator.phi(System.nanoTime(), period);
+        }
+
+        @JsonProperty
+        public int getHeartbeatPeriod()
+        {
+            return period;
+        }
+
+        @JsonProperty
+        public double getMeanHeartbeatInterval()
+        {
+            return phiEstimator.getMeanIntervalMillis();
+        }
+
         @JsonProperty
         public DateTime getLastRequestTime()
         {
-            return lastRequestTime.get();
+            return toDateTime(lastRequestNanos);
         }
 
         @JsonProperty
         public DateTime getLastResponseTime()
         {
-            return lastResponseTime.get();
+            return toDateTime(lastResponseNanos);
         }
 
         @JsonProperty
-        public synchronized Map<String, Double> getRecentFailuresByType()
+        public Map<String, Double> getRecentFailuresByType()
         {
             ImmutableMap.Builder<String, Double> builder = ImmutableMap.builder();
-            for (Map.Entry<Class<? extends Throwable>, DecayCounter> entry : failureCountByType.entrySet()) {
+            for (Map.Entry<Class<? extends Throwable>, StripedDecayCounter> entry : failureCountByType.entrySet()) {
                 builder.put(entry.getKey().getName(), entry.getValue().getCount());
             }
             return builder.build();
@@ -0,0 +1,38 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.failureDetector;
+
+import java.net.URI;
+
+/**
+ * Sends a single liveness probe to a monitored service.
+ */
+public interface HeartbeatTransport
+{
+    /**
+     * Exactly one of the callback's methods is eventually invoked, from an arbitrary thread.
+     */
+    void ping(URI uri, Callback callback);
+
+    interface Callback
+    {
+        /**
+         * @param startNanos System.nanoTime() when the answered probe was sent, which for a transport that retries
+         * over another route is the start of the retry
+         */
+        void success(long startNanos);
+
+        void failure(Exception exception);
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.failureDetector;
+
+import io.airlift.log.Logger;
+import io.airlift.stats.TimeStat;
+import io.airlift.units.Duration;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Hashed timing wheel running every registered task once per interval. Tasks are spread round-robin over a number of
+ * shards, each owning a wheel and a thread, and over the slots of each wheel, so every tick runs one slot's batch of
+ * tasks in a single pass and the per-tick load stays flat as tasks are added.
+ *
+ * A shard that falls a full interval or more behind, say after a long GC pause, skips the whole intervals it missed
+ * rather than running them back to back, so every task still runs once per interval it is late by less than one.
+ */
+@ThreadSafe
+public class HeartbeatWheel
+{
+    private static final Logger log = Logger.get(HeartbeatWheel.class);
+
+    private final long tickNanos;
+    private final int ticksPerInterval;
+    private final Shard[] shards;
+    private final ThreadFactory threadFactory;
+
+    private final AtomicInteger nextPosition = new AtomicInteger();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile boolean stopped;
+
+    private final TimeStat tickLag = new TimeStat(TimeUnit.MILLISECONDS);
+    private final TimeStat tickTime = new TimeStat(TimeUnit.MILLISECONDS);
+    private final AtomicLong skippedTicks = new AtomicLong();
+
+    public HeartbeatWheel(Duration interval, int ticksPerInterval, int threads, String name)
+    {
+        requireNonNull(interval, "interval is null");
+        requireNonNull(name, "name is null");
+        checkArgument(ticksPerInterval >= 1, "ticksPerInterval must be at least 1");
+        checkArgument(threads >= 1, "threads must be at least 1");
+        this.tickNanos = Math.max(1, interval.roundTo(TimeUnit.NANOSECONDS) / ticksPerInterval);
+        this.ticksPerInterval = ticksPerInterval;
+        this.threadFactory = daemonThreadsNamed(name + "-%s");
+        this.shards = new Shard[threads];
+        for (int i = 0; i < threads; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    public void start()
+    {
+        if (started.compareAndSet(false, true)) {
+            long startNanos = System.nanoTime();
+            for (int i = 0; i < shards.length; i++) {
+                Shard shard = shards[i];
+                // stagger the shards so their ticks do not coincide
+                long offset = tickNanos * i / shards.length;
+                shard.thread = threadFactory.newThread(() -> shard.run(startNanos + offset));
+                shard.thread.start();
+            }
+        }
+    }
+
+    public void stop()
+    {
+        stopped = true;
+        for (Shard shard : shards) {
+            if (shard.thread != null) {
+                shard.thread.interrupt();
+            }
+        }
+    }
+
+    public Registration schedule(Runnable task)
+    {
+        requireNonNull(task, "task is null");
+        checkState(!stopped, "wheel is stopped");
+        int position = nextPosition.getAndIncrement() & Integer.MAX_VALUE;
+        Shard shard = shards[position % shards.length];
+        Set<Registration> slot = shard.slots[(position / shards.length) % ticksPerInterval];
+        Registration registration = new Registration(task, slot);
+        slot.add(registration);
+        return registration;
+    }
+
+    @Managed
+    public int getRegisteredCount()
+    {
+        int count = 0;
+        for (Shard shard : shards) {
+            for (Set<Registration> slot : shard.slots) {
+                count += slot.size();
+            }
+        }
+        return count;
+    }
+
+    @Managed(description = "Ticks skipped after falling a full interval or more behind")
+    public long getSkippedTicks()
+    {
+        return skippedTicks.get();
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getTickLag()
+    {
+        return tickLag;
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getTickTime()
+    {
+        return tickTime;
+    }
+
+    public static final class Registration
+    {
+        private final Runnable task;
+        private final Set<Registration> slot;
+
+        private Registration(Runnable task, Set<Registration> slot)
+        {
+            this.task = task;
+            this.slot = slot;
+        }
+
+        public void cancel()
+        {
+            slot.remove(this);
+        }
+
+        public boolean isCancelled()
+        {
+            return !slot.contains(this);
+        }
+    }
+
+    private final class Shard
+    {
+        private final Set<Registration>[] slots;
+        private volatile Thread thread;
+
+        @SuppressWarnings("unchecked")
+        private Shard()
+        {
+            slots = new Set[ticksPerInterval];
+            for (int i = 0; i < ticksPerInterval; i++) {
+                slots[i] = ConcurrentHashMap.newKeySet();
+            }
+        }
+
+        private void run(long startNanos)
+        {
+            for (long tick = 0; !stopped; tick++) {
+                long deadline = startNanos + tick * tickNanos;
+                long remaining;
+                while ((remaining = deadline - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(this, remaining);
+                    if (stopped || Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                }
+
+                long tickStart = System.nanoTime();
+                long behind = (tickStart - deadline) / tickNanos;
+                if (behind >= ticksPerInterval) {
+                    // skip whole intervals to stay in phase, leaving every slot to run once while catching up
+                    long skipped = behind - behind % ticksPerInterval;
+                    skippedTicks.addAndGet(skipped);
+                    tick += skipped;
+                    deadline += skipped * tickNanos;
+                }
+                tickLag.add(tickStart - deadline, TimeUnit.NANOSECONDS);
+                for (Registration registration : slots[(int) (tick % ticksPerInterval)]) {
+                    try {
+                        registration.task.run();
+                    }
+                    catch (Throwable e) {
+                        // ignore to keep the rest of the slot running
+                        log.warn(e, "Error running heartbeat task");
+                    }
+                }
+                tickTime.add(System.nanoTime() - tickStart, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.failureDetector;
+
+import io.airlift.http.client.HttpClient;
+import io.airlift.http.client.Request;
+import io.airlift.http.client.Response;
+import io.airlift.http.client.ResponseHandler;
+import io.airlift.log.Logger;
+
+import javax.inject.Inject;
+
+import java.net.URI;
+
+import static io.airlift.http.client.Request.Builder.prepareHead;
+import static java.util.Objects.requireNonNull;
+
+public class HttpHeartbeatTransport
+        implements HeartbeatTransport
+{
+    private static final Logger log = Logger.get(HttpHeartbeatTransport.class);
+
+    private final HttpClient httpClient;
+
+    @Inject
+    public HttpHeartbeatTransport(@ForFailureDetector HttpClient httpClient)
+    {
+        this.httpClient = requireNonNull(httpClient, "httpClient is null");
+    }
+
+    @Override
+    public void ping(URI uri, Callback callback)
+    {
+        long start = System.nanoTime();
+        try {
+            httpClient.executeAsync(prepareHead().setUri(uri).build(), new ResponseHandler<Object, Exception>()
+            {
+                @Override
+                public Exception handleException(Request request, Exception exception)
+                {
+                    callback.failure(exception);
+
+                    // TODO: this will technically cause an NPE in httpClient, but it's not triggered because
+                    // we never call get() on the response future. This behavior needs to be fixed in airlift
+                    return null;
+                }
+
+                @Override
+                public Object handle(Request request, Response response)
+                        throws Exception
+                {
+                    callback.success(start);
+                    return null;
+                }
+            });
+        }
+        catch (RuntimeException e) {
+            log.warn(e, "Error scheduling request for %s", uri);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.failureDetector;
+
+import io.airlift.units.Duration;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear latency histogram in the style of HdrHistogram: microsecond values are bucketed by power of two, and each
+ * power of two is split into 16 linear sub-buckets, bounding the relative error of reported percentiles to about 6%.
+ * Counts live in an {@link AtomicLongArray} so recording is lock-free.
+ *
+ * Only recent latencies are reported: recording goes to the current window, and percentiles cover the current and
+ * the previous window, so a node that turns slow shows up within one to two windows.
+ */
+@ThreadSafe
+public class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // values below this are counted exactly
+    private static final int LINEAR_LIMIT = SUB_BUCKET_COUNT * 2;
+    private static final int MAX_EXPONENT = 31;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+    private static final int BUCKET_COUNT = LINEAR_LIMIT + (MAX_EXPONENT - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private static final class Window
+    {
+        private final long startNanos;
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        private Window(long startNanos)
+        {
+            this.startNanos = startNanos;
+        }
+    }
+
+    private static final Window EMPTY = new Window(0);
+
+    private final long windowNanos;
+    private volatile Window current;
+    private volatile Window previous = EMPTY;
+
+    public LatencyHistogram(Duration window)
+    {
+        this.windowNanos = window.roundTo(TimeUnit.NANOSECONDS);
+        this.current = new Window(System.nanoTime());
+    }
+
+    public void add(long nanos)
+    {
+        long now = System.nanoTime();
+        Window window = current;
+        if (now - window.startNanos > windowNanos) {
+            window = rotate(window, now);
+        }
+
+        long micros = Math.min(Math.max(TimeUnit.NANOSECONDS.toMicros(nanos), 0), MAX_VALUE);
+        window.counts.incrementAndGet(indexOf(micros));
+        window.count.incrementAndGet();
+        long max;
+        while (micros > (max = window.max.get()) && !window.max.compareAndSet(max, micros)) {
+            // retry
+        }
+    }
+
+    private synchronized Window rotate(Window expected, long now)
+    {
+        if (current == expected) {
+            // a window idle for longer than its length holds nothing recent
+            previous = now - expected.startNanos > 2 * windowNanos ? EMPTY : expected;
+            current = new Window(now);
+        }
+        return current;
+    }
+
+    static int indexOf(long micros)
+    {
+        if (micros < LINEAR_LIMIT) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKET_COUNT;
+        return LINEAR_LIMIT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * Highest value counted in the bucket.
+     */
+    static long valueOf(int index)
+    {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int exponent = (index - LINEAR_LIMIT) / SUB_BUCKET_COUNT + SUB_BUCKET_BITS + 1;
+        long subBucket = (index - LINEAR_LIMIT) % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    public long getCount()
+    {
+        Window window = liveCurrent();
+        return window.count.get() + livePrevious(window).count.get();
+    }
+
+    /**
+     * Returns null when nothing was recorded recently.
+     */
+    public Duration getPercentile(double percentile)
+    {
+        Window window = liveCurrent();
+        Window previous = livePrevious(window);
+        long total = window.count.get() + previous.count.get();
+        if (total == 0) {
+            return null;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += window.counts.get(i) + previous.counts.get(i);
+            if (seen >= rank) {
+                return micros(valueOf(i));
+            }
+        }
+        return getMax();
+    }
+
+    public Duration getMax()
+    {
+        Window window = liveCurrent();
+        Window previous = livePrevious(window);
+        if (window.count.get() + previous.count.get() == 0) {
+            return null;
+        }
+        return micros(Math.max(window.max.get(), previous.max.get()));
+    }
+
+    // expired windows are only rotated out on the next recording, so reads skip them themselves
+    private Window liveCurrent()
+    {
+        Window window = current;
+        return System.nanoTime() - window.startNanos > 2 * windowNanos ? EMPTY : window;
+    }
+
+    private Window livePrevious(Window liveCurrent)
+    {
+        if (liveCurrent == EMPTY || System.nanoTime() - liveCurrent.startNanos > windowNanos) {
+            return EMPTY;
+        }
+        return previous;
+    }
+
+    private static Duration micros(long micros)
+    {
+        return new Duration(micros, TimeUnit.MICROSECONDS).convertToMostSuccinctTimeUnit();
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.failureDetector;
+
+import io.airlift.discovery.client.ServiceDescriptor;
+
+import java.util.Map;
+
+/**
+ * A failure detector that keeps statistics about the services it watches, as served by the node resource.
+ */
+public interface MonitoringFailureDetector
+        extends FailureDetector
+{
+    /**
+     * Changes whenever a service is added, removed, fails or recovers, but not as the statistics of services change.
+     */
+    long getStateVersion();
+
+    /**
+     * Statistics of every watched service, keyed by service.
+     */
+    Map<ServiceDescriptor, ?> getStats();
+}
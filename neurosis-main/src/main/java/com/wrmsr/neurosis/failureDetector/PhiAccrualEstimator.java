@@ -0,0 +1,168 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.failureDetector;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Phi accrual failure detector (Hayashibara et al.) for a single monitored service. Heartbeat inter-arrival times are
+ * kept in a fixed-size ring buffer of primitives along with running sums, and phi is the -log10 of the probability
+ * that a heartbeat arrives later than now under a normal distribution fitted to them.
+ */
+@ThreadSafe
+public class PhiAccrualEstimator
+{
+    private final double minStdDeviationMillis;
+    private final double acceptablePauseMillis;
+
+    @GuardedBy("this")
+    private final double[] intervals;
+    @GuardedBy("this")
+    private int count;
+    @GuardedBy("this")
+    private int next;
+    @GuardedBy("this")
+    private double sum;
+    @GuardedBy("this")
+    private double sumOfSquares;
+    @GuardedBy("this")
+    private long lastHeartbeatNanos;
+
+    /**
+     * @param firstIntervalMillis expected interval, used to seed the distribution before any heartbeats arrive
+     */
+    public PhiAccrualEstimator(int windowSize, double firstIntervalMillis, double minStdDeviationMillis, double acceptablePauseMillis)
+    {
+        checkArgument(windowSize >= 2, "windowSize must be at least 2");
+        checkArgument(firstIntervalMillis > 0, "firstIntervalMillis must be positive");
+        checkArgument(minStdDeviationMillis > 0, "minStdDeviationMillis must be positive");
+        checkArgument(acceptablePauseMillis >= 0, "acceptablePauseMillis is negative");
+        this.intervals = new double[windowSize];
+        this.minStdDeviationMillis = minStdDeviationMillis;
+        this.acceptablePauseMillis = acceptablePauseMillis;
+
+        double deviation = firstIntervalMillis / 4;
+        add(firstIntervalMillis - deviation);
+        add(firstIntervalMillis + deviation);
+    }
+
+    public void heartbeat(long nowNanos)
+    {
+        heartbeat(nowNanos, 1);
+    }
+
+    /**
+     * @param period number of expected intervals the heartbeat was sent after, so heartbeats sent at a reduced rate are
+     * recorded against the expected interval rather than skewing it
+     */
+    public synchronized void heartbeat(long nowNanos, int period)
+    {
+        checkArgument(period >= 1, "period must be at least 1");
+        if (lastHeartbeatNanos != 0) {
+            add((nowNanos - lastHeartbeatNanos) / 1_000_000.0 / period);
+        }
+        lastHeartbeatNanos = nowNanos;
+    }
+
+    public void heartbeat()
+    {
+        heartbeat(System.nanoTime());
+    }
+
+    @GuardedBy("this")
+    private void add(double interval)
+    {
+        if (count == intervals.length) {
+            double evicted = intervals[next];
+            sum -= evicted;
+            sumOfSquares -= evicted * evicted;
+        }
+        else {
+            count++;
+        }
+        intervals[next] = interval;
+        next = (next + 1) % intervals.length;
+        sum += interval;
+        sumOfSquares += interval * interval;
+
+        if (next == 0) {
+            // recompute once per lap so rounding from evictions does not accumulate
+            sum = 0;
+            sumOfSquares = 0;
+            for (double value : intervals) {
+                sum += value;
+                sumOfSquares += value * value;
+            }
+        }
+    }
+
+    public double phi(long nowNanos)
+    {
+        return phi(nowNanos, 1);
+    }
+
+    /**
+     * Zero until the first heartbeat arrives.
+     *
+     * @param period number of expected intervals the next heartbeat is due after
+     */
+    public synchronized double phi(long nowNanos, int period)
+    {
+        checkArgument(period >= 1, "period must be at least 1");
+        if (lastHeartbeatNanos == 0) {
+            return 0.0;
+        }
+        double elapsed = (nowNanos - lastHeartbeatNanos) / 1_000_000.0 / period;
+        double mean = sum / count + acceptablePauseMillis;
+        double variance = Math.max(sumOfSquares / count - (sum / count) * (sum / count), 0.0);
+        double stdDeviation = Math.max(Math.sqrt(variance), minStdDeviationMillis);
+        return phi(elapsed, mean, stdDeviation);
+    }
+
+    public double phi()
+    {
+        return phi(System.nanoTime());
+    }
+
+    /**
+     * Logistic approximation of the normal cumulative distribution, as used by Akka and Cassandra.
+     */
+    static double phi(double elapsed, double mean, double stdDeviation)
+    {
+        double y = (elapsed - mean) / stdDeviation;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        if (elapsed > mean) {
+            return -Math.log10(e / (1.0 + e));
+        }
+        return -Math.log10(1.0 - 1.0 / (1.0 + e));
+    }
+
+    public synchronized boolean hasHeartbeat()
+    {
+        return lastHeartbeatNanos != 0;
+    }
+
+    public synchronized double getMeanIntervalMillis()
+    {
+        return sum / count;
+    }
+
+    public synchronized int getSampleCount()
+    {
+        return count;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.failureDetector;
+
+import com.google.common.base.Ticker;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Lock-free counterpart of airlift's DecayCounter. Values are added to a striped {@link DoubleAdder} scaled forward
+ * to a landmark time, so recording neither locks nor allocates; reads scale the sum back to the present. The landmark
+ * is moved forward periodically to keep the weights in range, and an add racing that rescale may be dropped.
+ */
+@ThreadSafe
+public class StripedDecayCounter
+{
+    // rescale once weights reach e^RESCALE_THRESHOLD
+    private static final double RESCALE_THRESHOLD = 10.0;
+
+    private static final class Epoch
+    {
+        private final long landmarkNanos;
+        private final DoubleAdder sum = new DoubleAdder();
+
+        private Epoch(long landmarkNanos)
+        {
+            this.landmarkNanos = landmarkNanos;
+        }
+    }
+
+    private final double alpha;
+    private final Ticker ticker;
+    private final AtomicReference<Epoch> epoch;
+
+    /**
+     * @param alpha decay per second, as produced by airlift's ExponentialDecay
+     */
+    public StripedDecayCounter(double alpha)
+    {
+        this(alpha, Ticker.systemTicker());
+    }
+
+    public StripedDecayCounter(double alpha, Ticker ticker)
+    {
+        this.alpha = alpha;
+        this.ticker = ticker;
+        this.epoch = new AtomicReference<>(new Epoch(ticker.read()));
+    }
+
+    public void add(long value)
+    {
+        long now = ticker.read();
+        Epoch current = epoch.get();
+        double exponent = alpha * seconds(now - current.landmarkNanos);
+        if (exponent > RESCALE_THRESHOLD) {
+            current = rescale(current, now);
+            exponent = alpha * seconds(now - current.landmarkNanos);
+        }
+        current.sum.add(value * Math.exp(exponent));
+    }
+
+    private Epoch rescale(Epoch current, long now)
+    {
+        Epoch next = new Epoch(now);
+        next.sum.add(current.sum.sum() / Math.exp(alpha * seconds(now - current.landmarkNanos)));
+        if (epoch.compareAndSet(current, next)) {
+            return next;
+        }
+        return epoch.get();
+    }
+
+    public double getCount()
+    {
+        Epoch current = epoch.get();
+        return current.sum.sum() / Math.exp(alpha * seconds(ticker.read() - current.landmarkNanos));
+    }
+
+    public double getRate()
+    {
+        // the integral of the decay function over all time
+        return getCount() * alpha;
+    }
+
+    private static double seconds(long nanos)
+    {
+        return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+}
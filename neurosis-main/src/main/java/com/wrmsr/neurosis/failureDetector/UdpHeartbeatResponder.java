@@ -0,0 +1,177 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.failureDetector;
+
+import com.google.common.collect.ImmutableSet;
+import io.airlift.discovery.client.ServiceDescriptor;
+import io.airlift.discovery.client.ServiceSelector;
+import io.airlift.discovery.client.ServiceType;
+import io.airlift.log.Logger;
+import io.airlift.units.Duration;
+import org.weakref.jmx.Managed;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+
+/**
+ * Answers {@link UdpHeartbeatTransport} probes by echoing them back as replies. Datagrams are unauthenticated, so only
+ * probes sent from the address of a discovered coordinator, the nodes running the heartbeat detector, are answered.
+ */
+public class UdpHeartbeatResponder
+{
+    private static final Logger log = Logger.get(UdpHeartbeatResponder.class);
+
+    private static final Duration PROBER_REFRESH_INTERVAL = new Duration(5, TimeUnit.SECONDS);
+
+    private final int port;
+    private final ServiceSelector probers;
+    private final AtomicLong replies = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final ScheduledExecutorService refreshExecutor = newSingleThreadScheduledExecutor(daemonThreadsNamed("failure-detector-udp-probers"));
+
+    private volatile DatagramChannel channel;
+    private volatile Set<InetAddress> proberAddresses = ImmutableSet.of();
+
+    @Inject
+    public UdpHeartbeatResponder(FailureDetectorConfig config, @ServiceType("neurosis-coordinator") ServiceSelector probers)
+    {
+        this(config.getUdpPort(), probers);
+    }
+
+    public UdpHeartbeatResponder(int port, ServiceSelector probers)
+    {
+        checkArgument(port > 0, "udp port must be set");
+        this.port = port;
+        this.probers = requireNonNull(probers, "probers is null");
+    }
+
+    @PostConstruct
+    public void start()
+            throws IOException
+    {
+        refreshProbers();
+        refreshExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                refreshProbers();
+            }
+            catch (Throwable e) {
+                log.warn(e, "Error refreshing udp heartbeat probers");
+            }
+        }, PROBER_REFRESH_INTERVAL.toMillis(), PROBER_REFRESH_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+
+        channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(port));
+        daemonThreadsNamed("failure-detector-udp-responder").newThread(this::respond).start();
+        log.info("Answering udp heartbeats on port %s", port);
+    }
+
+    @PreDestroy
+    public void stop()
+            throws IOException
+    {
+        refreshExecutor.shutdownNow();
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private void respond()
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(UdpHeartbeatTransport.PACKET_SIZE);
+        while (channel.isOpen()) {
+            try {
+                buffer.clear();
+                SocketAddress sender = channel.receive(buffer);
+                buffer.flip();
+                if (buffer.remaining() != UdpHeartbeatTransport.PACKET_SIZE ||
+                        buffer.getInt(0) != UdpHeartbeatTransport.MAGIC ||
+                        buffer.getInt(4) != UdpHeartbeatTransport.TYPE_PING) {
+                    continue;
+                }
+                if (!(sender instanceof InetSocketAddress) || !proberAddresses.contains(((InetSocketAddress) sender).getAddress())) {
+                    rejected.incrementAndGet();
+                    continue;
+                }
+                buffer.putInt(4, UdpHeartbeatTransport.TYPE_PONG);
+                channel.send(buffer, sender);
+                replies.incrementAndGet();
+            }
+            catch (ClosedChannelException e) {
+                return;
+            }
+            catch (IOException | RuntimeException e) {
+                log.warn(e, "Error answering udp heartbeat");
+            }
+        }
+    }
+
+    // resolved off the receive path, as announcements usually carry host names
+    private void refreshProbers()
+    {
+        ImmutableSet.Builder<InetAddress> addresses = ImmutableSet.builder();
+        for (ServiceDescriptor service : probers.selectAllServices()) {
+            for (String property : new String[] {"http", "https"}) {
+                String uri = service.getProperties().get(property);
+                if (uri == null) {
+                    continue;
+                }
+                try {
+                    addresses.add(InetAddress.getAllByName(URI.create(uri).getHost()));
+                }
+                catch (IllegalArgumentException | UnknownHostException e) {
+                    log.debug("Cannot resolve %s of service %s: %s", property, service.getId(), e.getMessage());
+                }
+            }
+        }
+        proberAddresses = addresses.build();
+    }
+
+    @Managed
+    public long getReplies()
+    {
+        return replies.get();
+    }
+
+    @Managed(description = "Probes dropped because they did not come from a known coordinator")
+    public long getRejected()
+    {
+        return rejected.get();
+    }
+
+    @Managed
+    public int getProberAddressCount()
+    {
+        return proberAddresses.size();
+    }
+}
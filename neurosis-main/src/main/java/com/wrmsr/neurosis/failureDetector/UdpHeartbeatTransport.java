@@ -0,0 +1,206 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.failureDetector;
+
+import io.airlift.log.Logger;
+import io.airlift.units.Duration;
+import org.weakref.jmx.Managed;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+
+/**
+ * Heartbeats over fixed-size UDP datagrams answered by a {@link UdpHeartbeatResponder} on each node. A probe carries
+ * a sequence number that the reply echoes, and a probe without a reply within one heartbeat interval fails.
+ *
+ * Datagram layout, big-endian: int magic, int type, long sequence, long sender timestamp.
+ */
+public class UdpHeartbeatTransport
+        implements HeartbeatTransport
+{
+    private static final Logger log = Logger.get(UdpHeartbeatTransport.class);
+
+    static final int MAGIC = 0x4e484231; // "NHB1"
+    static final int TYPE_PING = 1;
+    static final int TYPE_PONG = 2;
+    static final int PACKET_SIZE = 24;
+
+    private static final class Pending
+    {
+        private final Callback callback;
+        private final long startNanos;
+        private final long deadlineNanos;
+
+        private Pending(Callback callback, long startNanos, long deadlineNanos)
+        {
+            this.callback = callback;
+            this.startNanos = startNanos;
+            this.deadlineNanos = deadlineNanos;
+        }
+    }
+
+    private final int port;
+    private final long timeoutNanos;
+
+    private final ConcurrentMap<Long, Pending> pending = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, InetSocketAddress> addresses = new ConcurrentHashMap<>();
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final ThreadLocal<ByteBuffer> sendBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(PACKET_SIZE));
+
+    private final ScheduledExecutorService timeoutExecutor = newSingleThreadScheduledExecutor(daemonThreadsNamed("failure-detector-udp-timeout"));
+    private final AtomicLong timeouts = new AtomicLong();
+
+    private volatile DatagramChannel channel;
+
+    @Inject
+    public UdpHeartbeatTransport(FailureDetectorConfig config)
+    {
+        this(config.getUdpPort(), config.getHeartbeatInterval());
+    }
+
+    public UdpHeartbeatTransport(int port, Duration timeout)
+    {
+        checkArgument(port > 0, "udp port must be set");
+        this.port = port;
+        this.timeoutNanos = requireNonNull(timeout, "timeout is null").roundTo(TimeUnit.NANOSECONDS);
+    }
+
+    @PostConstruct
+    public void start()
+            throws IOException
+    {
+        channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(0));
+
+        daemonThreadsNamed("failure-detector-udp-receiver").newThread(this::receive).start();
+
+        long sweepMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeoutNanos) / 2);
+        timeoutExecutor.scheduleWithFixedDelay(this::expire, sweepMillis, sweepMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop()
+            throws IOException
+    {
+        timeoutExecutor.shutdownNow();
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    @Override
+    public void ping(URI uri, Callback callback)
+    {
+        DatagramChannel channel = this.channel;
+        if (channel == null) {
+            callback.failure(new IllegalStateException("udp heartbeat transport is not started"));
+            return;
+        }
+
+        long sequence = nextSequence.incrementAndGet();
+        long now = System.nanoTime();
+        pending.put(sequence, new Pending(callback, now, now + timeoutNanos));
+
+        ByteBuffer buffer = sendBuffers.get();
+        buffer.clear();
+        buffer.putInt(MAGIC).putInt(TYPE_PING).putLong(sequence).putLong(now);
+        buffer.flip();
+        try {
+            channel.send(buffer, addressOf(uri));
+        }
+        catch (IOException | RuntimeException e) {
+            Pending removed = pending.remove(sequence);
+            if (removed != null) {
+                removed.callback.failure(e);
+            }
+        }
+    }
+
+    private InetSocketAddress addressOf(URI uri)
+    {
+        // resolved once per host, as constructing an InetSocketAddress resolves it
+        return addresses.computeIfAbsent(uri.getHost(), host -> new InetSocketAddress(host, port));
+    }
+
+    private void receive()
+    {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(PACKET_SIZE);
+        while (channel.isOpen()) {
+            try {
+                buffer.clear();
+                channel.receive(buffer);
+                buffer.flip();
+                if (buffer.remaining() != PACKET_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != TYPE_PONG) {
+                    continue;
+                }
+                Pending request = pending.remove(buffer.getLong());
+                if (request != null) {
+                    request.callback.success(request.startNanos);
+                }
+            }
+            catch (ClosedChannelException e) {
+                return;
+            }
+            catch (IOException | RuntimeException e) {
+                log.warn(e, "Error receiving udp heartbeat");
+            }
+        }
+    }
+
+    private void expire()
+    {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<Long, Pending>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Pending> entry = iterator.next();
+            if (now - entry.getValue().deadlineNanos > 0 && pending.remove(entry.getKey(), entry.getValue())) {
+                timeouts.incrementAndGet();
+                entry.getValue().callback.failure(new SocketTimeoutException("no udp heartbeat reply"));
+            }
+        }
+    }
+
+    @Managed
+    public long getTimeouts()
+    {
+        return timeouts.get();
+    }
+
+    @Managed
+    public int getPendingCount()
+    {
+        return pending.size();
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.server;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
+import javax.ws.rs.container.ConnectionCallback;
+
+import java.util.concurrent.Future;
+
+final class AsyncResponses
+{
+    private AsyncResponses()
+    {
+    }
+
+    /**
+     * Cancels the work behind a held request once the request is answered, times out or is cancelled, or its client
+     * disconnects, so that nobody is left sampling for a response that will not be read. Cancelling work that has already
+     * completed does nothing. Must be called before the response can be resumed.
+     */
+    static void cancelOnCompletion(AsyncResponse asyncResponse, Future<?> work)
+    {
+        asyncResponse.register(
+                (CompletionCallback) throwable -> work.cancel(false),
+                (ConnectionCallback) disconnected -> work.cancel(false));
+    }
+}
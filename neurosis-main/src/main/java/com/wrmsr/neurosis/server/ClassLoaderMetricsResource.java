@@ -0,0 +1,82 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.server;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+
+import javax.inject.Inject;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Serves the class loader metrics the launcher registers on the platform MBean server. The launcher's classes are not
+ * visible from the server's class loader, so they are read back through JMX.
+ */
+@Path("/v1/classloader")
+public class ClassLoaderMetricsResource
+{
+    private static final String OBJECT_NAME_PATTERN = "com.wrmsr.neurosis.launcher:type=ClassLoaderMetrics,*";
+
+    private final MBeanServer mbeanServer;
+
+    @Inject
+    public ClassLoaderMetricsResource(MBeanServer mbeanServer)
+    {
+        this.mbeanServer = requireNonNull(mbeanServer, "mbeanServer is null");
+    }
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public List<Map<String, Object>> getClassLoaderMetrics()
+            throws JMException
+    {
+        ImmutableList.Builder<Map<String, Object>> builder = ImmutableList.builder();
+        for (ObjectName name : mbeanServer.queryNames(new ObjectName(OBJECT_NAME_PATTERN), null)) {
+            ImmutableSortedMap.Builder<String, Object> attributes = ImmutableSortedMap.naturalOrder();
+            for (MBeanAttributeInfo attribute : mbeanServer.getMBeanInfo(name).getAttributes()) {
+                Object value = mbeanServer.getAttribute(name, attribute.getName());
+                if (value != null) {
+                    attributes.put(attribute.getName(), value instanceof TabularData ? toMap((TabularData) value) : value);
+                }
+            }
+            builder.add(attributes.build());
+        }
+        return builder.build();
+    }
+
+    private static Map<String, Object> toMap(TabularData data)
+    {
+        // MXBean maps are exposed as tables of (key, value) rows
+        ImmutableSortedMap.Builder<String, Object> builder = ImmutableSortedMap.naturalOrder();
+        for (Object row : data.values()) {
+            CompositeData composite = (CompositeData) row;
+            builder.put(String.valueOf(composite.get("key")), composite.get("value"));
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.server;
+
+import com.google.inject.Binding;
+import com.google.inject.Injector;
+import com.google.inject.spi.LinkedKeyBinding;
+import com.google.inject.spi.ProviderInstanceBinding;
+import com.google.inject.spi.ProviderKeyBinding;
+import io.airlift.log.Logger;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static com.wrmsr.neurosis.util.ImmutableCollectors.toImmutableList;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+
+/**
+ * Loads and links the classes behind the injector's bindings on a pool of threads, ahead of the injector getting to
+ * them. Guice constructs singletons one at a time under a global lock, so the construction itself cannot be spread out,
+ * but most of a cold start goes to loading and verifying classes, which the JVM does happily in parallel. The bound
+ * implementations and providers are recorded to a class list once the injector is built, and on the next start the
+ * preloader reads that list and walks the types in their constructor, method and field signatures, all on the pool.
+ * Classes are only loaded and linked, never initialized, so no static initializer runs off the main thread and class
+ * initialization cannot deadlock against it.
+ * <p>
+ * The launcher's class loading profile covers the same ground from outside the server, recording every class loaded in
+ * the first minute of a run rather than just the bound ones, and needs no reflection to find them. The two are not run
+ * together: the server does not preload while the launcher's profile is enabled. This one remains for servers started
+ * without the launcher, as in development and tests.
+ */
+@ThreadSafe
+public class ClassPreloader
+{
+    private static final Logger log = Logger.get(ClassPreloader.class);
+
+    private final int maxClasses;
+    private final ExecutorService executor;
+    private final Set<Class<?>> visited = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger loaded = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    public ClassPreloader(int threads, int maxClasses)
+    {
+        this.maxClasses = maxClasses;
+        this.executor = newFixedThreadPool(threads, daemonThreadsNamed("class-preloader-%s"));
+    }
+
+    /**
+     * Starts preloading the classes in the given list, as written by {@link #record}. Nothing is preloaded if there is no
+     * list yet.
+     */
+    public void preload(File classList)
+    {
+        requireNonNull(classList, "classList is null");
+        try {
+            executor.execute(() -> load(classList));
+        }
+        catch (RejectedExecutionException ignored) {
+            // stopped
+        }
+    }
+
+    private void load(File classList)
+    {
+        List<String> names;
+        try {
+            names = Files.readAllLines(classList.toPath(), StandardCharsets.UTF_8);
+        }
+        catch (IOException e) {
+            log.debug(e, "Error reading class list %s", classList);
+            return;
+        }
+        ClassLoader classLoader = ClassPreloader.class.getClassLoader();
+        for (String name : names) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            try {
+                submit(Class.forName(name, false, classLoader));
+            }
+            catch (ClassNotFoundException | LinkageError e) {
+                // the list is from an older build
+                failed.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Writes the classes behind the injector's bindings to the given list, for the next start to preload.
+     */
+    public static void record(File classList, Injector injector)
+    {
+        requireNonNull(classList, "classList is null");
+        requireNonNull(injector, "injector is null");
+        Set<Class<?>> roots = new LinkedHashSet<>();
+        for (Binding<?> binding : injector.getAllBindings().values()) {
+            addRoots(binding, roots);
+        }
+        List<String> names = roots.stream()
+                // the jdk is never preloaded, and generated classes cannot be loaded by name
+                .filter(type -> type.getClassLoader() != null && !type.isSynthetic() && !type.isArray())
+                .map(Class::getName)
+                .collect(toImmutableList());
+
+        File temp = new File(classList.getPath() + ".tmp");
+        try {
+            Files.write(temp.toPath(), names, StandardCharsets.UTF_8);
+            Files.move(temp.toPath(), classList.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            log.warn(e, "Error writing class list %s", classList);
+        }
+    }
+
+    private static void addRoots(Binding<?> binding, Set<Class<?>> roots)
+    {
+        roots.add(binding.getKey().getTypeLiteral().getRawType());
+        if (binding instanceof LinkedKeyBinding) {
+            roots.add(((LinkedKeyBinding<?>) binding).getLinkedKey().getTypeLiteral().getRawType());
+        }
+        else if (binding instanceof ProviderKeyBinding) {
+            roots.add(((ProviderKeyBinding<?>) binding).getProviderKey().getTypeLiteral().getRawType());
+        }
+        else if (binding instanceof ProviderInstanceBinding) {
+            roots.add(((ProviderInstanceBinding<?>) binding).getUserSuppliedProvider().getClass());
+        }
+    }
+
+    private void submit(Class<?> type)
+    {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        // skip primitives and the jdk, which is in the shared archive or loaded by the time anything here runs
+        if (type.isPrimitive() || type.getClassLoader() == null || visited.size() >= maxClasses || !visited.add(type)) {
+            return;
+        }
+        Class<?> target = type;
+        try {
+            executor.execute(() -> walk(target));
+        }
+        catch (RejectedExecutionException ignored) {
+            // stopped
+        }
+    }
+
+    private void walk(Class<?> type)
+    {
+        // reflecting on the declared members links the class and loads every type in their signatures
+        try {
+            if (type.getSuperclass() != null) {
+                submit(type.getSuperclass());
+            }
+            for (Class<?> iface : type.getInterfaces()) {
+                submit(iface);
+            }
+            for (Constructor<?> constructor : type.getDeclaredConstructors()) {
+                for (Class<?> parameter : constructor.getParameterTypes()) {
+                    submit(parameter);
+                }
+            }
+            for (Method method : type.getDeclaredMethods()) {
+                submit(method.getReturnType());
+                for (Class<?> parameter : method.getParameterTypes()) {
+                    submit(parameter);
+                }
+            }
+            for (Field field : type.getDeclaredFields()) {
+                submit(field.getType());
+            }
+            loaded.incrementAndGet();
+        }
+        catch (LinkageError | TypeNotPresentException e) {
+            // optional dependencies missing from the classpath, which the injector may never touch
+            failed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Classes walked so far, each of them loaded and linked.
+     */
+    public int getLoaded()
+    {
+        return loaded.get();
+    }
+
+    /**
+     * Listed classes that no longer exist, and classes whose signatures could not be loaded.
+     */
+    public int getFailed()
+    {
+        return failed.get();
+    }
+
+    /**
+     * Stops preloading, leaving whatever is left to be loaded on demand.
+     */
+    public void stop()
+    {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("Preloaded %s classes (%s failed)", loaded.get(), failed.get());
+    }
+}
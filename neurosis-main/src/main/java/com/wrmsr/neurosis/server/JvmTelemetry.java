@@ -0,0 +1,478 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.server;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Longs;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import io.airlift.log.Logger;
+import io.airlift.units.Duration;
+import org.joda.time.DateTime;
+import org.weakref.jmx.Managed;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static com.wrmsr.neurosis.util.ImmutableCollectors.toImmutableList;
+import static com.wrmsr.neurosis.util.ImmutableCollectors.toImmutableSet;
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+
+/**
+ * Samples JVM runtime telemetry at a fixed interval into ring buffers of primitives: heap, memory pool (including code
+ * cache and metaspace) and buffer pool usage, GC counts and times, allocated bytes, safepoint counts and times, and class
+ * loading. Individual GC pauses are recorded from the collectors' notifications into a ring of their own.
+ * <p>
+ * Allocated bytes are the growth of the heap plus what collections freed, which is exact at each sample apart from
+ * objects allocated straight into the old generation and freed before a sample sees them. Safepoint times come from
+ * HotSpot's internal runtime counters and are left out on JVMs without them.
+ */
+@ThreadSafe
+public class JvmTelemetry
+{
+    private static final Logger log = Logger.get(JvmTelemetry.class);
+
+    private static final Duration MANAGED_WINDOW = new Duration(1, TimeUnit.MINUTES);
+    private static final List<Long> PAUSE_BUCKET_BOUNDS_MILLIS = ImmutableList.of(
+            1L, 2L, 5L, 10L, 20L, 50L, 100L, 200L, 500L, 1_000L, 2_000L, 5_000L, 10_000L);
+
+    private enum Kind
+    {
+        GAUGE,
+        COUNTER
+    }
+
+    private static final class Series
+    {
+        private final String name;
+        private final Kind kind;
+        private final LongSupplier reader;
+        private long last = -1;
+
+        private Series(String name, Kind kind, LongSupplier reader)
+        {
+            this.name = name;
+            this.kind = kind;
+            this.reader = reader;
+        }
+    }
+
+    private final long sampleIntervalMillis;
+    private final int capacity;
+
+    private final MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+    private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+    private final Set<String> heapPools;
+    private final AtomicLong gcFreedBytes = new AtomicLong();
+    private final NotificationListener gcListener = this::onGcNotification;
+
+    private final ScheduledExecutorService executor = newSingleThreadScheduledExecutor(daemonThreadsNamed("jvm-telemetry"));
+
+    // only touched by the sampling thread once constructed
+    private final List<Series> series;
+
+    @GuardedBy("this")
+    private final long[] times;
+    @GuardedBy("this")
+    private final long[][] values;
+    @GuardedBy("this")
+    private int count;
+    @GuardedBy("this")
+    private int next;
+
+    @GuardedBy("this")
+    private final long[] pauseTimes;
+    @GuardedBy("this")
+    private final int[] pauseCollectors;
+    @GuardedBy("this")
+    private final long[] pauseMillis;
+    @GuardedBy("this")
+    private int pauseCount;
+    @GuardedBy("this")
+    private int nextPause;
+
+    private final List<String> collectorNames;
+
+    @Inject
+    public JvmTelemetry(TelemetryConfig config)
+    {
+        requireNonNull(config, "config is null");
+        this.sampleIntervalMillis = config.getSampleInterval().toMillis();
+        this.capacity = (int) Math.max(1, config.getRetention().toMillis() / sampleIntervalMillis);
+
+        this.heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .map(MemoryPoolMXBean::getName)
+                .collect(toImmutableSet());
+        this.collectorNames = collectors.stream()
+                .map(GarbageCollectorMXBean::getName)
+                .collect(toImmutableList());
+
+        this.series = createSeries();
+        this.times = new long[capacity];
+        this.values = new long[series.size()][capacity];
+
+        this.pauseTimes = new long[config.getMaxGcPauses()];
+        this.pauseCollectors = new int[config.getMaxGcPauses()];
+        this.pauseMillis = new long[config.getMaxGcPauses()];
+    }
+
+    private List<Series> createSeries()
+    {
+        ImmutableList.Builder<Series> builder = ImmutableList.builder();
+        builder.add(new Series("heap.used", Kind.GAUGE, () -> memoryMXBean.getHeapMemoryUsage().getUsed()));
+        builder.add(new Series("non-heap.used", Kind.GAUGE, () -> memoryMXBean.getNonHeapMemoryUsage().getUsed()));
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            builder.add(new Series("pool." + normalize(pool.getName()) + ".used", Kind.GAUGE, () -> {
+                // invalid once the JVM has removed the pool
+                MemoryUsage usage = pool.getUsage();
+                return usage == null ? 0 : usage.getUsed();
+            }));
+        }
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            builder.add(new Series("buffer." + normalize(pool.getName()) + ".used", Kind.GAUGE, pool::getMemoryUsed));
+            builder.add(new Series("buffer." + normalize(pool.getName()) + ".count", Kind.GAUGE, pool::getCount));
+        }
+        for (GarbageCollectorMXBean collector : collectors) {
+            builder.add(new Series("gc." + normalize(collector.getName()) + ".count", Kind.COUNTER, collector::getCollectionCount));
+            builder.add(new Series("gc." + normalize(collector.getName()) + ".time", Kind.COUNTER, collector::getCollectionTime));
+        }
+        builder.add(new Series("allocated", Kind.COUNTER, this::getAllocatedBytes));
+
+        ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+        builder.add(new Series("classes.loaded", Kind.GAUGE, classLoading::getLoadedClassCount));
+        builder.add(new Series("classes.unloaded", Kind.COUNTER, classLoading::getUnloadedClassCount));
+        builder.add(new Series("threads", Kind.GAUGE, ManagementFactory.getThreadMXBean()::getThreadCount));
+
+        addHotspotRuntimeSeries(builder, "safepoint.count", "getSafepointCount");
+        addHotspotRuntimeSeries(builder, "safepoint.time", "getTotalSafepointTime");
+        addHotspotRuntimeSeries(builder, "safepoint.sync-time", "getSafepointSyncTime");
+        return builder.build();
+    }
+
+    private static void addHotspotRuntimeSeries(ImmutableList.Builder<Series> builder, String name, String methodName)
+    {
+        Object bean;
+        Method method;
+        try {
+            bean = Class.forName("sun.management.ManagementFactoryHelper").getMethod("getHotspotRuntimeMBean").invoke(null);
+            method = Class.forName("sun.management.HotspotRuntimeMBean").getMethod(methodName);
+            method.invoke(bean);
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            log.debug("HotSpot runtime counter %s is not available: %s", methodName, e);
+            return;
+        }
+        builder.add(new Series(name, Kind.COUNTER, () -> {
+            try {
+                return (Long) method.invoke(bean);
+            }
+            catch (ReflectiveOperationException e) {
+                throw Throwables.propagate(e);
+            }
+        }));
+    }
+
+    private static String normalize(String name)
+    {
+        return name.toLowerCase(Locale.ENGLISH).replaceAll("[^a-z0-9]+", "-").replaceAll("^-|-$", "");
+    }
+
+    private long getAllocatedBytes()
+    {
+        // a collection between the two reads would count what it freed twice or not at all
+        while (true) {
+            long freed = gcFreedBytes.get();
+            long used = memoryMXBean.getHeapMemoryUsage().getUsed();
+            if (gcFreedBytes.get() == freed) {
+                return used + freed;
+            }
+        }
+    }
+
+    @PostConstruct
+    public void start()
+    {
+        for (GarbageCollectorMXBean collector : collectors) {
+            if (collector instanceof NotificationEmitter) {
+                ((NotificationEmitter) collector).addNotificationListener(gcListener, null, null);
+            }
+        }
+        // the first sample only sets the baselines the counters are measured from
+        sample(false);
+        executor.scheduleAtFixedRate(() -> {
+            try {
+                sample(true);
+            }
+            catch (Throwable e) {
+                // ignore to avoid getting unscheduled
+                log.warn(e, "Error sampling JVM telemetry");
+            }
+        }, sampleIntervalMillis, sampleIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        executor.shutdownNow();
+        for (GarbageCollectorMXBean collector : collectors) {
+            if (collector instanceof NotificationEmitter) {
+                try {
+                    ((NotificationEmitter) collector).removeNotificationListener(gcListener);
+                }
+                catch (ListenerNotFoundException ignored) {
+                }
+            }
+        }
+    }
+
+    private void sample(boolean record)
+    {
+        long[] sample = new long[series.size()];
+        for (int i = 0; i < sample.length; i++) {
+            Series series = this.series.get(i);
+            long value = series.reader.getAsLong();
+            if (series.kind == Kind.COUNTER) {
+                // counters the JVM does not maintain read as -1
+                sample[i] = series.last < 0 || value < 0 ? 0 : value - series.last;
+                series.last = value;
+            }
+            else {
+                sample[i] = value;
+            }
+        }
+        if (!record) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            times[next] = now;
+            for (int i = 0; i < sample.length; i++) {
+                values[i][next] = sample[i];
+            }
+            next = (next + 1) % capacity;
+            count = Math.min(count + 1, capacity);
+        }
+    }
+
+    private void onGcNotification(Notification notification, Object handback)
+    {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+        GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+        GcInfo gcInfo = info.getGcInfo();
+
+        long freed = 0;
+        for (String pool : heapPools) {
+            MemoryUsage before = gcInfo.getMemoryUsageBeforeGc().get(pool);
+            MemoryUsage after = gcInfo.getMemoryUsageAfterGc().get(pool);
+            if (before != null && after != null) {
+                freed += before.getUsed() - after.getUsed();
+            }
+        }
+        gcFreedBytes.addAndGet(freed);
+
+        int collector = collectorNames.indexOf(info.getGcName());
+        if (collector < 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            pauseTimes[nextPause] = now;
+            pauseCollectors[nextPause] = collector;
+            pauseMillis[nextPause] = gcInfo.getDuration();
+            nextPause = (nextPause + 1) % pauseTimes.length;
+            pauseCount = Math.min(pauseCount + 1, pauseTimes.length);
+        }
+    }
+
+    /**
+     * Aggregates the samples and GC pauses from the given span of time before now. Collectors report the duration of a
+     * whole collection, which for concurrent collectors' old generation cycles is not all spent paused.
+     */
+    public synchronized TelemetryWindow getWindow(Duration window)
+    {
+        long since = System.currentTimeMillis() - window.toMillis();
+
+        int samples = 0;
+        while (samples < count && times[slot(next, samples, capacity)] >= since) {
+            samples++;
+        }
+
+        ImmutableMap.Builder<String, TelemetryWindow.Gauge> gauges = ImmutableMap.builder();
+        ImmutableMap.Builder<String, TelemetryWindow.Counter> counters = ImmutableMap.builder();
+        if (samples > 0) {
+            for (int i = 0; i < series.size(); i++) {
+                long[] seriesValues = values[i];
+                long min = Long.MAX_VALUE;
+                long max = Long.MIN_VALUE;
+                long total = 0;
+                for (int sample = 0; sample < samples; sample++) {
+                    long value = seriesValues[slot(next, sample, capacity)];
+                    min = Math.min(min, value);
+                    max = Math.max(max, value);
+                    total += value;
+                }
+                Series series = this.series.get(i);
+                if (series.kind == Kind.GAUGE) {
+                    long last = seriesValues[slot(next, 0, capacity)];
+                    gauges.put(series.name, new TelemetryWindow.Gauge(min, max, (double) total / samples, last));
+                }
+                else {
+                    counters.put(series.name, new TelemetryWindow.Counter(total, total * 1000.0 / (samples * sampleIntervalMillis)));
+                }
+            }
+        }
+
+        Map<Integer, long[]> pauses = new HashMap<>();
+        Map<Integer, Integer> pauseCounts = new HashMap<>();
+        for (int pause = 0; pause < pauseCount; pause++) {
+            int slot = slot(nextPause, pause, pauseTimes.length);
+            if (pauseTimes[slot] < since) {
+                break;
+            }
+            int collector = pauseCollectors[slot];
+            long[] durations = pauses.computeIfAbsent(collector, ignored -> new long[pauseCount]);
+            int collectorCount = pauseCounts.getOrDefault(collector, 0);
+            durations[collectorCount] = pauseMillis[slot];
+            pauseCounts.put(collector, collectorCount + 1);
+        }
+        ImmutableMap.Builder<String, TelemetryWindow.PauseHistogram> gcPauses = ImmutableMap.builder();
+        for (int collector = 0; collector < collectorNames.size(); collector++) {
+            if (pauses.containsKey(collector)) {
+                gcPauses.put(normalize(collectorNames.get(collector)), toHistogram(Arrays.copyOf(pauses.get(collector), pauseCounts.get(collector))));
+            }
+        }
+
+        return new TelemetryWindow(
+                samples == 0 ? null : new DateTime(times[slot(next, samples - 1, capacity)]),
+                samples == 0 ? null : new DateTime(times[slot(next, 0, capacity)]),
+                samples,
+                gauges.build(),
+                counters.build(),
+                gcPauses.build());
+    }
+
+    // ring position of the entry the given number of entries before the newest
+    private static int slot(int next, int age, int capacity)
+    {
+        return (next - 1 - age + 2 * capacity) % capacity;
+    }
+
+    private static TelemetryWindow.PauseHistogram toHistogram(long[] durations)
+    {
+        Arrays.sort(durations);
+        long[] buckets = new long[PAUSE_BUCKET_BOUNDS_MILLIS.size() + 1];
+        long total = 0;
+        for (long duration : durations) {
+            int bucket = 0;
+            while (bucket < PAUSE_BUCKET_BOUNDS_MILLIS.size() && duration > PAUSE_BUCKET_BOUNDS_MILLIS.get(bucket)) {
+                bucket++;
+            }
+            buckets[bucket]++;
+            total += duration;
+        }
+        return new TelemetryWindow.PauseHistogram(
+                durations.length,
+                total,
+                percentile(durations, 0.50),
+                percentile(durations, 0.99),
+                durations[durations.length - 1],
+                PAUSE_BUCKET_BOUNDS_MILLIS,
+                Longs.asList(buckets));
+    }
+
+    private static long percentile(long[] sorted, double percentile)
+    {
+        return sorted[Math.max((int) Math.ceil(percentile * sorted.length) - 1, 0)];
+    }
+
+    @Managed
+    public double getAllocatedBytesPerSecond()
+    {
+        TelemetryWindow.Counter counter = getWindow(MANAGED_WINDOW).getCounters().get("allocated");
+        return counter == null ? 0.0 : counter.getPerSecond();
+    }
+
+    @Managed
+    public double getSafepointMillisPerSecond()
+    {
+        TelemetryWindow.Counter counter = getWindow(MANAGED_WINDOW).getCounters().get("safepoint.time");
+        return counter == null ? Double.NaN : counter.getPerSecond();
+    }
+
+    @Managed
+    public long getGcPauseMaxMillis()
+    {
+        return getWindow(MANAGED_WINDOW).getGcPauses().values().stream()
+                .mapToLong(TelemetryWindow.PauseHistogram::getMaxMillis)
+                .max()
+                .orElse(0);
+    }
+
+    @Managed
+    public long getGcPauseTotalMillis()
+    {
+        return getWindow(MANAGED_WINDOW).getGcPauses().values().stream()
+                .mapToLong(TelemetryWindow.PauseHistogram::getTotalMillis)
+                .sum();
+    }
+
+    @Managed
+    public long getDirectBufferUsedBytes()
+    {
+        TelemetryWindow.Gauge gauge = getWindow(MANAGED_WINDOW).getGauges().get("buffer.direct.used");
+        return gauge == null ? 0 : gauge.getLast();
+    }
+
+    @Managed
+    public synchronized int getSampleCount()
+    {
+        return count;
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.server;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Which threads wait on locks held by which others, and the deadlocks among them. A thread waits on at most one lock,
+ * so following owners from any waiter either ends at a running thread or comes back around; since all threads come from
+ * one snapshot, each such cycle is a deadlock. This covers monitors and ownable java.util.concurrent locks alike.
+ */
+public class LockGraph
+{
+    private final List<Waiter> waiters;
+    private final List<List<Long>> deadlocks;
+
+    @JsonCreator
+    public LockGraph(
+            @JsonProperty("waiters") List<Waiter> waiters,
+            @JsonProperty("deadlocks") List<List<Long>> deadlocks)
+    {
+        this.waiters = ImmutableList.copyOf(requireNonNull(waiters, "waiters is null"));
+        this.deadlocks = ImmutableList.copyOf(requireNonNull(deadlocks, "deadlocks is null"));
+    }
+
+    public static LockGraph capture(ThreadMXBean mbean, int depth)
+    {
+        ThreadInfo[] infos = mbean.getThreadInfo(mbean.getAllThreadIds(), depth);
+
+        Map<Long, ThreadInfo> byId = new HashMap<>();
+        for (ThreadInfo info : infos) {
+            if (info != null) {
+                byId.put(info.getThreadId(), info);
+            }
+        }
+
+        ImmutableList.Builder<Waiter> waiters = ImmutableList.builder();
+        Map<Long, Long> owners = new HashMap<>();
+        for (ThreadInfo info : byId.values()) {
+            if (info.getLockOwnerId() == -1) {
+                continue;
+            }
+            owners.put(info.getThreadId(), info.getLockOwnerId());
+            ThreadInfo owner = byId.get(info.getLockOwnerId());
+            waiters.add(new Waiter(
+                    info.getThreadId(),
+                    info.getThreadName(),
+                    info.getThreadState().name(),
+                    info.getLockName(),
+                    MonitorContention.callSite(info.getStackTrace()),
+                    info.getLockOwnerId(),
+                    info.getLockOwnerName(),
+                    owner == null ? null : MonitorContention.callSite(owner.getStackTrace())));
+        }
+
+        return new LockGraph(waiters.build(), findCycles(owners));
+    }
+
+    private static List<List<Long>> findCycles(Map<Long, Long> owners)
+    {
+        ImmutableList.Builder<List<Long>> cycles = ImmutableList.builder();
+        Set<Long> visited = new HashSet<>();
+        for (Long start : owners.keySet()) {
+            List<Long> path = new ArrayList<>();
+            Long current = start;
+            while (current != null && visited.add(current)) {
+                path.add(current);
+                current = owners.get(current);
+            }
+            // stopping on a thread first reached by this walk means the walk went around a cycle
+            int index = current == null ? -1 : path.indexOf(current);
+            if (index >= 0) {
+                cycles.add(ImmutableList.copyOf(path.subList(index, path.size())));
+            }
+        }
+        return cycles.build();
+    }
+
+    @JsonProperty
+    public List<Waiter> getWaiters()
+    {
+        return waiters;
+    }
+
+    /**
+     * Each deadlock as the ids of the threads in its cycle, each waiting on a lock held by the next.
+     */
+    @JsonProperty
+    public List<List<Long>> getDeadlocks()
+    {
+        return deadlocks;
+    }
+
+    public static class Waiter
+    {
+        private final long id;
+        private final String name;
+        private final String state;
+        private final String lock;
+        private final String site;
+        private final long ownerId;
+        private final String ownerName;
+        private final String ownerSite;
+
+        @JsonCreator
+        public Waiter(
+                @JsonProperty("id") long id,
+                @JsonProperty("name") String name,
+                @JsonProperty("state") String state,
+                @JsonProperty("lock") String lock,
+                @JsonProperty("site") String site,
+                @JsonProperty("ownerId") long ownerId,
+                @JsonProperty("ownerName") String ownerName,
+                @JsonProperty("ownerSite") String ownerSite)
+        {
+            this.id = id;
+            this.name = name;
+            this.state = state;
+            this.lock = lock;
+            this.site = site;
+            this.ownerId = ownerId;
+            this.ownerName = ownerName;
+            this.ownerSite = ownerSite;
+        }
+
+        @JsonProperty
+        public long getId()
+        {
+            return id;
+        }
+
+        @JsonProperty
+        public String getName()
+        {
+            return name;
+        }
+
+        @JsonProperty
+        public String getState()
+        {
+            return state;
+        }
+
+        /**
+         * Class name and identity hash of the lock.
+         */
+        @JsonProperty
+        public String getLock()
+        {
+            return lock;
+        }
+
+        @JsonProperty
+        public String getSite()
+        {
+            return site;
+        }
+
+        @JsonProperty
+        public long getOwnerId()
+        {
+            return ownerId;
+        }
+
+        @JsonProperty
+        public String getOwnerName()
+        {
+            return ownerName;
+        }
+
+        /**
+         * Null if the owner is not a live thread, as with a lock held by a thread that has since exited.
+         */
+        @JsonProperty
+        public String getOwnerSite()
+        {
+            return ownerSite;
+        }
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.server;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import java.lang.management.LockInfo;
+import java.lang.management.ThreadInfo;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static com.wrmsr.neurosis.util.ImmutableCollectors.toImmutableList;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Contended locks seen over a number of sampling rounds, aggregated by the class of the lock and the call site the
+ * waiting thread is stuck at, along with where the owners were while holding it. Threads parked on java.util.concurrent
+ * locks are counted as well as those blocked entering monitors, their call site being the first frame outside the lock
+ * implementation. Blocked and waited counts and times are tracked per thread across the rounds.
+ */
+@NotThreadSafe
+public class MonitorContention
+{
+    private static final int MAX_OWNER_SITES = 5;
+
+    private static final class Key
+    {
+        private final String lockClass;
+        private final String site;
+
+        private Key(String lockClass, String site)
+        {
+            this.lockClass = lockClass;
+            this.site = site;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key key = (Key) o;
+            return lockClass.equals(key.lockClass) && site.equals(key.site);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(lockClass, site);
+        }
+    }
+
+    private static final class Counts
+    {
+        private long samples;
+        private int maxWaiters;
+        private int roundWaiters;
+        private final Map<String, Long> ownerSites = new HashMap<>();
+    }
+
+    private static final class ThreadCounts
+    {
+        private final String name;
+        private final ThreadInfo first;
+        private ThreadInfo last;
+
+        private ThreadCounts(ThreadInfo first)
+        {
+            this.name = first.getThreadName();
+            this.first = first;
+            this.last = first;
+        }
+    }
+
+    private final Map<Key, Counts> monitors = new HashMap<>();
+    private final Map<Long, ThreadCounts> threads = new HashMap<>();
+    private long rounds;
+
+    /**
+     * @param infos one consistent snapshot of threads, with nulls for threads to skip
+     */
+    public void add(ThreadInfo[] infos)
+    {
+        rounds++;
+        Map<Long, ThreadInfo> byId = null;
+        for (ThreadInfo info : infos) {
+            if (info == null) {
+                continue;
+            }
+            ThreadCounts threadCounts = threads.get(info.getThreadId());
+            if (threadCounts == null) {
+                threads.put(info.getThreadId(), new ThreadCounts(info));
+            }
+            else {
+                threadCounts.last = info;
+            }
+
+            LockInfo lock = info.getLockInfo();
+            if (lock == null || info.getLockOwnerId() == -1) {
+                continue;
+            }
+            if (byId == null) {
+                byId = new HashMap<>();
+                for (ThreadInfo other : infos) {
+                    if (other != null) {
+                        byId.put(other.getThreadId(), other);
+                    }
+                }
+            }
+
+            Key key = new Key(lock.getClassName(), callSite(info.getStackTrace()));
+            Counts counts = monitors.get(key);
+            if (counts == null) {
+                counts = new Counts();
+                monitors.put(key, counts);
+            }
+            counts.samples++;
+            counts.roundWaiters++;
+
+            ThreadInfo owner = byId.get(info.getLockOwnerId());
+            if (owner != null) {
+                counts.ownerSites.merge(callSite(owner.getStackTrace()), 1L, Long::sum);
+            }
+        }
+
+        for (Counts counts : monitors.values()) {
+            counts.maxWaiters = Math.max(counts.maxWaiters, counts.roundWaiters);
+            counts.roundWaiters = 0;
+        }
+    }
+
+    /**
+     * The first frame outside the lock implementation, as class.method:line.
+     */
+    static String callSite(StackTraceElement[] stack)
+    {
+        if (stack.length == 0) {
+            return "unknown";
+        }
+        StackTraceElement site = stack[0];
+        for (StackTraceElement element : stack) {
+            String className = element.getClassName();
+            if (!className.startsWith("java.util.concurrent.locks.") && !className.equals("sun.misc.Unsafe")) {
+                site = element;
+                break;
+            }
+        }
+        return site.getClassName() + "." + site.getMethodName() + ":" + site.getLineNumber();
+    }
+
+    /**
+     * @param limit most monitors and threads to report, the most contended first
+     */
+    public Report getReport(int limit)
+    {
+        List<Monitor> monitors = this.monitors.entrySet().stream()
+                .sorted(Comparator.comparing((Map.Entry<Key, Counts> entry) -> entry.getValue().samples).reversed())
+                .limit(limit)
+                .map(entry -> new Monitor(
+                        entry.getKey().lockClass,
+                        entry.getKey().site,
+                        entry.getValue().samples,
+                        entry.getValue().maxWaiters,
+                        topOwnerSites(entry.getValue().ownerSites)))
+                .collect(toImmutableList());
+
+        List<ThreadContention> threads = this.threads.entrySet().stream()
+                .map(entry -> new ThreadContention(
+                        entry.getKey(),
+                        entry.getValue().name,
+                        entry.getValue().last.getBlockedCount() - entry.getValue().first.getBlockedCount(),
+                        timeDelta(entry.getValue().first.getBlockedTime(), entry.getValue().last.getBlockedTime()),
+                        entry.getValue().last.getWaitedCount() - entry.getValue().first.getWaitedCount(),
+                        timeDelta(entry.getValue().first.getWaitedTime(), entry.getValue().last.getWaitedTime())))
+                .filter(thread -> thread.getBlockedCount() > 0)
+                .sorted(Comparator.comparing(ThreadContention::getBlockedCount).reversed())
+                .limit(limit)
+                .collect(toImmutableList());
+
+        return new Report(rounds, monitors, threads);
+    }
+
+    private static Map<String, Long> topOwnerSites(Map<String, Long> ownerSites)
+    {
+        ImmutableMap.Builder<String, Long> builder = ImmutableMap.builder();
+        ownerSites.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                .limit(MAX_OWNER_SITES)
+                .forEach(entry -> builder.put(entry.getKey(), entry.getValue()));
+        return builder.build();
+    }
+
+    // the JVM reports -1 for times while contention monitoring is disabled
+    private static Long timeDelta(long first, long last)
+    {
+        return first < 0 || last < 0 ? null : last - first;
+    }
+
+    public static class Report
+    {
+        private final long rounds;
+        private final List<Monitor> monitors;
+        private final List<ThreadContention> threads;
+
+        @JsonCreator
+        public Report(
+                @JsonProperty("rounds") long rounds,
+                @JsonProperty("monitors") List<Monitor> monitors,
+                @JsonProperty("threads") List<ThreadContention> threads)
+        {
+            this.rounds = rounds;
+            this.monitors = ImmutableList.copyOf(requireNonNull(monitors, "monitors is null"));
+            this.threads = ImmutableList.copyOf(requireNonNull(threads, "threads is null"));
+        }
+
+        @JsonProperty
+        public long getRounds()
+        {
+            return rounds;
+        }
+
+        @JsonProperty
+        public List<Monitor> getMonitors()
+        {
+            return monitors;
+        }
+
+        @JsonProperty
+        public List<ThreadContention> getThreads()
+        {
+            return threads;
+        }
+    }
+
+    public static class Monitor
+    {
+        private final String lockClass;
+        private final String site;
+        private final long samples;
+        private final int maxWaiters;
+        private final Map<String, Long> ownerSites;
+
+        @JsonCreator
+        public Monitor(
+                @JsonProperty("lockClass") String lockClass,
+                @JsonProperty("site") String site,
+                @JsonProperty("samples") long samples,
+                @JsonProperty("maxWaiters") int maxWaiters,
+                @JsonProperty("ownerSites") Map<String, Long> ownerSites)
+        {
+            this.lockClass = requireNonNull(lockClass, "lockClass is null");
+            this.site = requireNonNull(site, "site is null");
+            this.samples = samples;
+            this.maxWaiters = maxWaiters;
+            this.ownerSites = ImmutableMap.copyOf(requireNonNull(ownerSites, "ownerSites is null"));
+        }
+
+        @JsonProperty
+        public String getLockClass()
+        {
+            return lockClass;
+        }
+
+        /**
+         * Where the waiting threads were stuck.
+         */
+        @JsonProperty
+        public String getSite()
+        {
+            return site;
+        }
+
+        /**
+         * Waiting threads seen, summed over all rounds.
+         */
+        @JsonProperty
+        public long getSamples()
+        {
+            return samples;
+        }
+
+        /**
+         * Most threads seen waiting here in a single round.
+         */
+        @JsonProperty
+        public int getMaxWaiters()
+        {
+            return maxWaiters;
+        }
+
+        /**
+         * Where the owners were while the lock was waited on, with the number of samples they were seen there.
+         */
+        @JsonProperty
+        public Map<String, Long> getOwnerSites()
+        {
+            return ownerSites;
+        }
+    }
+
+    public static class ThreadContention
+    {
+        private final long id;
+        private final String name;
+        private final long blockedCount;
+        private final Long blockedTime;
+        private final long waitedCount;
+        private final Long waitedTime;
+
+        @JsonCreator
+        public ThreadContention(
+                @JsonProperty("id") long id,
+                @JsonProperty("name") String name,
+                @JsonProperty("blockedCount") long blockedCount,
+                @JsonProperty("blockedTime") Long blockedTime,
+                @JsonProperty("waitedCount") long waitedCount,
+                @JsonProperty("waitedTime") Long waitedTime)
+        {
+            this.id = id;
+            this.name = name;
+            this.blockedCount = blockedCount;
+            this.blockedTime = blockedTime;
+            this.waitedCount = waitedCount;
+            this.waitedTime = waitedTime;
+        }
+
+        @JsonProperty
+        public long getId()
+        {
+            return id;
+        }
+
+        @JsonProperty
+        public String getName()
+        {
+            return name;
+        }
+
+        @JsonProperty
+        public long getBlockedCount()
+        {
+            return blockedCount;
+        }
+
+        /**
+         * Milliseconds, or null while contention monitoring is disabled.
+         */
+        @JsonProperty
+        public Long getBlockedTime()
+        {
+            return blockedTime;
+        }
+
+        @JsonProperty
+        public long getWaitedCount()
+        {
+            return waitedCount;
+        }
+
+        @JsonProperty
+        public Long getWaitedTime()
+        {
+            return waitedTime;
+        }
+    }
+}
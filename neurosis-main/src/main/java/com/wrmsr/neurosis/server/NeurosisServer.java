@@ -18,6 +18,7 @@ import com.google.inject.Injector;
 import com.google.inject.Module;
 import com.wrmsr.neurosis.discovery.EmbeddedDiscoveryModule;
 import io.airlift.bootstrap.Bootstrap;
+import io.airlift.configuration.ConfigurationLoader;
 import io.airlift.discovery.client.Announcer;
 import io.airlift.discovery.client.DiscoveryModule;
 import io.airlift.event.client.HttpEventModule;
@@ -33,9 +34,18 @@ import io.airlift.node.NodeModule;
 import io.airlift.tracetoken.TraceTokenModule;
 import org.weakref.jmx.guice.MBeanModule;
 
+import java.io.File;
+import java.util.Map;
+
 public class NeurosisServer
         implements Runnable
 {
+    private static final int MAX_PRELOADED_CLASSES = 20_000;
+    private static final int LOGGED_STARTUP_TIMES = 10;
+
+    // set when the launcher replays its own class loading profile into this server's class loader
+    private static final String LAUNCHER_CLASS_PROFILE_PROPERTY = "wrmsr.launcher.class-profile.enabled";
+
     public static void main(String[] args)
     {
         new NeurosisServer().run();
@@ -45,6 +55,7 @@ public class NeurosisServer
     public void run()
     {
         Logger log = Logger.get(NeurosisServer.class);
+        StartupProfiler profiler = new StartupProfiler();
 
         ImmutableList.Builder<Module> modules = ImmutableList.builder();
         modules.add(
@@ -61,20 +72,61 @@ public class NeurosisServer
                 new JsonEventModule(),
                 new HttpEventModule(),
                 new EmbeddedDiscoveryModule(),
-                new ServerMainModule());
-
-        Bootstrap app = new Bootstrap(modules.build());
+                new ServerMainModule(),
+                profiler.getModule());
 
         try {
-            Injector injector = app.strictConfig().initialize();
+            // loaded once and handed to the bootstrap, which validates the class list property along with the rest
+            Map<String, String> properties = new ConfigurationLoader().loadProperties();
+            Bootstrap app = new Bootstrap(modules.build())
+                    .setRequiredConfigurationProperties(properties);
+
+            String classList = getPreloadClassList(properties, log);
+            ClassPreloader preloader = null;
+            if (classList != null) {
+                preloader = new ClassPreloader(Runtime.getRuntime().availableProcessors(), MAX_PRELOADED_CLASSES);
+                preloader.preload(new File(classList));
+            }
+
+            Injector injector;
+            try {
+                injector = app.strictConfig().initialize();
+            }
+            finally {
+                if (preloader != null) {
+                    preloader.stop();
+                }
+            }
+            profiler.mark("bootstrap");
 
             injector.getInstance(Announcer.class).start();
+            profiler.mark("announcer");
+            profiler.stopRecording();
 
             log.info("======== SERVER STARTED ========");
+            profiler.log(log, LOGGED_STARTUP_TIMES);
+
+            if (classList != null) {
+                ClassPreloader.record(new File(classList), injector);
+            }
         }
         catch (Throwable e) {
             log.error(e);
             System.exit(1);
         }
     }
+
+    /**
+     * The launcher's class loading profile, when enabled, already replays every class the previous run loaded, which
+     * covers the classes behind the bindings, so the preloader stands down rather than racing it over the same classes.
+     */
+    private static String getPreloadClassList(Map<String, String> properties, Logger log)
+    {
+        String classList = properties.get(ServerConfig.PRELOAD_CLASS_LIST_PROPERTY);
+        if (classList != null && Boolean.getBoolean(LAUNCHER_CLASS_PROFILE_PROPERTY)) {
+            log.info("Not preloading %s, as the launcher is replaying its class loading profile", classList);
+            return null;
+        }
+        return classList;
+    }
 }
@@ -13,38 +13,68 @@
  */
 package com.wrmsr.neurosis.server;
 
-import com.wrmsr.neurosis.failureDetector.HeartbeatFailureDetector;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Maps;
+import com.wrmsr.neurosis.failureDetector.MonitoringFailureDetector;
+import io.airlift.units.Duration;
 
 import javax.inject.Inject;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
 
-import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Predicates.in;
+import static com.wrmsr.neurosis.server.StreamingJson.arrayResponse;
+import static java.util.Objects.requireNonNull;
 
+/**
+ * Node statistics are streamed, and tagged with the failure detector's state version and a coarse stats epoch. The tags
+ * are weak, as the statistics keep changing within an epoch: a 304 means no node has been added, removed, failed or
+ * recovered since the tagged response, and that its statistics are less than {@link #STATS_EPOCH} old.
+ */
 @Path("/v1/node")
 public class NodeResource
 {
-    private final HeartbeatFailureDetector failureDetector;
+    private static final Duration STATS_EPOCH = new Duration(5, TimeUnit.SECONDS);
+
+    private final MonitoringFailureDetector failureDetector;
+    private final ObjectMapper mapper;
 
     @Inject
-    public NodeResource(HeartbeatFailureDetector failureDetector)
+    public NodeResource(MonitoringFailureDetector failureDetector, ObjectMapper mapper)
     {
-        this.failureDetector = failureDetector;
+        this.failureDetector = requireNonNull(failureDetector, "failureDetector is null");
+        this.mapper = requireNonNull(mapper, "mapper is null");
     }
 
     @GET
-    public Collection<HeartbeatFailureDetector.Stats> getNodeStats()
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getNodeStats(@Context Request request)
     {
-        return failureDetector.getStats().values();
+        // read before the stats, so a change in between is tagged as older and sent again on the next poll
+        EntityTag tag = getStateTag();
+        return arrayResponse(request, tag, mapper, failureDetector.getStats().values());
     }
 
     @GET
     @Path("failed")
-    public Collection<HeartbeatFailureDetector.Stats> getFailed()
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getFailed(@Context Request request)
+    {
+        EntityTag tag = getStateTag();
+        return arrayResponse(request, tag, mapper, Maps.filterKeys(failureDetector.getStats(), in(failureDetector.getFailed())).values());
+    }
+
+    private EntityTag getStateTag()
     {
-        return Maps.filterKeys(failureDetector.getStats(), in(failureDetector.getFailed())).values();
+        long epoch = System.nanoTime() / STATS_EPOCH.roundTo(TimeUnit.NANOSECONDS);
+        return new EntityTag(failureDetector.getStateVersion() + "-" + epoch, true);
     }
 }
@@ -0,0 +1,172 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.server;
+
+import com.google.common.collect.ImmutableSet;
+import io.airlift.units.Duration;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static com.wrmsr.neurosis.server.AsyncResponses.cancelOnCompletion;
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static io.airlift.http.server.AsyncResponseHandler.bindAsyncResponse;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+
+/**
+ * Sampling profiler. The request is held while stacks are sampled and then answered with folded stacks for
+ * flamegraph.pl, or under /tree with the call tree as JSON. Only runnable threads are sampled unless states are given.
+ * Sampling stops early if the request is cancelled or its client goes away.
+ */
+@Path("/v1/profile")
+public class ProfileResource
+{
+    private static final Duration DEFAULT_DURATION = new Duration(10, TimeUnit.SECONDS);
+    private static final Duration DEFAULT_INTERVAL = new Duration(10, TimeUnit.MILLISECONDS);
+    private static final Set<Thread.State> DEFAULT_STATES = ImmutableSet.of(Thread.State.RUNNABLE);
+
+    private final StackSampler sampler;
+    private final ExecutorService responseExecutor = newCachedThreadPool(daemonThreadsNamed("profile-response-%s"));
+
+    @Inject
+    public ProfileResource(StackSampler sampler)
+    {
+        this.sampler = requireNonNull(sampler, "sampler is null");
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        responseExecutor.shutdownNow();
+    }
+
+    @GET
+    @Produces(MediaType.TEXT_PLAIN)
+    public void getFoldedProfile(
+            @QueryParam("duration") Duration duration,
+            @QueryParam("interval") Duration interval,
+            @QueryParam("depth") Integer depth,
+            @QueryParam("state") List<Thread.State> states,
+            @QueryParam("thread") String thread,
+            @QueryParam("threads") boolean byThread,
+            @Suspended AsyncResponse asyncResponse)
+    {
+        profile(duration, interval, depth, states, thread, byThread, asyncResponse, profile -> {
+            StreamingOutput output = stream -> {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(stream, UTF_8));
+                profile.writeFolded(writer);
+                writer.flush();
+            };
+            return output;
+        });
+    }
+
+    @GET
+    @Path("tree")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void getProfileTree(
+            @QueryParam("duration") Duration duration,
+            @QueryParam("interval") Duration interval,
+            @QueryParam("depth") Integer depth,
+            @QueryParam("state") List<Thread.State> states,
+            @QueryParam("thread") String thread,
+            @QueryParam("threads") boolean byThread,
+            @Suspended AsyncResponse asyncResponse)
+    {
+        profile(duration, interval, depth, states, thread, byThread, asyncResponse, StackProfile::getTree);
+    }
+
+    private void profile(
+            Duration duration,
+            Duration interval,
+            Integer depth,
+            List<Thread.State> states,
+            String thread,
+            boolean byThread,
+            AsyncResponse asyncResponse,
+            Function<StackProfile, Object> entity)
+    {
+        if (depth != null && depth <= 0) {
+            asyncResponse.resume(badRequest("depth must be positive"));
+            return;
+        }
+
+        Predicate<String> threadFilter = name -> true;
+        if (thread != null) {
+            try {
+                threadFilter = Pattern.compile(thread).asPredicate();
+            }
+            catch (PatternSyntaxException e) {
+                asyncResponse.resume(badRequest("Invalid thread pattern: " + e.getDescription()));
+                return;
+            }
+        }
+
+        CompletableFuture<StackProfile> profile;
+        try {
+            profile = sampler.profile(
+                    duration == null ? DEFAULT_DURATION : duration,
+                    interval == null ? DEFAULT_INTERVAL : interval,
+                    depth == null ? sampler.getMaxDepth() : depth,
+                    states == null || states.isEmpty() ? DEFAULT_STATES : ImmutableSet.copyOf(states),
+                    threadFilter,
+                    byThread);
+        }
+        catch (RejectedExecutionException e) {
+            asyncResponse.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                    .type(MediaType.TEXT_PLAIN)
+                    .entity(e.getMessage())
+                    .build());
+            return;
+        }
+
+        cancelOnCompletion(asyncResponse, profile);
+        bindAsyncResponse(asyncResponse, profile.thenApply(result -> Response.ok(entity.apply(result))
+                .header("X-Profile-Samples", result.getSampleCount())
+                .build()), responseExecutor);
+    }
+
+    private static Response badRequest(String message)
+    {
+        return Response.status(Response.Status.BAD_REQUEST)
+                .type(MediaType.TEXT_PLAIN)
+                .entity(message)
+                .build();
+    }
+}
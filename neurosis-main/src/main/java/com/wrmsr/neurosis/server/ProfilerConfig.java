@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.server;
+
+import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
+import io.airlift.units.Duration;
+import io.airlift.units.MinDuration;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import java.util.concurrent.TimeUnit;
+
+public class ProfilerConfig
+{
+    private Duration maxDuration = new Duration(5, TimeUnit.MINUTES);
+    private Duration minInterval = new Duration(1, TimeUnit.MILLISECONDS);
+    private int maxDepth = 256;
+    private int maxConcurrentProfiles = 1;
+    private boolean threadContentionMonitoringEnabled = true;
+
+    @NotNull
+    @MinDuration("1s")
+    public Duration getMaxDuration()
+    {
+        return maxDuration;
+    }
+
+    @Config("profiler.max-duration")
+    @ConfigDescription("Longest a single profile request may sample for")
+    public ProfilerConfig setMaxDuration(Duration maxDuration)
+    {
+        this.maxDuration = maxDuration;
+        return this;
+    }
+
+    @NotNull
+    @MinDuration("1ms")
+    public Duration getMinInterval()
+    {
+        return minInterval;
+    }
+
+    @Config("profiler.min-interval")
+    @ConfigDescription("Shortest interval between samples a profile request may ask for")
+    public ProfilerConfig setMinInterval(Duration minInterval)
+    {
+        this.minInterval = minInterval;
+        return this;
+    }
+
+    @Min(1)
+    @Max(4096)
+    public int getMaxDepth()
+    {
+        return maxDepth;
+    }
+
+    @Config("profiler.max-depth")
+    @ConfigDescription("Most frames captured per stack; deeper stacks lose their outermost frames")
+    public ProfilerConfig setMaxDepth(int maxDepth)
+    {
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    @Min(0)
+    public int getMaxConcurrentProfiles()
+    {
+        return maxConcurrentProfiles;
+    }
+
+    @Config("profiler.max-concurrent-profiles")
+    @ConfigDescription("Profile requests allowed to sample at once, zero disabling the profiler")
+    public ProfilerConfig setMaxConcurrentProfiles(int maxConcurrentProfiles)
+    {
+        this.maxConcurrentProfiles = maxConcurrentProfiles;
+        return this;
+    }
+
+    public boolean isThreadContentionMonitoringEnabled()
+    {
+        return threadContentionMonitoringEnabled;
+    }
+
+    @Config("profiler.thread-contention-monitoring-enabled")
+    @ConfigDescription("Have the JVM time how long threads spend blocked and waiting")
+    public ProfilerConfig setThreadContentionMonitoringEnabled(boolean threadContentionMonitoringEnabled)
+    {
+        this.threadContentionMonitoringEnabled = threadContentionMonitoringEnabled;
+        return this;
+    }
+}
@@ -14,12 +14,16 @@
 package com.wrmsr.neurosis.server;
 
 import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
 
 public class ServerConfig
 {
+    public static final String PRELOAD_CLASS_LIST_PROPERTY = "bootstrap.preload-class-list";
+
     private boolean coordinator = true;
     private String neurosisVersion;
     private boolean includeExceptionInResponse = true;
+    private String preloadClassList;
 
     public boolean isCoordinator()
     {
@@ -56,4 +60,17 @@ public class ServerConfig
         this.includeExceptionInResponse = includeExceptionInResponse;
         return this;
     }
+
+    public String getPreloadClassList()
+    {
+        return preloadClassList;
+    }
+
+    @Config(PRELOAD_CLASS_LIST_PROPERTY)
+    @ConfigDescription("File of classes to preload in parallel with the injector, rewritten after each start; disabled if unset or when the launcher preloads classes itself")
+    public ServerConfig setPreloadClassList(String preloadClassList)
+    {
+        this.preloadClassList = preloadClassList;
+        return this;
+    }
 }
@@ -16,7 +16,9 @@ package com.wrmsr.neurosis.server;
 import com.google.common.collect.ImmutableSet;
 import com.google.inject.Binder;
 import com.google.inject.Provides;
+import com.google.inject.Scopes;
 import com.wrmsr.neurosis.failureDetector.FailureDetector;
+import com.wrmsr.neurosis.failureDetector.FailureDetectorConfig;
 import com.wrmsr.neurosis.failureDetector.FailureDetectorModule;
 import io.airlift.configuration.AbstractConfigurationAwareModule;
 import io.airlift.discovery.client.ServiceDescriptor;
@@ -28,9 +30,11 @@ import java.util.concurrent.ScheduledExecutorService;
 
 import static com.google.common.base.Preconditions.checkState;
 import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static io.airlift.configuration.ConfigBinder.configBinder;
 import static io.airlift.discovery.client.DiscoveryBinder.discoveryBinder;
 import static io.airlift.jaxrs.JaxrsBinder.jaxrsBinder;
 import static java.util.concurrent.Executors.newScheduledThreadPool;
+import static org.weakref.jmx.guice.ExportBinder.newExporter;
 
 public class ServerMainModule
         extends AbstractConfigurationAwareModule
@@ -46,7 +50,7 @@ public class ServerMainModule
             discoveryBinder(binder).bindHttpAnnouncement("neurosis-coordinator");
         }
 
-        bindFailureDetector(binder, serverConfig.isCoordinator());
+        bindFailureDetector(binder, serverConfig.isCoordinator(), buildConfigObject(FailureDetectorConfig.class).isGossipEnabled());
 
         jaxrsBinder(binder).bind(ThrowableMapper.class);
 
@@ -59,6 +63,21 @@ public class ServerMainModule
 
         // thread visualizer
         jaxrsBinder(binder).bind(ThreadResource.class);
+
+        // sampling profiler
+        configBinder(binder).bindConfig(ProfilerConfig.class);
+        binder.bind(StackSampler.class).in(Scopes.SINGLETON);
+        newExporter(binder).export(StackSampler.class).withGeneratedName();
+        jaxrsBinder(binder).bind(ProfileResource.class);
+
+        // jvm telemetry
+        configBinder(binder).bindConfig(TelemetryConfig.class);
+        binder.bind(JvmTelemetry.class).in(Scopes.SINGLETON);
+        newExporter(binder).export(JvmTelemetry.class).withGeneratedName();
+        jaxrsBinder(binder).bind(TelemetryResource.class);
+
+        // launcher class loading metrics
+        jaxrsBinder(binder).bind(ClassLoaderMetricsResource.class);
     }
 
     private static String detectNeurosisVersion()
@@ -68,14 +87,21 @@ public class ServerMainModule
         return ((title == null) || (version == null)) ? null : (title + ":" + version);
     }
 
-    private static void bindFailureDetector(Binder binder, boolean coordinator)
+    private void bindFailureDetector(Binder binder, boolean coordinator, boolean gossip)
     {
+        if (gossip) {
+            // every node runs the gossip detector, the coordinator reads the converged view like any other node
+            install(new FailureDetectorModule(coordinator));
+            jaxrsBinder(binder).bind(NodeResource.class);
+        }
         // TODO: this is a hack until the coordinator module works correctly
-        if (coordinator) {
-            binder.install(new FailureDetectorModule());
+        else if (coordinator) {
+            install(new FailureDetectorModule());
             jaxrsBinder(binder).bind(NodeResource.class);
         }
         else {
+            // workers only answer heartbeats
+            install(new FailureDetectorModule(false));
             binder.bind(FailureDetector.class).toInstance(new FailureDetector()
             {
                 @Override
@@ -83,6 +109,16 @@ public class ServerMainModule
                 {
                     return ImmutableSet.of();
                 }
+
+                @Override
+                public void addListener(Listener listener)
+                {
+                }
+
+                @Override
+                public void removeListener(Listener listener)
+                {
+                }
             });
         }
     }
@@ -0,0 +1,277 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.server;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Sampled stacks folded into a call tree. Frames are interned to ints by class and method, and the tree is kept in
+ * parallel primitive arrays with an open-addressed (parent, frame) to child table, so a sample whose path has been seen
+ * before is counted without allocating.
+ */
+@NotThreadSafe
+public class StackProfile
+{
+    private static final int ROOT = 0;
+    private static final int INITIAL_CAPACITY = 256;
+
+    private static final String TRUNCATED_FRAME = "[truncated]";
+
+    public static class Node
+    {
+        private final String name;
+        private final long value;
+        private final long self;
+        private final List<Node> children;
+
+        @JsonCreator
+        public Node(
+                @JsonProperty("name") String name,
+                @JsonProperty("value") long value,
+                @JsonProperty("self") long self,
+                @JsonProperty("children") List<Node> children)
+        {
+            this.name = requireNonNull(name, "name is null");
+            this.value = value;
+            this.self = self;
+            this.children = ImmutableList.copyOf(requireNonNull(children, "children is null"));
+        }
+
+        @JsonProperty
+        public String getName()
+        {
+            return name;
+        }
+
+        @JsonProperty
+        public long getValue()
+        {
+            return value;
+        }
+
+        @JsonProperty
+        public long getSelf()
+        {
+            return self;
+        }
+
+        @JsonProperty
+        public List<Node> getChildren()
+        {
+            return children;
+        }
+    }
+
+    // frame 0 names the root and is never interned
+    private final Map<String, Map<String, Integer>> frameIds = new HashMap<>();
+    private final List<String> frameNames = new ArrayList<>(ImmutableList.of("all"));
+
+    private int nodeCount = 1;
+    private int[] nodeFrames = new int[INITIAL_CAPACITY];
+    private int[] nodeParents = new int[INITIAL_CAPACITY];
+    private long[] selfCounts = new long[INITIAL_CAPACITY];
+    private long[] totalCounts = new long[INITIAL_CAPACITY];
+
+    // the root is never anyone's child, so node 0 marks an empty slot
+    private long[] childKeys = new long[INITIAL_CAPACITY * 2];
+    private int[] childNodes = new int[INITIAL_CAPACITY * 2];
+
+    /**
+     * @param thread name of the sampled thread to root the stack under, or null to merge all threads
+     * @param stack innermost frame first, as returned by the JVM
+     * @param truncated whether the outermost frames were cut off by a depth limit
+     */
+    public void addSample(String thread, StackTraceElement[] stack, boolean truncated)
+    {
+        int node = ROOT;
+        if (thread != null) {
+            node = enter(node, intern("", thread.replace(';', ':')));
+        }
+        if (truncated) {
+            node = enter(node, intern("", TRUNCATED_FRAME));
+        }
+        for (int i = stack.length - 1; i >= 0; i--) {
+            StackTraceElement element = stack[i];
+            node = enter(node, intern(element.getClassName(), element.getMethodName()));
+        }
+        selfCounts[node]++;
+        totalCounts[ROOT]++;
+    }
+
+    private int enter(int parent, int frame)
+    {
+        int node = child(parent, frame);
+        totalCounts[node]++;
+        return node;
+    }
+
+    private int intern(String className, String methodName)
+    {
+        // class and method names come from the constant pool, so the lookups mostly hit cached hash codes
+        Map<String, Integer> methods = frameIds.get(className);
+        if (methods == null) {
+            methods = new HashMap<>();
+            frameIds.put(className, methods);
+        }
+        Integer id = methods.get(methodName);
+        if (id == null) {
+            id = frameNames.size();
+            frameNames.add(className.isEmpty() ? methodName : className + "." + methodName);
+            methods.put(methodName, id);
+        }
+        return id;
+    }
+
+    private int child(int parent, int frame)
+    {
+        long key = ((long) parent << 32) | frame;
+        int mask = childKeys.length - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            int node = childNodes[slot];
+            if (node == 0) {
+                node = newNode(parent, frame);
+                childKeys[slot] = key;
+                childNodes[slot] = node;
+                if (nodeCount * 2 > childKeys.length) {
+                    rehash();
+                }
+                return node;
+            }
+            if (childKeys[slot] == key) {
+                return node;
+            }
+        }
+    }
+
+    private int newNode(int parent, int frame)
+    {
+        if (nodeCount == nodeFrames.length) {
+            int capacity = nodeCount * 2;
+            nodeFrames = Arrays.copyOf(nodeFrames, capacity);
+            nodeParents = Arrays.copyOf(nodeParents, capacity);
+            selfCounts = Arrays.copyOf(selfCounts, capacity);
+            totalCounts = Arrays.copyOf(totalCounts, capacity);
+        }
+        int node = nodeCount++;
+        nodeFrames[node] = frame;
+        nodeParents[node] = parent;
+        return node;
+    }
+
+    private void rehash()
+    {
+        long[] keys = childKeys;
+        int[] nodes = childNodes;
+        childKeys = new long[keys.length * 2];
+        childNodes = new int[nodes.length * 2];
+        int mask = childKeys.length - 1;
+        for (int i = 0; i < keys.length; i++) {
+            if (nodes[i] != 0) {
+                int slot = hash(keys[i]) & mask;
+                while (childNodes[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                childKeys[slot] = keys[i];
+                childNodes[slot] = nodes[i];
+            }
+        }
+    }
+
+    private static int hash(long key)
+    {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+
+    public long getSampleCount()
+    {
+        return totalCounts[ROOT];
+    }
+
+    public int getNodeCount()
+    {
+        return nodeCount;
+    }
+
+    public int getFrameCount()
+    {
+        return frameNames.size() - 1;
+    }
+
+    /**
+     * Writes one line per distinct stack, outermost frame first and separated by semicolons, followed by a space and
+     * the number of samples that ended there. This is the input format of flamegraph.pl and most flame graph viewers.
+     */
+    public void writeFolded(Writer writer)
+            throws IOException
+    {
+        int[] path = new int[16];
+        for (int node = 1; node < nodeCount; node++) {
+            if (selfCounts[node] == 0) {
+                continue;
+            }
+            int depth = 0;
+            for (int current = node; current != ROOT; current = nodeParents[current]) {
+                if (depth == path.length) {
+                    path = Arrays.copyOf(path, depth * 2);
+                }
+                path[depth++] = nodeFrames[current];
+            }
+            for (int i = depth - 1; i >= 0; i--) {
+                writer.write(frameNames.get(path[i]));
+                writer.write(i > 0 ? ';' : ' ');
+            }
+            writer.write(Long.toString(selfCounts[node]));
+            writer.write('\n');
+        }
+    }
+
+    /**
+     * The call tree in the name/value/children shape read by d3-flame-graph, values being inclusive sample counts.
+     */
+    public Node getTree()
+    {
+        // children as linked lists threaded through two arrays, built in reverse so siblings keep creation order
+        int[] firstChild = new int[nodeCount];
+        int[] nextSibling = new int[nodeCount];
+        for (int node = nodeCount - 1; node > ROOT; node--) {
+            int parent = nodeParents[node];
+            nextSibling[node] = firstChild[parent];
+            firstChild[parent] = node;
+        }
+        return toNode(ROOT, firstChild, nextSibling);
+    }
+
+    private Node toNode(int node, int[] firstChild, int[] nextSibling)
+    {
+        ImmutableList.Builder<Node> children = ImmutableList.builder();
+        for (int child = firstChild[node]; child != ROOT; child = nextSibling[child]) {
+            children.add(toNode(child, firstChild, nextSibling));
+        }
+        return new Node(frameNames.get(nodeFrames[node]), totalCounts[node], selfCounts[node], children.build());
+    }
+}
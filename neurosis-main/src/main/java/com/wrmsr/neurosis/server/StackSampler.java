@@ -0,0 +1,285 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.server;
+
+import com.google.common.collect.ImmutableSet;
+import io.airlift.log.Logger;
+import io.airlift.units.Duration;
+import org.weakref.jmx.Managed;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+
+/**
+ * Samples the stacks of live threads at a fixed rate and folds them into a {@link StackProfile}. Each sample is one
+ * depth-limited {@link ThreadMXBean#getThreadInfo(long[], int)} call without lock information, so the safepoint it
+ * needs is short and proportional to the depth rather than to the full stacks. The JVM reports threads blocked in native
+ * I/O as runnable, so a profile of runnable threads also shows time spent in socket reads and accepts.
+ */
+@ThreadSafe
+public class StackSampler
+{
+    private static final Logger log = Logger.get(StackSampler.class);
+
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private final ScheduledExecutorService executor = newSingleThreadScheduledExecutor(daemonThreadsNamed("stack-sampler"));
+
+    private final Duration maxDuration;
+    private final Duration minInterval;
+    private final int maxDepth;
+    private final int maxConcurrentProfiles;
+    private final Semaphore permits;
+    private final boolean contentionMonitoringEnabled;
+
+    private final AtomicLong profiles = new AtomicLong();
+    private final AtomicLong rejectedProfiles = new AtomicLong();
+    private final AtomicLong rounds = new AtomicLong();
+    private final AtomicLong samples = new AtomicLong();
+    private final AtomicLong samplingNanos = new AtomicLong();
+
+    @Inject
+    public StackSampler(ProfilerConfig config)
+    {
+        requireNonNull(config, "config is null");
+        this.maxDuration = config.getMaxDuration();
+        this.minInterval = config.getMinInterval();
+        this.maxDepth = config.getMaxDepth();
+        this.maxConcurrentProfiles = config.getMaxConcurrentProfiles();
+        this.permits = new Semaphore(maxConcurrentProfiles);
+        this.contentionMonitoringEnabled = config.isThreadContentionMonitoringEnabled();
+    }
+
+    @PostConstruct
+    public void start()
+    {
+        if (contentionMonitoringEnabled && threadMXBean.isThreadContentionMonitoringSupported()) {
+            // makes blocked and waited times available, at the cost of a timestamp on each contended lock
+            threadMXBean.setThreadContentionMonitoringEnabled(true);
+        }
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        executor.shutdownNow();
+    }
+
+    public int getMaxDepth()
+    {
+        return maxDepth;
+    }
+
+    /**
+     * Duration, interval and depth are clamped to the configured limits.
+     *
+     * @param states thread states to sample
+     * @param threadFilter accepts the names of threads to sample
+     * @param byThread whether to root each stack under the name of its thread
+     * @return the profile, cancel to stop sampling early
+     * @throws RejectedExecutionException if the configured number of profiles are already running
+     */
+    public CompletableFuture<StackProfile> profile(
+            Duration duration,
+            Duration interval,
+            int depth,
+            Set<Thread.State> states,
+            Predicate<String> threadFilter,
+            boolean byThread)
+    {
+        Set<Thread.State> sampledStates = ImmutableSet.copyOf(requireNonNull(states, "states is null"));
+        requireNonNull(threadFilter, "threadFilter is null");
+        int sampledDepth = Math.min(depth, maxDepth);
+
+        StackProfile profile = new StackProfile();
+        CompletableFuture<Void> sampling = sample(duration, interval, sampledDepth, infos -> {
+            for (ThreadInfo info : infos) {
+                if (info == null || !sampledStates.contains(info.getThreadState())) {
+                    continue;
+                }
+                StackTraceElement[] stack = info.getStackTrace();
+                if (stack.length == 0 || !threadFilter.test(info.getThreadName())) {
+                    continue;
+                }
+                profile.addSample(byThread ? info.getThreadName() : null, stack, stack.length == sampledDepth);
+            }
+        });
+        CompletableFuture<StackProfile> result = sampling.thenApply(ignored -> profile);
+        // cancelling a dependent does not reach the future it depends on
+        result.whenComplete((value, e) -> sampling.cancel(false));
+        return result;
+    }
+
+    /**
+     * Hands each round of samples to the given consumer on the sampler thread, and completes once the duration has passed.
+     * Duration, interval and depth are clamped to the configured limits, and rounds include lock information. Threads
+     * that died since their ids were listed, and the sampler thread itself, are null in the rounds. Cancelling the returned
+     * future stops sampling before the next round.
+     *
+     * @throws RejectedExecutionException if the configured number of profiles are already running
+     */
+    public CompletableFuture<Void> sample(Duration duration, Duration interval, int depth, Consumer<ThreadInfo[]> round)
+    {
+        requireNonNull(duration, "duration is null");
+        requireNonNull(interval, "interval is null");
+        checkArgument(depth > 0, "depth must be positive");
+        requireNonNull(round, "round is null");
+
+        if (!permits.tryAcquire()) {
+            rejectedProfiles.incrementAndGet();
+            throw new RejectedExecutionException("Too many profiles running");
+        }
+        profiles.incrementAndGet();
+
+        long durationNanos = Math.min(duration.roundTo(TimeUnit.NANOSECONDS), maxDuration.roundTo(TimeUnit.NANOSECONDS));
+        long intervalNanos = Math.max(interval.roundTo(TimeUnit.NANOSECONDS), minInterval.roundTo(TimeUnit.NANOSECONDS));
+        Sampling sampling = new Sampling(System.nanoTime() + durationNanos, Math.min(depth, maxDepth), round);
+        try {
+            sampling.task = executor.scheduleAtFixedRate(sampling, intervalNanos, intervalNanos, TimeUnit.NANOSECONDS);
+        }
+        catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+        return sampling.result;
+    }
+
+    private class Sampling
+            implements Runnable
+    {
+        private final long deadlineNanos;
+        private final int depth;
+        private final Consumer<ThreadInfo[]> round;
+
+        private final CompletableFuture<Void> result = new CompletableFuture<>();
+        private volatile ScheduledFuture<?> task;
+
+        private Sampling(long deadlineNanos, int depth, Consumer<ThreadInfo[]> round)
+        {
+            this.deadlineNanos = deadlineNanos;
+            this.depth = depth;
+            this.round = round;
+        }
+
+        @Override
+        public void run()
+        {
+            if (task == null) {
+                // scheduled, but not yet handed its future
+                return;
+            }
+            if (result.isDone()) {
+                // cancelled by the caller
+                finish();
+                return;
+            }
+            try {
+                sample();
+                if (System.nanoTime() - deadlineNanos >= 0) {
+                    finish();
+                    result.complete(null);
+                }
+            }
+            catch (Throwable e) {
+                log.warn(e, "Error sampling stacks");
+                finish();
+                result.completeExceptionally(e);
+            }
+        }
+
+        private void sample()
+        {
+            long start = System.nanoTime();
+            long self = Thread.currentThread().getId();
+            // every ThreadInfo carries the lock its thread waits on and its owner, locked monitors are not requested
+            ThreadInfo[] infos = threadMXBean.getThreadInfo(threadMXBean.getAllThreadIds(), depth);
+            long sampled = 0;
+            for (int i = 0; i < infos.length; i++) {
+                if (infos[i] != null && infos[i].getThreadId() == self) {
+                    infos[i] = null;
+                }
+                else if (infos[i] != null) {
+                    sampled++;
+                }
+            }
+            round.accept(infos);
+            rounds.incrementAndGet();
+            samples.addAndGet(sampled);
+            samplingNanos.addAndGet(System.nanoTime() - start);
+        }
+
+        private void finish()
+        {
+            task.cancel(false);
+            permits.release();
+        }
+    }
+
+    @Managed
+    public long getProfiles()
+    {
+        return profiles.get();
+    }
+
+    @Managed
+    public long getRejectedProfiles()
+    {
+        return rejectedProfiles.get();
+    }
+
+    @Managed
+    public int getRunningProfiles()
+    {
+        return maxConcurrentProfiles - permits.availablePermits();
+    }
+
+    @Managed
+    public long getRounds()
+    {
+        return rounds.get();
+    }
+
+    @Managed
+    public long getSamples()
+    {
+        return samples.get();
+    }
+
+    @Managed
+    public double getAverageRoundMillis()
+    {
+        long rounds = this.rounds.get();
+        return rounds == 0 ? 0.0 : samplingNanos.get() / 1_000_000.0 / rounds;
+    }
+}
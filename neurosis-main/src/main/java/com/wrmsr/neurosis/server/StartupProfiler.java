@@ -0,0 +1,385 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.server;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.Binding;
+import com.google.inject.Key;
+import com.google.inject.Module;
+import com.google.inject.Scopes;
+import com.google.inject.matcher.Matchers;
+import com.google.inject.spi.ElementSource;
+import com.google.inject.spi.ProvisionListener;
+import io.airlift.log.Logger;
+import io.airlift.units.Duration;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.wrmsr.neurosis.util.ImmutableCollectors.toImmutableList;
+import static io.airlift.jaxrs.JaxrsBinder.jaxrsBinder;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Times server startup. Installed as a module, it listens to every provision the injector makes and records how long
+ * each binding took to construct, both in total and excluding the bindings it pulled in, attributing the latter to the
+ * top-level module the binding was declared in. The phases around injector creation are marked by the caller. Recording
+ * stops once startup is over, after which provisions pass straight through.
+ */
+@ThreadSafe
+public class StartupProfiler
+        implements ProvisionListener
+{
+    private static final class Frame
+    {
+        private long childNanos;
+    }
+
+    private static final class Provisions
+    {
+        private final String module;
+        private final boolean singleton;
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong selfNanos = new AtomicLong();
+
+        private Provisions(String module, boolean singleton)
+        {
+            this.module = module;
+            this.singleton = singleton;
+        }
+    }
+
+    private final long startNanos = System.nanoTime();
+    private final ThreadLocal<Deque<Frame>> frames = ThreadLocal.withInitial(ArrayDeque::new);
+    private final ConcurrentMap<Key<?>, Provisions> provisions = new ConcurrentHashMap<>();
+    private final AtomicLong provisionNanos = new AtomicLong();
+    private volatile boolean recording = true;
+
+    @GuardedBy("this")
+    private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+    @GuardedBy("this")
+    private long lastMarkNanos = startNanos;
+
+    /**
+     * Registers the profiler as a provision listener, and serves its report at /v1/startup.
+     */
+    public Module getModule()
+    {
+        return binder -> {
+            binder.bindListener(Matchers.any(), this);
+            binder.bind(StartupProfiler.class).toInstance(this);
+            jaxrsBinder(binder).bind(StartupResource.class);
+        };
+    }
+
+    @Override
+    public <T> void onProvision(ProvisionInvocation<T> invocation)
+    {
+        if (!recording) {
+            invocation.provision();
+            return;
+        }
+
+        Deque<Frame> stack = frames.get();
+        Frame frame = new Frame();
+        stack.push(frame);
+        long start = System.nanoTime();
+        try {
+            invocation.provision();
+        }
+        finally {
+            long elapsed = System.nanoTime() - start;
+            stack.pop();
+            if (stack.isEmpty()) {
+                provisionNanos.addAndGet(elapsed);
+            }
+            else {
+                stack.peek().childNanos += elapsed;
+            }
+
+            Binding<T> binding = invocation.getBinding();
+            Provisions counts = provisions.computeIfAbsent(binding.getKey(), key -> new Provisions(getModule(binding), Scopes.isSingleton(binding)));
+            counts.count.incrementAndGet();
+            counts.totalNanos.addAndGet(elapsed);
+            counts.selfNanos.addAndGet(elapsed - frame.childNanos);
+        }
+    }
+
+    private static String getModule(Binding<?> binding)
+    {
+        Object source = binding.getSource();
+        if (source instanceof ElementSource) {
+            // innermost first, so the last is the module handed to the injector
+            List<String> modules = ((ElementSource) source).getModuleClassNames();
+            if (!modules.isEmpty()) {
+                return modules.get(modules.size() - 1);
+            }
+        }
+        return "just-in-time";
+    }
+
+    /**
+     * Ends the current phase under the given name.
+     */
+    public synchronized void mark(String phase)
+    {
+        long now = System.nanoTime();
+        phaseNanos.merge(phase, now - lastMarkNanos, Long::sum);
+        lastMarkNanos = now;
+    }
+
+    public void stopRecording()
+    {
+        recording = false;
+    }
+
+    public synchronized Report getReport()
+    {
+        ImmutableMap.Builder<String, Duration> phases = ImmutableMap.builder();
+        for (Map.Entry<String, Long> entry : phaseNanos.entrySet()) {
+            phases.put(entry.getKey(), toDuration(entry.getValue()));
+        }
+
+        Map<String, long[]> modules = new HashMap<>();
+        for (Provisions counts : provisions.values()) {
+            long[] module = modules.computeIfAbsent(counts.module, name -> new long[2]);
+            module[0] += counts.selfNanos.get();
+            module[1] += counts.count.get();
+        }
+
+        return new Report(
+                toDuration(lastMarkNanos - startNanos),
+                phases.build(),
+                toDuration(provisionNanos.get()),
+                modules.entrySet().stream()
+                        .sorted(Comparator.comparing((Map.Entry<String, long[]> entry) -> entry.getValue()[0]).reversed())
+                        .map(entry -> new ModuleTime(entry.getKey(), toDuration(entry.getValue()[0]), entry.getValue()[1]))
+                        .collect(toImmutableList()),
+                provisions.entrySet().stream()
+                        .sorted(Comparator.comparing((Map.Entry<Key<?>, Provisions> entry) -> entry.getValue().selfNanos.get()).reversed())
+                        .map(entry -> new BindingTime(
+                                entry.getKey().toString(),
+                                entry.getValue().module,
+                                entry.getValue().singleton,
+                                entry.getValue().count.get(),
+                                toDuration(entry.getValue().selfNanos.get()),
+                                toDuration(entry.getValue().totalNanos.get())))
+                        .collect(toImmutableList()));
+    }
+
+    private static Duration toDuration(long nanos)
+    {
+        return new Duration(nanos, TimeUnit.NANOSECONDS).convertToMostSuccinctTimeUnit();
+    }
+
+    public void log(Logger log, int limit)
+    {
+        Report report = getReport();
+        log.info("Startup took %s %s, %s of it constructing bindings", report.getTotal(), report.getPhases(), report.getProvisioning());
+        for (ModuleTime module : report.getModules().subList(0, Math.min(limit, report.getModules().size()))) {
+            log.info("  %-10s %5d bindings  %s", module.getTime(), module.getBindings(), module.getModule());
+        }
+        for (BindingTime binding : report.getBindings().subList(0, Math.min(limit, report.getBindings().size()))) {
+            log.info("  %-10s %-10s %s", binding.getSelf(), binding.getTotal(), binding.getKey());
+        }
+    }
+
+    public static class Report
+    {
+        private final Duration total;
+        private final Map<String, Duration> phases;
+        private final Duration provisioning;
+        private final List<ModuleTime> modules;
+        private final List<BindingTime> bindings;
+
+        @JsonCreator
+        public Report(
+                @JsonProperty("total") Duration total,
+                @JsonProperty("phases") Map<String, Duration> phases,
+                @JsonProperty("provisioning") Duration provisioning,
+                @JsonProperty("modules") List<ModuleTime> modules,
+                @JsonProperty("bindings") List<BindingTime> bindings)
+        {
+            this.total = requireNonNull(total, "total is null");
+            this.phases = ImmutableMap.copyOf(requireNonNull(phases, "phases is null"));
+            this.provisioning = requireNonNull(provisioning, "provisioning is null");
+            this.modules = ImmutableList.copyOf(requireNonNull(modules, "modules is null"));
+            this.bindings = ImmutableList.copyOf(requireNonNull(bindings, "bindings is null"));
+        }
+
+        /**
+         * From the profiler's creation to the last phase mark.
+         */
+        @JsonProperty
+        public Duration getTotal()
+        {
+            return total;
+        }
+
+        @JsonProperty
+        public Map<String, Duration> getPhases()
+        {
+            return phases;
+        }
+
+        /**
+         * Wall time spent constructing bindings, nested constructions counted once.
+         */
+        @JsonProperty
+        public Duration getProvisioning()
+        {
+            return provisioning;
+        }
+
+        /**
+         * Construction time of the bindings declared in each top-level module, excluding the bindings they pulled in
+         * from other modules, the slowest first.
+         */
+        @JsonProperty
+        public List<ModuleTime> getModules()
+        {
+            return modules;
+        }
+
+        /**
+         * The slowest to construct first.
+         */
+        @JsonProperty
+        public List<BindingTime> getBindings()
+        {
+            return bindings;
+        }
+    }
+
+    public static class ModuleTime
+    {
+        private final String module;
+        private final Duration time;
+        private final long bindings;
+
+        @JsonCreator
+        public ModuleTime(
+                @JsonProperty("module") String module,
+                @JsonProperty("time") Duration time,
+                @JsonProperty("bindings") long bindings)
+        {
+            this.module = requireNonNull(module, "module is null");
+            this.time = requireNonNull(time, "time is null");
+            this.bindings = bindings;
+        }
+
+        @JsonProperty
+        public String getModule()
+        {
+            return module;
+        }
+
+        @JsonProperty
+        public Duration getTime()
+        {
+            return time;
+        }
+
+        /**
+         * Number of provisions counted.
+         */
+        @JsonProperty
+        public long getBindings()
+        {
+            return bindings;
+        }
+    }
+
+    public static class BindingTime
+    {
+        private final String key;
+        private final String module;
+        private final boolean singleton;
+        private final long count;
+        private final Duration self;
+        private final Duration total;
+
+        @JsonCreator
+        public BindingTime(
+                @JsonProperty("key") String key,
+                @JsonProperty("module") String module,
+                @JsonProperty("singleton") boolean singleton,
+                @JsonProperty("count") long count,
+                @JsonProperty("self") Duration self,
+                @JsonProperty("total") Duration total)
+        {
+            this.key = requireNonNull(key, "key is null");
+            this.module = requireNonNull(module, "module is null");
+            this.singleton = singleton;
+            this.count = count;
+            this.self = requireNonNull(self, "self is null");
+            this.total = requireNonNull(total, "total is null");
+        }
+
+        @JsonProperty
+        public String getKey()
+        {
+            return key;
+        }
+
+        @JsonProperty
+        public String getModule()
+        {
+            return module;
+        }
+
+        @JsonProperty
+        public boolean isSingleton()
+        {
+            return singleton;
+        }
+
+        @JsonProperty
+        public long getCount()
+        {
+            return count;
+        }
+
+        /**
+         * Excluding the bindings constructed to satisfy its dependencies.
+         */
+        @JsonProperty
+        public Duration getSelf()
+        {
+            return self;
+        }
+
+        @JsonProperty
+        public Duration getTotal()
+        {
+            return total;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.server;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import static com.fasterxml.jackson.core.JsonGenerator.Feature.AUTO_CLOSE_TARGET;
+
+/**
+ * Conditional JSON array responses written one element at a time, so a large listing is never held serialized in
+ * memory, and a client whose If-None-Match carries the current tag gets a 304 without anything being serialized.
+ */
+final class StreamingJson
+{
+    private StreamingJson()
+    {
+    }
+
+    /**
+     * @param elements iterated once, while the response is written
+     */
+    static Response arrayResponse(Request request, EntityTag tag, ObjectMapper mapper, Iterable<?> elements)
+    {
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+        if (notModified != null) {
+            return notModified.build();
+        }
+        return Response.ok(array(mapper, elements), MediaType.APPLICATION_JSON_TYPE)
+                .tag(tag)
+                .build();
+    }
+
+    static StreamingOutput array(ObjectMapper mapper, Iterable<?> elements)
+    {
+        // the generator buffers and flushes as it fills, rather than after every element
+        ObjectWriter writer = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        return output -> {
+            try (JsonGenerator generator = mapper.getFactory().createGenerator(output).disable(AUTO_CLOSE_TARGET)) {
+                generator.writeStartArray();
+                for (Object element : elements) {
+                    writer.writeValue(generator, element);
+                }
+                generator.writeEndArray();
+            }
+        };
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.server;
+
+import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
+import io.airlift.units.Duration;
+import io.airlift.units.MinDuration;
+
+import javax.validation.constraints.AssertTrue;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import java.util.concurrent.TimeUnit;
+
+public class TelemetryConfig
+{
+    private Duration sampleInterval = new Duration(1, TimeUnit.SECONDS);
+    private Duration retention = new Duration(15, TimeUnit.MINUTES);
+    private int maxGcPauses = 4096;
+
+    @NotNull
+    @MinDuration("100ms")
+    public Duration getSampleInterval()
+    {
+        return sampleInterval;
+    }
+
+    @Config("telemetry.sample-interval")
+    @ConfigDescription("How often JVM telemetry is sampled")
+    public TelemetryConfig setSampleInterval(Duration sampleInterval)
+    {
+        this.sampleInterval = sampleInterval;
+        return this;
+    }
+
+    @NotNull
+    public Duration getRetention()
+    {
+        return retention;
+    }
+
+    @Config("telemetry.retention")
+    @ConfigDescription("How far back telemetry samples are kept, bounding the windows that can be aggregated")
+    public TelemetryConfig setRetention(Duration retention)
+    {
+        this.retention = retention;
+        return this;
+    }
+
+    @Min(1)
+    public int getMaxGcPauses()
+    {
+        return maxGcPauses;
+    }
+
+    @Config("telemetry.max-gc-pauses")
+    @ConfigDescription("Most recent GC pauses kept for pause histograms")
+    public TelemetryConfig setMaxGcPauses(int maxGcPauses)
+    {
+        this.maxGcPauses = maxGcPauses;
+        return this;
+    }
+
+    @AssertTrue(message = "telemetry.retention must be at least telemetry.sample-interval")
+    public boolean isRetentionValid()
+    {
+        return retention == null || sampleInterval == null || retention.compareTo(sampleInterval) >= 0;
+    }
+}
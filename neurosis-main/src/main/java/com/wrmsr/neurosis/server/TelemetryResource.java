@@ -0,0 +1,51 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.server;
+
+import io.airlift.units.Duration;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Serves JVM telemetry aggregated over a window of recent samples, one minute unless given.
+ */
+@Path("/v1/telemetry")
+public class TelemetryResource
+{
+    private static final Duration DEFAULT_WINDOW = new Duration(1, TimeUnit.MINUTES);
+
+    private final JvmTelemetry telemetry;
+
+    @Inject
+    public TelemetryResource(JvmTelemetry telemetry)
+    {
+        this.telemetry = requireNonNull(telemetry, "telemetry is null");
+    }
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public TelemetryWindow getTelemetry(@QueryParam("window") Duration window)
+    {
+        return telemetry.getWindow(window == null ? DEFAULT_WINDOW : window);
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.server;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.joda.time.DateTime;
+
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Aggregates of the telemetry samples taken over a window. Gauges are summarized by their range and mean, counters by
+ * their total and rate, and GC pauses by a histogram per collector.
+ */
+public class TelemetryWindow
+{
+    private final DateTime start;
+    private final DateTime end;
+    private final int samples;
+    private final Map<String, Gauge> gauges;
+    private final Map<String, Counter> counters;
+    private final Map<String, PauseHistogram> gcPauses;
+
+    @JsonCreator
+    public TelemetryWindow(
+            @JsonProperty("start") DateTime start,
+            @JsonProperty("end") DateTime end,
+            @JsonProperty("samples") int samples,
+            @JsonProperty("gauges") Map<String, Gauge> gauges,
+            @JsonProperty("counters") Map<String, Counter> counters,
+            @JsonProperty("gcPauses") Map<String, PauseHistogram> gcPauses)
+    {
+        this.start = start;
+        this.end = end;
+        this.samples = samples;
+        this.gauges = ImmutableMap.copyOf(requireNonNull(gauges, "gauges is null"));
+        this.counters = ImmutableMap.copyOf(requireNonNull(counters, "counters is null"));
+        this.gcPauses = ImmutableMap.copyOf(requireNonNull(gcPauses, "gcPauses is null"));
+    }
+
+    /**
+     * Time of the first sample in the window, null if there are none.
+     */
+    @JsonProperty
+    public DateTime getStart()
+    {
+        return start;
+    }
+
+    @JsonProperty
+    public DateTime getEnd()
+    {
+        return end;
+    }
+
+    @JsonProperty
+    public int getSamples()
+    {
+        return samples;
+    }
+
+    @JsonProperty
+    public Map<String, Gauge> getGauges()
+    {
+        return gauges;
+    }
+
+    @JsonProperty
+    public Map<String, Counter> getCounters()
+    {
+        return counters;
+    }
+
+    @JsonProperty
+    public Map<String, PauseHistogram> getGcPauses()
+    {
+        return gcPauses;
+    }
+
+    public static class Gauge
+    {
+        private final long min;
+        private final long max;
+        private final double mean;
+        private final long last;
+
+        @JsonCreator
+        public Gauge(
+                @JsonProperty("min") long min,
+                @JsonProperty("max") long max,
+                @JsonProperty("mean") double mean,
+                @JsonProperty("last") long last)
+        {
+            this.min = min;
+            this.max = max;
+            this.mean = mean;
+            this.last = last;
+        }
+
+        @JsonProperty
+        public long getMin()
+        {
+            return min;
+        }
+
+        @JsonProperty
+        public long getMax()
+        {
+            return max;
+        }
+
+        @JsonProperty
+        public double getMean()
+        {
+            return mean;
+        }
+
+        @JsonProperty
+        public long getLast()
+        {
+            return last;
+        }
+    }
+
+    public static class Counter
+    {
+        private final long total;
+        private final double perSecond;
+
+        @JsonCreator
+        public Counter(
+                @JsonProperty("total") long total,
+                @JsonProperty("perSecond") double perSecond)
+        {
+            this.total = total;
+            this.perSecond = perSecond;
+        }
+
+        @JsonProperty
+        public long getTotal()
+        {
+            return total;
+        }
+
+        @JsonProperty
+        public double getPerSecond()
+        {
+            return perSecond;
+        }
+    }
+
+    public static class PauseHistogram
+    {
+        private final long count;
+        private final long totalMillis;
+        private final long p50Millis;
+        private final long p99Millis;
+        private final long maxMillis;
+        private final List<Long> bucketBoundsMillis;
+        private final List<Long> buckets;
+
+        @JsonCreator
+        public PauseHistogram(
+                @JsonProperty("count") long count,
+                @JsonProperty("totalMillis") long totalMillis,
+                @JsonProperty("p50Millis") long p50Millis,
+                @JsonProperty("p99Millis") long p99Millis,
+                @JsonProperty("maxMillis") long maxMillis,
+                @JsonProperty("bucketBoundsMillis") List<Long> bucketBoundsMillis,
+                @JsonProperty("buckets") List<Long> buckets)
+        {
+            this.count = count;
+            this.totalMillis = totalMillis;
+            this.p50Millis = p50Millis;
+            this.p99Millis = p99Millis;
+            this.maxMillis = maxMillis;
+            this.bucketBoundsMillis = ImmutableList.copyOf(requireNonNull(bucketBoundsMillis, "bucketBoundsMillis is null"));
+            this.buckets = ImmutableList.copyOf(requireNonNull(buckets, "buckets is null"));
+        }
+
+        @JsonProperty
+        public long getCount()
+        {
+            return count;
+        }
+
+        @JsonProperty
+        public long getTotalMillis()
+        {
+            return totalMillis;
+        }
+
+        @JsonProperty
+        public long getP50Millis()
+        {
+            return p50Millis;
+        }
+
+        @JsonProperty
+        public long getP99Millis()
+        {
+            return p99Millis;
+        }
+
+        @JsonProperty
+        public long getMaxMillis()
+        {
+            return maxMillis;
+        }
+
+        /**
+         * Inclusive upper bounds of all buckets but the last, which counts longer pauses.
+         */
+        @JsonProperty
+        public List<Long> getBucketBoundsMillis()
+        {
+            return bucketBoundsMillis;
+        }
+
+        @JsonProperty
+        public List<Long> getBuckets()
+        {
+            return buckets;
+        }
+    }
+}
@@ -15,29 +15,119 @@ package com.wrmsr.neurosis.server;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Ordering;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.common.io.Resources;
+import io.airlift.units.Duration;
 
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
 
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.lang.management.ThreadInfo;
 import java.lang.management.ThreadMXBean;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
 
-import static com.wrmsr.neurosis.server.ThreadResource.Info.byName;
+import static com.google.common.base.MoreObjects.firstNonNull;
+import static com.google.common.base.Strings.nullToEmpty;
 import static com.google.common.io.Resources.getResource;
+import static com.wrmsr.neurosis.server.AsyncResponses.cancelOnCompletion;
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static io.airlift.http.server.AsyncResponseHandler.bindAsyncResponse;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newCachedThreadPool;
 
+/**
+ * Thread dump for the thread visualizer. By default every thread is returned with its full stack, which needs a long
+ * safepoint and a large response on busy nodes; a depth limit, filters on state and name prefix, or summary mode (no
+ * stacks at all) make it cheap enough to poll continuously. Threads are filtered on a stack-less dump first, so only the
+ * threads that are returned have their stacks walked.
+ * <p>
+ * CPU time and allocated bytes are reported per thread. A client passing a client id also gets their change since the
+ * thread was last returned to that client, and the time that change covers. The threads are streamed as they are
+ * converted, and tagged so a client polling with If-None-Match gets a 304 while the threads and their stacks stay the
+ * same. Blocked and waited counts and times are cumulative, the times needing thread contention monitoring, which
+ * {@link StackSampler} enables unless configured not to.
+ * <p>
+ * /v1/thread/locks returns which threads wait on locks held by which others along with any deadlocks, and
+ * /v1/thread/contention samples for a while and returns the most contended locks by class and call site.
+ */
 @Path("/")
 public class ThreadResource
 {
+    private static final class Usage
+    {
+        private final long timeNanos;
+        private final long cpuTime;
+        private final long allocatedBytes;
+
+        private Usage(long timeNanos, long cpuTime, long allocatedBytes)
+        {
+            this.timeNanos = timeNanos;
+            this.cpuTime = cpuTime;
+            this.allocatedBytes = allocatedBytes;
+        }
+    }
+
+    private static final Duration DEFAULT_CONTENTION_DURATION = new Duration(10, TimeUnit.SECONDS);
+    private static final Duration DEFAULT_CONTENTION_INTERVAL = new Duration(10, TimeUnit.MILLISECONDS);
+    private static final int DEFAULT_CONTENTION_LIMIT = 20;
+    // deep enough to get past the frames of java.util.concurrent lock implementations to the call site
+    private static final int LOCK_DEPTH = 16;
+    private static final int MAX_CLIENTS = 64;
+    private static final Duration CLIENT_EXPIRATION = new Duration(10, TimeUnit.MINUTES);
+
+    private final StackSampler sampler;
+    private final ObjectMapper mapper;
+    private final Cache<String, ConcurrentMap<Long, Usage>> lastUsage = CacheBuilder.newBuilder()
+            .maximumSize(MAX_CLIENTS)
+            .expireAfterAccess(CLIENT_EXPIRATION.toMillis(), TimeUnit.MILLISECONDS)
+            .build();
+    private final ExecutorService responseExecutor = newCachedThreadPool(daemonThreadsNamed("thread-response-%s"));
+
+    @Inject
+    public ThreadResource(StackSampler sampler, ObjectMapper mapper)
+    {
+        this.sampler = requireNonNull(sampler, "sampler is null");
+        this.mapper = requireNonNull(mapper, "mapper is null");
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        responseExecutor.shutdownNow();
+    }
+
     @GET
     @Path("/ui/thread")
     @Produces(MediaType.TEXT_HTML)
@@ -50,20 +140,233 @@ public class ThreadResource
     @GET
     @Path("/v1/thread")
     @Produces(MediaType.APPLICATION_JSON)
-    public List<Info> getThreadInfo()
+    public Response getThreadInfo(
+            @QueryParam("depth") Integer depth,
+            @QueryParam("state") List<Thread.State> states,
+            @QueryParam("prefix") String prefix,
+            @QueryParam("summary") boolean summary,
+            @QueryParam("client") String client,
+            @Context Request request)
     {
+        if (depth != null && depth < 0) {
+            throw new WebApplicationException(badRequest("depth is negative"));
+        }
+        int maxDepth = summary ? 0 : firstNonNull(depth, Integer.MAX_VALUE);
+        Set<Thread.State> stateFilter = states == null || states.isEmpty() ? null : EnumSet.copyOf(states);
+
         ThreadMXBean mbean = ManagementFactory.getThreadMXBean();
+        long[] ids = mbean.getAllThreadIds();
+        Arrays.sort(ids);
+        ConcurrentMap<Long, Usage> clientUsage = getClientUsage(client);
+        if (clientUsage != null) {
+            clientUsage.keySet().removeIf(id -> Arrays.binarySearch(ids, id) < 0);
+        }
+
+        ThreadInfo[] infos;
+        if (stateFilter == null && prefix == null) {
+            infos = filter(mbean.getThreadInfo(ids, maxDepth), null, null);
+        }
+        else {
+            infos = filter(mbean.getThreadInfo(ids, 0), stateFilter, prefix);
+            if (maxDepth > 0 && infos.length > 0) {
+                long[] filteredIds = new long[infos.length];
+                for (int i = 0; i < infos.length; i++) {
+                    filteredIds[i] = infos[i].getThreadId();
+                }
+                // states may have moved on since the first pass, the names have not
+                infos = filter(mbean.getThreadInfo(filteredIds, maxDepth), stateFilter, null);
+            }
+        }
+
+        // sorted up front so each thread can be converted as the response is written
+        Arrays.sort(infos, Comparator.comparing(ThreadInfo::getThreadName));
+        EntityTag tag = getTag(infos, maxDepth, summary);
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(tag);
+        if (notModified != null) {
+            return notModified.build();
+        }
+
+        long[] infoIds = new long[infos.length];
+        for (int i = 0; i < infos.length; i++) {
+            infoIds[i] = infos[i].getThreadId();
+        }
+        long[] cpuTimes = getThreadCpuTimes(mbean, infoIds);
+        long[] allocatedBytes = getThreadAllocatedBytes(mbean, infoIds);
+        long now = System.nanoTime();
+
+        ThreadInfo[] sortedInfos = infos;
+        Iterable<Info> elements = () -> IntStream.range(0, sortedInfos.length)
+                .mapToObj(i -> toInfo(
+                        sortedInfos[i],
+                        cpuTimes == null || cpuTimes[i] < 0 ? null : cpuTimes[i],
+                        allocatedBytes == null || allocatedBytes[i] < 0 ? null : allocatedBytes[i],
+                        now,
+                        summary,
+                        clientUsage))
+                .iterator();
+        return Response.ok(StreamingJson.array(mapper, elements), MediaType.APPLICATION_JSON_TYPE)
+                .tag(tag)
+                .build();
+    }
+
+    private ConcurrentMap<Long, Usage> getClientUsage(String client)
+    {
+        if (client == null) {
+            return null;
+        }
+        try {
+            return lastUsage.get(client, ConcurrentHashMap::new);
+        }
+        catch (ExecutionException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static Info toInfo(ThreadInfo info, Long cpuTime, Long allocated, long now, boolean summary, ConcurrentMap<Long, Usage> clientUsage)
+    {
+        Usage previous = null;
+        if (clientUsage != null) {
+            previous = clientUsage.put(info.getThreadId(), new Usage(now, firstNonNull(cpuTime, -1L), firstNonNull(allocated, -1L)));
+        }
+        Long deltaTime = null;
+        Long cpuTimeDelta = null;
+        Long allocatedBytesDelta = null;
+        if (previous != null) {
+            deltaTime = now - previous.timeNanos;
+            cpuTimeDelta = cpuTime == null || previous.cpuTime < 0 ? null : cpuTime - previous.cpuTime;
+            allocatedBytesDelta = allocated == null || previous.allocatedBytes < 0 ? null : allocated - previous.allocatedBytes;
+        }
+
+        return new Info(
+                info.getThreadId(),
+                info.getThreadName(),
+                info.getThreadState().name(),
+                info.getLockOwnerId() == -1 ? null : info.getLockOwnerId(),
+                summary ? null : toStackTrace(info.getStackTrace()),
+                cpuTime,
+                cpuTimeDelta,
+                allocated,
+                allocatedBytesDelta,
+                deltaTime,
+                info.getLockName(),
+                info.getBlockedCount(),
+                info.getBlockedTime() < 0 ? null : info.getBlockedTime(),
+                info.getWaitedCount(),
+                info.getWaitedTime() < 0 ? null : info.getWaitedTime());
+    }
+
+    /**
+     * Weak, as it covers which threads there are, their states, the locks they wait on and their stacks, but not their
+     * usage or contention counters.
+     */
+    private static EntityTag getTag(ThreadInfo[] infos, int maxDepth, boolean summary)
+    {
+        Hasher hasher = Hashing.murmur3_128().newHasher()
+                .putInt(maxDepth)
+                .putBoolean(summary);
+        for (ThreadInfo info : infos) {
+            hasher.putLong(info.getThreadId())
+                    .putString(info.getThreadName(), StandardCharsets.UTF_8)
+                    .putInt(info.getThreadState().ordinal())
+                    .putLong(info.getLockOwnerId())
+                    .putString(nullToEmpty(info.getLockName()), StandardCharsets.UTF_8);
+            StackTraceElement[] stack = info.getStackTrace();
+            hasher.putInt(stack.length);
+            for (StackTraceElement element : stack) {
+                hasher.putString(element.getClassName(), StandardCharsets.UTF_8)
+                        .putString(element.getMethodName(), StandardCharsets.UTF_8)
+                        .putInt(element.getLineNumber());
+            }
+        }
+        return new EntityTag(hasher.hash().toString(), true);
+    }
+
+    @GET
+    @Path("/v1/thread/locks")
+    @Produces(MediaType.APPLICATION_JSON)
+    public LockGraph getLockGraph()
+    {
+        return LockGraph.capture(ManagementFactory.getThreadMXBean(), LOCK_DEPTH);
+    }
+
+    @GET
+    @Path("/v1/thread/contention")
+    @Produces(MediaType.APPLICATION_JSON)
+    public void getContention(
+            @QueryParam("duration") Duration duration,
+            @QueryParam("interval") Duration interval,
+            @QueryParam("limit") Integer limit,
+            @Suspended AsyncResponse asyncResponse)
+    {
+        int reportLimit = firstNonNull(limit, DEFAULT_CONTENTION_LIMIT);
+        if (reportLimit <= 0) {
+            asyncResponse.resume(badRequest("limit must be positive"));
+            return;
+        }
+
+        MonitorContention contention = new MonitorContention();
+        CompletableFuture<Void> sampling;
+        try {
+            sampling = sampler.sample(
+                    firstNonNull(duration, DEFAULT_CONTENTION_DURATION),
+                    firstNonNull(interval, DEFAULT_CONTENTION_INTERVAL),
+                    LOCK_DEPTH,
+                    contention::add);
+        }
+        catch (RejectedExecutionException e) {
+            asyncResponse.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                    .type(MediaType.TEXT_PLAIN)
+                    .entity(e.getMessage())
+                    .build());
+            return;
+        }
+        cancelOnCompletion(asyncResponse, sampling);
+        bindAsyncResponse(asyncResponse, sampling.thenApply(ignored -> contention.getReport(reportLimit)), responseExecutor);
+    }
+
+    private static Response badRequest(String message)
+    {
+        return Response.status(Response.Status.BAD_REQUEST)
+                .type(MediaType.TEXT_PLAIN)
+                .entity(message)
+                .build();
+    }
+
+    // dead threads come back null and are dropped along with the filtered ones
+    private static ThreadInfo[] filter(ThreadInfo[] infos, Set<Thread.State> states, String prefix)
+    {
+        return Arrays.stream(infos)
+                .filter(info -> info != null)
+                .filter(info -> states == null || states.contains(info.getThreadState()))
+                .filter(info -> prefix == null || info.getThreadName().startsWith(prefix))
+                .toArray(ThreadInfo[]::new);
+    }
+
+    private static long[] getThreadCpuTimes(ThreadMXBean mbean, long[] ids)
+    {
+        if (!mbean.isThreadCpuTimeSupported() || !mbean.isThreadCpuTimeEnabled()) {
+            return null;
+        }
+        if (mbean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) mbean).getThreadCpuTime(ids);
+        }
+        long[] cpuTimes = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            cpuTimes[i] = mbean.getThreadCpuTime(ids[i]);
+        }
+        return cpuTimes;
+    }
 
-        ImmutableList.Builder<Info> builder = ImmutableList.builder();
-        for (ThreadInfo info : mbean.getThreadInfo(mbean.getAllThreadIds(), Integer.MAX_VALUE)) {
-            builder.add(new Info(
-                    info.getThreadId(),
-                    info.getThreadName(),
-                    info.getThreadState().name(),
-                    info.getLockOwnerId() == -1 ? null : info.getLockOwnerId(),
-                    toStackTrace(info.getStackTrace())));
+    private static long[] getThreadAllocatedBytes(ThreadMXBean mbean, long[] ids)
+    {
+        if (!(mbean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean sunMbean = (com.sun.management.ThreadMXBean) mbean;
+        if (!sunMbean.isThreadAllocatedMemorySupported() || !sunMbean.isThreadAllocatedMemoryEnabled()) {
+            return null;
         }
-        return Ordering.from(byName()).sortedCopy(builder.build());
+        return sunMbean.getThreadAllocatedBytes(ids);
     }
 
     private static List<StackLine> toStackTrace(StackTraceElement[] stackTrace)
@@ -88,6 +391,16 @@ public class ThreadResource
         private final String state;
         private final Long lockOwnerId;
         private final List<StackLine> stackTrace;
+        private final Long cpuTime;
+        private final Long cpuTimeDelta;
+        private final Long allocatedBytes;
+        private final Long allocatedBytesDelta;
+        private final Long deltaTime;
+        private final String lockName;
+        private final long blockedCount;
+        private final Long blockedTime;
+        private final long waitedCount;
+        private final Long waitedTime;
 
         @JsonCreator
         public Info(
@@ -95,13 +408,33 @@ public class ThreadResource
                 @JsonProperty("name") String name,
                 @JsonProperty("state") String state,
                 @JsonProperty("lockOwner") Long lockOwnerId,
-                @JsonProperty("stackTrace") List<StackLine> stackTrace)
+                @JsonProperty("stackTrace") List<StackLine> stackTrace,
+                @JsonProperty("cpuTime") Long cpuTime,
+                @JsonProperty("cpuTimeDelta") Long cpuTimeDelta,
+                @JsonProperty("allocatedBytes") Long allocatedBytes,
+                @JsonProperty("allocatedBytesDelta") Long allocatedBytesDelta,
+                @JsonProperty("deltaTime") Long deltaTime,
+                @JsonProperty("lockName") String lockName,
+                @JsonProperty("blockedCount") long blockedCount,
+                @JsonProperty("blockedTime") Long blockedTime,
+                @JsonProperty("waitedCount") long waitedCount,
+                @JsonProperty("waitedTime") Long waitedTime)
         {
             this.id = id;
             this.name = name;
             this.state = state;
             this.lockOwnerId = lockOwnerId;
             this.stackTrace = stackTrace;
+            this.cpuTime = cpuTime;
+            this.cpuTimeDelta = cpuTimeDelta;
+            this.allocatedBytes = allocatedBytes;
+            this.allocatedBytesDelta = allocatedBytesDelta;
+            this.deltaTime = deltaTime;
+            this.lockName = lockName;
+            this.blockedCount = blockedCount;
+            this.blockedTime = blockedTime;
+            this.waitedCount = waitedCount;
+            this.waitedTime = waitedTime;
         }
 
         @JsonProperty
@@ -128,12 +461,87 @@ public class ThreadResource
             return lockOwnerId;
         }
 
+        /**
+         * Null in summary mode.
+         */
         @JsonProperty
         public List<StackLine> getStackTrace()
         {
             return stackTrace;
         }
 
+        /**
+         * Nanoseconds, or null where the JVM does not measure thread CPU time.
+         */
+        @JsonProperty
+        public Long getCpuTime()
+        {
+            return cpuTime;
+        }
+
+        @JsonProperty
+        public Long getCpuTimeDelta()
+        {
+            return cpuTimeDelta;
+        }
+
+        @JsonProperty
+        public Long getAllocatedBytes()
+        {
+            return allocatedBytes;
+        }
+
+        @JsonProperty
+        public Long getAllocatedBytesDelta()
+        {
+            return allocatedBytesDelta;
+        }
+
+        /**
+         * Nanoseconds covered by the deltas, null the first time a thread is returned.
+         */
+        @JsonProperty
+        public Long getDeltaTime()
+        {
+            return deltaTime;
+        }
+
+        /**
+         * Class name and identity hash of the lock the thread is blocked or waiting on.
+         */
+        @JsonProperty
+        public String getLockName()
+        {
+            return lockName;
+        }
+
+        @JsonProperty
+        public long getBlockedCount()
+        {
+            return blockedCount;
+        }
+
+        /**
+         * Milliseconds, or null while contention monitoring is disabled.
+         */
+        @JsonProperty
+        public Long getBlockedTime()
+        {
+            return blockedTime;
+        }
+
+        @JsonProperty
+        public long getWaitedCount()
+        {
+            return waitedCount;
+        }
+
+        @JsonProperty
+        public Long getWaitedTime()
+        {
+            return waitedTime;
+        }
+
         public static Comparator<Info> byName()
         {
             return new Comparator<Info>()
@@ -0,0 +1,270 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.discovery;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import io.airlift.discovery.store.ConflictResolver;
+import io.airlift.discovery.store.Entry;
+import io.airlift.discovery.store.StoreConfig;
+import io.airlift.discovery.store.Version;
+import io.airlift.units.DataSize;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static io.airlift.testing.FileUtils.deleteRecursively;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestAnnouncementLog
+{
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final long MAX_AGE_MILLIS = 60_000;
+
+    private File directory;
+    private AnnouncementLog announcementLog;
+
+    @BeforeMethod
+    public void setUp()
+            throws IOException
+    {
+        directory = Files.createTempDirectory("announcement-log").toFile();
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        if (announcementLog != null) {
+            announcementLog.stop();
+            announcementLog = null;
+        }
+        deleteRecursively(directory);
+    }
+
+    @Test
+    public void testReplay()
+    {
+        Entry a = entry("a", "value-a", 1);
+        Entry b = entry("b", "value-b", 1);
+        Entry newA = entry("a", "new-value-a", 2);
+
+        assertEquals(reopen(), ImmutableSet.of());
+        append(a, b, newA);
+
+        assertEquals(reopen(), ImmutableSet.of(newA, b));
+        assertEquals(announcementLog.getReplayedEntries(), 2);
+    }
+
+    @Test
+    public void testReplayAcrossSegments()
+    {
+        Entry a = entry("a", "value-a", 1);
+        Entry b = entry("b", "value-b", 1);
+        reopen();
+        append(a);
+        reopen();
+        append(b);
+
+        assertEquals(reopen(), ImmutableSet.of(a, b));
+        assertEquals(segments().size(), 3);
+    }
+
+    @Test
+    public void testSmallSegmentsRoll()
+    {
+        announcementLog = createLog(new DataSize(64, DataSize.Unit.BYTE));
+        announcementLog.open();
+        Entry a = entry("a", "value-a", 1);
+        Entry b = entry("b", "value-b", 1);
+        append(a, b);
+        assertEquals(announcementLog.getAppendFailures(), 0);
+        assertTrue(segments().size() >= 2, "segments: " + segments());
+
+        assertEquals(reopen(), ImmutableSet.of(a, b));
+    }
+
+    @Test
+    public void testTruncatedRecord()
+            throws IOException
+    {
+        Entry a = entry("a", "value-a", 1);
+        Entry b = entry("b", "value-b", 1);
+        reopen();
+        append(a, b);
+        announcementLog.stop();
+
+        // cut the segment in the middle of the second record, as a crash while growing the file would
+        File segment = segments().get(segments().size() - 1);
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(recordSize(a) + RECORD_HEADER_SIZE + recordSize(b) / 2);
+        }
+
+        assertEquals(reopen(), ImmutableSet.of(a));
+    }
+
+    @Test
+    public void testCorruptRecord()
+            throws IOException
+    {
+        Entry a = entry("a", "value-a", 1);
+        Entry b = entry("b", "value-b", 1);
+        Entry c = entry("c", "value-c", 1);
+        Entry d = entry("d", "value-d", 1);
+        reopen();
+        append(a, b, c);
+        reopen();
+        append(d);
+        announcementLog.stop();
+
+        // flip a byte inside the second record of the first segment
+        File segment = segments().get(0);
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            long position = recordSize(a) + RECORD_HEADER_SIZE + RECORD_HEADER_SIZE + 2;
+            file.seek(position);
+            int value = file.read();
+            file.seek(position);
+            file.write(value ^ 0xff);
+        }
+
+        // replay of the torn segment stops at the bad record, later segments are still replayed
+        assertEquals(reopen(), ImmutableSet.of(a, d));
+    }
+
+    @Test
+    public void testCompaction()
+            throws IOException
+    {
+        long now = System.currentTimeMillis();
+        Entry a = entry("a", "value-a", 1);
+        Entry newA = entry("a", "new-value-a", 2);
+        Entry b = entry("b", "value-b", 1);
+        Entry expired = new Entry(bytes("c"), bytes("value-c"), new Version(1), now - 2 * MAX_AGE_MILLIS, MAX_AGE_MILLIS);
+        Entry expiredTombstone = new Entry(bytes("d"), null, new Version(1), now - 2 * new StoreConfig().getTombstoneMaxAge().toMillis(), null);
+
+        reopen();
+        append(a, b, expired);
+        reopen();
+        append(newA, expiredTombstone);
+        List<File> before = segments();
+        assertEquals(before.size(), 2);
+        long sealedBytes = before.get(0).length() + before.get(1).length();
+
+        announcementLog.compact();
+        assertEquals(announcementLog.getCompactions(), 1);
+
+        // the sealed segments are rewritten as one under the newest sealed name, which sorts before the new active one
+        List<File> after = segments();
+        assertEquals(after.size(), 2);
+        assertEquals(after.get(0).getName(), before.get(1).getName());
+        assertTrue(after.get(0).length() < sealedBytes, "compacted segment is not smaller");
+        // only the latest a and b are left, followed by the end marker
+        assertEquals(after.get(0).length(), recordSize(newA) + recordSize(b) + 3 * RECORD_HEADER_SIZE);
+
+        // entries appended after compaction still win over the compacted ones
+        Entry newerB = entry("b", "new-value-b", 2);
+        append(newerB);
+
+        assertEquals(reopen(), ImmutableSet.of(newA, newerB));
+        assertEquals(announcementLog.getReplayedEntries(), 2);
+    }
+
+    @Test
+    public void testCompactedSegmentReplays()
+            throws IOException
+    {
+        Entry a = entry("a", "value-a", 1);
+        Entry b = entry("b", "value-b", 1);
+        reopen();
+        append(a);
+        reopen();
+        append(b);
+        announcementLog.compact();
+        announcementLog.compact();
+
+        assertEquals(reopen(), ImmutableSet.of(a, b));
+    }
+
+    @Test
+    public void testDisabled()
+    {
+        ConflictResolver resolver = new ConflictResolver();
+        AnnouncementLog disabled = new AnnouncementLog(new EmbeddedDiscoveryConfig(), new StoreConfig(), resolver);
+        assertFalse(disabled.isEnabled());
+        assertEquals(disabled.open(), ImmutableList.of());
+        disabled.append(entry("a", "value-a", 1));
+        assertEquals(disabled.getAppends(), 0);
+    }
+
+    private Set<Entry> reopen()
+    {
+        if (announcementLog != null) {
+            announcementLog.stop();
+        }
+        announcementLog = createLog(new DataSize(64, DataSize.Unit.KILOBYTE));
+        return ImmutableSet.copyOf(announcementLog.open());
+    }
+
+    private AnnouncementLog createLog(DataSize segmentSize)
+    {
+        EmbeddedDiscoveryConfig config = new EmbeddedDiscoveryConfig()
+                .setAnnouncementLogDirectory(directory.getPath())
+                .setAnnouncementLogSegmentSize(segmentSize);
+        return new AnnouncementLog(config, new StoreConfig(), new ConflictResolver());
+    }
+
+    private void append(Entry... entries)
+    {
+        for (Entry entry : entries) {
+            announcementLog.append(entry);
+        }
+    }
+
+    private List<File> segments()
+    {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith("announcements-") && name.endsWith(".log"));
+        Arrays.sort(files);
+        return ImmutableList.copyOf(files);
+    }
+
+    private static int recordSize(Entry entry)
+            throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        StoreDelta.writeEntry(new DataOutputStream(bytes), entry);
+        return bytes.size();
+    }
+
+    private static Entry entry(String key, String value, long version)
+    {
+        return new Entry(bytes(key), bytes(value), new Version(version), System.currentTimeMillis(), MAX_AGE_MILLIS);
+    }
+
+    private static byte[] bytes(String value)
+    {
+        return value.getBytes(UTF_8);
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.discovery;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.airlift.discovery.client.ServiceDescriptor;
+import io.airlift.discovery.client.ServiceSelector;
+import io.airlift.discovery.client.ServiceState;
+import io.airlift.discovery.store.Entry;
+import io.airlift.discovery.store.StoreConfig;
+import io.airlift.discovery.store.Version;
+import io.airlift.http.client.HttpStatus;
+import io.airlift.http.client.Request;
+import io.airlift.http.client.Response;
+import io.airlift.http.client.testing.TestingHttpClient;
+import io.airlift.http.client.testing.TestingResponse;
+import io.airlift.json.ObjectMapperProvider;
+import io.airlift.node.NodeConfig;
+import io.airlift.node.NodeInfo;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.UUID;
+
+import static com.wrmsr.neurosis.discovery.TestSequencedLocalStore.bytes;
+import static com.wrmsr.neurosis.discovery.TestSequencedLocalStore.createStore;
+import static com.wrmsr.neurosis.discovery.TestSequencedLocalStore.entry;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class TestDeltaReplicator
+{
+    private SequencedLocalStore server;
+    private SequencedLocalStore replica;
+    private DeltaReplicator replicator;
+    private boolean deltaSupported;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        server = createStore();
+        replica = createStore();
+        deltaSupported = true;
+        ServiceDescriptor descriptor = new ServiceDescriptor(
+                UUID.randomUUID(),
+                "server",
+                "discovery",
+                "general",
+                null,
+                ServiceState.RUNNING,
+                ImmutableMap.of("http", "http://server:8080"));
+        replicator = new DeltaReplicator(
+                new NodeInfo(new NodeConfig().setEnvironment("test").setNodeId("replica")),
+                new FixedServiceSelector(ImmutableList.of(descriptor)),
+                new TestingHttpClient(this::handle),
+                replica,
+                new StoreConfig());
+    }
+
+    @Test
+    public void testDeltaSync()
+    {
+        Entry a = entry("a", "value-a", 1);
+        Entry b = entry("b", "value-b", 1);
+        server.put(a);
+        server.put(b);
+
+        replicator.synchronize();
+        assertEquals(replica.get(bytes("a")), a);
+        assertEquals(replica.get(bytes("b")), b);
+        assertEquals(replicator.getDeltaSyncs(), 1);
+        assertEquals(replicator.getEntriesReceived(), 2);
+
+        // only what changed since is sent again
+        Entry newA = entry("a", "new-value-a", 2);
+        server.put(newA);
+        replicator.synchronize();
+        assertEquals(replica.get(bytes("a")), newA);
+        assertEquals(replicator.getDeltaSyncs(), 2);
+        assertEquals(replicator.getEntriesReceived(), 3);
+
+        replicator.synchronize();
+        assertEquals(replicator.getEntriesReceived(), 3);
+        assertEquals(replicator.getFullSyncs(), 0);
+    }
+
+    @Test
+    public void testRefresh()
+    {
+        server.put(entry("a", "value-a", 1));
+        replicator.synchronize();
+
+        Entry reannounced = entry("a", "value-a", 2);
+        server.put(reannounced);
+        replicator.synchronize();
+
+        assertEquals(replica.get(bytes("a")), reannounced);
+        assertEquals(replicator.getEntriesReceived(), 1);
+        assertEquals(replicator.getRefreshesReceived(), 1);
+    }
+
+    @Test
+    public void testRefusedRefreshResyncs()
+    {
+        server.put(entry("a", "value-a", 1));
+        replicator.synchronize();
+
+        // the replica loses the value the server assumes it has
+        replica.delete(bytes("a"), new Version(1));
+        Entry reannounced = entry("a", "value-a", 2);
+        server.put(reannounced);
+
+        replicator.synchronize();
+        assertEquals(replicator.getRefreshesReceived(), 1);
+        assertNull(replica.get(bytes("a")));
+
+        // the next sync starts over and gets the value in full
+        replicator.synchronize();
+        assertEquals(replica.get(bytes("a")), reannounced);
+        assertEquals(replicator.getEntriesReceived(), 2);
+        assertEquals(replicator.getFullSyncs(), 0);
+    }
+
+    @Test
+    public void testServerRestartResyncs()
+    {
+        server.put(entry("a", "value-a", 1));
+        replicator.synchronize();
+
+        // a restarted server has a new epoch, whose sequences restart
+        server = createStore();
+        Entry b = entry("b", "value-b", 1);
+        server.put(b);
+        replicator.synchronize();
+
+        assertEquals(replica.get(bytes("b")), b);
+    }
+
+    @Test
+    public void testFullSyncWithoutDeltaEndpoint()
+    {
+        deltaSupported = false;
+        Entry a = entry("a", "value-a", 1);
+        server.put(a);
+
+        replicator.synchronize();
+        assertEquals(replica.get(bytes("a")), a);
+        assertEquals(replicator.getFullSyncs(), 1);
+        assertEquals(replicator.getDeltaSyncs(), 0);
+    }
+
+    private Response handle(Request request)
+    {
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            String path = request.getUri().getPath();
+            if (path.equals("/v1/store-delta/dynamic")) {
+                if (!deltaSupported) {
+                    return new TestingResponse(HttpStatus.NOT_FOUND, ImmutableListMultimap.of(), new byte[0]);
+                }
+                long epoch = 0;
+                long since = 0;
+                for (String parameter : request.getUri().getQuery().split("&")) {
+                    String[] parts = parameter.split("=");
+                    if (parts[0].equals("epoch")) {
+                        epoch = Long.parseLong(parts[1]);
+                    }
+                    else if (parts[0].equals("since")) {
+                        since = Long.parseLong(parts[1]);
+                    }
+                }
+                new StoreDeltaResource(server, new StoreConfig()).getChanges(epoch, since).write(output);
+            }
+            else if (path.equals("/v1/store/dynamic")) {
+                new ObjectMapperProvider().get().writeValue(output, ImmutableList.copyOf(server.getAll()));
+            }
+            else {
+                return new TestingResponse(HttpStatus.NOT_FOUND, ImmutableListMultimap.of(), new byte[0]);
+            }
+            return new TestingResponse(HttpStatus.OK, ImmutableListMultimap.of(), output.toByteArray());
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static class FixedServiceSelector
+            implements ServiceSelector
+    {
+        private final List<ServiceDescriptor> services;
+
+        private FixedServiceSelector(List<ServiceDescriptor> services)
+        {
+            this.services = services;
+        }
+
+        @Override
+        public String getType()
+        {
+            return "discovery";
+        }
+
+        @Override
+        public String getPool()
+        {
+            return "general";
+        }
+
+        @Override
+        public List<ServiceDescriptor> selectAllServices()
+        {
+            return services;
+        }
+
+        @Override
+        public ListenableFuture<List<ServiceDescriptor>> refresh()
+        {
+            return Futures.immediateFuture(services);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.discovery;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.airlift.discovery.server.DiscoveryConfig;
+import io.airlift.discovery.server.DynamicAnnouncement;
+import io.airlift.discovery.server.DynamicServiceAnnouncement;
+import io.airlift.discovery.server.Id;
+import io.airlift.discovery.server.Node;
+import io.airlift.discovery.server.Service;
+import io.airlift.discovery.store.DistributedStore;
+import io.airlift.discovery.store.StoreConfig;
+import org.joda.time.DateTime;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.wrmsr.neurosis.discovery.TestSequencedLocalStore.createStore;
+import static io.airlift.json.JsonCodec.listJsonCodec;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestDiscoveryWatch
+{
+    private IndexedDynamicStore store;
+    private DiscoveryWatch watch;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        store = createIndexedStore();
+        watch = new DiscoveryWatch(store, new EmbeddedDiscoveryConfig());
+    }
+
+    @Test
+    public void testWaitForChange()
+            throws Exception
+    {
+        long version = watch.getVersion();
+        CompletableFuture<DiscoveryWatch.Snapshot> future = watch.waitForChange(version);
+        assertFalse(future.isDone());
+        assertEquals(watch.getWaiterCount(), 1);
+
+        // a version other than the current one is answered right away
+        assertTrue(watch.waitForChange(version - 1).isDone());
+        assertEquals(watch.getWaiterCount(), 1);
+
+        // refreshing without a change keeps the version and the wait
+        watch.refresh();
+        assertFalse(future.isDone());
+        assertEquals(watch.getVersion(), version);
+
+        Service service = announce(store, "worker");
+        watch.refresh();
+        DiscoveryWatch.Snapshot snapshot = future.get(10, TimeUnit.SECONDS);
+        assertEquals(snapshot.getVersion(), version + 1);
+        assertEquals(snapshot.getServices(), ImmutableSet.of(service));
+        assertEquals(watch.getWaiterCount(), 0);
+    }
+
+    @Test
+    public void testCancelledWaitIsDropped()
+            throws Exception
+    {
+        long version = watch.getVersion();
+        CompletableFuture<DiscoveryWatch.Snapshot> abandoned = watch.waitForChange(version);
+        CompletableFuture<DiscoveryWatch.Snapshot> waiting = watch.waitForChange(version);
+        assertEquals(watch.getWaiterCount(), 2);
+
+        abandoned.cancel(false);
+        assertEquals(watch.getWaiterCount(), 1);
+
+        announce(store, "worker");
+        watch.refresh();
+        assertEquals(waiting.get(10, TimeUnit.SECONDS).getVersion(), version + 1);
+        assertTrue(abandoned.isCancelled());
+        assertEquals(watch.getWaiterCount(), 0);
+    }
+
+    @Test
+    public void testListeners()
+    {
+        ImmutableSet.Builder<Long> versions = ImmutableSet.builder();
+        watch.addListener(snapshot -> versions.add(snapshot.getVersion()));
+
+        announce(store, "worker");
+        watch.refresh();
+        watch.refresh();
+        assertEquals(versions.build(), ImmutableSet.of(watch.getVersion()));
+    }
+
+    static IndexedDynamicStore createIndexedStore()
+    {
+        DistributedStore store = new DistributedStore("dynamic", createStore(), entry -> { }, new StoreConfig(), () -> new DateTime());
+        return new IndexedDynamicStore(store, new DiscoveryConfig(), listJsonCodec(Service.class));
+    }
+
+    static Service announce(IndexedDynamicStore store, String type)
+    {
+        Id<Node> nodeId = Id.random();
+        DynamicServiceAnnouncement service = new DynamicServiceAnnouncement(Id.random(), type, ImmutableMap.of("http", "http://" + nodeId + ":8080"));
+        store.put(nodeId, new DynamicAnnouncement("test", "general", "/" + nodeId, ImmutableSet.of(service)));
+        return store.get(nodeId).iterator().next();
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.discovery;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.airlift.discovery.server.DiscoveryConfig;
+import io.airlift.discovery.server.DynamicAnnouncement;
+import io.airlift.discovery.server.DynamicServiceAnnouncement;
+import io.airlift.discovery.server.Id;
+import io.airlift.discovery.server.Node;
+import io.airlift.discovery.server.Service;
+import io.airlift.discovery.store.DistributedStore;
+import io.airlift.discovery.store.StoreConfig;
+import io.airlift.json.JsonCodec;
+import org.joda.time.DateTime;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static com.wrmsr.neurosis.discovery.TestSequencedLocalStore.createStore;
+import static io.airlift.json.JsonCodec.listJsonCodec;
+import static com.wrmsr.neurosis.util.ImmutableCollectors.toImmutableList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+
+public class TestIndexedDynamicStore
+{
+    private static final JsonCodec<List<Service>> CODEC = listJsonCodec(Service.class);
+
+    private DistributedStore distributedStore;
+    private IndexedDynamicStore store;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        distributedStore = new DistributedStore("dynamic", createStore(), entry -> { }, new StoreConfig(), () -> new DateTime());
+        store = new IndexedDynamicStore(distributedStore, new DiscoveryConfig(), CODEC);
+    }
+
+    @Test
+    public void testIndex()
+    {
+        Id<Node> first = Id.random();
+        Id<Node> second = Id.random();
+        store.put(first, announcement("general", "worker", "coordinator"));
+        store.put(second, announcement("other", "worker"));
+
+        assertEquals(store.getServiceCount(), 3);
+        assertEquals(store.getNodeCount(), 2);
+        assertEquals(types(store.getAll()), ImmutableList.of("coordinator", "worker", "worker"));
+        assertEquals(types(store.get("worker")), ImmutableList.of("worker", "worker"));
+        assertEquals(types(store.get("worker", "other")), ImmutableList.of("worker"));
+        assertEquals(store.get("worker", "missing"), ImmutableSet.of());
+        assertEquals(store.get("missing", "general"), ImmutableSet.of());
+        assertEquals(types(store.get(first)), ImmutableList.of("coordinator", "worker"));
+
+        store.delete(first);
+        assertEquals(types(store.getAll()), ImmutableList.of("worker"));
+        assertEquals(store.get(first), ImmutableSet.of());
+    }
+
+    @Test
+    public void testReannouncementKeepsIndex()
+    {
+        Id<Node> node = Id.random();
+        DynamicAnnouncement announcement = announcement("general", "worker");
+        store.put(node, announcement);
+        long rebuilds = store.getRebuilds();
+        Set<Service> services = store.getAll();
+
+        store.put(node, announcement);
+        assertEquals(store.getRebuilds(), rebuilds);
+        // reads hand out the shared index
+        assertSame(store.getAll(), services);
+
+        store.reindex();
+        assertEquals(store.getRebuilds(), rebuilds);
+        assertEquals(store.getDecodes(), 0);
+    }
+
+    @Test
+    public void testReindex()
+    {
+        Id<Node> local = Id.random();
+        store.put(local, announcement("general", "worker"));
+
+        // as replicated from another discovery server, which bypasses the index
+        Id<Node> replicated = Id.random();
+        List<Service> services = ImmutableList.of(new Service(Id.random(), replicated, "coordinator", "general", "/" + replicated, ImmutableMap.of()));
+        distributedStore.put(replicated.getBytes(), CODEC.toJsonBytes(services));
+        assertEquals(types(store.getAll()), ImmutableList.of("worker"));
+
+        store.reindex();
+        assertEquals(types(store.getAll()), ImmutableList.of("coordinator", "worker"));
+        assertEquals(store.get(replicated), ImmutableSet.copyOf(services));
+        assertEquals(store.getDecodes(), 1);
+
+        // unchanged entries are not decoded again
+        store.reindex();
+        assertEquals(store.getDecodes(), 1);
+
+        distributedStore.delete(replicated.getBytes());
+        store.reindex();
+        assertEquals(types(store.getAll()), ImmutableList.of("worker"));
+    }
+
+    private static DynamicAnnouncement announcement(String pool, String... types)
+    {
+        ImmutableSet.Builder<DynamicServiceAnnouncement> services = ImmutableSet.builder();
+        for (String type : types) {
+            services.add(new DynamicServiceAnnouncement(Id.random(), type, ImmutableMap.of()));
+        }
+        return new DynamicAnnouncement("test", pool, "/location", services.build());
+    }
+
+    private static List<String> types(Iterable<Service> services)
+    {
+        return ImmutableList.copyOf(services).stream()
+                .map(Service::getType)
+                .sorted()
+                .collect(toImmutableList());
+    }
+}
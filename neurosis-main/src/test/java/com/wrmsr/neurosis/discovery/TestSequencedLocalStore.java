@@ -0,0 +1,153 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.discovery;
+
+import com.google.common.collect.ImmutableList;
+import io.airlift.discovery.store.ConflictResolver;
+import io.airlift.discovery.store.Entry;
+import io.airlift.discovery.store.StoreConfig;
+import io.airlift.discovery.store.Version;
+import org.testng.annotations.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class TestSequencedLocalStore
+{
+    private static final long START_MILLIS = System.currentTimeMillis();
+
+    @Test
+    public void testChangesWithinEpoch()
+    {
+        SequencedLocalStore store = createStore();
+        Entry a = entry("a", "value-a", 1);
+        Entry b = entry("b", "value-b", 1);
+        store.put(a);
+        store.put(b);
+        long since = store.getSequence();
+
+        StoreDelta delta = store.getChanges(store.getEpoch(), since);
+        assertEquals(delta.getEpoch(), store.getEpoch());
+        assertEquals(delta.getSequence(), since);
+        assertEquals(delta.getEntries(), ImmutableList.of());
+        assertEquals(delta.getRefreshes(), ImmutableList.of());
+
+        Entry newA = entry("a", "new-value-a", 2);
+        store.put(newA);
+        delta = store.getChanges(store.getEpoch(), since);
+        assertEquals(delta.getSequence(), since + 1);
+        assertEquals(delta.getEntries(), ImmutableList.of(newA));
+        assertEquals(delta.getRefreshes(), ImmutableList.of());
+    }
+
+    @Test
+    public void testForeignEpochGetsEverything()
+    {
+        SequencedLocalStore store = createStore();
+        Entry a = entry("a", "value-a", 1);
+        Entry b = entry("b", "value-b", 1);
+        store.put(a);
+        store.put(b);
+
+        // sequences of another epoch, such as the store's before a restart, say nothing about this one
+        StoreDelta delta = store.getChanges(store.getEpoch() + 1, store.getSequence());
+        assertEquals(delta.getEpoch(), store.getEpoch());
+        assertEquals(delta.getEntries(), ImmutableList.of(a, b));
+        assertEquals(delta.getRefreshes(), ImmutableList.of());
+    }
+
+    @Test
+    public void testUnchangedValueIsRefresh()
+    {
+        SequencedLocalStore store = createStore();
+        store.put(entry("a", "value-a", 1));
+        long since = store.getSequence();
+
+        // re-announced with the same value
+        Entry reannounced = entry("a", "value-a", 2);
+        store.put(reannounced);
+
+        StoreDelta delta = store.getChanges(store.getEpoch(), since);
+        assertEquals(delta.getEntries(), ImmutableList.of());
+        assertEquals(delta.getRefreshes().size(), 1);
+        StoreDelta.Refresh refresh = delta.getRefreshes().get(0);
+        assertEquals(refresh.getKey(), bytes("a"));
+        assertEquals(refresh.getValueHash(), StoreDelta.hashValue(bytes("value-a")));
+        assertEquals(refresh.getTimestamp(), reannounced.getTimestamp());
+
+        // a replica that has not seen the value at all gets it in full
+        delta = store.getChanges(store.getEpoch(), 0);
+        assertEquals(delta.getEntries(), ImmutableList.of(reannounced));
+        assertEquals(delta.getRefreshes(), ImmutableList.of());
+    }
+
+    @Test
+    public void testChangedValueIsEntry()
+    {
+        SequencedLocalStore store = createStore();
+        store.put(entry("a", "value-a", 1));
+        long since = store.getSequence();
+        store.put(entry("a", "value-a", 2));
+        // changed back and forth after the replica's position still needs the value
+        Entry changed = entry("a", "other", 3);
+        store.put(changed);
+
+        StoreDelta delta = store.getChanges(store.getEpoch(), since);
+        assertEquals(delta.getEntries(), ImmutableList.of(changed));
+        assertEquals(delta.getRefreshes(), ImmutableList.of());
+    }
+
+    @Test
+    public void testOlderVersionIsIgnored()
+    {
+        SequencedLocalStore store = createStore();
+        Entry current = entry("a", "value-a", 2);
+        store.put(current);
+        long sequence = store.getSequence();
+
+        store.put(entry("a", "stale", 1));
+        assertEquals(store.getSequence(), sequence);
+        assertEquals(store.get(bytes("a")), current);
+    }
+
+    @Test
+    public void testDelete()
+    {
+        SequencedLocalStore store = createStore();
+        store.put(entry("a", "value-a", 1));
+        store.put(entry("b", "value-b", 1));
+
+        store.delete(bytes("a"), new Version(1));
+        assertNull(store.get(bytes("a")));
+        assertEquals(store.getChanges(store.getEpoch(), 0).getEntries(), ImmutableList.of(entry("b", "value-b", 1)));
+    }
+
+    static SequencedLocalStore createStore()
+    {
+        ConflictResolver resolver = new ConflictResolver();
+        return new SequencedLocalStore(resolver, new AnnouncementLog(new EmbeddedDiscoveryConfig(), new StoreConfig(), resolver));
+    }
+
+    static Entry entry(String key, String value, long version)
+    {
+        // recent enough not to have expired
+        return new Entry(bytes(key), value == null ? null : bytes(value), new Version(version), START_MILLIS + version, 60_000L);
+    }
+
+    static byte[] bytes(String value)
+    {
+        return value.getBytes(UTF_8);
+    }
+}
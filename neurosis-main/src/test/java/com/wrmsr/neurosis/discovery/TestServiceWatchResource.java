@@ -0,0 +1,136 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.discovery;
+
+import com.google.common.collect.ImmutableSet;
+import com.wrmsr.neurosis.server.TestingAsyncResponse;
+import io.airlift.discovery.server.Service;
+import io.airlift.node.NodeInfo;
+import io.airlift.units.Duration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.wrmsr.neurosis.discovery.TestDiscoveryWatch.announce;
+import static com.wrmsr.neurosis.discovery.TestDiscoveryWatch.createIndexedStore;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+public class TestServiceWatchResource
+{
+    private IndexedDynamicStore store;
+    private DiscoveryWatch watch;
+    private ServiceWatchResource resource;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        store = createIndexedStore();
+        watch = new DiscoveryWatch(store, new EmbeddedDiscoveryConfig());
+        resource = new ServiceWatchResource(watch, new NodeInfo("test"));
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        resource.stop();
+        watch.stop();
+    }
+
+    @Test
+    public void testWithoutVersion()
+            throws Exception
+    {
+        Service service = announce(store, "worker");
+        watch.refresh();
+
+        TestingAsyncResponse asyncResponse = new TestingAsyncResponse();
+        resource.watchServices(null, null, asyncResponse);
+        WatchedServices services = entity(asyncResponse);
+        assertEquals(services.getEnvironment(), "test");
+        assertEquals(services.getVersion(), watch.getVersion());
+        assertEquals(services.getServices(), ImmutableSet.of(service));
+    }
+
+    @Test
+    public void testWaitsForChange()
+            throws Exception
+    {
+        long version = watch.getVersion();
+        TestingAsyncResponse asyncResponse = new TestingAsyncResponse();
+        resource.watchServices(version, null, asyncResponse);
+        assertFalse(asyncResponse.isResumed());
+        assertEquals(asyncResponse.getTimeoutMillis(), TimeUnit.SECONDS.toMillis(30));
+
+        Service service = announce(store, "worker");
+        watch.refresh();
+        WatchedServices services = entity(asyncResponse);
+        assertEquals(services.getVersion(), version + 1);
+        assertEquals(services.getServices(), ImmutableSet.of(service));
+        assertEquals(watch.getWaiterCount(), 0);
+    }
+
+    @Test
+    public void testTimeoutDropsWait()
+            throws Exception
+    {
+        long version = watch.getVersion();
+        TestingAsyncResponse asyncResponse = new TestingAsyncResponse();
+        resource.watchServices(version, new Duration(1, TimeUnit.HOURS), asyncResponse);
+        // waits are capped
+        assertEquals(asyncResponse.getTimeoutMillis(), TimeUnit.MINUTES.toMillis(5));
+        assertEquals(watch.getWaiterCount(), 1);
+
+        asyncResponse.timeout();
+        WatchedServices services = entity(asyncResponse);
+        assertEquals(services.getVersion(), version);
+        assertEquals(services.getServices(), ImmutableSet.of());
+        assertEquals(watch.getWaiterCount(), 0);
+    }
+
+    @Test
+    public void testTypeAndPool()
+            throws Exception
+    {
+        Service worker = announce(store, "worker");
+        announce(store, "coordinator");
+        watch.refresh();
+
+        TestingAsyncResponse asyncResponse = new TestingAsyncResponse();
+        resource.watchServices("worker", null, null, asyncResponse);
+        assertEquals(entity(asyncResponse).getServices(), ImmutableSet.of(worker));
+
+        asyncResponse = new TestingAsyncResponse();
+        resource.watchServices("worker", "other", null, null, asyncResponse);
+        assertEquals(entity(asyncResponse).getServices(), ImmutableSet.of());
+
+        // a change to another type wakes the watch, which answers with the same services
+        long version = watch.getVersion();
+        asyncResponse = new TestingAsyncResponse();
+        resource.watchServices("worker", "general", version, null, asyncResponse);
+        announce(store, "coordinator");
+        watch.refresh();
+        WatchedServices services = entity(asyncResponse);
+        assertEquals(services.getVersion(), version + 1);
+        assertEquals(services.getServices(), ImmutableSet.of(worker));
+    }
+
+    private static WatchedServices entity(TestingAsyncResponse asyncResponse)
+            throws Exception
+    {
+        return (WatchedServices) asyncResponse.getResponse().getEntity();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.discovery;
+
+import com.google.common.collect.ImmutableList;
+import io.airlift.discovery.store.Entry;
+import io.airlift.discovery.store.Version;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.fail;
+
+public class TestStoreDelta
+{
+    @Test
+    public void testRoundTrip()
+            throws Exception
+    {
+        Entry live = new Entry(bytes("a"), bytes("value-a"), new Version(3), 1000, 30_000L);
+        Entry forever = new Entry(bytes("b"), bytes("value-b"), new Version(4), 2000, null);
+        Entry tombstone = new Entry(bytes("c"), null, new Version(5), 3000, null);
+        Entry empty = new Entry(bytes("d"), new byte[0], new Version(6), 4000, 1L);
+        StoreDelta.Refresh refresh = new StoreDelta.Refresh(bytes("e"), StoreDelta.hashValue(bytes("value-e")), new Version(7), 5000, 60_000L);
+        StoreDelta.Refresh tombstoneRefresh = new StoreDelta.Refresh(bytes("f"), StoreDelta.hashValue(null), new Version(8), 6000, null);
+
+        StoreDelta delta = roundTrip(new StoreDelta(-42, 17, ImmutableList.of(live, forever, tombstone, empty), ImmutableList.of(refresh, tombstoneRefresh)));
+
+        assertEquals(delta.getEpoch(), -42);
+        assertEquals(delta.getSequence(), 17);
+        assertEquals(delta.getEntries(), ImmutableList.of(live, forever, tombstone, empty));
+        assertNull(delta.getEntries().get(1).getMaxAgeInMs());
+        assertNull(delta.getEntries().get(2).getValue());
+        assertEquals(delta.getEntries().get(3).getValue(), new byte[0]);
+
+        assertEquals(delta.getRefreshes().size(), 2);
+        assertRefresh(delta.getRefreshes().get(0), refresh);
+        assertRefresh(delta.getRefreshes().get(1), tombstoneRefresh);
+        assertNull(delta.getRefreshes().get(1).getMaxAgeInMs());
+    }
+
+    @Test
+    public void testEmptyRoundTrip()
+            throws Exception
+    {
+        StoreDelta delta = roundTrip(new StoreDelta(0, 0, ImmutableList.of(), ImmutableList.of()));
+        assertEquals(delta.getEntries(), ImmutableList.of());
+        assertEquals(delta.getRefreshes(), ImmutableList.of());
+    }
+
+    @Test
+    public void testUnsupportedFormatVersion()
+    {
+        try {
+            StoreDelta.readFrom(new ByteArrayInputStream(new byte[] {2, 0, 0, 0}));
+            fail("expected IOException");
+        }
+        catch (IOException e) {
+            assertEquals(e.getMessage(), "Unsupported store delta format version: 2");
+        }
+    }
+
+    @Test
+    public void testRefreshApply()
+    {
+        Entry current = new Entry(bytes("a"), bytes("value"), new Version(1), 1000, 30_000L);
+        StoreDelta.Refresh refresh = new StoreDelta.Refresh(bytes("a"), StoreDelta.hashValue(bytes("value")), new Version(2), 2000, 60_000L);
+
+        assertEquals(refresh.apply(current), new Entry(bytes("a"), bytes("value"), new Version(2), 2000, 60_000L));
+        // without the value the refresh was sent for, it cannot be applied
+        assertNull(refresh.apply(null));
+        assertNull(refresh.apply(new Entry(bytes("a"), bytes("other"), new Version(1), 1000, 30_000L)));
+    }
+
+    private static StoreDelta roundTrip(StoreDelta delta)
+            throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        delta.writeTo(output);
+        return StoreDelta.readFrom(new ByteArrayInputStream(output.toByteArray()));
+    }
+
+    private static void assertRefresh(StoreDelta.Refresh actual, StoreDelta.Refresh expected)
+    {
+        assertEquals(actual.getKey(), expected.getKey());
+        assertEquals(actual.getValueHash(), expected.getValueHash());
+        assertEquals(actual.getTimestamp(), expected.getTimestamp());
+        assertEquals(actual.getMaxAgeInMs(), expected.getMaxAgeInMs());
+    }
+
+    private static byte[] bytes(String value)
+    {
+        return value.getBytes(UTF_8);
+    }
+}
@@ -0,0 +1,450 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.failureDetector;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.airlift.discovery.client.ServiceDescriptor;
+import io.airlift.discovery.client.ServiceSelector;
+import io.airlift.discovery.client.ServiceState;
+import io.airlift.node.NodeInfo;
+import io.airlift.units.Duration;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.Executors.newScheduledThreadPool;
+
+/**
+ * Runs a {@link HeartbeatFailureDetector} against in-process simulated nodes, replacing the network with a transport
+ * that answers on a timer after each node's simulated latency, loss and gc pauses. A fraction of the nodes crash at
+ * random times during the run, and the result reports how quickly they were detected, how often healthy nodes were
+ * failed, and how much cpu the detector's own threads used.
+ */
+public class FailureDetectorSimulation
+{
+    private static final String DETECTOR_THREAD_PREFIX = "failure-detector";
+
+    public static class NodeProfile
+    {
+        private final Duration latency;
+        private final Duration jitter;
+        private final double lossRate;
+        private final Duration gcPauseInterval;
+        private final Duration gcPauseDuration;
+        private final Duration timeout;
+
+        /**
+         * @param latency fixed part of the heartbeat round trip
+         * @param jitter mean of the exponentially distributed extra round trip
+         * @param lossRate fraction of heartbeats that go unanswered until the timeout
+         * @param gcPauseInterval mean time between gc pauses, or zero for none
+         * @param gcPauseDuration how long each gc pause holds back answers
+         * @param timeout how long an unanswered heartbeat takes to fail
+         */
+        public NodeProfile(Duration latency, Duration jitter, double lossRate, Duration gcPauseInterval, Duration gcPauseDuration, Duration timeout)
+        {
+            checkArgument(lossRate >= 0 && lossRate <= 1, "lossRate must be between 0 and 1");
+            this.latency = requireNonNull(latency, "latency is null");
+            this.jitter = requireNonNull(jitter, "jitter is null");
+            this.lossRate = lossRate;
+            this.gcPauseInterval = requireNonNull(gcPauseInterval, "gcPauseInterval is null");
+            this.gcPauseDuration = requireNonNull(gcPauseDuration, "gcPauseDuration is null");
+            this.timeout = requireNonNull(timeout, "timeout is null");
+        }
+
+        public static NodeProfile healthy()
+        {
+            return new NodeProfile(
+                    new Duration(1, TimeUnit.MILLISECONDS),
+                    new Duration(1, TimeUnit.MILLISECONDS),
+                    0,
+                    new Duration(0, TimeUnit.SECONDS),
+                    new Duration(0, TimeUnit.SECONDS),
+                    new Duration(1, TimeUnit.SECONDS));
+        }
+    }
+
+    public static class Result
+    {
+        private final int nodeCount;
+        private final Duration duration;
+        private final List<Duration> detectionTimes;
+        private final int crashedCount;
+        private final int falsePositives;
+        private final long detectorCpuNanos;
+
+        private Result(int nodeCount, Duration duration, List<Duration> detectionTimes, int crashedCount, int falsePositives, long detectorCpuNanos)
+        {
+            this.nodeCount = nodeCount;
+            this.duration = duration;
+            this.detectionTimes = ImmutableList.copyOf(detectionTimes);
+            this.crashedCount = crashedCount;
+            this.falsePositives = falsePositives;
+            this.detectorCpuNanos = detectorCpuNanos;
+        }
+
+        public int getCrashedCount()
+        {
+            return crashedCount;
+        }
+
+        public int getDetectedCount()
+        {
+            return detectionTimes.size();
+        }
+
+        public int getFalsePositives()
+        {
+            return falsePositives;
+        }
+
+        /**
+         * False positives per healthy node per hour.
+         */
+        public double getFalsePositiveRate()
+        {
+            double nodeHours = (nodeCount - crashedCount) * duration.getValue(TimeUnit.HOURS);
+            return nodeHours == 0 ? 0 : falsePositives / nodeHours;
+        }
+
+        public Duration getDetectionTime(double percentile)
+        {
+            if (detectionTimes.isEmpty()) {
+                return null;
+            }
+            List<Duration> sorted = new ArrayList<>(detectionTimes);
+            Collections.sort(sorted);
+            return sorted.get(Math.min((int) (percentile * sorted.size()), sorted.size() - 1));
+        }
+
+        /**
+         * Detector thread cpu per monitored node, as a fraction of one core. Heartbeat responses are handled on the
+         * transport's threads, as they are on the http client's in production, and are not included.
+         */
+        public double getCpuPerNode()
+        {
+            return detectorCpuNanos / (double) duration.roundTo(TimeUnit.NANOSECONDS) / nodeCount;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("nodes=%s crashed=%s detected=%s detection p50=%s p99=%s max=%s falsePositives=%s (%.3f/node-hour) cpuPerNode=%.6f cores",
+                    nodeCount,
+                    crashedCount,
+                    getDetectedCount(),
+                    getDetectionTime(0.50),
+                    getDetectionTime(0.99),
+                    getDetectionTime(1.0),
+                    falsePositives,
+                    getFalsePositiveRate(),
+                    getCpuPerNode());
+        }
+    }
+
+    private final FailureDetectorConfig config;
+    private final int nodeCount;
+    private final NodeProfile profile;
+    private final double crashFraction;
+    private final Duration duration;
+    private final int networkThreads;
+
+    /**
+     * @param crashFraction fraction of nodes that crash at a random time during the run
+     * @param duration how long to run after every node has warmed up
+     */
+    public FailureDetectorSimulation(FailureDetectorConfig config, int nodeCount, NodeProfile profile, double crashFraction, Duration duration)
+    {
+        checkArgument(nodeCount > 0, "nodeCount must be positive");
+        checkArgument(crashFraction >= 0 && crashFraction <= 1, "crashFraction must be between 0 and 1");
+        this.config = requireNonNull(config, "config is null");
+        this.nodeCount = nodeCount;
+        this.profile = requireNonNull(profile, "profile is null");
+        this.crashFraction = crashFraction;
+        this.duration = requireNonNull(duration, "duration is null");
+        this.networkThreads = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+    }
+
+    public Result run()
+            throws InterruptedException
+    {
+        Map<String, SimulatedNode> nodes = new HashMap<>();
+        List<ServiceDescriptor> services = new ArrayList<>();
+        for (int i = 0; i < nodeCount; i++) {
+            String nodeId = "node-" + i;
+            nodes.put(nodeId, new SimulatedNode(profile));
+            services.add(new ServiceDescriptor(
+                    UUID.randomUUID(),
+                    nodeId,
+                    "neurosis",
+                    "general",
+                    null,
+                    ServiceState.RUNNING,
+                    ImmutableMap.of("http", "http://" + nodeId + ":8080")));
+        }
+
+        ScheduledExecutorService network = newScheduledThreadPool(networkThreads, daemonThreadsNamed("simulated-network-%s"));
+        HeartbeatFailureDetector detector = new HeartbeatFailureDetector(
+                new FixedServiceSelector(services),
+                new SimulatedTransport(nodes, network),
+                config,
+                new NodeInfo("simulation"));
+
+        Map<String, Long> failedAtNanos = new ConcurrentHashMap<>();
+        AtomicLong falsePositives = new AtomicLong();
+        AtomicLong measuring = new AtomicLong();
+        detector.addListener(new FailureDetector.Listener()
+        {
+            @Override
+            public void onFailed(ServiceDescriptor service)
+            {
+                if (measuring.get() == 0) {
+                    return;
+                }
+                SimulatedNode node = nodes.get(service.getNodeId());
+                if (node.isCrashed()) {
+                    failedAtNanos.putIfAbsent(service.getNodeId(), System.nanoTime());
+                }
+                else {
+                    falsePositives.incrementAndGet();
+                }
+            }
+
+            @Override
+            public void onRecovered(ServiceDescriptor service)
+            {
+            }
+        });
+
+        try {
+            detector.start();
+
+            // wait for every node to warm up before measuring
+            long warmupDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60) + config.getWarmupInterval().roundTo(TimeUnit.NANOSECONDS);
+            while (detector.getTotalCount() < nodeCount || detector.getFailedCount() > 0) {
+                checkArgument(System.nanoTime() < warmupDeadline, "nodes did not warm up, %s of %s failed", detector.getFailedCount(), nodeCount);
+                Thread.sleep(50);
+            }
+
+            long durationNanos = duration.roundTo(TimeUnit.NANOSECONDS);
+            long start = System.nanoTime();
+            measuring.set(start);
+            Random random = new Random();
+            List<String> crashed = new ArrayList<>();
+            for (Map.Entry<String, SimulatedNode> entry : nodes.entrySet()) {
+                if (random.nextDouble() < crashFraction) {
+                    // leave time at the end to detect the crash
+                    entry.getValue().crashAt(start + (long) (random.nextDouble() * durationNanos / 2));
+                    crashed.add(entry.getKey());
+                }
+            }
+
+            Map<Long, Long> cpuStart = detectorThreadCpuNanos();
+            Thread.sleep(duration.toMillis());
+            Map<Long, Long> cpuEnd = detectorThreadCpuNanos();
+
+            long cpuNanos = 0;
+            for (Map.Entry<Long, Long> entry : cpuEnd.entrySet()) {
+                cpuNanos += entry.getValue() - cpuStart.getOrDefault(entry.getKey(), 0L);
+            }
+
+            List<Duration> detectionTimes = new ArrayList<>();
+            for (String nodeId : crashed) {
+                Long failedAt = failedAtNanos.get(nodeId);
+                if (failedAt != null) {
+                    detectionTimes.add(new Duration(failedAt - nodes.get(nodeId).getCrashAtNanos(), TimeUnit.NANOSECONDS).convertToMostSuccinctTimeUnit());
+                }
+            }
+
+            return new Result(nodeCount, duration, detectionTimes, crashed.size(), (int) falsePositives.get(), cpuNanos);
+        }
+        finally {
+            detector.shutdown();
+            network.shutdownNow();
+        }
+    }
+
+    private static Map<Long, Long> detectorThreadCpuNanos()
+    {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Map<Long, Long> cpu = new HashMap<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith(DETECTOR_THREAD_PREFIX)) {
+                long nanos = threads.getThreadCpuTime(thread.getId());
+                if (nanos >= 0) {
+                    cpu.put(thread.getId(), nanos);
+                }
+            }
+        }
+        return cpu;
+    }
+
+    private static class SimulatedNode
+    {
+        private final NodeProfile profile;
+        private final long latencyNanos;
+        private final double jitterNanos;
+        private final long gcPauseIntervalNanos;
+        private final long gcPauseNanos;
+
+        private volatile long crashAtNanos;
+
+        // guarded by this
+        private long pauseStartNanos;
+
+        private SimulatedNode(NodeProfile profile)
+        {
+            this.profile = profile;
+            this.latencyNanos = profile.latency.roundTo(TimeUnit.NANOSECONDS);
+            this.jitterNanos = profile.jitter.getValue(TimeUnit.NANOSECONDS);
+            this.gcPauseIntervalNanos = profile.gcPauseInterval.roundTo(TimeUnit.NANOSECONDS);
+            this.gcPauseNanos = profile.gcPauseDuration.roundTo(TimeUnit.NANOSECONDS);
+            this.pauseStartNanos = System.nanoTime() + nextPauseGap();
+        }
+
+        private void crashAt(long nanos)
+        {
+            crashAtNanos = nanos;
+        }
+
+        private long getCrashAtNanos()
+        {
+            return crashAtNanos;
+        }
+
+        private boolean isCrashed()
+        {
+            return crashAtNanos != 0 && System.nanoTime() - crashAtNanos >= 0;
+        }
+
+        private long nextPauseGap()
+        {
+            if (gcPauseIntervalNanos == 0) {
+                return Long.MAX_VALUE / 2;
+            }
+            return (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * gcPauseIntervalNanos);
+        }
+
+        /**
+         * Returns the round trip of a heartbeat sent now, or -1 if it goes unanswered.
+         */
+        private synchronized long roundTripNanos(long now)
+        {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (random.nextDouble() < profile.lossRate) {
+                return -1;
+            }
+
+            while (now - (pauseStartNanos + gcPauseNanos) >= 0) {
+                pauseStartNanos += gcPauseNanos + nextPauseGap();
+            }
+            long roundTrip = latencyNanos + (long) (-Math.log(1 - random.nextDouble()) * jitterNanos);
+            if (now - pauseStartNanos >= 0) {
+                // answered once the pause ends
+                roundTrip += pauseStartNanos + gcPauseNanos - now;
+            }
+            return roundTrip;
+        }
+    }
+
+    private static class SimulatedTransport
+            implements HeartbeatTransport
+    {
+        private final Map<String, SimulatedNode> nodes;
+        private final ScheduledExecutorService network;
+
+        private SimulatedTransport(Map<String, SimulatedNode> nodes, ScheduledExecutorService network)
+        {
+            this.nodes = nodes;
+            this.network = network;
+        }
+
+        @Override
+        public void ping(URI uri, Callback callback)
+        {
+            SimulatedNode node = nodes.get(uri.getHost());
+            long now = System.nanoTime();
+            if (node.isCrashed()) {
+                // the host is up but nothing is listening
+                network.schedule(() -> callback.failure(new ConnectException("Connection refused")), node.latencyNanos, TimeUnit.NANOSECONDS);
+                return;
+            }
+
+            long roundTrip = node.roundTripNanos(now);
+            long timeoutNanos = node.profile.timeout.roundTo(TimeUnit.NANOSECONDS);
+            if (roundTrip < 0 || roundTrip > timeoutNanos) {
+                network.schedule(() -> callback.failure(new SocketTimeoutException("Read timed out")), timeoutNanos, TimeUnit.NANOSECONDS);
+            }
+            else {
+                network.schedule(() -> callback.success(now), roundTrip, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    private static class FixedServiceSelector
+            implements ServiceSelector
+    {
+        private final List<ServiceDescriptor> services;
+
+        private FixedServiceSelector(List<ServiceDescriptor> services)
+        {
+            this.services = ImmutableList.copyOf(services);
+        }
+
+        @Override
+        public String getType()
+        {
+            return "neurosis";
+        }
+
+        @Override
+        public String getPool()
+        {
+            return "general";
+        }
+
+        @Override
+        public List<ServiceDescriptor> selectAllServices()
+        {
+            return services;
+        }
+
+        @Override
+        public ListenableFuture<List<ServiceDescriptor>> refresh()
+        {
+            return Futures.immediateFuture(services);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.failureDetector;
+
+import com.wrmsr.neurosis.failureDetector.FailureDetectorSimulation.NodeProfile;
+import com.wrmsr.neurosis.failureDetector.FailureDetectorSimulation.Result;
+import io.airlift.log.Logger;
+import io.airlift.units.Duration;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertTrue;
+
+/**
+ * Short wall-clock smoke runs of the simulation. They share the machine with the rest of the build, so they only bound
+ * detection and false positive rates loosely; {@link #main(String[])} runs the full-scale simulation for measurements.
+ */
+public class TestFailureDetectorSimulation
+{
+    private static final Logger log = Logger.get(TestFailureDetectorSimulation.class);
+
+    private static final int NODES = 100;
+    private static final double CRASH_FRACTION = 0.2;
+    private static final Duration DURATION = new Duration(3, TimeUnit.SECONDS);
+
+    // fractions of crashed nodes that must be detected, and of healthy nodes that may be failed, within a run
+    private static final double MIN_DETECTED_FRACTION = 0.8;
+    private static final double MAX_FALSE_POSITIVE_FRACTION = 0.02;
+
+    @Test
+    public void testRatio()
+            throws Exception
+    {
+        FailureDetectorConfig config = new FailureDetectorConfig()
+                .setHeartbeatInterval(new Duration(100, TimeUnit.MILLISECONDS))
+                .setWarmupInterval(new Duration(1, TimeUnit.SECONDS));
+
+        Result result = new FailureDetectorSimulation(config, NODES, NodeProfile.healthy(), CRASH_FRACTION, DURATION).run();
+        log.info("ratio: %s", result);
+
+        assertBoundedRates(result);
+    }
+
+    @Test
+    public void testPhiAccrualWithGcPauses()
+            throws Exception
+    {
+        FailureDetectorConfig config = new FailureDetectorConfig()
+                .setMode(FailureDetectorConfig.Mode.PHI_ACCRUAL)
+                .setHeartbeatInterval(new Duration(100, TimeUnit.MILLISECONDS))
+                .setWarmupInterval(new Duration(1, TimeUnit.SECONDS))
+                .setPhiAcceptablePause(new Duration(500, TimeUnit.MILLISECONDS));
+
+        // pauses shorter than the acceptable pause must not fail anyone
+        NodeProfile profile = new NodeProfile(
+                new Duration(1, TimeUnit.MILLISECONDS),
+                new Duration(2, TimeUnit.MILLISECONDS),
+                0.001,
+                new Duration(5, TimeUnit.SECONDS),
+                new Duration(200, TimeUnit.MILLISECONDS),
+                new Duration(1, TimeUnit.SECONDS));
+
+        Result result = new FailureDetectorSimulation(config, NODES, profile, CRASH_FRACTION, DURATION).run();
+        log.info("phi accrual: %s", result);
+
+        assertBoundedRates(result);
+    }
+
+    private static void assertBoundedRates(Result result)
+    {
+        assertTrue(result.getDetectedCount() >= Math.floor(result.getCrashedCount() * MIN_DETECTED_FRACTION), "too few crashes detected: " + result);
+        assertTrue(result.getFalsePositives() <= Math.ceil((NODES - result.getCrashedCount()) * MAX_FALSE_POSITIVE_FRACTION), "too many false positives: " + result);
+    }
+
+    /**
+     * Runs a single simulation at production scale, for sizing coordinators and checking detection and false positive
+     * rates on an otherwise idle machine: [nodes] [seconds] [mode] [heartbeat millis]
+     */
+    public static void main(String[] args)
+            throws Exception
+    {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+        FailureDetectorConfig.Mode mode = args.length > 2 ? FailureDetectorConfig.Mode.valueOf(args[2]) : FailureDetectorConfig.Mode.RATIO;
+        int heartbeatMillis = args.length > 3 ? Integer.parseInt(args[3]) : 500;
+
+        FailureDetectorConfig config = new FailureDetectorConfig()
+                .setMode(mode)
+                .setHeartbeatInterval(new Duration(heartbeatMillis, TimeUnit.MILLISECONDS));
+
+        Result result = new FailureDetectorSimulation(config, nodes, NodeProfile.healthy(), 0.01, new Duration(seconds, TimeUnit.SECONDS)).run();
+        System.out.println(result);
+    }
+}
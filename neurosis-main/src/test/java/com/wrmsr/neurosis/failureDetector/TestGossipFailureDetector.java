@@ -0,0 +1,512 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.failureDetector;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.wrmsr.neurosis.failureDetector.GossipUpdate.State;
+import io.airlift.discovery.client.ServiceDescriptor;
+import io.airlift.discovery.client.ServiceSelector;
+import io.airlift.discovery.client.ServiceState;
+import io.airlift.http.client.HttpStatus;
+import io.airlift.http.client.JsonBodyGenerator;
+import io.airlift.http.client.Request;
+import io.airlift.http.client.Response;
+import io.airlift.http.client.testing.TestingHttpClient;
+import io.airlift.http.client.testing.TestingResponse;
+import io.airlift.json.JsonCodec;
+import io.airlift.node.NodeConfig;
+import io.airlift.node.NodeInfo;
+import io.airlift.units.Duration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.net.MediaType.JSON_UTF_8;
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static io.airlift.json.JsonCodec.jsonCodec;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+
+public class TestGossipFailureDetector
+{
+    private static final JsonCodec<GossipMessage> CODEC = jsonCodec(GossipMessage.class);
+
+    private Cluster cluster;
+
+    @AfterMethod
+    public void tearDown()
+    {
+        if (cluster != null) {
+            cluster.shutdown();
+            cluster = null;
+        }
+    }
+
+    @Test
+    public void testAcknowledgedProbe()
+    {
+        cluster = new Cluster(config(), "a", "b");
+        cluster.node("a").probe();
+
+        assertEquals(cluster.node("a").getProbes(), 1);
+        assertEquals(cluster.node("a").getFailedProbes(), 0);
+        assertEquals(cluster.node("a").getSuspectCount(), 0);
+        assertTrue(cluster.node("a").getFailed().isEmpty());
+    }
+
+    @Test
+    public void testUnreachableNodeIsSuspectedThenFailed()
+            throws Exception
+    {
+        cluster = new Cluster(config().setGossipSuspicionTimeout(new Duration(50, TimeUnit.MILLISECONDS)), "a", "b", "c");
+        cluster.crash("c");
+
+        probeUntilSuspected(cluster.node("a"), "c");
+        // neither a nor its relay b reached c
+        assertEquals(cluster.node("a").getIndirectProbes(), cluster.node("a").getFailedProbes());
+        assertTrue(cluster.node("a").getFailed().isEmpty());
+
+        // not yet timed out
+        cluster.node("a").expireSuspicions();
+        assertEquals(stateOf(cluster.node("a"), "c"), State.SUSPECT);
+
+        Thread.sleep(100);
+        cluster.node("a").expireSuspicions();
+        assertEquals(stateOf(cluster.node("a"), "c"), State.DEAD);
+        assertEquals(cluster.node("a").getFailed(), ImmutableSet.of(cluster.service("c")));
+    }
+
+    @Test
+    public void testIndirectProbeAvoidsSuspicion()
+    {
+        cluster = new Cluster(config(), "a", "b", "c");
+        cluster.partition("a", "c");
+
+        for (int i = 0; i < 10; i++) {
+            cluster.node("a").probe();
+        }
+        assertTrue(cluster.node("a").getIndirectProbes() > 0);
+        assertEquals(cluster.node("a").getFailedProbes(), 0);
+        assertEquals(stateOf(cluster.node("a"), "c"), State.ALIVE);
+    }
+
+    @Test
+    public void testSuspicionIsGossipedAndRefuted()
+    {
+        cluster = new Cluster(config(), "a", "b", "c");
+        cluster.partition("a", "c");
+        cluster.partition("b", "c");
+
+        probeUntilSuspected(cluster.node("a"), "c");
+
+        // the suspicion rides on a's probes of b
+        probeUntil(cluster.node("a"), () -> stateOf(cluster.node("b"), "c") == State.SUSPECT);
+
+        // once c hears of it, c refutes with a higher incarnation that overrides the suspicion
+        cluster.heal("a", "c");
+        probeUntil(cluster.node("a"), () -> cluster.node("c").getRefutations() > 0 && stateOf(cluster.node("a"), "c") == State.ALIVE);
+        assertEquals(cluster.node("c").getIncarnation(), 1);
+        assertEquals(incarnationOf(cluster.node("a"), "c"), 1);
+    }
+
+    @Test
+    public void testApplyIgnoresStaleUpdates()
+    {
+        cluster = new Cluster(config(), "a", "b");
+        GossipFailureDetector a = cluster.node("a");
+
+        a.receive(new GossipMessage("x", ImmutableList.of(new GossipUpdate("b", State.SUSPECT, 2))));
+        assertEquals(stateOf(a, "b"), State.SUSPECT);
+        assertEquals(incarnationOf(a, "b"), 2);
+
+        // an alive update only overrides a suspicion with a newer incarnation
+        a.receive(new GossipMessage("x", ImmutableList.of(new GossipUpdate("b", State.ALIVE, 2))));
+        assertEquals(stateOf(a, "b"), State.SUSPECT);
+        a.receive(new GossipMessage("x", ImmutableList.of(new GossipUpdate("b", State.ALIVE, 3))));
+        assertEquals(stateOf(a, "b"), State.ALIVE);
+
+        // updates about nodes discovery does not know are dropped
+        a.receive(new GossipMessage("x", ImmutableList.of(new GossipUpdate("z", State.DEAD, 0))));
+        assertEquals(a.getTotalCount(), 1);
+    }
+
+    @Test
+    public void testRelay()
+            throws Exception
+    {
+        cluster = new Cluster(config(), "a", "b", "c");
+        GossipMessage message = new GossipMessage("a", ImmutableList.of());
+
+        GossipMessage reply = cluster.node("b").relay("c", message).get(10, TimeUnit.SECONDS);
+        assertNotNull(reply);
+        assertEquals(reply.getNodeId(), "b");
+
+        assertNull(cluster.node("b").relay("unknown", message).get(10, TimeUnit.SECONDS));
+
+        cluster.crash("c");
+        assertNull(cluster.node("b").relay("c", message).get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRelayTimesOut()
+            throws Exception
+    {
+        ExecutorService executor = newCachedThreadPool(daemonThreadsNamed("test-gossip-http-%s"));
+        CountDownLatch release = new CountDownLatch(1);
+        List<ServiceDescriptor> services = ImmutableList.of(descriptor("a"), descriptor("b"));
+        GossipFailureDetector detector = new GossipFailureDetector(
+                new FixedServiceSelector(services),
+                new TestingHttpClient(request -> {
+                    // a target that accepts the probe and never answers
+                    Uninterruptibles.awaitUninterruptibly(release);
+                    throw new UncheckedIOException(new ConnectException("Connection reset"));
+                }, executor),
+                CODEC,
+                config().setGossipProbeTimeout(new Duration(100, TimeUnit.MILLISECONDS)),
+                new NodeInfo(new NodeConfig().setEnvironment("test").setNodeId("a")));
+        try {
+            detector.updateMembers();
+            long start = System.nanoTime();
+            assertNull(detector.relay("b", new GossipMessage("c", ImmutableList.of())).get(10, TimeUnit.SECONDS));
+            assertTrue(Duration.nanosSince(start).compareTo(new Duration(5, TimeUnit.SECONDS)) < 0);
+        }
+        finally {
+            release.countDown();
+            detector.shutdown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testWarmup()
+            throws Exception
+    {
+        cluster = new Cluster(config().setWarmupInterval(new Duration(100, TimeUnit.MILLISECONDS)), "a", "b");
+        GossipFailureDetector a = cluster.node("a");
+        RecordingListener listener = new RecordingListener();
+        a.addListener(listener);
+
+        // newly discovered members are failed until they have been alive for the warmup interval, without an event
+        assertEquals(a.getFailed(), ImmutableSet.of(cluster.service("b")));
+        assertTrue(a.getStats().get(cluster.service("b")).isWarmingUp());
+        a.finishWarmups();
+        assertEquals(a.getFailed(), ImmutableSet.of(cluster.service("b")));
+
+        long version = a.getStateVersion();
+        Thread.sleep(150);
+        a.finishWarmups();
+        assertTrue(a.getFailed().isEmpty());
+        assertFalse(a.getStats().get(cluster.service("b")).isWarmingUp());
+        assertTrue(a.getStateVersion() > version);
+        listener.awaitRecovered(cluster.service("b"));
+
+        // a member coming back from failure warms up again
+        a.receive(new GossipMessage("x", ImmutableList.of(new GossipUpdate("b", State.DEAD, 0))));
+        assertEquals(a.getFailed(), ImmutableSet.of(cluster.service("b")));
+        a.receive(new GossipMessage("x", ImmutableList.of(new GossipUpdate("b", State.ALIVE, 1))));
+        assertEquals(stateOf(a, "b"), State.ALIVE);
+        assertEquals(a.getFailed(), ImmutableSet.of(cluster.service("b")));
+        Thread.sleep(150);
+        a.finishWarmups();
+        assertTrue(a.getFailed().isEmpty());
+    }
+
+    @Test
+    public void testStats()
+    {
+        cluster = new Cluster(config(), "a", "b", "c");
+        GossipFailureDetector a = cluster.node("a");
+        long version = a.getStateVersion();
+
+        a.receive(new GossipMessage("x", ImmutableList.of(new GossipUpdate("c", State.SUSPECT, 3))));
+        assertEquals(a.getStateVersion(), version);
+        GossipFailureDetector.Stats stats = a.getStats().get(cluster.service("c"));
+        assertEquals(stats.getState(), State.SUSPECT);
+        assertEquals(stats.getIncarnation(), 3);
+        assertEquals(stats.getUri().getHost(), "c");
+
+        // failing changes the version, suspicion does not
+        a.receive(new GossipMessage("x", ImmutableList.of(new GossipUpdate("c", State.DEAD, 3))));
+        assertTrue(a.getStateVersion() > version);
+        assertEquals(a.getStats().keySet(), ImmutableSet.of(cluster.service("b"), cluster.service("c")));
+    }
+
+    @Test
+    public void testMemberAddresses()
+            throws Exception
+    {
+        List<ServiceDescriptor> services = ImmutableList.of(descriptor("a", "127.0.0.1"), descriptor("b", "127.0.0.2"));
+        GossipFailureDetector detector = new GossipFailureDetector(
+                new FixedServiceSelector(services),
+                new TestingHttpClient(request -> {
+                    throw new UncheckedIOException(new ConnectException("Connection refused"));
+                }),
+                CODEC,
+                config(),
+                new NodeInfo(new NodeConfig().setEnvironment("test").setNodeId("a")));
+        try {
+            detector.updateMembers();
+            assertEquals(detector.getMemberAddressCount(), 1);
+            assertTrue(detector.isMemberAddress(InetAddress.getByName("127.0.0.2")));
+            assertEquals(detector.getRejected(), 0);
+
+            // this node itself is not a member
+            assertFalse(detector.isMemberAddress(InetAddress.getByName("127.0.0.1")));
+            assertFalse(detector.isMemberAddress(InetAddress.getByName("10.1.2.3")));
+            assertEquals(detector.getRejected(), 2);
+        }
+        finally {
+            detector.shutdown();
+        }
+    }
+
+    private static FailureDetectorConfig config()
+    {
+        return new FailureDetectorConfig()
+                .setWarmupInterval(new Duration(0, TimeUnit.SECONDS))
+                .setGossipEnabled(true)
+                .setGossipIndirectProbes(2)
+                .setGossipSuspicionTimeout(new Duration(1, TimeUnit.HOURS));
+    }
+
+    private static void probeUntilSuspected(GossipFailureDetector detector, String nodeId)
+    {
+        probeUntil(detector, () -> stateOf(detector, nodeId) == State.SUSPECT);
+    }
+
+    private static void probeUntil(GossipFailureDetector detector, Condition condition)
+    {
+        // every member is probed once per lap of the shuffled probe order
+        for (int i = 0; i < 100 && !condition.test(); i++) {
+            detector.probe();
+        }
+        assertTrue(condition.test(), "condition not reached: " + detector.getMembers());
+    }
+
+    private static ServiceDescriptor descriptor(String nodeId)
+    {
+        return descriptor(nodeId, nodeId);
+    }
+
+    private static ServiceDescriptor descriptor(String nodeId, String host)
+    {
+        return new ServiceDescriptor(
+                UUID.randomUUID(),
+                nodeId,
+                "neurosis",
+                "general",
+                null,
+                ServiceState.RUNNING,
+                ImmutableMap.of("http", "http://" + host + ":8080"));
+    }
+
+    private static State stateOf(GossipFailureDetector detector, String nodeId)
+    {
+        return update(detector, nodeId).getState();
+    }
+
+    private static long incarnationOf(GossipFailureDetector detector, String nodeId)
+    {
+        return update(detector, nodeId).getIncarnation();
+    }
+
+    private static GossipUpdate update(GossipFailureDetector detector, String nodeId)
+    {
+        return detector.getMembers().stream()
+                .filter(update -> update.getNodeId().equals(nodeId))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("no member " + nodeId));
+    }
+
+    private interface Condition
+    {
+        boolean test();
+    }
+
+    private static class RecordingListener
+            implements FailureDetector.Listener
+    {
+        private final Set<ServiceDescriptor> recovered = new HashSet<>();
+
+        @Override
+        public synchronized void onFailed(ServiceDescriptor service)
+        {
+        }
+
+        @Override
+        public synchronized void onRecovered(ServiceDescriptor service)
+        {
+            recovered.add(service);
+            notifyAll();
+        }
+
+        public synchronized void awaitRecovered(ServiceDescriptor service)
+                throws InterruptedException
+        {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (!recovered.contains(service) && System.nanoTime() < deadline) {
+                wait(100);
+            }
+            assertTrue(recovered.contains(service), "no recovery of " + service);
+        }
+    }
+
+    /**
+     * Nodes talk through in-process http clients; links can be cut per pair and nodes crashed.
+     */
+    private static class Cluster
+    {
+        private final Map<String, ServiceDescriptor> services = new HashMap<>();
+        private final Map<String, GossipFailureDetector> nodes = new HashMap<>();
+        private final Set<String> crashed = new HashSet<>();
+        private final Set<String> partitions = new HashSet<>();
+
+        private Cluster(FailureDetectorConfig config, String... nodeIds)
+        {
+            for (String nodeId : nodeIds) {
+                services.put(nodeId, descriptor(nodeId));
+            }
+            ServiceSelector selector = new FixedServiceSelector(ImmutableList.copyOf(services.values()));
+            for (String nodeId : nodeIds) {
+                GossipFailureDetector detector = new GossipFailureDetector(
+                        selector,
+                        new TestingHttpClient(request -> handle(nodeId, request)),
+                        CODEC,
+                        config,
+                        new NodeInfo(new NodeConfig().setEnvironment("test").setNodeId(nodeId)));
+                detector.updateMembers();
+                nodes.put(nodeId, detector);
+            }
+        }
+
+        public GossipFailureDetector node(String nodeId)
+        {
+            return nodes.get(nodeId);
+        }
+
+        public ServiceDescriptor service(String nodeId)
+        {
+            return services.get(nodeId);
+        }
+
+        public synchronized void crash(String nodeId)
+        {
+            crashed.add(nodeId);
+        }
+
+        public synchronized void partition(String first, String second)
+        {
+            partitions.add(link(first, second));
+        }
+
+        public synchronized void heal(String first, String second)
+        {
+            partitions.remove(link(first, second));
+        }
+
+        private synchronized boolean isReachable(String from, String to)
+        {
+            return !crashed.contains(to) && !partitions.contains(link(from, to));
+        }
+
+        private static String link(String first, String second)
+        {
+            return first.compareTo(second) < 0 ? first + "-" + second : second + "-" + first;
+        }
+
+        private Response handle(String from, Request request)
+        {
+            String to = request.getUri().getHost();
+            if (!isReachable(from, to)) {
+                throw new UncheckedIOException(new ConnectException("Connection refused"));
+            }
+
+            GossipFailureDetector target = nodes.get(to);
+            GossipMessage message = CODEC.fromJson(((JsonBodyGenerator<?>) request.getBodyGenerator()).getBody());
+            GossipMessage reply;
+            if (request.getUri().getPath().equals("/v1/gossip/relay")) {
+                String nodeId = request.getUri().getQuery().replace("nodeId=", "");
+                reply = target.relay(nodeId, message).join();
+                if (reply == null) {
+                    return new TestingResponse(HttpStatus.SERVICE_UNAVAILABLE, TestingResponse.contentType(JSON_UTF_8), new byte[0]);
+                }
+            }
+            else {
+                reply = target.receive(message);
+            }
+            return new TestingResponse(HttpStatus.OK, TestingResponse.contentType(JSON_UTF_8), CODEC.toJsonBytes(reply));
+        }
+
+        public void shutdown()
+        {
+            nodes.values().forEach(GossipFailureDetector::shutdown);
+        }
+    }
+
+    private static class FixedServiceSelector
+            implements ServiceSelector
+    {
+        private final List<ServiceDescriptor> services;
+
+        private FixedServiceSelector(List<ServiceDescriptor> services)
+        {
+            this.services = services;
+        }
+
+        @Override
+        public String getType()
+        {
+            return "neurosis";
+        }
+
+        @Override
+        public String getPool()
+        {
+            return "general";
+        }
+
+        @Override
+        public List<ServiceDescriptor> selectAllServices()
+        {
+            return services;
+        }
+
+        @Override
+        public ListenableFuture<List<ServiceDescriptor>> refresh()
+        {
+            return Futures.immediateFuture(services);
+        }
+    }
+}
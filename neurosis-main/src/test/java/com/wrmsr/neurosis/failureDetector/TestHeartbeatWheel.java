@@ -0,0 +1,149 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.failureDetector;
+
+import io.airlift.units.Duration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestHeartbeatWheel
+{
+    private HeartbeatWheel wheel;
+
+    @AfterMethod
+    public void tearDown()
+    {
+        if (wheel != null) {
+            wheel.stop();
+            wheel = null;
+        }
+    }
+
+    @Test
+    public void testRegistrationCount()
+    {
+        wheel = new HeartbeatWheel(new Duration(1, TimeUnit.SECONDS), 4, 2, "test");
+        HeartbeatWheel.Registration[] registrations = new HeartbeatWheel.Registration[10];
+        for (int i = 0; i < registrations.length; i++) {
+            registrations[i] = wheel.schedule(() -> {});
+        }
+        assertEquals(wheel.getRegisteredCount(), 10);
+
+        registrations[3].cancel();
+        assertTrue(registrations[3].isCancelled());
+        assertEquals(wheel.getRegisteredCount(), 9);
+
+        // cancelling twice is harmless
+        registrations[3].cancel();
+        assertEquals(wheel.getRegisteredCount(), 9);
+    }
+
+    @Test
+    public void testRunsEveryTaskOncePerInterval()
+            throws Exception
+    {
+        wheel = new HeartbeatWheel(new Duration(50, TimeUnit.MILLISECONDS), 5, 2, "test");
+        AtomicInteger[] runs = new AtomicInteger[20];
+        for (int i = 0; i < runs.length; i++) {
+            AtomicInteger counter = new AtomicInteger();
+            runs[i] = counter;
+            wheel.schedule(counter::incrementAndGet);
+        }
+        wheel.start();
+        Thread.sleep(1_000);
+        wheel.stop();
+
+        // about twenty intervals, with room for a slow machine
+        for (AtomicInteger counter : runs) {
+            assertTrue(counter.get() >= 5 && counter.get() <= 22, "unexpected run count " + counter.get());
+        }
+    }
+
+    @Test
+    public void testCancelledTaskStopsRunning()
+            throws Exception
+    {
+        wheel = new HeartbeatWheel(new Duration(20, TimeUnit.MILLISECONDS), 2, 1, "test");
+        CountDownLatch ran = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        HeartbeatWheel.Registration registration = wheel.schedule(() -> {
+            runs.incrementAndGet();
+            ran.countDown();
+        });
+        wheel.start();
+        assertTrue(ran.await(10, TimeUnit.SECONDS));
+        registration.cancel();
+        // a run already in flight may still finish
+        Thread.sleep(50);
+        int cancelledRuns = runs.get();
+        Thread.sleep(200);
+        assertEquals(runs.get(), cancelledRuns);
+    }
+
+    @Test
+    public void testFailingTaskDoesNotStopSlot()
+            throws Exception
+    {
+        wheel = new HeartbeatWheel(new Duration(20, TimeUnit.MILLISECONDS), 1, 1, "test");
+        CountDownLatch ran = new CountDownLatch(3);
+        wheel.schedule(() -> {
+            throw new RuntimeException("expected");
+        });
+        wheel.schedule(ran::countDown);
+        wheel.start();
+        assertTrue(ran.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSkipsMissedIntervalsAfterStall()
+            throws Exception
+    {
+        wheel = new HeartbeatWheel(new Duration(20, TimeUnit.MILLISECONDS), 2, 1, "test");
+        AtomicInteger stalls = new AtomicInteger();
+        AtomicInteger runs = new AtomicInteger();
+        // the first task stalls the shard for twenty intervals on its first run
+        wheel.schedule(() -> {
+            if (stalls.getAndIncrement() == 0) {
+                sleep(400);
+                runs.set(0);
+            }
+        });
+        wheel.schedule(runs::incrementAndGet);
+        wheel.start();
+        Thread.sleep(500);
+        wheel.stop();
+
+        // the missed intervals were skipped rather than replayed, so the second task ran only for the time since
+        assertTrue(wheel.getSkippedTicks() >= 30, "skipped " + wheel.getSkippedTicks());
+        assertEquals(wheel.getSkippedTicks() % 2, 0);
+        assertTrue(runs.get() <= 8, "ran " + runs.get() + " times after the stall");
+    }
+
+    private static void sleep(long millis)
+    {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
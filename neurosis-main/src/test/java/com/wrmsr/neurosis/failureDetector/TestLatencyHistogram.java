@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.failureDetector;
+
+import io.airlift.units.Duration;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestLatencyHistogram
+{
+    @Test
+    public void testSmallValuesAreExact()
+    {
+        for (long micros = 0; micros < 32; micros++) {
+            int index = LatencyHistogram.indexOf(micros);
+            assertEquals(index, micros);
+            assertEquals(LatencyHistogram.valueOf(index), micros);
+        }
+    }
+
+    @Test
+    public void testBucketsAreContiguous()
+    {
+        // every value lands in the bucket whose upper bound is the first at or above it
+        long previousUpperBound = -1;
+        int previousIndex = -1;
+        for (long micros = 0; micros < 1 << 20; micros++) {
+            int index = LatencyHistogram.indexOf(micros);
+            long upperBound = LatencyHistogram.valueOf(index);
+            assertTrue(micros <= upperBound, "value " + micros + " above its bucket's bound " + upperBound);
+            if (index != previousIndex) {
+                assertEquals(index, previousIndex + 1, "skipped a bucket at " + micros);
+                assertEquals(micros, previousUpperBound + 1, "gap before " + micros);
+                previousIndex = index;
+                previousUpperBound = upperBound;
+            }
+        }
+    }
+
+    @Test
+    public void testRelativeError()
+    {
+        for (int exponent = 5; exponent < 32; exponent++) {
+            for (long micros : new long[] {1L << exponent, (1L << exponent) + 1, (3L << (exponent - 1)) - 1, (1L << (exponent + 1)) - 1}) {
+                long upperBound = LatencyHistogram.valueOf(LatencyHistogram.indexOf(micros));
+                assertTrue((upperBound - micros) / (double) micros <= 1.0 / 16, "error too large for " + micros + ": " + upperBound);
+            }
+        }
+    }
+
+    @Test
+    public void testMaxValueHasBucket()
+    {
+        long max = (1L << 32) - 1;
+        assertEquals(LatencyHistogram.valueOf(LatencyHistogram.indexOf(max)), max);
+    }
+
+    @Test
+    public void testPercentiles()
+    {
+        LatencyHistogram histogram = new LatencyHistogram(new Duration(1, TimeUnit.MINUTES));
+        assertNull(histogram.getPercentile(0.5));
+        assertNull(histogram.getMax());
+
+        for (int i = 1; i <= 100; i++) {
+            histogram.add(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        assertEquals(histogram.getCount(), 100);
+        assertWithin(histogram.getPercentile(0.50), 50);
+        assertWithin(histogram.getPercentile(0.99), 99);
+        assertEquals(histogram.getMax().toMillis(), 100);
+    }
+
+    @Test
+    public void testNegativeAndHugeValuesAreClamped()
+    {
+        LatencyHistogram histogram = new LatencyHistogram(new Duration(1, TimeUnit.MINUTES));
+        histogram.add(-1);
+        histogram.add(Long.MAX_VALUE);
+        assertEquals(histogram.getCount(), 2);
+        assertEquals(histogram.getPercentile(0.5).getValue(TimeUnit.MICROSECONDS), 0.0);
+        assertEquals(histogram.getMax().getValue(TimeUnit.MICROSECONDS), (1L << 32) - 1, 1.0);
+    }
+
+    private static void assertWithin(Duration actual, long expectedMillis)
+    {
+        double millis = actual.getValue(TimeUnit.MILLISECONDS);
+        assertTrue(millis >= expectedMillis && millis <= expectedMillis * (1 + 1.0 / 16), "expected about " + expectedMillis + "ms, got " + actual);
+    }
+}
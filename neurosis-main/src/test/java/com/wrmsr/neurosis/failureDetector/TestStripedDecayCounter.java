@@ -0,0 +1,84 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.failureDetector;
+
+import io.airlift.stats.DecayCounter;
+import io.airlift.stats.ExponentialDecay;
+import io.airlift.testing.TestingTicker;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+
+public class TestStripedDecayCounter
+{
+    private static final double EPSILON = 1e-9;
+
+    @Test
+    public void testCountsWithoutDecay()
+    {
+        TestingTicker ticker = new TestingTicker();
+        StripedDecayCounter counter = new StripedDecayCounter(ExponentialDecay.oneMinute(), ticker);
+        counter.add(1);
+        counter.add(2);
+        assertEquals(counter.getCount(), 3.0, EPSILON);
+        assertEquals(counter.getRate(), 3.0 * ExponentialDecay.oneMinute(), EPSILON);
+    }
+
+    @Test
+    public void testDecay()
+    {
+        double alpha = ExponentialDecay.oneMinute();
+        TestingTicker ticker = new TestingTicker();
+        StripedDecayCounter counter = new StripedDecayCounter(alpha, ticker);
+        counter.add(100);
+        ticker.increment(30, TimeUnit.SECONDS);
+        assertEquals(counter.getCount(), 100 * Math.exp(-alpha * 30), EPSILON);
+    }
+
+    @Test
+    public void testMatchesDecayCounter()
+    {
+        double alpha = ExponentialDecay.oneMinute();
+        TestingTicker ticker = new TestingTicker();
+        StripedDecayCounter counter = new StripedDecayCounter(alpha, ticker);
+        DecayCounter expected = new DecayCounter(alpha, ticker);
+        for (int i = 0; i < 100; i++) {
+            counter.add(i);
+            expected.add(i);
+            ticker.increment(7, TimeUnit.SECONDS);
+        }
+        assertEquals(counter.getCount(), expected.getCount(), expected.getCount() * 1e-9);
+    }
+
+    @Test
+    public void testRescaleKeepsCount()
+    {
+        // one-second decay so a few seconds pass the rescale threshold
+        double alpha = ExponentialDecay.seconds(1);
+        TestingTicker ticker = new TestingTicker();
+        StripedDecayCounter counter = new StripedDecayCounter(alpha, ticker);
+        counter.add(1_000_000);
+        for (int i = 0; i < 20; i++) {
+            ticker.increment(1, TimeUnit.SECONDS);
+            counter.add(1);
+        }
+        double expected = 1_000_000 * Math.exp(-alpha * 20);
+        for (int i = 0; i < 20; i++) {
+            expected += Math.exp(-alpha * i);
+        }
+        assertEquals(counter.getCount(), expected, expected * 1e-9);
+    }
+}
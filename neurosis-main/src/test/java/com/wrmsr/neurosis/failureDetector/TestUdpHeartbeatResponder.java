@@ -0,0 +1,150 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.failureDetector;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.airlift.discovery.client.ServiceDescriptor;
+import io.airlift.discovery.client.ServiceSelector;
+import io.airlift.discovery.client.ServiceState;
+import io.airlift.units.Duration;
+import org.testng.annotations.Test;
+
+import java.net.DatagramSocket;
+import java.net.URI;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestUdpHeartbeatResponder
+{
+    @Test
+    public void testAnswersCoordinator()
+            throws Exception
+    {
+        int port = findUnusedPort();
+        UdpHeartbeatResponder responder = new UdpHeartbeatResponder(port, new FixedServiceSelector("http://127.0.0.1:8080"));
+        UdpHeartbeatTransport transport = new UdpHeartbeatTransport(port, new Duration(1, TimeUnit.SECONDS));
+        responder.start();
+        transport.start();
+        try {
+            assertTrue(ping(transport, port));
+            assertEquals(responder.getReplies(), 1);
+            assertEquals(responder.getRejected(), 0);
+        }
+        finally {
+            transport.stop();
+            responder.stop();
+        }
+    }
+
+    @Test
+    public void testIgnoresUnknownSender()
+            throws Exception
+    {
+        int port = findUnusedPort();
+        // a documentation address no probe can come from
+        UdpHeartbeatResponder responder = new UdpHeartbeatResponder(port, new FixedServiceSelector("http://192.0.2.1:8080"));
+        UdpHeartbeatTransport transport = new UdpHeartbeatTransport(port, new Duration(200, TimeUnit.MILLISECONDS));
+        responder.start();
+        transport.start();
+        try {
+            assertFalse(ping(transport, port));
+            assertEquals(responder.getReplies(), 0);
+            assertEquals(responder.getRejected(), 1);
+        }
+        finally {
+            transport.stop();
+            responder.stop();
+        }
+    }
+
+    private static boolean ping(UdpHeartbeatTransport transport, int port)
+            throws Exception
+    {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        transport.ping(URI.create("http://127.0.0.1:" + port), new HeartbeatTransport.Callback()
+        {
+            @Override
+            public void success(long startNanos)
+            {
+                result.complete(true);
+            }
+
+            @Override
+            public void failure(Exception exception)
+            {
+                result.complete(false);
+            }
+        });
+        return result.get(10, TimeUnit.SECONDS);
+    }
+
+    private static int findUnusedPort()
+            throws Exception
+    {
+        try (DatagramSocket socket = new DatagramSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static class FixedServiceSelector
+            implements ServiceSelector
+    {
+        private final List<ServiceDescriptor> services;
+
+        private FixedServiceSelector(String uri)
+        {
+            this.services = ImmutableList.of(new ServiceDescriptor(
+                    UUID.randomUUID(),
+                    UUID.randomUUID().toString(),
+                    "neurosis-coordinator",
+                    "general",
+                    null,
+                    ServiceState.RUNNING,
+                    ImmutableMap.of("http", uri)));
+        }
+
+        @Override
+        public String getType()
+        {
+            return "neurosis-coordinator";
+        }
+
+        @Override
+        public String getPool()
+        {
+            return "general";
+        }
+
+        @Override
+        public List<ServiceDescriptor> selectAllServices()
+        {
+            return services;
+        }
+
+        @Override
+        public ListenableFuture<List<ServiceDescriptor>> refresh()
+        {
+            return Futures.immediateFuture(services);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.server;
+
+import com.google.common.collect.ImmutableList;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.Provider;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static io.airlift.testing.FileUtils.deleteRecursively;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestClassPreloader
+{
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    private static volatile boolean leafInitialized;
+
+    private File directory;
+    private File classList;
+
+    @BeforeMethod
+    public void setUp()
+            throws Exception
+    {
+        directory = Files.createTempDirectory("class-preloader").toFile();
+        classList = new File(directory, "classes");
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        deleteRecursively(directory);
+    }
+
+    @Test
+    public void testRecord()
+            throws Exception
+    {
+        Injector injector = Guice.createInjector(binder -> {
+            binder.bind(Root.class).to(RootImpl.class);
+            binder.bind(Other.class).toProvider(OtherProvider.class);
+            binder.bind(String.class).toInstance("test");
+        });
+        ClassPreloader.record(classList, injector);
+
+        List<String> names = Files.readAllLines(classList.toPath(), StandardCharsets.UTF_8);
+        assertTrue(names.contains(Root.class.getName()), names.toString());
+        assertTrue(names.contains(RootImpl.class.getName()), names.toString());
+        assertTrue(names.contains(Other.class.getName()), names.toString());
+        assertTrue(names.contains(OtherProvider.class.getName()), names.toString());
+        // the jdk is left out
+        assertFalse(names.contains(String.class.getName()), names.toString());
+        assertFalse(new File(classList.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void testPreload()
+            throws Exception
+    {
+        Files.write(classList.toPath(), ImmutableList.of(RootImpl.class.getName(), "com.wrmsr.neurosis.server.NoSuchClass"), StandardCharsets.UTF_8);
+
+        ClassPreloader preloader = new ClassPreloader(2, 100);
+        try {
+            preloader.preload(classList);
+            // the listed class, the interface it implements and the types in its signatures
+            waitFor(() -> preloader.getLoaded() >= 4 && preloader.getFailed() >= 1);
+        }
+        finally {
+            preloader.stop();
+        }
+        assertEquals(preloader.getLoaded(), 4);
+        assertEquals(preloader.getFailed(), 1);
+        // loaded and linked, but not initialized
+        assertFalse(leafInitialized);
+    }
+
+    @Test
+    public void testMaxClasses()
+            throws Exception
+    {
+        Files.write(classList.toPath(), ImmutableList.of(RootImpl.class.getName()), StandardCharsets.UTF_8);
+
+        ClassPreloader preloader = new ClassPreloader(1, 1);
+        try {
+            preloader.preload(classList);
+            waitFor(() -> preloader.getLoaded() >= 1);
+        }
+        finally {
+            preloader.stop();
+        }
+        assertEquals(preloader.getLoaded(), 1);
+    }
+
+    @Test
+    public void testMissingList()
+    {
+        // nothing recorded yet on a first start
+        ClassPreloader preloader = new ClassPreloader(1, 100);
+        preloader.preload(classList);
+        preloader.stop();
+        assertEquals(preloader.getLoaded(), 0);
+        assertEquals(preloader.getFailed(), 0);
+
+        // stopped, so ignored
+        preloader.preload(classList);
+    }
+
+    @Test
+    public void testRoundTrip()
+            throws Exception
+    {
+        Injector injector = Guice.createInjector(binder -> binder.bind(Root.class).to(RootImpl.class));
+        ClassPreloader.record(classList, injector);
+        int recorded = Files.readAllLines(classList.toPath(), StandardCharsets.UTF_8).size();
+
+        ClassPreloader preloader = new ClassPreloader(2, 10_000);
+        try {
+            preloader.preload(classList);
+            waitFor(() -> preloader.getLoaded() >= recorded);
+        }
+        finally {
+            preloader.stop();
+        }
+        assertEquals(preloader.getFailed(), 0);
+    }
+
+    private static void waitFor(BooleanSupplier condition)
+            throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("timed out waiting for preloading");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    public interface Root
+    {
+        Leaf getLeaf();
+    }
+
+    public static class RootImpl
+            implements Root
+    {
+        private final Other other;
+
+        public RootImpl()
+        {
+            this(new Other());
+        }
+
+        public RootImpl(Other other)
+        {
+            this.other = other;
+        }
+
+        @Override
+        public Leaf getLeaf()
+        {
+            return new Leaf();
+        }
+    }
+
+    public static class Leaf
+    {
+        static {
+            leafInitialized = true;
+        }
+    }
+
+    public static class Other
+    {
+    }
+
+    public static class OtherProvider
+            implements Provider<Other>
+    {
+        @Override
+        public Other get()
+        {
+            return new Other();
+        }
+    }
+}
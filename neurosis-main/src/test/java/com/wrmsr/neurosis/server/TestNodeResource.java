@@ -0,0 +1,185 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.server;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.wrmsr.neurosis.failureDetector.MonitoringFailureDetector;
+import io.airlift.discovery.client.ServiceDescriptor;
+import io.airlift.discovery.client.ServiceState;
+import io.airlift.json.ObjectMapperProvider;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Function;
+
+import static com.wrmsr.neurosis.util.ImmutableCollectors.toImmutableList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestNodeResource
+{
+    private final ObjectMapper mapper = new ObjectMapperProvider().get();
+    private final ServiceDescriptor healthy = descriptor("healthy");
+    private final ServiceDescriptor failed = descriptor("failed");
+
+    private TestingFailureDetector failureDetector;
+    private NodeResource resource;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        failureDetector = new TestingFailureDetector();
+        failureDetector.set(ImmutableMap.of(healthy, "healthy", failed, "failed"), ImmutableSet.of(failed));
+        resource = new NodeResource(failureDetector, mapper);
+    }
+
+    @Test
+    public void testNodeStats()
+            throws Exception
+    {
+        Response response = resource.getNodeStats(new TestingRequest());
+        assertEquals(response.getStatus(), 200);
+        assertTrue(response.getEntityTag().isWeak());
+        assertEquals(parse(response), ImmutableList.of("healthy", "failed"));
+    }
+
+    @Test
+    public void testFailed()
+            throws Exception
+    {
+        Response response = resource.getFailed(new TestingRequest());
+        assertEquals(response.getStatus(), 200);
+        assertEquals(parse(response), ImmutableList.of("failed"));
+
+        failureDetector.set(ImmutableMap.of(healthy, "healthy", failed, "failed"), ImmutableSet.of());
+        assertEquals(parse(resource.getFailed(new TestingRequest())), ImmutableList.of());
+    }
+
+    @Test
+    public void testNotModified()
+            throws Exception
+    {
+        assertNotModified(resource::getNodeStats);
+        assertNotModified(resource::getFailed);
+    }
+
+    @Test
+    public void testModified()
+            throws Exception
+    {
+        EntityTag tag = resource.getNodeStats(new TestingRequest()).getEntityTag();
+
+        // a recovery moves the state version on
+        failureDetector.set(ImmutableMap.of(healthy, "healthy", failed, "recovered"), ImmutableSet.of());
+        Response response = resource.getNodeStats(new TestingRequest(tag));
+        assertEquals(response.getStatus(), 200);
+        assertNotEquals(response.getEntityTag(), tag);
+        assertEquals(parse(response), ImmutableList.of("healthy", "recovered"));
+    }
+
+    private static void assertNotModified(Function<TestingRequest, Response> endpoint)
+    {
+        // the tag also changes every stats epoch, which may pass between the two requests, but not twice in a row
+        for (int attempt = 0; attempt < 2; attempt++) {
+            EntityTag tag = endpoint.apply(new TestingRequest()).getEntityTag();
+            Response response = endpoint.apply(new TestingRequest(tag));
+            if (response.getStatus() == 304) {
+                assertNull(response.getEntity());
+                return;
+            }
+            assertEquals(response.getStatus(), 200);
+        }
+        throw new AssertionError("expected a 304 for an unchanged state");
+    }
+
+    private List<String> parse(Response response)
+            throws Exception
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(output);
+        return ImmutableList.copyOf(mapper.readTree(output.toByteArray())).stream()
+                .map(JsonNode::asText)
+                .collect(toImmutableList());
+    }
+
+    private static ServiceDescriptor descriptor(String nodeId)
+    {
+        return new ServiceDescriptor(
+                UUID.randomUUID(),
+                nodeId,
+                "neurosis",
+                "general",
+                null,
+                ServiceState.RUNNING,
+                ImmutableMap.of("http", "http://" + nodeId + ":8080"));
+    }
+
+    private static class TestingFailureDetector
+            implements MonitoringFailureDetector
+    {
+        private long stateVersion;
+        private Map<ServiceDescriptor, ?> stats = ImmutableMap.of();
+        private Set<ServiceDescriptor> failed = ImmutableSet.of();
+
+        public synchronized void set(Map<ServiceDescriptor, ?> stats, Set<ServiceDescriptor> failed)
+        {
+            this.stats = stats;
+            this.failed = failed;
+            stateVersion++;
+        }
+
+        @Override
+        public synchronized long getStateVersion()
+        {
+            return stateVersion;
+        }
+
+        @Override
+        public synchronized Map<ServiceDescriptor, ?> getStats()
+        {
+            return stats;
+        }
+
+        @Override
+        public synchronized Set<ServiceDescriptor> getFailed()
+        {
+            return failed;
+        }
+
+        @Override
+        public void addListener(Listener listener)
+        {
+        }
+
+        @Override
+        public void removeListener(Listener listener)
+        {
+        }
+    }
+}
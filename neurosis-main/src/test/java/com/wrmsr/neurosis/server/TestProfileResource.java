@@ -0,0 +1,215 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.server;
+
+import com.google.common.collect.ImmutableList;
+import io.airlift.units.Duration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.wrmsr.neurosis.util.ImmutableCollectors.toImmutableList;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestProfileResource
+{
+    private static final Duration DURATION = new Duration(200, TimeUnit.MILLISECONDS);
+    private static final Duration INTERVAL = new Duration(5, TimeUnit.MILLISECONDS);
+    private static final Duration LONG_DURATION = new Duration(1, TimeUnit.MINUTES);
+
+    private StackSampler sampler;
+    private ProfileResource resource;
+    private Thread busy;
+    private Thread waiting;
+    private CountDownLatch done;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        sampler = new StackSampler(new ProfilerConfig().setMaxConcurrentProfiles(1));
+        resource = new ProfileResource(sampler);
+        done = new CountDownLatch(1);
+
+        busy = new Thread(() -> {
+            while (done.getCount() > 0) {
+                spin();
+            }
+        }, "test-profile-busy");
+        busy.setDaemon(true);
+        busy.start();
+
+        waiting = new Thread(() -> {
+            try {
+                done.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "test-profile-waiting");
+        waiting.setDaemon(true);
+        waiting.start();
+    }
+
+    @AfterMethod
+    public void tearDown()
+            throws Exception
+    {
+        done.countDown();
+        busy.join();
+        waiting.join();
+        resource.stop();
+        sampler.stop();
+    }
+
+    @Test
+    public void testFolded()
+            throws Exception
+    {
+        TestingAsyncResponse asyncResponse = new TestingAsyncResponse();
+        resource.getFoldedProfile(DURATION, INTERVAL, null, null, "test-profile-busy", true, asyncResponse);
+        Response response = asyncResponse.getResponse();
+        assertEquals(response.getStatus(), 200);
+        assertTrue(Long.parseLong(response.getHeaderString("X-Profile-Samples")) > 0);
+
+        List<String> lines = folded(response);
+        assertFalse(lines.isEmpty());
+        for (String line : lines) {
+            // rooted under the thread, which is the only one sampled
+            assertTrue(line.startsWith("test-profile-busy;java.lang.Thread.run;"), line);
+        }
+    }
+
+    @Test
+    public void testTreeDepth()
+            throws Exception
+    {
+        TestingAsyncResponse asyncResponse = new TestingAsyncResponse();
+        resource.getProfileTree(DURATION, INTERVAL, 2, null, "test-profile-busy", false, asyncResponse);
+        StackProfile.Node root = (StackProfile.Node) asyncResponse.getResponse().getEntity();
+        assertTrue(root.getValue() > 0);
+        // the two innermost frames, under a marker for the frames cut off
+        for (StackProfile.Node truncated : root.getChildren()) {
+            assertEquals(truncated.getName(), "[truncated]");
+            for (StackProfile.Node frame : truncated.getChildren()) {
+                for (StackProfile.Node leaf : frame.getChildren()) {
+                    assertEquals(leaf.getChildren(), ImmutableList.of());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testStates()
+            throws Exception
+    {
+        // only runnable threads are sampled by default
+        TestingAsyncResponse asyncResponse = new TestingAsyncResponse();
+        resource.getFoldedProfile(DURATION, INTERVAL, null, null, "test-profile-waiting", false, asyncResponse);
+        assertEquals(asyncResponse.getResponse().getHeaderString("X-Profile-Samples"), "0");
+
+        asyncResponse = new TestingAsyncResponse();
+        resource.getFoldedProfile(DURATION, INTERVAL, null, ImmutableList.of(Thread.State.WAITING), "test-profile-waiting", false, asyncResponse);
+        Response response = asyncResponse.getResponse();
+        assertTrue(Long.parseLong(response.getHeaderString("X-Profile-Samples")) > 0);
+        for (String line : folded(response)) {
+            assertTrue(line.contains("java.util.concurrent.CountDownLatch.await;"), line);
+        }
+    }
+
+    @Test
+    public void testInvalidArguments()
+            throws Exception
+    {
+        TestingAsyncResponse asyncResponse = new TestingAsyncResponse();
+        resource.getFoldedProfile(DURATION, INTERVAL, 0, null, null, false, asyncResponse);
+        assertEquals(asyncResponse.getResponse().getStatus(), 400);
+
+        asyncResponse = new TestingAsyncResponse();
+        resource.getProfileTree(DURATION, INTERVAL, null, null, "(", false, asyncResponse);
+        assertEquals(asyncResponse.getResponse().getStatus(), 400);
+        assertEquals(sampler.getProfiles(), 0);
+    }
+
+    @Test
+    public void testCancelStopsSampling()
+            throws Exception
+    {
+        TestingAsyncResponse asyncResponse = new TestingAsyncResponse();
+        resource.getFoldedProfile(LONG_DURATION, INTERVAL, null, null, null, false, asyncResponse);
+        assertEquals(sampler.getRunningProfiles(), 1);
+
+        // only as many profiles as configured run at once
+        TestingAsyncResponse rejected = new TestingAsyncResponse();
+        resource.getProfileTree(LONG_DURATION, INTERVAL, null, null, null, false, rejected);
+        assertEquals(rejected.getResponse().getStatus(), 503);
+        assertEquals(sampler.getRejectedProfiles(), 1);
+
+        assertTrue(asyncResponse.cancel());
+        awaitNoRunningProfiles();
+    }
+
+    @Test
+    public void testDisconnectStopsSampling()
+            throws Exception
+    {
+        TestingAsyncResponse asyncResponse = new TestingAsyncResponse();
+        resource.getProfileTree(LONG_DURATION, INTERVAL, null, null, null, false, asyncResponse);
+        assertEquals(sampler.getRunningProfiles(), 1);
+
+        asyncResponse.disconnect();
+        awaitNoRunningProfiles();
+    }
+
+    private void awaitNoRunningProfiles()
+            throws InterruptedException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (sampler.getRunningProfiles() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(sampler.getRunningProfiles(), 0);
+    }
+
+    private static List<String> folded(Response response)
+            throws Exception
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(output);
+        return ImmutableList.copyOf(new String(output.toByteArray(), UTF_8).split("\n")).stream()
+                .filter(line -> !line.isEmpty())
+                .collect(toImmutableList());
+    }
+
+    private static void spin()
+    {
+        double value = 0;
+        for (int i = 0; i < 10_000; i++) {
+            value += Math.sqrt(i);
+        }
+        if (value < 0) {
+            throw new AssertionError();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.server;
+
+import com.google.common.collect.ImmutableList;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Scopes;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestStartupProfiler
+{
+    private static final long PARENT_MILLIS = 50;
+    private static final long CHILD_MILLIS = 100;
+
+    @Test
+    public void testBindings()
+    {
+        StartupProfiler profiler = new StartupProfiler();
+        Injector injector = Guice.createInjector(profiler.getModule(), new ParentModule(), new ChildModule());
+        injector.getInstance(Parent.class);
+
+        StartupProfiler.Report report = profiler.getReport();
+        StartupProfiler.BindingTime parent = find(report, Parent.class);
+        StartupProfiler.BindingTime child = find(report, Child.class);
+        assertEquals(parent.getModule(), ParentModule.class.getName());
+        assertEquals(child.getModule(), ChildModule.class.getName());
+        assertTrue(parent.isSingleton());
+        assertEquals(parent.getCount(), 1);
+
+        // the parent's own time leaves out constructing the child
+        assertTrue(child.getSelf().toMillis() >= CHILD_MILLIS, child.getSelf().toString());
+        assertTrue(parent.getTotal().toMillis() >= PARENT_MILLIS + CHILD_MILLIS, parent.getTotal().toString());
+        assertTrue(parent.getSelf().toMillis() >= PARENT_MILLIS, parent.getSelf().toString());
+        assertTrue(parent.getSelf().toMillis() < PARENT_MILLIS + CHILD_MILLIS, parent.getSelf().toString());
+        // nested constructions counted once
+        assertTrue(report.getProvisioning().toMillis() >= parent.getTotal().toMillis());
+        assertTrue(report.getProvisioning().toMillis() < parent.getTotal().toMillis() + child.getTotal().toMillis());
+
+        // slowest first
+        assertEquals(report.getBindings().get(0).getKey(), child.getKey());
+        assertEquals(report.getModules().get(0).getModule(), ChildModule.class.getName());
+        assertEquals(report.getModules().get(0).getBindings(), 1);
+    }
+
+    @Test
+    public void testPhases()
+            throws Exception
+    {
+        StartupProfiler profiler = new StartupProfiler();
+        TimeUnit.MILLISECONDS.sleep(PARENT_MILLIS);
+        profiler.mark("first");
+        profiler.mark("second");
+        profiler.mark("first");
+
+        StartupProfiler.Report report = profiler.getReport();
+        assertEquals(ImmutableList.copyOf(report.getPhases().keySet()), ImmutableList.of("first", "second"));
+        assertTrue(report.getPhases().get("first").toMillis() >= PARENT_MILLIS);
+        assertTrue(report.getTotal().toMillis() >= report.getPhases().get("first").toMillis());
+    }
+
+    @Test
+    public void testStopRecording()
+    {
+        StartupProfiler profiler = new StartupProfiler();
+        Injector injector = Guice.createInjector(profiler.getModule(), new ChildModule());
+        injector.getInstance(Child.class);
+        assertEquals(find(profiler.getReport(), Child.class).getCount(), 1);
+
+        profiler.stopRecording();
+        injector.getInstance(Child.class);
+        assertEquals(find(profiler.getReport(), Child.class).getCount(), 1);
+    }
+
+    private static StartupProfiler.BindingTime find(StartupProfiler.Report report, Class<?> type)
+    {
+        for (StartupProfiler.BindingTime binding : report.getBindings()) {
+            if (binding.getKey().contains(type.getName())) {
+                return binding;
+            }
+        }
+        fail("no binding for " + type.getName());
+        return null;
+    }
+
+    private static void sleep(long millis)
+    {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static class Parent
+    {
+        @Inject
+        public Parent(Child child)
+        {
+            sleep(PARENT_MILLIS);
+        }
+    }
+
+    public static class Child
+    {
+        public Child()
+        {
+            sleep(CHILD_MILLIS);
+        }
+    }
+
+    public static class ParentModule
+            extends AbstractModule
+    {
+        @Override
+        protected void configure()
+        {
+            bind(Parent.class).in(Scopes.SINGLETON);
+        }
+    }
+
+    public static class ChildModule
+            extends AbstractModule
+    {
+        @Override
+        protected void configure()
+        {
+            bind(Child.class);
+        }
+    }
+}
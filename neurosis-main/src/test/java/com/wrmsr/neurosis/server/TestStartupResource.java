@@ -0,0 +1,62 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.server;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import io.airlift.json.ObjectMapperProvider;
+import io.airlift.units.Duration;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestStartupResource
+{
+    private final ObjectMapper mapper = new ObjectMapperProvider().get();
+
+    @Test
+    public void testStartup()
+            throws Exception
+    {
+        StartupProfiler profiler = new StartupProfiler();
+        Injector injector = Guice.createInjector(profiler.getModule(), binder -> binder.bind(TestStartupProfiler.Child.class));
+        injector.getInstance(TestStartupProfiler.Child.class);
+        profiler.mark("bootstrap");
+        profiler.stopRecording();
+
+        // bound by the profiler's own module
+        StartupResource resource = injector.getInstance(StartupResource.class);
+        JsonNode report = mapper.readTree(mapper.writeValueAsString(resource.getStartup()));
+
+        assertTrue(Duration.valueOf(report.get("total").asText()).toMillis() > 0);
+        assertTrue(report.get("phases").has("bootstrap"));
+        Duration.valueOf(report.get("provisioning").asText());
+
+        JsonNode binding = report.get("bindings").get(0);
+        assertTrue(binding.get("key").asText().contains(TestStartupProfiler.Child.class.getName()), binding.toString());
+        assertEquals(binding.get("count").asLong(), 1);
+        assertEquals(binding.get("singleton").asBoolean(), false);
+        Duration.valueOf(binding.get("self").asText());
+        JsonNode module = report.get("modules").get(0);
+        assertEquals(module.get("module").asText(), binding.get("module").asText());
+        assertTrue(module.get("bindings").asLong() >= 1);
+
+        // the report round trips, as the client reads it
+        StartupProfiler.Report decoded = mapper.readValue(mapper.writeValueAsString(resource.getStartup()), StartupProfiler.Report.class);
+        assertEquals(decoded.getBindings().get(0).getKey(), binding.get("key").asText());
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.server;
+
+import io.airlift.units.Duration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestTelemetryResource
+{
+    private static final Duration SAMPLE_INTERVAL = new Duration(100, TimeUnit.MILLISECONDS);
+    private static final Duration RETENTION = new Duration(500, TimeUnit.MILLISECONDS);
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    private JvmTelemetry telemetry;
+    private TelemetryResource resource;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        telemetry = new JvmTelemetry(new TelemetryConfig()
+                .setSampleInterval(SAMPLE_INTERVAL)
+                .setRetention(RETENTION)
+                .setMaxGcPauses(16));
+        telemetry.start();
+        resource = new TelemetryResource(telemetry);
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        telemetry.stop();
+    }
+
+    @Test
+    public void testDefaultWindow()
+            throws Exception
+    {
+        waitFor(() -> telemetry.getSampleCount() >= 2);
+
+        TelemetryWindow window = resource.getTelemetry(null);
+        assertTrue(window.getSamples() >= 2);
+        assertNotNull(window.getStart());
+        assertNotNull(window.getEnd());
+        assertFalse(window.getStart().isAfter(window.getEnd()));
+
+        TelemetryWindow.Gauge heap = window.getGauges().get("heap.used");
+        assertNotNull(heap);
+        assertTrue(heap.getMin() <= heap.getMean() && heap.getMean() <= heap.getMax());
+        assertTrue(heap.getMin() <= heap.getLast() && heap.getLast() <= heap.getMax());
+        assertTrue(window.getGauges().get("threads").getLast() > 0);
+
+        TelemetryWindow.Counter allocated = window.getCounters().get("allocated");
+        assertNotNull(allocated);
+        assertTrue(allocated.getTotal() >= 0);
+        assertFalse(window.getGauges().containsKey("allocated"));
+    }
+
+    @Test
+    public void testWindow()
+            throws Exception
+    {
+        waitFor(() -> telemetry.getSampleCount() >= 2);
+
+        // narrower than the sampling interval, so nothing falls inside once the newest sample has aged
+        Thread.sleep(SAMPLE_INTERVAL.toMillis() / 2);
+        TelemetryWindow empty = resource.getTelemetry(new Duration(1, TimeUnit.MILLISECONDS));
+        if (empty.getSamples() == 0) {
+            assertNull(empty.getStart());
+            assertNull(empty.getEnd());
+            assertTrue(empty.getGauges().isEmpty());
+            assertTrue(empty.getCounters().isEmpty());
+        }
+
+        TelemetryWindow wide = resource.getTelemetry(new Duration(1, TimeUnit.HOURS));
+        assertTrue(wide.getSamples() >= empty.getSamples());
+        assertTrue(wide.getSamples() >= 2);
+    }
+
+    @Test
+    public void testRetention()
+            throws Exception
+    {
+        int capacity = (int) (RETENTION.toMillis() / SAMPLE_INTERVAL.toMillis());
+        waitFor(() -> telemetry.getSampleCount() >= capacity);
+        // wrap the ring around at least once
+        Thread.sleep(RETENTION.toMillis());
+
+        TelemetryWindow window = resource.getTelemetry(new Duration(1, TimeUnit.HOURS));
+        assertEquals(window.getSamples(), capacity);
+        assertEquals(telemetry.getSampleCount(), capacity);
+        // newest and oldest of the retained samples, one interval apart each
+        long span = window.getEnd().getMillis() - window.getStart().getMillis();
+        assertTrue(span >= (capacity - 2) * SAMPLE_INTERVAL.toMillis(), String.valueOf(span));
+        assertTrue(span < RETENTION.toMillis() * 2, String.valueOf(span));
+    }
+
+    @Test
+    public void testGcPauses()
+            throws Exception
+    {
+        System.gc();
+        waitFor(() -> !resource.getTelemetry(null).getGcPauses().isEmpty());
+
+        for (TelemetryWindow.PauseHistogram histogram : resource.getTelemetry(null).getGcPauses().values()) {
+            assertTrue(histogram.getCount() > 0);
+            assertTrue(histogram.getP50Millis() <= histogram.getP99Millis());
+            assertTrue(histogram.getP99Millis() <= histogram.getMaxMillis());
+            assertTrue(histogram.getMaxMillis() <= histogram.getTotalMillis());
+            assertEquals(histogram.getBuckets().size(), histogram.getBucketBoundsMillis().size() + 1);
+            assertEquals(histogram.getBuckets().stream().mapToLong(Long::longValue).sum(), histogram.getCount());
+        }
+        assertTrue(telemetry.getGcPauseMaxMillis() <= telemetry.getGcPauseTotalMillis());
+    }
+
+    private static void waitFor(BooleanSupplier condition)
+            throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("timed out waiting for telemetry");
+            }
+            Thread.sleep(10);
+        }
+    }
+}
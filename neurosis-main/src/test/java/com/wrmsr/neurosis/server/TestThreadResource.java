@@ -0,0 +1,396 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.server;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import io.airlift.units.Duration;
+import io.airlift.json.ObjectMapperProvider;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.wrmsr.neurosis.util.ImmutableCollectors.toImmutableList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestThreadResource
+{
+    private final ObjectMapper mapper = new ObjectMapperProvider().get();
+
+    private StackSampler sampler;
+    private ThreadResource resource;
+    private CountDownLatch done;
+    private Thread waiting;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        sampler = new StackSampler(new ProfilerConfig());
+        resource = new ThreadResource(sampler, mapper);
+        done = new CountDownLatch(1);
+        waiting = startWaiting("test-thread-waiting");
+    }
+
+    @AfterMethod
+    public void tearDown()
+            throws Exception
+    {
+        done.countDown();
+        waiting.join();
+        resource.stop();
+        sampler.stop();
+    }
+
+    @Test
+    public void testAllThreads()
+            throws Exception
+    {
+        List<JsonNode> threads = getThreads(null, null, null, false, null);
+        JsonNode current = find(threads, Thread.currentThread().getName());
+        assertEquals(current.get("id").asLong(), Thread.currentThread().getId());
+        assertEquals(current.get("state").asText(), "RUNNABLE");
+        assertTrue(current.get("stackTrace").size() > 1);
+        assertTrue(current.has("cpuTime"));
+        assertTrue(isAbsent(current, "cpuTimeDelta"));
+
+        List<String> names = threads.stream()
+                .map(thread -> thread.get("name").asText())
+                .collect(toImmutableList());
+        assertEquals(names, names.stream().sorted().collect(toImmutableList()));
+    }
+
+    @Test
+    public void testDepthAndSummary()
+            throws Exception
+    {
+        for (JsonNode thread : getThreads(1, null, null, false, null)) {
+            assertTrue(thread.get("stackTrace").size() <= 1, thread.toString());
+        }
+        for (JsonNode thread : getThreads(null, null, null, true, null)) {
+            assertTrue(isAbsent(thread, "stackTrace"), thread.toString());
+        }
+
+        try {
+            resource.getThreadInfo(-1, null, null, false, null, new TestingRequest());
+            fail("expected negative depth to be rejected");
+        }
+        catch (WebApplicationException e) {
+            assertEquals(e.getResponse().getStatus(), 400);
+        }
+    }
+
+    @Test
+    public void testStateAndPrefix()
+            throws Exception
+    {
+        Thread other = startWaiting("test-thread-other");
+        try {
+            List<JsonNode> threads = getThreads(null, ImmutableList.of(Thread.State.WAITING), "test-thread-", false, null);
+            assertEquals(names(threads), ImmutableList.of("test-thread-other", "test-thread-waiting"));
+            assertTrue(threads.get(1).get("stackTrace").size() > 0);
+
+            threads = getThreads(2, ImmutableList.of(Thread.State.WAITING), "test-thread-w", false, null);
+            assertEquals(names(threads), ImmutableList.of("test-thread-waiting"));
+            assertEquals(threads.get(0).get("stackTrace").size(), 2);
+
+            assertEquals(getThreads(null, ImmutableList.of(Thread.State.RUNNABLE, Thread.State.BLOCKED), "test-thread-", false, null), ImmutableList.of());
+        }
+        finally {
+            done.countDown();
+            other.join();
+        }
+    }
+
+    @Test
+    public void testClientDeltas()
+            throws Exception
+    {
+        String name = Thread.currentThread().getName();
+        JsonNode first = find(getThreads(null, null, name, true, "first"), name);
+        assertTrue(isAbsent(first, "deltaTime"));
+        assertTrue(isAbsent(first, "cpuTimeDelta"));
+        assertTrue(isAbsent(first, "allocatedBytesDelta"));
+
+        // the change since the thread was last returned to the same client
+        JsonNode second = find(getThreads(null, null, name, true, "first"), name);
+        assertTrue(second.get("deltaTime").asLong() >= 0);
+        if (!isAbsent(second, "cpuTime")) {
+            assertEquals(second.get("cpuTimeDelta").asLong(), second.get("cpuTime").asLong() - first.get("cpuTime").asLong());
+        }
+        if (!isAbsent(second, "allocatedBytes")) {
+            assertEquals(second.get("allocatedBytesDelta").asLong(), second.get("allocatedBytes").asLong() - first.get("allocatedBytes").asLong());
+        }
+
+        // clients are tracked separately
+        assertTrue(isAbsent(find(getThreads(null, null, name, true, "second"), name), "deltaTime"));
+    }
+
+    @Test
+    public void testNotModified()
+            throws Exception
+    {
+        List<Thread.State> states = ImmutableList.of(Thread.State.WAITING);
+        Response response = resource.getThreadInfo(null, states, "test-thread-", false, null, new TestingRequest());
+        assertEquals(response.getStatus(), 200);
+        EntityTag tag = response.getEntityTag();
+        assertTrue(tag.isWeak());
+
+        // nothing written while the matching threads stay parked where they are
+        Response notModified = resource.getThreadInfo(null, states, "test-thread-", false, null, new TestingRequest(tag));
+        assertEquals(notModified.getStatus(), 304);
+        assertEquals(notModified.getEntity(), null);
+
+        // the same threads rendered differently
+        Response summary = resource.getThreadInfo(null, states, "test-thread-", true, null, new TestingRequest(tag));
+        assertEquals(summary.getStatus(), 200);
+        assertNotEquals(summary.getEntityTag(), tag);
+
+        Thread other = startWaiting("test-thread-other");
+        try {
+            Response changed = resource.getThreadInfo(null, states, "test-thread-", false, null, new TestingRequest(tag));
+            assertEquals(changed.getStatus(), 200);
+            assertNotEquals(changed.getEntityTag(), tag);
+            assertEquals(names(parse(changed)), ImmutableList.of("test-thread-other", "test-thread-waiting"));
+        }
+        finally {
+            done.countDown();
+            other.join();
+        }
+    }
+
+    @Test
+    public void testLockGraph()
+            throws Exception
+    {
+        Object lock = new Object();
+        Thread owner = startOwner("test-thread-owner", lock);
+        Thread blocked = startBlocked("test-thread-blocked", lock);
+        ReentrantLock first = new ReentrantLock();
+        ReentrantLock second = new ReentrantLock();
+        CountDownLatch locked = new CountDownLatch(2);
+        Thread left = startDeadlocked("test-thread-left", first, second, locked);
+        Thread right = startDeadlocked("test-thread-right", second, first, locked);
+        try {
+            while (!second.hasQueuedThread(left) || !first.hasQueuedThread(right)) {
+                Thread.yield();
+            }
+
+            LockGraph graph = resource.getLockGraph();
+            LockGraph.Waiter waiter = graph.getWaiters().stream()
+                    .filter(candidate -> candidate.getId() == blocked.getId())
+                    .findFirst()
+                    .orElseThrow(() -> new AssertionError("blocked thread is not waiting: " + graph.getWaiters()));
+            assertEquals(waiter.getState(), "BLOCKED");
+            assertEquals(waiter.getOwnerId(), owner.getId());
+            assertEquals(waiter.getOwnerName(), "test-thread-owner");
+            assertTrue(waiter.getSite().contains("lambda"), waiter.getSite());
+
+            assertEquals(graph.getDeadlocks().size(), 1);
+            assertEquals(ImmutableSet.copyOf(graph.getDeadlocks().get(0)), ImmutableSet.of(left.getId(), right.getId()));
+        }
+        finally {
+            left.interrupt();
+            right.interrupt();
+            done.countDown();
+            for (Thread thread : ImmutableList.of(owner, blocked, left, right)) {
+                thread.join();
+            }
+        }
+    }
+
+    @Test
+    public void testContention()
+            throws Exception
+    {
+        Object lock = new Object();
+        Thread owner = startOwner("test-thread-owner", lock);
+        Thread blocked = startBlocked("test-thread-blocked", lock);
+        try {
+            TestingAsyncResponse asyncResponse = new TestingAsyncResponse();
+            resource.getContention(new Duration(200, TimeUnit.MILLISECONDS), new Duration(5, TimeUnit.MILLISECONDS), 1, asyncResponse);
+            MonitorContention.Report report = (MonitorContention.Report) asyncResponse.getResponse().getEntity();
+            assertTrue(report.getRounds() > 0);
+            assertEquals(report.getMonitors().size(), 1);
+            MonitorContention.Monitor monitor = report.getMonitors().get(0);
+            assertEquals(monitor.getLockClass(), "java.lang.Object");
+            assertEquals(monitor.getSamples(), report.getRounds());
+            assertEquals(monitor.getMaxWaiters(), 1);
+            // threads are reported by how often they blocked while sampling, and this one blocked before
+            assertEquals(report.getThreads(), ImmutableList.of());
+        }
+        finally {
+            done.countDown();
+            owner.join();
+            blocked.join();
+        }
+
+        TestingAsyncResponse asyncResponse = new TestingAsyncResponse();
+        resource.getContention(null, null, 0, asyncResponse);
+        assertEquals(asyncResponse.getResponse().getStatus(), 400);
+    }
+
+    @Test
+    public void testContentionStopsWhenClientGoesAway()
+            throws Exception
+    {
+        TestingAsyncResponse asyncResponse = new TestingAsyncResponse();
+        resource.getContention(new Duration(1, TimeUnit.MINUTES), null, null, asyncResponse);
+        assertEquals(sampler.getRunningProfiles(), 1);
+
+        asyncResponse.disconnect();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (sampler.getRunningProfiles() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(sampler.getRunningProfiles(), 0);
+    }
+
+    private Thread startOwner(String name, Object lock)
+    {
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            synchronized (lock) {
+                acquired.countDown();
+                try {
+                    done.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            acquired.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AssertionError(e);
+        }
+        return thread;
+    }
+
+    private static Thread startBlocked(String name, Object lock)
+    {
+        Thread thread = new Thread(() -> {
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        while (thread.getState() != Thread.State.BLOCKED) {
+            Thread.yield();
+        }
+        return thread;
+    }
+
+    private static Thread startDeadlocked(String name, ReentrantLock first, ReentrantLock second, CountDownLatch locked)
+    {
+        Thread thread = new Thread(() -> {
+            first.lock();
+            try {
+                locked.countDown();
+                locked.await();
+                second.lockInterruptibly();
+                second.unlock();
+            }
+            catch (InterruptedException e) {
+                // released by the test
+            }
+            finally {
+                first.unlock();
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private Thread startWaiting(String name)
+    {
+        Thread thread = new Thread(() -> {
+            try {
+                done.await();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        // wait for it to park
+        while (thread.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+        return thread;
+    }
+
+    private List<JsonNode> getThreads(Integer depth, List<Thread.State> states, String prefix, boolean summary, String client)
+            throws Exception
+    {
+        Response response = resource.getThreadInfo(depth, states, prefix, summary, client, new TestingRequest());
+        assertEquals(response.getStatus(), 200);
+        return parse(response);
+    }
+
+    private List<JsonNode> parse(Response response)
+            throws Exception
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(output);
+        return ImmutableList.copyOf(mapper.readTree(output.toByteArray()));
+    }
+
+    private static List<String> names(List<JsonNode> threads)
+    {
+        return threads.stream()
+                .map(thread -> thread.get("name").asText())
+                .collect(toImmutableList());
+    }
+
+    // null fields are left out
+    private static boolean isAbsent(JsonNode node, String field)
+    {
+        return node.path(field).isMissingNode() || node.path(field).isNull();
+    }
+
+    private static JsonNode find(List<JsonNode> threads, String name)
+    {
+        for (JsonNode thread : threads) {
+            if (thread.get("name").asText().equals(name)) {
+                return thread;
+            }
+        }
+        throw new AssertionError("no thread " + name + " in " + names(threads));
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.server;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
+import javax.ws.rs.container.ConnectionCallback;
+import javax.ws.rs.container.TimeoutHandler;
+import javax.ws.rs.core.Response;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Async response that hands the resumed value to the test, and lets the test time it out or disconnect the client.
+ */
+public class TestingAsyncResponse
+        implements AsyncResponse
+{
+    private final CompletableFuture<Object> result = new CompletableFuture<>();
+    private final List<Object> callbacks = new CopyOnWriteArrayList<>();
+
+    private volatile TimeoutHandler timeoutHandler;
+    private volatile long timeoutMillis;
+    private volatile boolean cancelled;
+
+    /**
+     * Waits for the response. Like the container, answers resuming with an entity rather than a response with 200.
+     */
+    public Response getResponse()
+            throws Exception
+    {
+        Object value = result.get(10, TimeUnit.SECONDS);
+        if (value instanceof Throwable) {
+            throw new AssertionError("resumed with an exception", (Throwable) value);
+        }
+        if (value instanceof Response) {
+            return (Response) value;
+        }
+        return Response.ok(value).build();
+    }
+
+    public boolean isResumed()
+    {
+        return result.isDone();
+    }
+
+    public long getTimeoutMillis()
+    {
+        return timeoutMillis;
+    }
+
+    public void timeout()
+    {
+        checkState(timeoutHandler != null, "no timeout handler");
+        timeoutHandler.handleTimeout(this);
+    }
+
+    public void disconnect()
+    {
+        for (Object callback : callbacks) {
+            if (callback instanceof ConnectionCallback) {
+                ((ConnectionCallback) callback).onDisconnect(this);
+            }
+        }
+    }
+
+    @Override
+    public boolean resume(Object response)
+    {
+        return complete(response, null);
+    }
+
+    @Override
+    public boolean resume(Throwable response)
+    {
+        return complete(response, response);
+    }
+
+    private boolean complete(Object value, Throwable throwable)
+    {
+        if (!result.complete(value)) {
+            return false;
+        }
+        for (Object callback : callbacks) {
+            if (callback instanceof CompletionCallback) {
+                ((CompletionCallback) callback).onComplete(throwable);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean cancel()
+    {
+        cancelled = complete(Response.status(Response.Status.SERVICE_UNAVAILABLE).build(), null);
+        return cancelled;
+    }
+
+    @Override
+    public boolean cancel(int retryAfter)
+    {
+        return cancel();
+    }
+
+    @Override
+    public boolean cancel(Date retryAfter)
+    {
+        return cancel();
+    }
+
+    @Override
+    public boolean isSuspended()
+    {
+        return !result.isDone();
+    }
+
+    @Override
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    @Override
+    public boolean isDone()
+    {
+        return result.isDone();
+    }
+
+    @Override
+    public boolean setTimeout(long time, TimeUnit unit)
+    {
+        timeoutMillis = unit.toMillis(time);
+        return !result.isDone();
+    }
+
+    @Override
+    public void setTimeoutHandler(TimeoutHandler handler)
+    {
+        timeoutHandler = handler;
+    }
+
+    @Override
+    public Collection<Class<?>> register(Class<?> callback)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Map<Class<?>, Collection<Class<?>>> register(Class<?> callback, Class<?>... callbacks)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Collection<Class<?>> register(Object callback)
+    {
+        callbacks.add(callback);
+        ImmutableList.Builder<Class<?>> registered = ImmutableList.builder();
+        if (callback instanceof ConnectionCallback) {
+            registered.add(ConnectionCallback.class);
+        }
+        if (callback instanceof CompletionCallback) {
+            registered.add(CompletionCallback.class);
+        }
+        return registered.build();
+    }
+
+    @Override
+    public Map<Class<?>, Collection<Class<?>>> register(Object callback, Object... callbacks)
+    {
+        ImmutableMap.Builder<Class<?>, Collection<Class<?>>> registered = ImmutableMap.builder();
+        registered.put(callback.getClass(), register(callback));
+        for (Object other : callbacks) {
+            registered.put(other.getClass(), register(other));
+        }
+        return registered.build();
+    }
+}
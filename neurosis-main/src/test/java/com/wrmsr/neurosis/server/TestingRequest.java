@@ -0,0 +1,80 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.wrmsr.neurosis.server;
+
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Variant;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * GET request carrying an optional If-None-Match tag, compared weakly as for GET.
+ */
+public class TestingRequest
+        implements Request
+{
+    private final EntityTag ifNoneMatch;
+
+    public TestingRequest()
+    {
+        this(null);
+    }
+
+    public TestingRequest(EntityTag ifNoneMatch)
+    {
+        this.ifNoneMatch = ifNoneMatch;
+    }
+
+    @Override
+    public String getMethod()
+    {
+        return "GET";
+    }
+
+    @Override
+    public Variant selectVariant(List<Variant> variants)
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Response.ResponseBuilder evaluatePreconditions(EntityTag eTag)
+    {
+        if (ifNoneMatch != null && ifNoneMatch.getValue().equals(eTag.getValue())) {
+            return Response.notModified(eTag);
+        }
+        return null;
+    }
+
+    @Override
+    public Response.ResponseBuilder evaluatePreconditions(Date lastModified)
+    {
+        return null;
+    }
+
+    @Override
+    public Response.ResponseBuilder evaluatePreconditions(Date lastModified, EntityTag eTag)
+    {
+        return evaluatePreconditions(eTag);
+    }
+
+    @Override
+    public Response.ResponseBuilder evaluatePreconditions()
+    {
+        return null;
+    }
+}